@@ -0,0 +1,122 @@
+/**
+ * CSC 560 - JMH benchmarks comparing the table engines
+ */
+package org.h2.test.jmh;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The heap memory used by a loaded table. Each invocation creates a new
+ * database, loads the table, and measures the used heap before and after
+ * (after garbage collection). The memory is reported as the secondary
+ * results "bytes" and "bytesPerRow"; the primary result is the load time
+ * including the garbage collection, and should not be used.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class FootprintBenchmark {
+
+    /**
+     * The table engine.
+     */
+    @Param({ "columnar", "mvstore", "pagestore" })
+    public String engine;
+
+    /**
+     * The number of rows.
+     */
+    @Param({ "100000", "1000000" })
+    public int rows;
+
+    /**
+     * The number of payload columns, in addition to ID and G.
+     */
+    @Param({ "4", "16" })
+    public int columns;
+
+    private Connection conn;
+    private long before;
+
+    /**
+     * The measured memory. The counters are set once per iteration, as each
+     * iteration is a single invocation.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Memory {
+
+        /**
+         * The heap memory used by the table, in bytes.
+         */
+        public long bytes;
+
+        /**
+         * The heap memory used by the table, per row.
+         */
+        public long bytesPerRow;
+
+    }
+
+    @Setup(Level.Invocation)
+    public void setup() throws SQLException {
+        conn = TableState.open(engine);
+        before = getUsedMemory();
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() throws SQLException {
+        TableState.close(conn);
+        conn = null;
+    }
+
+    /**
+     * Load the table, and measure the memory it uses.
+     */
+    @Benchmark
+    public void footprint(Memory memory) throws SQLException {
+        Statement stat = conn.createStatement();
+        stat.execute(TableState.getCreateTable("T", columns));
+        stat.execute(TableState.getInsertSelect("T", columns, 1, rows));
+        stat.close();
+        long used = Math.max(0, getUsedMemory() - before);
+        memory.bytes = used;
+        memory.bytesPerRow = used / rows;
+    }
+
+    private static long getUsedMemory() {
+        Runtime rt = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        // repeat until the used memory does not shrink any more
+        for (int i = 0; i < 8; i++) {
+            System.gc();
+            long now = rt.totalMemory() - rt.freeMemory();
+            if (now >= used) {
+                break;
+            }
+            used = now;
+        }
+        return used;
+    }
+
+}
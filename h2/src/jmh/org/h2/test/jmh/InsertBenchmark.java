@@ -0,0 +1,115 @@
+/**
+ * CSC 560 - JMH benchmarks comparing the table engines
+ */
+package org.h2.test.jmh;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Insert throughput, in rows per second. Rows are inserted with a batched
+ * prepared statement, and with INSERT .. SELECT, which uses the bulk insert
+ * path of the columnar engine. The table is emptied before each iteration,
+ * so that each iteration inserts into a table of the same size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InsertBenchmark {
+
+    /**
+     * The number of rows inserted by one operation.
+     */
+    private static final int BATCH = 1000;
+
+    /**
+     * The table engine.
+     */
+    @Param({ "columnar", "mvstore", "pagestore" })
+    public String engine;
+
+    /**
+     * The number of payload columns, in addition to ID and G.
+     */
+    @Param({ "4", "16" })
+    public int columns;
+
+    private Connection conn;
+    private Statement stat;
+    private PreparedStatement insert;
+    private int nextId;
+
+    @Setup(Level.Trial)
+    public void setup() throws SQLException {
+        conn = TableState.open(engine);
+        stat = conn.createStatement();
+        stat.execute(TableState.getCreateTable("T", columns));
+        insert = conn.prepareStatement(TableState.getInsert("T", columns));
+    }
+
+    @Setup(Level.Iteration)
+    public void clear() throws SQLException {
+        stat.execute("TRUNCATE TABLE T");
+        nextId = 1;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        TableState.close(conn);
+    }
+
+    /**
+     * Insert rows one at a time, in a JDBC batch.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void insertBatch() throws SQLException {
+        for (int i = 0; i < BATCH; i++) {
+            int id = nextId++;
+            insert.setInt(1, id);
+            insert.setInt(2, id % TableState.GROUPS);
+            for (int c = 1; c <= columns; c++) {
+                if (c % 2 == 1) {
+                    insert.setInt(2 + c, id * c % 1000);
+                } else {
+                    insert.setString(2 + c, "v" + id % (c * 100));
+                }
+            }
+            insert.addBatch();
+        }
+        insert.executeBatch();
+    }
+
+    /**
+     * Insert rows with a single INSERT .. SELECT statement.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void insertSelect() throws SQLException {
+        int first = nextId;
+        nextId += BATCH;
+        stat.execute(TableState.getInsertSelect("T", columns, first,
+                nextId - 1));
+    }
+
+}
@@ -0,0 +1,122 @@
+/**
+ * CSC 560 - JMH benchmarks comparing the table engines
+ */
+package org.h2.test.jmh;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Read benchmarks: full scan, filtered scan, point lookup and group-by
+ * aggregation. Each query is prepared once per trial; the parameters of the
+ * filtered scan and the point lookup are random.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBenchmark {
+
+    /**
+     * The number of distinct values of C1 that match the filtered scan (of
+     * 1000), so that about 1% of the rows match.
+     */
+    private static final int FILTER_RANGE = 10;
+
+    private final Random random = new Random(1);
+    private int rows;
+    private PreparedStatement scan;
+    private PreparedStatement filteredScan;
+    private PreparedStatement pointLookup;
+    private PreparedStatement groupBy;
+
+    @Setup(Level.Trial)
+    public void setup(TableState table) throws SQLException {
+        rows = table.rows;
+        // the expression makes sure each row is read, not only the
+        // aggregate of a column
+        scan = table.conn.prepareStatement(
+                "SELECT SUM(ID + C1) FROM T");
+        filteredScan = table.conn.prepareStatement(
+                "SELECT COUNT(*), MAX(ID) FROM T WHERE C1 BETWEEN ? AND ?");
+        pointLookup = table.conn.prepareStatement(
+                "SELECT * FROM T WHERE ID = ?");
+        groupBy = table.conn.prepareStatement(
+                "SELECT G, COUNT(*), SUM(C1), MIN(C1) FROM T GROUP BY G");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        scan.close();
+        filteredScan.close();
+        pointLookup.close();
+        groupBy.close();
+    }
+
+    /**
+     * Read all rows.
+     */
+    @Benchmark
+    public void scan(Blackhole bh) throws SQLException {
+        consume(scan, bh);
+    }
+
+    /**
+     * Read the rows where a column is within a small range.
+     */
+    @Benchmark
+    public void filteredScan(Blackhole bh) throws SQLException {
+        int start = random.nextInt(1000 - FILTER_RANGE);
+        filteredScan.setInt(1, start);
+        filteredScan.setInt(2, start + FILTER_RANGE - 1);
+        consume(filteredScan, bh);
+    }
+
+    /**
+     * Read one row using the hash index on the ID.
+     */
+    @Benchmark
+    public void pointLookup(Blackhole bh) throws SQLException {
+        pointLookup.setInt(1, 1 + random.nextInt(rows));
+        consume(pointLookup, bh);
+    }
+
+    /**
+     * Aggregate the rows by a column with few distinct values.
+     */
+    @Benchmark
+    public void groupBy(Blackhole bh) throws SQLException {
+        consume(groupBy, bh);
+    }
+
+    private static void consume(PreparedStatement prep, Blackhole bh)
+            throws SQLException {
+        ResultSet rs = prep.executeQuery();
+        int columnCount = rs.getMetaData().getColumnCount();
+        while (rs.next()) {
+            for (int i = 1; i <= columnCount; i++) {
+                bh.consume(rs.getObject(i));
+            }
+        }
+        rs.close();
+    }
+
+}
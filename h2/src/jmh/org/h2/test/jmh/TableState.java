@@ -0,0 +1,163 @@
+/**
+ * CSC 560 - JMH benchmarks comparing the table engines
+ */
+package org.h2.test.jmh;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * An in-memory database with one table, filled once per trial. The table
+ * engine, the number of rows and the number of columns are benchmark
+ * parameters, so that each benchmark runs against each combination.
+ */
+@State(Scope.Benchmark)
+public class TableState {
+
+    /**
+     * The number of distinct values of the group column G.
+     */
+    static final int GROUPS = 100;
+
+    /**
+     * The table engine: "columnar" (ColumnarTableEngine), "mvstore"
+     * (MVTableEngine) or "pagestore" (the default RegularTable).
+     */
+    @Param({ "columnar", "mvstore", "pagestore" })
+    public String engine;
+
+    /**
+     * The number of rows.
+     */
+    @Param({ "100000", "1000000" })
+    public int rows;
+
+    /**
+     * The number of payload columns, in addition to ID and G.
+     */
+    @Param({ "4", "16" })
+    public int columns;
+
+    /**
+     * The connection, opened for each trial.
+     */
+    Connection conn;
+
+    @Setup(Level.Trial)
+    public void setup() throws SQLException {
+        conn = open(engine);
+        Statement stat = conn.createStatement();
+        stat.execute(getCreateTable("T", columns));
+        stat.execute(getInsertSelect("T", columns, 1, rows));
+        stat.execute("CREATE HASH INDEX T_ID ON T(ID)");
+        stat.close();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        close(conn);
+    }
+
+    /**
+     * Open a new in-memory database that uses the given table engine.
+     *
+     * @param engine the engine name
+     * @return the connection
+     */
+    static Connection open(String engine) throws SQLException {
+        String url = "jdbc:h2:mem:jmh" + System.nanoTime();
+        if ("columnar".equals(engine)) {
+            url += ";MV_STORE=FALSE;DEFAULT_TABLE_ENGINE=" +
+                    "org.h2.column.ColumnarTableEngine";
+        } else if ("mvstore".equals(engine)) {
+            url += ";MV_STORE=TRUE";
+        } else if ("pagestore".equals(engine)) {
+            url += ";MV_STORE=FALSE";
+        } else {
+            throw new IllegalArgumentException("Unknown engine: " + engine);
+        }
+        org.h2.Driver.load();
+        return DriverManager.getConnection(url, "sa", "");
+    }
+
+    /**
+     * Close the connection, and with it the in-memory database.
+     *
+     * @param conn the connection, or null
+     */
+    static void close(Connection conn) throws SQLException {
+        if (conn != null) {
+            conn.createStatement().execute("SHUTDOWN");
+            conn.close();
+        }
+    }
+
+    /**
+     * Get the statement that creates the benchmark table. The payload
+     * columns alternate between INT and VARCHAR.
+     *
+     * @param table the table name
+     * @param columns the number of payload columns
+     * @return the statement
+     */
+    static String getCreateTable(String table, int columns) {
+        StringBuilder buff = new StringBuilder("CREATE TABLE ");
+        buff.append(table).append("(ID INT, G INT");
+        for (int i = 1; i <= columns; i++) {
+            buff.append(", C").append(i).append(i % 2 == 1 ?
+                    " INT" : " VARCHAR");
+        }
+        return buff.append(')').toString();
+    }
+
+    /**
+     * Get the statement that inserts a range of rows.
+     *
+     * @param table the table name
+     * @param columns the number of payload columns
+     * @param first the first ID
+     * @param last the last ID
+     * @return the statement
+     */
+    static String getInsertSelect(String table, int columns, int first,
+            int last) {
+        StringBuilder buff = new StringBuilder("INSERT INTO ");
+        buff.append(table).append(" SELECT X, MOD(X, ").append(GROUPS).
+                append(')');
+        for (int i = 1; i <= columns; i++) {
+            if (i % 2 == 1) {
+                buff.append(", MOD(X * ").append(i).append(", 1000)");
+            } else {
+                buff.append(", 'v' || MOD(X, ").append(i * 100).append(')');
+            }
+        }
+        buff.append(" FROM SYSTEM_RANGE(").append(first).append(", ").
+                append(last).append(')');
+        return buff.toString();
+    }
+
+    /**
+     * Get the statement that inserts one row with parameters.
+     *
+     * @param table the table name
+     * @param columns the number of payload columns
+     * @return the statement
+     */
+    static String getInsert(String table, int columns) {
+        StringBuilder buff = new StringBuilder("INSERT INTO ");
+        buff.append(table).append(" VALUES(?, ?");
+        for (int i = 1; i <= columns; i++) {
+            buff.append(", ?");
+        }
+        return buff.append(')').toString();
+    }
+
+}
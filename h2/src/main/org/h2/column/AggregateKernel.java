@@ -0,0 +1,669 @@
+package org.h2.column;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import org.h2.engine.Database;
+import org.h2.expression.Aggregate;
+import org.h2.expression.AggregateData;
+import org.h2.table.Column;
+import org.h2.util.BitField;
+import org.h2.value.Value;
+import org.h2.value.ValueDecimal;
+import org.h2.value.ValueDouble;
+import org.h2.value.ValueLong;
+
+/**
+ * Computes an aggregate over the rows of a batch. For COUNT, and for SUM,
+ * AVG, MIN and MAX of numeric, date and time columns, the values are read
+ * from the primitive arrays of the column vector (encoded vectors are decoded
+ * first), so that no Value object is created per row. Other aggregates are
+ * computed value by value.
+ *
+ * The rows of a batch are assigned to groups numbered from 0 (all rows are in
+ * group 0 if there is no GROUP BY). A kernel keeps one accumulator per group,
+ * which is added to the aggregate data of the group after each batch.
+ */
+abstract class AggregateKernel {
+
+    /**
+     * The database.
+     */
+    protected final Database database;
+
+    /**
+     * The aggregate.
+     */
+    protected final Aggregate aggregate;
+
+    private long[] decoded;
+
+    AggregateKernel(Database database, Aggregate aggregate) {
+        this.database = database;
+        this.aggregate = aggregate;
+    }
+
+    /**
+     * Create the kernel for an aggregate.
+     *
+     * @param database the database
+     * @param aggregate the aggregate
+     * @param column the column the aggregate is computed on, or null for
+     *            COUNT(*)
+     * @return the kernel
+     */
+    static AggregateKernel create(Database database, Aggregate aggregate,
+            Column column) {
+        if (column == null) {
+            return new CountAll(database, aggregate);
+        }
+        int type = column.getType();
+        switch (aggregate.getAggregateType()) {
+        case Aggregate.COUNT:
+            return new Count(database, aggregate);
+        case Aggregate.SUM:
+        case Aggregate.AVG:
+            switch (type) {
+            case Value.BYTE:
+            case Value.SHORT:
+            case Value.INT:
+                return new IntSum(database, aggregate);
+            case Value.LONG:
+                return new LongSum(database, aggregate);
+            case Value.DOUBLE:
+            case Value.FLOAT:
+                return new DoubleSum(database, aggregate);
+            default:
+            }
+            break;
+        case Aggregate.MIN:
+        case Aggregate.MAX:
+            boolean max = aggregate.getAggregateType() == Aggregate.MAX;
+            switch (type) {
+            case Value.BYTE:
+            case Value.SHORT:
+            case Value.INT:
+                return new IntMinMax(database, aggregate, max);
+            case Value.LONG:
+            case Value.DATE:
+            case Value.TIME:
+                return new LongMinMax(database, aggregate, max);
+            case Value.DOUBLE:
+            case Value.FLOAT:
+                return new DoubleMinMax(database, aggregate, max);
+            default:
+            }
+            break;
+        default:
+        }
+        return new Generic(database, aggregate);
+    }
+
+    /**
+     * Start a new batch: reset the accumulators, and make sure there is one
+     * for each group.
+     *
+     * @param groupCount the number of groups of the batch
+     */
+    abstract void reset(int groupCount);
+
+    /**
+     * Add the rows of a batch.
+     *
+     * @param vector the column vector, or null for COUNT(*)
+     * @param positions the positions of the rows within the vector
+     * @param groups the group of each row, or null if all rows are in group 0
+     * @param rowCount the number of rows
+     */
+    abstract void add(ColumnVector vector, int[] positions, int[] groups,
+            int rowCount);
+
+    /**
+     * Add the accumulator of a group to the aggregate data of the group.
+     *
+     * @param group the group
+     * @param data the aggregate data
+     */
+    abstract void flush(int group, AggregateData data);
+
+    /**
+     * Get the primitive values of a LongVector or an EncodedVector.
+     *
+     * @param vector the vector
+     * @param positions the positions of the rows within the vector
+     * @param rowCount the number of rows
+     * @return the values by position (only the given positions are set for
+     *         an encoded vector)
+     */
+    long[] getLongs(ColumnVector vector, int[] positions, int rowCount) {
+        if (vector instanceof LongVector) {
+            return ((LongVector) vector).getData();
+        }
+        EncodedVector encoded = (EncodedVector) vector;
+        if (decoded == null || decoded.length < encoded.size()) {
+            decoded = new long[encoded.size()];
+        }
+        encoded.decode(positions, rowCount, decoded);
+        return decoded;
+    }
+
+    /**
+     * Get an array that is large enough and filled with zeros.
+     *
+     * @param array the current array
+     * @param length the required length
+     * @return the array
+     */
+    static long[] clear(long[] array, int length) {
+        if (array.length < length) {
+            return new long[length];
+        }
+        Arrays.fill(array, 0, length, 0);
+        return array;
+    }
+
+    /**
+     * Counts the rows.
+     */
+    static class CountAll extends AggregateKernel {
+
+        private long[] counts = new long[1];
+
+        CountAll(Database database, Aggregate aggregate) {
+            super(database, aggregate);
+        }
+
+        @Override
+        void reset(int groupCount) {
+            counts = clear(counts, groupCount);
+        }
+
+        @Override
+        void add(ColumnVector vector, int[] positions, int[] groups,
+                int rowCount) {
+            if (groups == null) {
+                counts[0] += rowCount;
+                return;
+            }
+            long[] c = counts;
+            for (int i = 0; i < rowCount; i++) {
+                c[groups[i]]++;
+            }
+        }
+
+        @Override
+        void flush(int group, AggregateData data) {
+            aggregate.merge(database, data, counts[group], null);
+        }
+
+    }
+
+    /**
+     * Counts the values that are not NULL. Only the NULL bitmap of the vector
+     * is read.
+     */
+    static class Count extends AggregateKernel {
+
+        private long[] counts = new long[1];
+
+        Count(Database database, Aggregate aggregate) {
+            super(database, aggregate);
+        }
+
+        @Override
+        void reset(int groupCount) {
+            counts = clear(counts, groupCount);
+        }
+
+        @Override
+        void add(ColumnVector vector, int[] positions, int[] groups,
+                int rowCount) {
+            BitField nulls = vector.getNulls();
+            long[] c = counts;
+            if (groups == null) {
+                long n = rowCount;
+                if (nulls != null) {
+                    for (int i = 0; i < rowCount; i++) {
+                        if (nulls.get(positions[i])) {
+                            n--;
+                        }
+                    }
+                }
+                c[0] += n;
+                return;
+            }
+            for (int i = 0; i < rowCount; i++) {
+                if (nulls == null || !nulls.get(positions[i])) {
+                    c[groups[i]]++;
+                }
+            }
+        }
+
+        @Override
+        void flush(int group, AggregateData data) {
+            aggregate.merge(database, data, counts[group], null);
+        }
+
+    }
+
+    /**
+     * The base class of the kernels that compute a sum.
+     */
+    abstract static class Sum extends AggregateKernel {
+
+        /**
+         * The number of values that are not NULL, by group.
+         */
+        protected long[] counts = new long[1];
+
+        Sum(Database database, Aggregate aggregate) {
+            super(database, aggregate);
+        }
+
+        @Override
+        void reset(int groupCount) {
+            counts = clear(counts, groupCount);
+        }
+
+        @Override
+        void flush(int group, AggregateData data) {
+            long count = counts[group];
+            aggregate.merge(database, data, count,
+                    count == 0 ? null : getSum(group));
+        }
+
+        /**
+         * Get the sum of a group, of the type used by the aggregate data.
+         *
+         * @param group the group
+         * @return the sum
+         */
+        abstract Value getSum(int group);
+
+    }
+
+    /**
+     * Sums BYTE, SHORT and INT values. A batch has at most
+     * {@link ColumnarBatch#BLOCK_SIZE} rows, so the sum of a batch can not
+     * overflow.
+     */
+    static class IntSum extends Sum {
+
+        private long[] sums = new long[1];
+
+        IntSum(Database database, Aggregate aggregate) {
+            super(database, aggregate);
+        }
+
+        @Override
+        void reset(int groupCount) {
+            super.reset(groupCount);
+            sums = clear(sums, groupCount);
+        }
+
+        @Override
+        void add(ColumnVector vector, int[] positions, int[] groups,
+                int rowCount) {
+            BitField nulls = vector.getNulls();
+            long[] s = sums, c = counts;
+            if (!(vector instanceof IntVector)) {
+                long[] data = getLongs(vector, positions, rowCount);
+                for (int i = 0; i < rowCount; i++) {
+                    int p = positions[i];
+                    if (nulls == null || !nulls.get(p)) {
+                        int g = groups == null ? 0 : groups[i];
+                        s[g] += data[p];
+                        c[g]++;
+                    }
+                }
+                return;
+            }
+            int[] data = ((IntVector) vector).getData();
+            if (groups == null) {
+                long sum = 0;
+                int count = 0;
+                for (int i = 0; i < rowCount; i++) {
+                    int p = positions[i];
+                    if (nulls == null || !nulls.get(p)) {
+                        sum += data[p];
+                        count++;
+                    }
+                }
+                s[0] += sum;
+                c[0] += count;
+                return;
+            }
+            for (int i = 0; i < rowCount; i++) {
+                int p = positions[i];
+                if (nulls == null || !nulls.get(p)) {
+                    int g = groups[i];
+                    s[g] += data[p];
+                    c[g]++;
+                }
+            }
+        }
+
+        @Override
+        Value getSum(int group) {
+            return ValueLong.get(sums[group]);
+        }
+
+    }
+
+    /**
+     * Sums BIGINT values. The upper and the lower 32 bits are summed
+     * separately, so that the sum of a batch can not overflow; the result is
+     * a DECIMAL as for the regular aggregate.
+     */
+    static class LongSum extends Sum {
+
+        private long[] high = new long[1];
+        private long[] low = new long[1];
+
+        LongSum(Database database, Aggregate aggregate) {
+            super(database, aggregate);
+        }
+
+        @Override
+        void reset(int groupCount) {
+            super.reset(groupCount);
+            high = clear(high, groupCount);
+            low = clear(low, groupCount);
+        }
+
+        @Override
+        void add(ColumnVector vector, int[] positions, int[] groups,
+                int rowCount) {
+            long[] data = getLongs(vector, positions, rowCount);
+            BitField nulls = vector.getNulls();
+            long[] h = high, l = low, c = counts;
+            for (int i = 0; i < rowCount; i++) {
+                int p = positions[i];
+                if (nulls == null || !nulls.get(p)) {
+                    int g = groups == null ? 0 : groups[i];
+                    long x = data[p];
+                    h[g] += x >> 32;
+                    l[g] += x & 0xffffffffL;
+                    c[g]++;
+                }
+            }
+        }
+
+        @Override
+        Value getSum(int group) {
+            BigInteger sum = BigInteger.valueOf(high[group]).shiftLeft(32).
+                    add(BigInteger.valueOf(low[group]));
+            return ValueDecimal.get(new BigDecimal(sum));
+        }
+
+    }
+
+    /**
+     * Sums DOUBLE and REAL values.
+     */
+    static class DoubleSum extends Sum {
+
+        private double[] sums = new double[1];
+
+        DoubleSum(Database database, Aggregate aggregate) {
+            super(database, aggregate);
+        }
+
+        @Override
+        void reset(int groupCount) {
+            super.reset(groupCount);
+            if (sums.length < groupCount) {
+                sums = new double[groupCount];
+            } else {
+                Arrays.fill(sums, 0, groupCount, 0);
+            }
+        }
+
+        @Override
+        void add(ColumnVector vector, int[] positions, int[] groups,
+                int rowCount) {
+            double[] data = ((DoubleVector) vector).getData();
+            BitField nulls = vector.getNulls();
+            if (groups == null) {
+                double sum = 0;
+                int count = 0;
+                for (int i = 0; i < rowCount; i++) {
+                    int p = positions[i];
+                    if (nulls == null || !nulls.get(p)) {
+                        sum += data[p];
+                        count++;
+                    }
+                }
+                sums[0] += sum;
+                counts[0] += count;
+                return;
+            }
+            double[] s = sums;
+            long[] c = counts;
+            for (int i = 0; i < rowCount; i++) {
+                int p = positions[i];
+                if (nulls == null || !nulls.get(p)) {
+                    int g = groups[i];
+                    s[g] += data[p];
+                    c[g]++;
+                }
+            }
+        }
+
+        @Override
+        Value getSum(int group) {
+            return ValueDouble.get(sums[group]);
+        }
+
+    }
+
+    /**
+     * The base class of the kernels that compute a minimum or maximum. The
+     * position of the best value of each group is kept, and the value is
+     * only created when the group is flushed.
+     */
+    abstract static class MinMax extends AggregateKernel {
+
+        /**
+         * Whether the maximum is computed.
+         */
+        protected final boolean max;
+
+        /**
+         * The number of values that are not NULL, by group.
+         */
+        protected long[] counts = new long[1];
+
+        /**
+         * The position of the best value, by group, or -1.
+         */
+        protected int[] best = new int[1];
+
+        private ColumnVector vector;
+
+        MinMax(Database database, Aggregate aggregate, boolean max) {
+            super(database, aggregate);
+            this.max = max;
+        }
+
+        @Override
+        void reset(int groupCount) {
+            counts = clear(counts, groupCount);
+            if (best.length < groupCount) {
+                best = new int[groupCount];
+            }
+            Arrays.fill(best, 0, groupCount, -1);
+        }
+
+        @Override
+        void add(ColumnVector v, int[] positions, int[] groups, int rowCount) {
+            vector = v;
+            setVector(v, positions, rowCount);
+            BitField nulls = v.getNulls();
+            int[] b = best;
+            long[] c = counts;
+            for (int i = 0; i < rowCount; i++) {
+                int p = positions[i];
+                if (nulls == null || !nulls.get(p)) {
+                    int g = groups == null ? 0 : groups[i];
+                    int x = b[g];
+                    if (x < 0 || isBetter(p, x)) {
+                        b[g] = p;
+                    }
+                    c[g]++;
+                }
+            }
+        }
+
+        @Override
+        void flush(int group, AggregateData data) {
+            int pos = best[group];
+            aggregate.merge(database, data, counts[group],
+                    pos < 0 ? null : vector.get(pos));
+        }
+
+        /**
+         * Set the vector the values of the next batch are read from.
+         *
+         * @param v the vector
+         * @param positions the positions of the rows within the vector
+         * @param rowCount the number of rows
+         */
+        abstract void setVector(ColumnVector v, int[] positions, int rowCount);
+
+        /**
+         * Check whether the value at the given position is better than the
+         * current best value.
+         *
+         * @param pos the position
+         * @param bestPos the position of the current best value
+         * @return true if it is better
+         */
+        abstract boolean isBetter(int pos, int bestPos);
+
+    }
+
+    /**
+     * The minimum or maximum of BYTE, SHORT and INT values.
+     */
+    static class IntMinMax extends MinMax {
+
+        private int[] data;
+        private long[] longs;
+
+        IntMinMax(Database database, Aggregate aggregate, boolean max) {
+            super(database, aggregate, max);
+        }
+
+        @Override
+        void setVector(ColumnVector v, int[] positions, int rowCount) {
+            if (v instanceof IntVector) {
+                data = ((IntVector) v).getData();
+                longs = null;
+            } else {
+                data = null;
+                longs = getLongs(v, positions, rowCount);
+            }
+        }
+
+        @Override
+        boolean isBetter(int pos, int bestPos) {
+            if (data == null) {
+                return max ? longs[pos] > longs[bestPos] :
+                        longs[pos] < longs[bestPos];
+            }
+            return max ? data[pos] > data[bestPos] : data[pos] < data[bestPos];
+        }
+
+    }
+
+    /**
+     * The minimum or maximum of BIGINT values, and of dates and times (the
+     * encoded date value and the nanoseconds of the day are ordered like the
+     * values).
+     */
+    static class LongMinMax extends MinMax {
+
+        private long[] data;
+
+        LongMinMax(Database database, Aggregate aggregate, boolean max) {
+            super(database, aggregate, max);
+        }
+
+        @Override
+        void setVector(ColumnVector v, int[] positions, int rowCount) {
+            data = getLongs(v, positions, rowCount);
+        }
+
+        @Override
+        boolean isBetter(int pos, int bestPos) {
+            return max ? data[pos] > data[bestPos] : data[pos] < data[bestPos];
+        }
+
+    }
+
+    /**
+     * The minimum or maximum of DOUBLE and REAL values. The values are
+     * compared as by {@link Double#compare(double, double)}, as for the
+     * values.
+     */
+    static class DoubleMinMax extends MinMax {
+
+        private double[] data;
+
+        DoubleMinMax(Database database, Aggregate aggregate, boolean max) {
+            super(database, aggregate, max);
+        }
+
+        @Override
+        void setVector(ColumnVector v, int[] positions, int rowCount) {
+            data = ((DoubleVector) v).getData();
+        }
+
+        @Override
+        boolean isBetter(int pos, int bestPos) {
+            int comp = Double.compare(data[pos], data[bestPos]);
+            return max ? comp > 0 : comp < 0;
+        }
+
+    }
+
+    /**
+     * Computes the aggregate value by value, for types that are not stored in
+     * primitive arrays.
+     */
+    static class Generic extends AggregateKernel {
+
+        private AggregateData[] data = new AggregateData[1];
+
+        Generic(Database database, Aggregate aggregate) {
+            super(database, aggregate);
+        }
+
+        @Override
+        void reset(int groupCount) {
+            if (data.length < groupCount) {
+                data = new AggregateData[groupCount];
+            }
+            for (int i = 0; i < groupCount; i++) {
+                data[i] = aggregate.createData();
+            }
+        }
+
+        @Override
+        void add(ColumnVector vector, int[] positions, int[] groups,
+                int rowCount) {
+            for (int i = 0; i < rowCount; i++) {
+                AggregateData d = data[groups == null ? 0 : groups[i]];
+                aggregate.add(database, d, vector.get(positions[i]));
+            }
+        }
+
+        @Override
+        void flush(int group, AggregateData target) {
+            aggregate.merge(database, target, data[group]);
+        }
+
+    }
+
+}
@@ -0,0 +1,63 @@
+package org.h2.column;
+
+import org.h2.util.BitField;
+import org.h2.value.Value;
+import org.h2.value.ValueBoolean;
+
+/**
+ * A column vector for BOOLEAN values, stored as a bit field.
+ */
+public class BooleanVector extends ColumnVector {
+
+    private BitField data = new BitField();
+
+    BooleanVector() {
+        super(Value.BOOLEAN);
+    }
+
+    /**
+     * Get the primitive value at the given position. The result is undefined
+     * if the cell is NULL.
+     *
+     * @param pos the position
+     * @return the value
+     */
+    public boolean getBoolean(int pos) {
+        return data.get(pos);
+    }
+
+    @Override
+    protected Value getNotNull(int pos) {
+        return ValueBoolean.get(data.get(pos));
+    }
+
+    @Override
+    protected void setNotNull(int pos, Value v) {
+        if (v.getBoolean()) {
+            data.set(pos);
+        } else {
+            data.clear(pos);
+        }
+    }
+
+    @Override
+    protected void clear(int pos) {
+        data.clear(pos);
+    }
+
+    @Override
+    protected void ensureCapacity(int minCapacity) {
+        // the bit field grows as required
+    }
+
+    @Override
+    protected void reset() {
+        data = new BitField();
+    }
+
+    @Override
+    protected int getDataMemory() {
+        return data.length() >> 3;
+    }
+
+}
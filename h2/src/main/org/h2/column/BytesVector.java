@@ -0,0 +1,107 @@
+package org.h2.column;
+
+import java.util.Arrays;
+import org.h2.engine.Constants;
+import org.h2.value.Value;
+import org.h2.value.ValueBytes;
+import org.h2.value.ValueString;
+import org.h2.value.ValueStringFixed;
+import org.h2.value.ValueStringIgnoreCase;
+
+/**
+ * A column vector for variable-length values (VARCHAR, VARCHAR_IGNORECASE,
+ * CHAR and BINARY). The data of all cells is kept in one byte array, strings
+ * are encoded as UTF-8. Replacing a value appends the new data; the space of
+ * the old value is not reused.
+ */
+public class BytesVector extends ColumnVector {
+
+    private byte[] heap = new byte[0];
+    private int heapSize;
+    private int[] start = new int[0];
+    private int[] length = new int[0];
+
+    BytesVector(int type) {
+        super(type);
+    }
+
+    /**
+     * Get the encoded bytes at the given position. The result is undefined if
+     * the cell is NULL.
+     *
+     * @param pos the position
+     * @return a copy of the data
+     */
+    public byte[] getBytes(int pos) {
+        int s = start[pos];
+        return Arrays.copyOfRange(heap, s, s + length[pos]);
+    }
+
+    @Override
+    protected int getEncoding() {
+        // character data is only stored here if it has too many distinct values
+        return type == Value.BYTES ? ENCODING_DEFAULT : ENCODING_PLAIN;
+    }
+
+    @Override
+    protected Value getNotNull(int pos) {
+        if (type == Value.BYTES) {
+            return ValueBytes.getNoCopy(getBytes(pos));
+        }
+        String s = new String(heap, start[pos], length[pos], Constants.UTF8);
+        switch (type) {
+        case Value.STRING_IGNORECASE:
+            return ValueStringIgnoreCase.get(s);
+        case Value.STRING_FIXED:
+            return ValueStringFixed.get(s);
+        default:
+            return ValueString.get(s);
+        }
+    }
+
+    @Override
+    protected void setNotNull(int pos, Value v) {
+        byte[] b;
+        if (type == Value.BYTES) {
+            b = v.getBytesNoCopy();
+        } else {
+            b = v.getString().getBytes(Constants.UTF8);
+        }
+        int len = b.length;
+        if (heapSize + len > heap.length) {
+            heap = Arrays.copyOf(heap, grow(heap.length, heapSize + len));
+        }
+        System.arraycopy(b, 0, heap, heapSize, len);
+        start[pos] = heapSize;
+        length[pos] = len;
+        heapSize += len;
+    }
+
+    @Override
+    protected void clear(int pos) {
+        length[pos] = 0;
+    }
+
+    @Override
+    protected void ensureCapacity(int minCapacity) {
+        if (minCapacity > start.length) {
+            int newCapacity = grow(start.length, minCapacity);
+            start = Arrays.copyOf(start, newCapacity);
+            length = Arrays.copyOf(length, newCapacity);
+        }
+    }
+
+    @Override
+    protected void reset() {
+        heap = new byte[0];
+        heapSize = 0;
+        start = new int[0];
+        length = new int[0];
+    }
+
+    @Override
+    protected int getDataMemory() {
+        return heap.length + start.length * 8;
+    }
+
+}
@@ -0,0 +1,308 @@
+package org.h2.column;
+
+import org.h2.table.Table;
+import org.h2.value.CompareMode;
+import org.h2.value.Value;
+import org.h2.value.ValueNull;
+
+/**
+ * A condition on one column of a columnar table that is evaluated while
+ * scanning, before the row is built. The condition may match more rows than
+ * the query condition it was derived from (the query condition is checked
+ * again later), but it never rejects a row that could match.
+ */
+class ColumnFilter {
+
+    private static final byte UNKNOWN = 0, MATCH = 1, NO_MATCH = 2;
+
+    /**
+     * The column id.
+     */
+    final int columnId;
+
+    private final Table table;
+    private Value start, end;
+    private boolean startExclusive, endExclusive;
+    private Value[] inList;
+    private boolean nullOnly;
+
+    /**
+     * The result of the condition for each dictionary code, if the column is
+     * dictionary encoded.
+     */
+    private byte[] codeMatches;
+    private DictionaryVector codeVector;
+
+    /**
+     * The result of the condition for the last run, if the column is run
+     * length encoded.
+     */
+    private RunLengthVector runVector;
+    private int runStart, runEnd;
+    private boolean runMatch;
+
+    ColumnFilter(Table table, int columnId) {
+        this.table = table;
+        this.columnId = columnId;
+    }
+
+    /**
+     * Set the range of the condition.
+     *
+     * @param start the first value (inclusive), or null for no lower limit
+     * @param end the last value (inclusive), or null for no upper limit
+     */
+    void setRange(Value start, Value end) {
+        if (start == ValueNull.INSTANCE && end == ValueNull.INSTANCE) {
+            // IS NULL
+            nullOnly = true;
+            return;
+        }
+        // a NULL range limit only occurs together with other conditions
+        // that are checked later
+        this.start = start == ValueNull.INSTANCE ? null : start;
+        this.end = end == ValueNull.INSTANCE ? null : end;
+    }
+
+    /**
+     * Restrict the lower limit of the range.
+     *
+     * @param v the first value (inclusive), not NULL
+     */
+    void restrictStart(Value v) {
+        restrictStart(v, false);
+    }
+
+    /**
+     * Restrict the lower limit of the range.
+     *
+     * @param v the limit, not NULL
+     * @param exclusive whether the limit itself does not match
+     */
+    void restrictStart(Value v, boolean exclusive) {
+        int comp = start == null ? 1 : table.compareTypeSafe(v, start);
+        if (comp > 0) {
+            start = v;
+            startExclusive = exclusive;
+        } else if (comp == 0) {
+            startExclusive |= exclusive;
+        }
+    }
+
+    /**
+     * Restrict the upper limit of the range.
+     *
+     * @param v the last value (inclusive), not NULL
+     */
+    void restrictEnd(Value v) {
+        restrictEnd(v, false);
+    }
+
+    /**
+     * Restrict the upper limit of the range.
+     *
+     * @param v the limit, not NULL
+     * @param exclusive whether the limit itself does not match
+     */
+    void restrictEnd(Value v, boolean exclusive) {
+        int comp = end == null ? -1 : table.compareTypeSafe(v, end);
+        if (comp < 0) {
+            end = v;
+            endExclusive = exclusive;
+        } else if (comp == 0) {
+            endExclusive |= exclusive;
+        }
+    }
+
+    /**
+     * Create a copy of this condition, for use in another thread.
+     *
+     * @return the copy
+     */
+    ColumnFilter copy() {
+        ColumnFilter f = new ColumnFilter(table, columnId);
+        f.start = start;
+        f.end = end;
+        f.startExclusive = startExclusive;
+        f.endExclusive = endExclusive;
+        f.inList = inList;
+        f.nullOnly = nullOnly;
+        return f;
+    }
+
+    /**
+     * Set the list of values for an IN(..) condition.
+     *
+     * @param list the values, already converted to the column type
+     */
+    void setInList(Value[] list) {
+        if (inList == null) {
+            inList = list;
+        }
+    }
+
+    /**
+     * Check whether a segment may contain matching rows.
+     *
+     * @param zoneMap the zone map of the segment
+     * @param rowCount the number of rows in the segment
+     * @return false if no row of the segment matches
+     */
+    boolean test(ZoneMap zoneMap, int rowCount) {
+        if (nullOnly) {
+            return zoneMap.getNullCount(columnId) > 0;
+        }
+        Value min = zoneMap.getMin(columnId);
+        if (min == null || zoneMap.getNullCount(columnId) >= rowCount) {
+            // only NULL
+            return false;
+        }
+        Value max = zoneMap.getMax(columnId);
+        if (start != null && !isAfterStart(max)) {
+            return false;
+        }
+        if (end != null && !isBeforeEnd(min)) {
+            return false;
+        }
+        if (inList != null) {
+            for (Value x : inList) {
+                if (x != ValueNull.INSTANCE &&
+                        table.compareTypeSafe(x, min) >= 0 &&
+                        table.compareTypeSafe(x, max) <= 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Estimate the fraction of rows that match.
+     *
+     * @param stats the statistics of this column
+     * @param compareMode the compare mode
+     * @return the fraction (between 0 and 1)
+     */
+    double getSelectivity(ColumnStatistics stats, CompareMode compareMode) {
+        if (nullOnly) {
+            return stats.getNullFraction();
+        }
+        double fraction = 1;
+        if (inList != null) {
+            double sum = 0;
+            for (Value x : inList) {
+                if (x != ValueNull.INSTANCE && testNotNull(x)) {
+                    sum += stats.getEqualFraction(x, compareMode);
+                }
+            }
+            fraction = Math.min(1, sum);
+        }
+        if (start != null && end != null &&
+                table.compareTypeSafe(start, end) == 0) {
+            fraction = Math.min(fraction,
+                    stats.getEqualFraction(start, compareMode));
+        } else if (start != null || end != null) {
+            fraction = Math.min(fraction,
+                    stats.getRangeFraction(start, end, compareMode));
+        }
+        return fraction;
+    }
+
+    /**
+     * Check whether the cell at the given position may match.
+     *
+     * @param vector the vector of this column
+     * @param pos the position
+     * @return false if the row does not match
+     */
+    boolean test(ColumnVector vector, int pos) {
+        if (vector.isNull(pos)) {
+            return nullOnly;
+        }
+        if (nullOnly) {
+            return false;
+        }
+        if (vector instanceof DictionaryVector) {
+            return testCode((DictionaryVector) vector, pos);
+        } else if (vector instanceof RunLengthVector) {
+            return testRun((RunLengthVector) vector, pos);
+        }
+        return testNotNull(vector.get(pos));
+    }
+
+    /**
+     * Check whether the given value may match.
+     *
+     * @param v the value
+     * @return false if the value does not match
+     */
+    boolean test(Value v) {
+        if (v == ValueNull.INSTANCE) {
+            return nullOnly;
+        }
+        return !nullOnly && testNotNull(v);
+    }
+
+    private boolean testCode(DictionaryVector vector, int pos) {
+        int code = vector.getCode(pos);
+        if (codeVector != vector) {
+            codeVector = vector;
+            codeMatches = null;
+        }
+        if (codeMatches == null || code >= codeMatches.length) {
+            byte[] m = new byte[Math.max(vector.getDictionarySize(), code + 1)];
+            if (codeMatches != null) {
+                System.arraycopy(codeMatches, 0, m, 0, codeMatches.length);
+            }
+            codeMatches = m;
+        }
+        byte m = codeMatches[code];
+        if (m == UNKNOWN) {
+            boolean match = testNotNull(vector.getDictionaryValue(code));
+            m = match ? MATCH : NO_MATCH;
+            codeMatches[code] = m;
+        }
+        return m == MATCH;
+    }
+
+    private boolean testRun(RunLengthVector vector, int pos) {
+        if (runVector != vector || pos < runStart || pos >= runEnd) {
+            int run = vector.getRun(pos);
+            runVector = vector;
+            runStart = vector.getRunStart(run);
+            runEnd = vector.getRunEnd(run);
+            runMatch = testNotNull(vector.getRunValue(run));
+        }
+        return runMatch;
+    }
+
+    private boolean isAfterStart(Value v) {
+        int comp = table.compareTypeSafe(v, start);
+        return startExclusive ? comp > 0 : comp >= 0;
+    }
+
+    private boolean isBeforeEnd(Value v) {
+        int comp = table.compareTypeSafe(v, end);
+        return endExclusive ? comp < 0 : comp <= 0;
+    }
+
+    private boolean testNotNull(Value v) {
+        if (start != null && !isAfterStart(v)) {
+            return false;
+        }
+        if (end != null && !isBeforeEnd(v)) {
+            return false;
+        }
+        if (inList != null) {
+            for (Value x : inList) {
+                if (x != ValueNull.INSTANCE && table.compareTypeSafe(v, x) == 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return true;
+    }
+
+}
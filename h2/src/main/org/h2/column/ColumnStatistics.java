@@ -0,0 +1,459 @@
+package org.h2.column;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import org.h2.engine.Constants;
+import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.WriteBuffer;
+import org.h2.mvstore.type.DataType;
+import org.h2.util.StatementBuilder;
+import org.h2.value.CompareMode;
+import org.h2.value.Value;
+import org.h2.value.ValueNull;
+
+/**
+ * Statistics of the values of one column: the number of NULL values, a
+ * sketch to estimate the number of distinct values (HyperLogLog), and an
+ * equi-depth histogram, where each bucket contains the same number of values.
+ * The statistics of a segment are computed when the segment is sealed; the
+ * statistics of a table are merged from the statistics of its segments. As
+ * for zone maps, deleted rows are still included in the statistics of a
+ * segment; when merging, the counts are scaled to the remaining rows.
+ */
+public class ColumnStatistics {
+
+    /**
+     * The number of buckets of a histogram.
+     */
+    static final int BUCKETS = 8;
+
+    /**
+     * The number of bits of the hash code that select the register.
+     */
+    private static final int REGISTER_BITS = 6;
+
+    private static final int REGISTERS = 1 << REGISTER_BITS;
+
+    private final byte[] registers;
+    private long rowCount;
+    private long nullCount;
+
+    /**
+     * The bucket limits, BUCKETS + 1 values in ascending order, or null if
+     * there are only NULL values.
+     */
+    private Value[] bounds;
+
+    private ColumnStatistics() {
+        registers = new byte[REGISTERS];
+    }
+
+    /**
+     * Compute the statistics of the values of a vector.
+     *
+     * @param vector the vector (not encoded)
+     * @param rowCount the number of rows
+     * @param compareMode the compare mode
+     * @return the statistics
+     */
+    static ColumnStatistics create(ColumnVector vector, int rowCount,
+            CompareMode compareMode) {
+        ColumnStatistics s = new ColumnStatistics();
+        s.rowCount = rowCount;
+        if (vector instanceof IntVector || vector instanceof LongVector) {
+            s.addPrimitive(vector, rowCount);
+        } else if (vector instanceof DictionaryVector) {
+            s.addDictionary((DictionaryVector) vector, rowCount, compareMode);
+        } else {
+            Value[] values = new Value[rowCount];
+            int n = 0;
+            for (int pos = 0; pos < rowCount; pos++) {
+                Value v = vector.get(pos);
+                if (v != ValueNull.INSTANCE) {
+                    s.addHash(v.hashCode());
+                    values[n++] = v;
+                }
+            }
+            s.nullCount = rowCount - n;
+            if (n > 0) {
+                Arrays.sort(values, 0, n, getComparator(compareMode));
+                s.bounds = new Value[BUCKETS + 1];
+                for (int k = 0; k <= BUCKETS; k++) {
+                    s.bounds[k] = values[getRank(k, n)];
+                }
+            }
+        }
+        return s;
+    }
+
+    private void addPrimitive(ColumnVector vector, int count) {
+        long[] values = new long[count];
+        int n = 0;
+        int[] ints = vector instanceof IntVector ?
+                ((IntVector) vector).getData() : null;
+        long[] longs = ints == null ? ((LongVector) vector).getData() : null;
+        for (int pos = 0; pos < count; pos++) {
+            if (!vector.isNull(pos)) {
+                long x = ints != null ? ints[pos] : longs[pos];
+                addHash(x);
+                values[n++] = x;
+            }
+        }
+        nullCount = count - n;
+        if (n > 0) {
+            Arrays.sort(values, 0, n);
+            bounds = new Value[BUCKETS + 1];
+            for (int k = 0; k <= BUCKETS; k++) {
+                bounds[k] = LongVector.toValue(vector.type,
+                        values[getRank(k, n)]);
+            }
+        }
+    }
+
+    private void addDictionary(final DictionaryVector vector, int count,
+            CompareMode compareMode) {
+        int size = vector.getDictionarySize();
+        int[] counts = new int[size];
+        int n = 0;
+        for (int pos = 0; pos < count; pos++) {
+            if (!vector.isNull(pos)) {
+                counts[vector.getCode(pos)]++;
+                n++;
+            }
+        }
+        nullCount = count - n;
+        if (n == 0) {
+            return;
+        }
+        // sort the distinct values instead of the rows
+        Integer[] codes = new Integer[size];
+        int distinct = 0;
+        for (int code = 0; code < size; code++) {
+            if (counts[code] > 0) {
+                addHash(vector.getDictionaryValue(code).hashCode());
+                codes[distinct++] = code;
+            }
+        }
+        final Comparator<Value> comp = getComparator(compareMode);
+        Arrays.sort(codes, 0, distinct, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return comp.compare(vector.getDictionaryValue(a),
+                        vector.getDictionaryValue(b));
+            }
+        });
+        bounds = new Value[BUCKETS + 1];
+        int i = 0, seen = counts[codes[0]];
+        for (int k = 0; k <= BUCKETS; k++) {
+            int rank = getRank(k, n);
+            while (seen <= rank) {
+                seen += counts[codes[++i]];
+            }
+            bounds[k] = vector.getDictionaryValue(codes[i]);
+        }
+    }
+
+    private static int getRank(int bucket, int count) {
+        return (int) ((long) bucket * (count - 1) / BUCKETS);
+    }
+
+    private static Comparator<Value> getComparator(
+            final CompareMode compareMode) {
+        return new Comparator<Value>() {
+            @Override
+            public int compare(Value a, Value b) {
+                return a.compareTo(b, compareMode);
+            }
+        };
+    }
+
+    private void addHash(long x) {
+        // spread the bits, as hash codes of numbers are the numbers
+        x *= 0x9e3779b97f4a7c15L;
+        x ^= x >>> 32;
+        x *= 0x9e3779b97f4a7c15L;
+        x ^= x >>> 29;
+        int index = (int) (x >>> (64 - REGISTER_BITS));
+        int rank = Long.numberOfLeadingZeros(
+                (x << REGISTER_BITS) | (1L << (REGISTER_BITS - 1))) + 1;
+        if (rank > registers[index]) {
+            registers[index] = (byte) rank;
+        }
+    }
+
+    /**
+     * Merge the statistics of the segments of a column. The distinct value
+     * sketches and counts are merged from all segments, the histogram only
+     * from every step-th segment.
+     *
+     * @param list the statistics of the segments
+     * @param step the distance between the segments used for the histogram
+     * @param compareMode the compare mode
+     * @return the merged statistics
+     */
+    static ColumnStatistics merge(ArrayList<ColumnStatistics> list,
+            int step, final CompareMode compareMode) {
+        ColumnStatistics s = new ColumnStatistics();
+        int pointCount = 0;
+        for (int i = 0, size = list.size(); i < size; i++) {
+            ColumnStatistics x = list.get(i);
+            s.rowCount += x.rowCount;
+            s.nullCount += x.nullCount;
+            for (int j = 0; j < REGISTERS; j++) {
+                s.registers[j] = (byte) Math.max(s.registers[j],
+                        x.registers[j]);
+            }
+            if (x.bounds != null && i % step == 0) {
+                pointCount += BUCKETS + 1;
+            }
+        }
+        if (pointCount == 0) {
+            return s;
+        }
+        // each bucket limit stands for the values of the bucket below it
+        Value[] points = new Value[pointCount];
+        final double[] weights = new double[pointCount];
+        Integer[] order = new Integer[pointCount];
+        double total = 0;
+        for (int i = 0, p = 0; i < list.size(); i += step) {
+            ColumnStatistics x = list.get(i);
+            if (x.bounds == null) {
+                continue;
+            }
+            double w = (double) (x.rowCount - x.nullCount) / BUCKETS;
+            for (int k = 0; k <= BUCKETS; k++, p++) {
+                points[p] = x.bounds[k];
+                weights[p] = k == 0 ? 0 : w;
+                order[p] = p;
+                total += weights[p];
+            }
+        }
+        final Value[] sortPoints = points;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return sortPoints[a].compareTo(sortPoints[b], compareMode);
+            }
+        });
+        s.bounds = new Value[BUCKETS + 1];
+        s.bounds[0] = points[order[0]];
+        s.bounds[BUCKETS] = points[order[pointCount - 1]];
+        double seen = 0;
+        for (int k = 1, p = 0; k < BUCKETS; k++) {
+            double limit = total * k / BUCKETS;
+            while (p < pointCount - 1 && seen + weights[order[p]] < limit) {
+                seen += weights[order[p++]];
+            }
+            s.bounds[k] = points[order[p]];
+        }
+        return s;
+    }
+
+    /**
+     * Get a copy of the statistics for a part of the rows, for example after
+     * rows were deleted. The values are assumed to be removed uniformly.
+     *
+     * @param rows the number of remaining rows
+     * @return the statistics
+     */
+    ColumnStatistics scale(long rows) {
+        if (rows == rowCount) {
+            return this;
+        }
+        ColumnStatistics s = new ColumnStatistics();
+        System.arraycopy(registers, 0, s.registers, 0, REGISTERS);
+        s.rowCount = rows;
+        s.nullCount = rowCount == 0 ? 0 : Math.round(
+                (double) nullCount * rows / rowCount);
+        s.bounds = bounds;
+        return s;
+    }
+
+    /**
+     * Get the number of values, including NULL.
+     *
+     * @return the row count
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Get the fraction of NULL values.
+     *
+     * @return the fraction (between 0 and 1)
+     */
+    public double getNullFraction() {
+        return rowCount == 0 ? 0 : (double) nullCount / rowCount;
+    }
+
+    /**
+     * Get the estimated number of distinct values, not counting NULL.
+     *
+     * @return the number of distinct values
+     */
+    public long getDistinctCount() {
+        long values = rowCount - nullCount;
+        if (values == 0) {
+            return 0;
+        }
+        double sum = 0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += 1.0 / (1L << r);
+            if (r == 0) {
+                zeros++;
+            }
+        }
+        double m = REGISTERS;
+        double estimate = 0.709 * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            // linear counting is more accurate for small cardinalities
+            estimate = m * Math.log(m / zeros);
+        }
+        return Math.max(1, Math.min(values, Math.round(estimate)));
+    }
+
+    /**
+     * Estimate the fraction of rows that are equal to the given value. For
+     * values that fill whole histogram buckets, the histogram is used,
+     * otherwise the values are assumed to be uniformly distributed.
+     *
+     * @param v the value, or null for an unknown value that is not NULL
+     * @param compareMode the compare mode
+     * @return the fraction (between 0 and 1)
+     */
+    public double getEqualFraction(Value v, CompareMode compareMode) {
+        if (v == ValueNull.INSTANCE) {
+            return getNullFraction();
+        }
+        if (bounds == null) {
+            return 0;
+        }
+        double notNull = 1 - getNullFraction();
+        double fraction = 1.0 / getDistinctCount();
+        if (v != null) {
+            if (v.compareTo(bounds[0], compareMode) < 0 ||
+                    v.compareTo(bounds[BUCKETS], compareMode) > 0) {
+                return 0;
+            }
+            int buckets = 0;
+            for (int k = 0; k < BUCKETS; k++) {
+                if (v.compareTo(bounds[k], compareMode) == 0 &&
+                        v.compareTo(bounds[k + 1], compareMode) == 0) {
+                    buckets++;
+                }
+            }
+            fraction = Math.max(fraction, (double) buckets / BUCKETS);
+        }
+        return notNull * fraction;
+    }
+
+    /**
+     * Estimate the fraction of rows with a value within the given range.
+     * Buckets that overlap the range partially are counted half.
+     *
+     * @param start the first value, or null for no lower limit
+     * @param end the last value, or null for no upper limit
+     * @param compareMode the compare mode
+     * @return the fraction (between 0 and 1)
+     */
+    public double getRangeFraction(Value start, Value end,
+            CompareMode compareMode) {
+        if (bounds == null) {
+            return 0;
+        }
+        double buckets = 0;
+        for (int k = 0; k < BUCKETS; k++) {
+            Value low = bounds[k], high = bounds[k + 1];
+            if (end != null && low.compareTo(end, compareMode) > 0 ||
+                    start != null && high.compareTo(start, compareMode) < 0) {
+                continue;
+            }
+            if ((start == null || low.compareTo(start, compareMode) >= 0) &&
+                    (end == null || high.compareTo(end, compareMode) <= 0)) {
+                buckets++;
+            } else {
+                buckets += 0.5;
+            }
+        }
+        return (1 - getNullFraction()) * buckets / BUCKETS;
+    }
+
+    /**
+     * Get the bucket limits of the histogram as a list of SQL literals.
+     *
+     * @return the list, or null if there are only NULL values
+     */
+    public String getHistogram() {
+        if (bounds == null) {
+            return null;
+        }
+        StatementBuilder buff = new StatementBuilder();
+        for (Value v : bounds) {
+            buff.appendExceptFirst(", ");
+            buff.append(v.getTraceSQL());
+        }
+        return buff.toString();
+    }
+
+    /**
+     * Read statistics that were written using
+     * {@link #write(WriteBuffer, DataType)}.
+     *
+     * @param buff the source buffer
+     * @param valueType the data type used to read values
+     * @return the statistics
+     */
+    public static ColumnStatistics read(ByteBuffer buff, DataType valueType) {
+        ColumnStatistics s = new ColumnStatistics();
+        s.rowCount = DataUtils.readVarLong(buff);
+        s.nullCount = DataUtils.readVarLong(buff);
+        buff.get(s.registers);
+        if (buff.get() != 0) {
+            s.bounds = new Value[BUCKETS + 1];
+            for (int k = 0; k <= BUCKETS; k++) {
+                s.bounds[k] = (Value) valueType.read(buff);
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Write the statistics to the buffer.
+     *
+     * @param buff the target buffer
+     * @param valueType the data type used to write values
+     */
+    public void write(WriteBuffer buff, DataType valueType) {
+        buff.putVarLong(rowCount);
+        buff.putVarLong(nullCount);
+        buff.put(registers);
+        if (bounds == null) {
+            buff.put((byte) 0);
+        } else {
+            buff.put((byte) 1);
+            for (Value v : bounds) {
+                valueType.write(buff, v);
+            }
+        }
+    }
+
+    /**
+     * Get the estimated memory used by the statistics, in bytes.
+     *
+     * @return the memory
+     */
+    public int getMemory() {
+        int memory = Constants.MEMORY_OBJECT * 2 + REGISTERS + 16;
+        if (bounds != null) {
+            for (Value v : bounds) {
+                memory += Constants.MEMORY_POINTER + v.getMemory();
+            }
+        }
+        return memory;
+    }
+
+}
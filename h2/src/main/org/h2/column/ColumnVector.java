@@ -0,0 +1,440 @@
+package org.h2.column;
+
+import java.nio.ByteBuffer;
+import org.h2.engine.Constants;
+import org.h2.message.DbException;
+import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.WriteBuffer;
+import org.h2.mvstore.type.DataType;
+import org.h2.table.Column;
+import org.h2.util.BitField;
+import org.h2.value.Value;
+import org.h2.value.ValueNull;
+
+/**
+ * The values of one column of a columnar table, stored by position. The
+ * concrete implementation is chosen from the column type, so that fixed-size
+ * types are kept in primitive arrays instead of one Value object per cell.
+ */
+public abstract class ColumnVector {
+
+    /**
+     * The initial capacity of a new vector.
+     */
+    static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The encoding of a vector created by {@link #create(int)}.
+     */
+    static final int ENCODING_DEFAULT = 0;
+
+    /**
+     * The encoding of character data that is not dictionary encoded.
+     */
+    static final int ENCODING_PLAIN = 1;
+
+    /**
+     * The encoding of a {@link RunLengthVector}.
+     */
+    static final int ENCODING_RUN_LENGTH = 2;
+
+    /**
+     * The encoding of a {@link FrameOfReferenceVector} with bit-packed
+     * values.
+     */
+    static final int ENCODING_FRAME_OF_REFERENCE = 3;
+
+    /**
+     * The encoding of a {@link FrameOfReferenceVector} with ascending
+     * values, stored as the differences between consecutive values.
+     */
+    static final int ENCODING_DELTA = 4;
+
+    /**
+     * The value type (one of the Value type constants).
+     */
+    protected final int type;
+
+    /**
+     * The number of cells.
+     */
+    protected int size;
+
+    /**
+     * The positions that contain NULL, or null if there are none.
+     */
+    protected BitField nulls;
+
+    ColumnVector(int type) {
+        this.type = type;
+    }
+
+    /**
+     * Create an empty vector for the given column.
+     *
+     * @param column the column
+     * @return the vector
+     */
+    public static ColumnVector create(Column column) {
+        return create(column.getType());
+    }
+
+    /**
+     * Create an empty vector for the given value type.
+     *
+     * @param type the value type
+     * @return the vector
+     */
+    public static ColumnVector create(int type) {
+        switch (type) {
+        case Value.BOOLEAN:
+            return new BooleanVector();
+        case Value.BYTE:
+        case Value.SHORT:
+        case Value.INT:
+            return new IntVector(type);
+        case Value.LONG:
+        case Value.DATE:
+        case Value.TIME:
+            return new LongVector(type);
+        case Value.DOUBLE:
+        case Value.FLOAT:
+            return new DoubleVector(type);
+        case Value.STRING:
+        case Value.STRING_IGNORECASE:
+        case Value.STRING_FIXED:
+            return new DictionaryVector(type);
+        case Value.BYTES:
+            return new BytesVector(type);
+        default:
+            return new ValueVector(type);
+        }
+    }
+
+    /**
+     * Read a vector that was written using
+     * {@link #write(WriteBuffer, DataType)}.
+     *
+     * @param type the value type
+     * @param buff the source buffer
+     * @param valueType the data type used to read values
+     * @return the vector
+     */
+    public static ColumnVector read(int type, ByteBuffer buff,
+            DataType valueType) {
+        int encoding = buff.get();
+        ColumnVector vector;
+        switch (encoding) {
+        case ENCODING_DEFAULT:
+            vector = create(type);
+            break;
+        case ENCODING_PLAIN:
+            vector = new BytesVector(type);
+            break;
+        case ENCODING_RUN_LENGTH:
+            vector = new RunLengthVector(type);
+            break;
+        case ENCODING_FRAME_OF_REFERENCE:
+            vector = new FrameOfReferenceVector(type, false);
+            break;
+        case ENCODING_DELTA:
+            vector = new FrameOfReferenceVector(type, true);
+            break;
+        default:
+            throw DataUtils.newIllegalStateException(
+                    DataUtils.ERROR_FILE_CORRUPT,
+                    "Unknown column encoding {0}", encoding);
+        }
+        int size = DataUtils.readVarInt(buff);
+        vector.ensureCapacity(size);
+        vector.size = size;
+        int nullCount = DataUtils.readVarInt(buff);
+        if (nullCount > 0) {
+            vector.nulls = new BitField(size);
+            for (int i = 0, pos = -1; i < nullCount; i++) {
+                pos += DataUtils.readVarInt(buff);
+                vector.nulls.set(pos);
+            }
+        }
+        vector.readData(buff, valueType);
+        return vector;
+    }
+
+    /**
+     * Write all cells to the buffer.
+     *
+     * @param buff the target buffer
+     * @param valueType the data type used to write values
+     */
+    public void write(WriteBuffer buff, DataType valueType) {
+        buff.put((byte) getEncoding());
+        buff.putVarInt(size);
+        int nullCount = 0;
+        if (nulls != null) {
+            for (int i = 0; i < size; i++) {
+                if (nulls.get(i)) {
+                    nullCount++;
+                }
+            }
+        }
+        buff.putVarInt(nullCount);
+        for (int i = 0, last = -1; nullCount > 0 && i < size; i++) {
+            if (nulls.get(i)) {
+                buff.putVarInt(i - last);
+                last = i;
+            }
+        }
+        writeData(buff, valueType);
+    }
+
+    /**
+     * Get the value type.
+     *
+     * @return the type
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * Get the number of cells.
+     *
+     * @return the size
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Check whether the cell at the given position is NULL.
+     *
+     * @param pos the position
+     * @return true if the value is NULL
+     */
+    public boolean isNull(int pos) {
+        return nulls != null && nulls.get(pos);
+    }
+
+    /**
+     * Get the positions that contain NULL.
+     *
+     * @return the bit field (must not be modified), or null if there are none
+     */
+    BitField getNulls() {
+        return nulls;
+    }
+
+    /**
+     * Get the value at the given position.
+     *
+     * @param pos the position
+     * @return the value
+     */
+    public Value get(int pos) {
+        if (isNull(pos)) {
+            return ValueNull.INSTANCE;
+        }
+        return getNotNull(pos);
+    }
+
+    /**
+     * Append a value.
+     *
+     * @param v the value, already converted to the column type
+     */
+    public void add(Value v) {
+        ensureCapacity(size + 1);
+        set(size++, v);
+    }
+
+    /**
+     * Replace the value at the given position.
+     *
+     * @param pos the position
+     * @param v the value, already converted to the column type
+     */
+    public void set(int pos, Value v) {
+        if (v == null || v == ValueNull.INSTANCE) {
+            setNull(pos);
+        } else {
+            if (nulls != null) {
+                nulls.clear(pos);
+            }
+            setNotNull(pos, v);
+        }
+    }
+
+    /**
+     * Check whether the given value can be stored in this vector without
+     * changing the representation. If not, the vector needs to be expanded
+     * first.
+     *
+     * @param v the value
+     * @return true if the value can be stored
+     */
+    boolean canStore(Value v) {
+        return true;
+    }
+
+    /**
+     * Copy the data to a vector that can store any value of the column type.
+     *
+     * @return the new vector
+     */
+    ColumnVector expand() {
+        throw DbException.throwInternalError(toString());
+    }
+
+    /**
+     * Get a compressed copy of this vector, once no more values are added.
+     *
+     * @return the compressed vector, or this vector if it can not be
+     *         compressed
+     */
+    ColumnVector encode() {
+        return this;
+    }
+
+    /**
+     * Set the cell at the given position to NULL.
+     *
+     * @param pos the position
+     */
+    public void setNull(int pos) {
+        if (nulls == null) {
+            nulls = new BitField();
+        }
+        nulls.set(pos);
+        clear(pos);
+    }
+
+    /**
+     * Remove all cells.
+     */
+    public void truncate() {
+        size = 0;
+        nulls = null;
+        reset();
+    }
+
+    /**
+     * Get the estimated memory used by this vector, in bytes.
+     *
+     * @return the memory
+     */
+    public int getMemory() {
+        int memory = Constants.MEMORY_OBJECT;
+        if (nulls != null) {
+            memory += Constants.MEMORY_OBJECT + (size >> 3);
+        }
+        return memory + getDataMemory();
+    }
+
+    /**
+     * Get the encoding that is written to the stored format.
+     *
+     * @return the encoding
+     */
+    protected int getEncoding() {
+        return ENCODING_DEFAULT;
+    }
+
+    /**
+     * Write the cells that are not NULL. The default implementation writes
+     * each value using the value data type.
+     *
+     * @param buff the target buffer
+     * @param valueType the data type used to write values
+     */
+    protected void writeData(WriteBuffer buff, DataType valueType) {
+        for (int i = 0; i < size; i++) {
+            if (!isNull(i)) {
+                valueType.write(buff, getNotNull(i));
+            }
+        }
+    }
+
+    /**
+     * Read the cells that are not NULL. The size and the NULL positions are
+     * already set, and there is enough capacity.
+     *
+     * @param buff the source buffer
+     * @param valueType the data type used to read values
+     */
+    protected void readData(ByteBuffer buff, DataType valueType) {
+        for (int i = 0; i < size; i++) {
+            if (!isNull(i)) {
+                setNotNull(i, (Value) valueType.read(buff));
+            }
+        }
+    }
+
+    /**
+     * Get the value at a position that is known not to be NULL.
+     *
+     * @param pos the position
+     * @return the value
+     */
+    protected abstract Value getNotNull(int pos);
+
+    /**
+     * Store a value that is not NULL.
+     *
+     * @param pos the position
+     * @param v the value
+     */
+    protected abstract void setNotNull(int pos, Value v);
+
+    /**
+     * Release the data at the given position, if possible. The cell was
+     * already marked as NULL.
+     *
+     * @param pos the position
+     */
+    protected abstract void clear(int pos);
+
+    /**
+     * Make sure there is room for at least the given number of cells.
+     *
+     * @param minCapacity the required capacity
+     */
+    protected abstract void ensureCapacity(int minCapacity);
+
+    /**
+     * Discard all data after the vector was truncated.
+     */
+    protected abstract void reset();
+
+    /**
+     * Get the estimated memory used by the data arrays, in bytes.
+     *
+     * @return the memory
+     */
+    protected abstract int getDataMemory();
+
+    /**
+     * Calculate the new capacity of an array that needs to grow.
+     *
+     * @param capacity the current capacity
+     * @param minCapacity the required capacity
+     * @return the new capacity
+     */
+    static int grow(int capacity, int minCapacity) {
+        int newCapacity = Math.max(INITIAL_CAPACITY, capacity + (capacity >> 1));
+        return Math.max(newCapacity, minCapacity);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder buff = new StringBuilder(getClass().getSimpleName());
+        buff.append('[');
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                buff.append(", ");
+            }
+            buff.append(get(i).getTraceSQL());
+        }
+        return buff.append(']').toString();
+    }
+
+}
@@ -0,0 +1,450 @@
+package org.h2.column;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import org.h2.engine.Database;
+import org.h2.engine.Session;
+import org.h2.expression.Aggregate;
+import org.h2.expression.AggregateData;
+import org.h2.expression.Comparison;
+import org.h2.expression.ConditionAndOr;
+import org.h2.expression.Expression;
+import org.h2.expression.ExpressionColumn;
+import org.h2.expression.Parameter;
+import org.h2.table.Column;
+import org.h2.table.TableFilter;
+import org.h2.util.ValueHashMap;
+import org.h2.value.Value;
+import org.h2.value.ValueArray;
+import org.h2.value.ValueNull;
+
+/**
+ * Computes the aggregates of a query over a columnar table in parallel. The
+ * segments of the table are split across the threads of a fork-join pool;
+ * each task filters its segments and computes partial aggregates, which are
+ * merged at the end. Within a batch, the aggregates are computed by
+ * {@link AggregateKernel} objects directly from the column vectors.
+ *
+ * Only queries over a single table are supported, where each selected
+ * expression is a COUNT, SUM, AVG, MIN or MAX of a column (or COUNT(*)) or the
+ * only GROUP BY column, and where the condition is a conjunction of
+ * comparisons of a column with a constant. Such conditions are evaluated
+ * exactly by the column filters, so that the query condition is not needed
+ * afterwards. The rows of a batch are grouped by the dictionary code if the
+ * GROUP BY column is dictionary encoded.
+ */
+public class ColumnarAggregate {
+
+    /**
+     * The number of segments a task processes without splitting it further.
+     */
+    private static final int SEGMENTS_PER_TASK = 4;
+
+    private static ForkJoinPool pool;
+
+    private static final ValueArray DEFAULT_GROUP = ValueArray.get(new Value[0]);
+
+    private final Database database;
+    private final ColumnarIndex index;
+    private final Column[] columns;
+    private final ColumnFilter[] filters;
+    private final int[] columnIds;
+    private final Aggregate[] aggregates;
+    private final int[] arguments;
+    private final int groupColumn;
+    private final long end;
+
+    private ColumnarAggregate(Database database, ColumnarIndex index,
+            Column[] columns, ColumnFilter[] filters, int[] columnIds,
+            Aggregate[] aggregates, int[] arguments, int groupColumn,
+            long end) {
+        this.database = database;
+        this.index = index;
+        this.columns = columns;
+        this.filters = filters;
+        this.columnIds = columnIds;
+        this.aggregates = aggregates;
+        this.arguments = arguments;
+        this.groupColumn = groupColumn;
+        this.end = end;
+    }
+
+    /**
+     * Compute the aggregates of a query, if possible.
+     *
+     * @param session the session
+     * @param filter the table filter (the only table of the query)
+     * @param condition the condition, or null
+     * @param expressions the selected expressions
+     * @param columnCount the number of selected expressions
+     * @param groupIndex the indexes of the GROUP BY expressions, or null
+     * @param groups the map of groups to fill; the key is the array of the
+     *            GROUP BY values, and the value the aggregate data by
+     *            expression
+     * @return false if the query is not supported
+     */
+    public static boolean query(Session session, TableFilter filter,
+            Expression condition, ArrayList<Expression> expressions,
+            int columnCount, int[] groupIndex,
+            ValueHashMap<HashMap<Expression, Object>> groups) {
+        if (filter.getJoin() != null ||
+                !(filter.getIndex() instanceof ColumnarIndex) ||
+                (groupIndex != null && groupIndex.length != 1)) {
+            return false;
+        }
+        ColumnarIndex index = (ColumnarIndex) filter.getIndex();
+        long end = index.getEnd();
+        if (end <= Segment.SIZE * SEGMENTS_PER_TASK) {
+            // not worth it
+            return false;
+        }
+        if (session.getDatabase().isMultiVersion() &&
+                index.getDelta().hasNext()) {
+            // rows deleted by other sessions are still visible
+            return false;
+        }
+        Column[] columns = filter.getTable().getColumns();
+        ArrayList<Aggregate> aggregates = new ArrayList<>(columnCount);
+        int[] arguments = new int[columnCount];
+        boolean[] used = new boolean[columns.length];
+        int groupColumn = -1;
+        for (int i = 0; i < columnCount; i++) {
+            Expression e = expressions.get(i).getNonAliasExpression();
+            if (groupIndex != null && groupIndex[0] == i) {
+                groupColumn = getColumnId(filter, e);
+                if (groupColumn < 0) {
+                    return false;
+                }
+                used[groupColumn] = true;
+                continue;
+            }
+            if (!(e instanceof Aggregate) || !((Aggregate) e).isMergeable()) {
+                return false;
+            }
+            Aggregate a = (Aggregate) e;
+            Expression on = a.getOn();
+            int id = -1;
+            if (on != null) {
+                id = getColumnId(filter, on);
+                if (id < 0) {
+                    return false;
+                }
+                used[id] = true;
+            }
+            arguments[aggregates.size()] = id;
+            aggregates.add(a);
+        }
+        ColumnFilter[] byColumn = new ColumnFilter[used.length];
+        if (condition != null &&
+                !addCondition(session, filter, condition, byColumn)) {
+            return false;
+        }
+        ArrayList<ColumnFilter> list = new ArrayList<>();
+        for (ColumnFilter f : byColumn) {
+            if (f != null) {
+                list.add(f);
+            }
+        }
+        ColumnFilter[] filters = list.isEmpty() ? null :
+                list.toArray(new ColumnFilter[0]);
+        int count = 0;
+        for (boolean u : used) {
+            if (u) {
+                count++;
+            }
+        }
+        int[] columnIds = new int[count];
+        for (int i = 0, j = 0; i < used.length; i++) {
+            if (used[i]) {
+                columnIds[j++] = i;
+            }
+        }
+        ColumnarAggregate aggregate = new ColumnarAggregate(
+                session.getDatabase(), index, columns, filters, columnIds,
+                aggregates.toArray(new Aggregate[0]),
+                Arrays.copyOf(arguments, aggregates.size()), groupColumn, end);
+        int segmentCount = (int) ((end + Segment.SIZE - 1) >>> Segment.SHIFT);
+        ValueHashMap<AggregateData[]> result = getPool().invoke(
+                aggregate.new Task(0, segmentCount));
+        for (Value key : result.keys()) {
+            AggregateData[] data = result.get(key);
+            HashMap<Expression, Object> group = new HashMap<>();
+            for (int i = 0; i < data.length; i++) {
+                group.put(aggregate.aggregates[i], data[i]);
+            }
+            groups.put(key, group);
+        }
+        return true;
+    }
+
+    /**
+     * Get the id of the column if the expression is a column of the table.
+     *
+     * @param filter the table filter
+     * @param e the expression
+     * @return the column id, or -1 if it is not a column of the table (or if
+     *         it is the _ROWID_ pseudo column)
+     */
+    private static int getColumnId(TableFilter filter, Expression e) {
+        if (e instanceof ExpressionColumn &&
+                ((ExpressionColumn) e).getTableFilter() == filter) {
+            return ((ExpressionColumn) e).getColumn().getColumnId();
+        }
+        return -1;
+    }
+
+    private static synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool();
+        }
+        return pool;
+    }
+
+    /**
+     * Convert a condition to column filters.
+     *
+     * @param session the session
+     * @param filter the table filter
+     * @param condition the condition
+     * @param byColumn the column filters, by column id
+     * @return false if the condition can not be evaluated exactly by column
+     *         filters
+     */
+    private static boolean addCondition(Session session, TableFilter filter,
+            Expression condition, ColumnFilter[] byColumn) {
+        if (condition instanceof ConditionAndOr) {
+            ConditionAndOr and = (ConditionAndOr) condition;
+            return and.getAndOrType() == ConditionAndOr.AND &&
+                    addCondition(session, filter, and.getExpression(true), byColumn) &&
+                    addCondition(session, filter, and.getExpression(false), byColumn);
+        }
+        if (!(condition instanceof Comparison)) {
+            return false;
+        }
+        Comparison comparison = (Comparison) condition;
+        int compareType = comparison.getCompareType();
+        Expression left = comparison.getExpression(true);
+        Expression right = comparison.getExpression(false);
+        if (!(left instanceof ExpressionColumn)) {
+            // constant on the left side
+            Expression e = left;
+            left = right;
+            right = e;
+            switch (compareType) {
+            case Comparison.BIGGER:
+                compareType = Comparison.SMALLER;
+                break;
+            case Comparison.BIGGER_EQUAL:
+                compareType = Comparison.SMALLER_EQUAL;
+                break;
+            case Comparison.SMALLER:
+                compareType = Comparison.BIGGER;
+                break;
+            case Comparison.SMALLER_EQUAL:
+                compareType = Comparison.BIGGER_EQUAL;
+                break;
+            default:
+            }
+        }
+        if (!(left instanceof ExpressionColumn) ||
+                ((ExpressionColumn) left).getTableFilter() != filter ||
+                right == null ||
+                !(right.isConstant() || right instanceof Parameter)) {
+            return false;
+        }
+        Value v = right.getValue(session);
+        if (v == ValueNull.INSTANCE) {
+            return false;
+        }
+        int id = ((ExpressionColumn) left).getColumn().getColumnId();
+        if (id < 0) {
+            return false;
+        }
+        ColumnFilter f = byColumn[id];
+        if (f == null) {
+            f = new ColumnFilter(filter.getTable(), id);
+            byColumn[id] = f;
+        }
+        switch (compareType) {
+        case Comparison.EQUAL:
+            f.restrictStart(v, false);
+            f.restrictEnd(v, false);
+            return true;
+        case Comparison.BIGGER_EQUAL:
+            f.restrictStart(v, false);
+            return true;
+        case Comparison.BIGGER:
+            f.restrictStart(v, true);
+            return true;
+        case Comparison.SMALLER_EQUAL:
+            f.restrictEnd(v, false);
+            return true;
+        case Comparison.SMALLER:
+            f.restrictEnd(v, true);
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Aggregate a range of rows.
+     *
+     * @param filters the column filters of this task, or null
+     * @param start the key of the first row
+     * @param limit the key of the first row that is not read
+     * @return the partial results by group
+     */
+    private ValueHashMap<AggregateData[]> aggregate(ColumnFilter[] filters,
+            long start, long limit) {
+        ValueHashMap<AggregateData[]> result = ValueHashMap.newInstance();
+        AggregateKernel[] kernels = new AggregateKernel[aggregates.length];
+        for (int i = 0; i < kernels.length; i++) {
+            int id = arguments[i];
+            kernels[i] = AggregateKernel.create(database, aggregates[i],
+                    id < 0 ? null : columns[id]);
+        }
+        int[] groups = groupColumn < 0 ? null :
+                new int[ColumnarBatch.BLOCK_SIZE];
+        ArrayList<Value> keys = new ArrayList<>();
+        long pos = start;
+        ColumnarBatch batch;
+        while ((batch = index.getBatch(pos, limit, filters, columnIds)) != null) {
+            int rowCount = batch.getRowCount();
+            int[] positions = batch.getPositions();
+            keys.clear();
+            if (groups == null) {
+                keys.add(DEFAULT_GROUP);
+            } else {
+                setGroups(batch.getVector(groupColumn), positions, rowCount,
+                        groups, keys);
+            }
+            for (int i = 0; i < kernels.length; i++) {
+                int id = arguments[i];
+                kernels[i].reset(keys.size());
+                kernels[i].add(id < 0 ? null : batch.getVector(id),
+                        positions, groups, rowCount);
+            }
+            for (int g = 0; g < keys.size(); g++) {
+                Value key = keys.get(g);
+                AggregateData[] data = result.get(key);
+                if (data == null) {
+                    data = createData();
+                    result.put(key, data);
+                }
+                for (int i = 0; i < kernels.length; i++) {
+                    kernels[i].flush(g, data[i]);
+                }
+            }
+            pos = batch.getNextPosition();
+        }
+        return result;
+    }
+
+    private AggregateData[] createData() {
+        AggregateData[] data = new AggregateData[aggregates.length];
+        for (int i = 0; i < aggregates.length; i++) {
+            data[i] = aggregates[i].createData();
+        }
+        return data;
+    }
+
+    /**
+     * Assign the rows of a batch to groups numbered from 0, in the order the
+     * groups first appear. Rows of a dictionary encoded vector are grouped by
+     * the code; rows with different codes but equal values are merged when
+     * the partial results are added by key.
+     *
+     * @param vector the vector of the GROUP BY column
+     * @param positions the positions of the rows within the vector
+     * @param rowCount the number of rows
+     * @param groups receives the group of each row
+     * @param keys receives the key of each group
+     */
+    private static void setGroups(ColumnVector vector, int[] positions,
+            int rowCount, int[] groups, ArrayList<Value> keys) {
+        if (vector instanceof DictionaryVector) {
+            DictionaryVector dictionary = (DictionaryVector) vector;
+            // the last code is used for NULL
+            int nullCode = dictionary.getDictionarySize();
+            int[] codes = new int[nullCode + 1];
+            Arrays.fill(codes, -1);
+            for (int i = 0; i < rowCount; i++) {
+                int p = positions[i];
+                int code = dictionary.isNull(p) ? nullCode :
+                        dictionary.getCode(p);
+                int g = codes[code];
+                if (g < 0) {
+                    g = keys.size();
+                    codes[code] = g;
+                    keys.add(ValueArray.get(new Value[] { vector.get(p) }));
+                }
+                groups[i] = g;
+            }
+            return;
+        }
+        HashMap<Value, Integer> map = new HashMap<>();
+        for (int i = 0; i < rowCount; i++) {
+            Value v = vector.get(positions[i]);
+            Integer g = map.get(v);
+            if (g == null) {
+                g = keys.size();
+                map.put(v, g);
+                keys.add(ValueArray.get(new Value[] { v }));
+            }
+            groups[i] = g;
+        }
+    }
+
+    /**
+     * Computes the partial results of a range of segments.
+     */
+    private class Task extends RecursiveTask<ValueHashMap<AggregateData[]>> {
+
+        private static final long serialVersionUID = 1L;
+        private final int from, to;
+
+        Task(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected ValueHashMap<AggregateData[]> compute() {
+            if (to - from > SEGMENTS_PER_TASK) {
+                int mid = (from + to) >>> 1;
+                Task first = new Task(from, mid);
+                first.fork();
+                ValueHashMap<AggregateData[]> result = new Task(mid, to).compute();
+                ValueHashMap<AggregateData[]> other = first.join();
+                for (Value key : result.keys()) {
+                    AggregateData[] data = result.get(key);
+                    AggregateData[] target = other.get(key);
+                    if (target == null) {
+                        other.put(key, data);
+                        continue;
+                    }
+                    for (int i = 0; i < aggregates.length; i++) {
+                        aggregates[i].merge(database, target[i], data[i]);
+                    }
+                }
+                return other;
+            }
+            ColumnFilter[] copies = null;
+            if (filters != null) {
+                // the filters cache the results per dictionary code
+                copies = new ColumnFilter[filters.length];
+                for (int i = 0; i < filters.length; i++) {
+                    copies[i] = filters[i].copy();
+                }
+            }
+            return aggregate(copies, (long) from << Segment.SHIFT,
+                    Math.min(end, (long) to << Segment.SHIFT));
+        }
+
+    }
+
+}
@@ -0,0 +1,182 @@
+package org.h2.column;
+
+import org.h2.engine.Constants;
+import org.h2.message.DbException;
+import org.h2.result.SearchRow;
+import org.h2.value.Value;
+
+/**
+ * A block of rows read from a columnar table. Only the columns that are used
+ * by the query are read; the values of the other columns are null. Each value
+ * is read from its vector when it is first used, so that columns that are
+ * only needed after a join or a condition are only read for the rows that
+ * match.
+ */
+class ColumnarBatch {
+
+    /**
+     * The maximum number of rows in a batch.
+     */
+    static final int BLOCK_SIZE = 1024;
+
+    private final long offset;
+    private final int[] positions;
+    private final ColumnVector[] vectors;
+    private final Value[][] columns;
+    private final int rowCount;
+    private final long nextPosition;
+
+    ColumnarBatch(long offset, int[] positions, int rowCount,
+            ColumnVector[] vectors, long nextPosition) {
+        this.offset = offset;
+        this.positions = positions;
+        this.rowCount = rowCount;
+        this.vectors = vectors;
+        this.columns = new Value[vectors.length][];
+        this.nextPosition = nextPosition;
+    }
+
+    /**
+     * Get the number of rows in this batch.
+     *
+     * @return the row count
+     */
+    int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Get the key of the given row.
+     *
+     * @param row the row number within the batch
+     * @return the key
+     */
+    long getKey(int row) {
+        return offset + positions[row];
+    }
+
+    /**
+     * Get a value.
+     *
+     * @param row the row number within the batch
+     * @param columnId the column id
+     * @return the value, or null if the column was not read
+     */
+    Value getValue(int row, int columnId) {
+        Value[] values = columns[columnId];
+        if (values == null) {
+            ColumnVector vector = vectors[columnId];
+            if (vector == null) {
+                return null;
+            }
+            values = new Value[rowCount];
+            columns[columnId] = values;
+        }
+        Value v = values[row];
+        if (v == null) {
+            v = vectors[columnId].get(positions[row]);
+            values[row] = v;
+        }
+        return v;
+    }
+
+    /**
+     * Get the column vector of the segment the rows were read from.
+     *
+     * @param columnId the column id
+     * @return the vector (must not be modified), or null if the column was
+     *         not read
+     */
+    ColumnVector getVector(int columnId) {
+        return vectors[columnId];
+    }
+
+    /**
+     * Get the positions of the rows within the column vectors.
+     *
+     * @return the positions (must not be modified), at least as many as there
+     *         are rows
+     */
+    int[] getPositions() {
+        return positions;
+    }
+
+    /**
+     * Get a search row that contains the values of the given row that were
+     * read.
+     *
+     * @param row the row number within the batch
+     * @return the search row
+     */
+    SearchRow getSearchRow(int row) {
+        return new BatchRow(row);
+    }
+
+    /**
+     * Get the position where the next batch starts.
+     *
+     * @return the position
+     */
+    long getNextPosition() {
+        return nextPosition;
+    }
+
+    /**
+     * A row of a batch.
+     */
+    private class BatchRow implements SearchRow {
+
+        private final int row;
+
+        BatchRow(int row) {
+            this.row = row;
+        }
+
+        @Override
+        public int getColumnCount() {
+            return columns.length;
+        }
+
+        @Override
+        public Value getValue(int index) {
+            return ColumnarBatch.this.getValue(row, index);
+        }
+
+        @Override
+        public void setValue(int index, Value v) {
+            throw DbException.throwInternalError(toString());
+        }
+
+        @Override
+        public void setKeyAndVersion(SearchRow old) {
+            throw DbException.throwInternalError(toString());
+        }
+
+        @Override
+        public int getVersion() {
+            return 0;
+        }
+
+        @Override
+        public void setKey(long key) {
+            throw DbException.throwInternalError(toString());
+        }
+
+        @Override
+        public long getKey() {
+            return ColumnarBatch.this.getKey(row);
+        }
+
+        @Override
+        public int getMemory() {
+            return Constants.MEMORY_ROW;
+        }
+
+        @Override
+        public String toString() {
+            return "batch row " + row + " key " + getKey();
+        }
+
+    }
+
+}
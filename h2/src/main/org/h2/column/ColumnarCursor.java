@@ -7,75 +7,92 @@ import org.h2.result.Row;
 import org.h2.result.SearchRow;
 import org.h2.index.Cursor;
 
-import java.util.logging.Logger;
-
 /**
- * Cursor implementation for the columnar index.
+ * Cursor implementation for the columnar index. Rows are read in batches of
+ * up to {@link ColumnarBatch#BLOCK_SIZE} rows, and only the columns used by
+ * the query are read. The full row is only built if it is requested.
  *
  */
 public class ColumnarCursor implements Cursor {
-    Logger log = Logger.getLogger(ColumnarCursor.class.getName());
     private final ColumnarIndex theIndex;
     private Row row;
+    private SearchRow searchRow;
     private final Session session;
-    private final boolean multiVersion;
     private Iterator<Row> delta;
+    private final ColumnFilter[] filters;
+    private final int[] columnIds;
+    private final long end;
+    private ColumnarBatch batch;
+    private int batchRow;
+    private long nextPosition;
 
-    ColumnarCursor(Session session, ColumnarIndex theIndex, boolean multiVersion) {
+    ColumnarCursor(Session session, ColumnarIndex theIndex,
+            ColumnFilter[] filters, int[] columnIds, boolean multiVersion) {
         this.session = session;
         this.theIndex = theIndex;
-        this.multiVersion = multiVersion;
+        this.filters = filters;
+        this.columnIds = columnIds;
+        // rows that are added later are not visible to this cursor
+        end = theIndex.getEnd();
         if (multiVersion) {
             delta = theIndex.getDelta();
         }
-        row = null;
+    }
+
+    /**
+     * Read the next batch of rows.
+     *
+     * @return the batch, or null if there are no more rows
+     */
+    private ColumnarBatch nextBatch() {
+        batch = theIndex.getBatch(nextPosition, end, filters, columnIds);
+        if (batch != null) {
+            nextPosition = batch.getNextPosition();
+        }
+        return batch;
     }
 
     @Override
     public Row get() {
+        if (row == null && searchRow != null) {
+            row = theIndex.getRow(session, searchRow.getKey());
+        }
         return row;
     }
 
     @Override
     public SearchRow getSearchRow() {
-        return row;
+        return searchRow;
     }
 
     @Override
     public boolean next() {
-        if (multiVersion) {
-            while (true) {
-                if (delta != null) {
-                    if (!delta.hasNext()) {
-                        delta = null;
-                        row = null;
-                        continue;
-                    }
-                    row = delta.next();
-                    if (!row.isDeleted() || row.getSessionId() == session.getId()) {
-                        continue;
-                    }
-                } else {
-                    row = theIndex.getNextRow(row);
-                    if (row != null && row.getSessionId() != 0 &&
-			row.getSessionId() != session.getId()) {
-                        continue;
-                    }
-                }
+        row = null;
+        while (delta != null) {
+            if (!delta.hasNext()) {
+                delta = null;
                 break;
             }
-            return row != null;
+            Row r = delta.next();
+            if (!r.isDeleted() || r.getSessionId() == session.getId()) {
+                continue;
+            }
+            if (!ColumnarIndex.matches(r, filters)) {
+                continue;
+            }
+            row = r;
+            searchRow = r;
+            return true;
         }
-
-	// get the next non-tombstone row
-	row = theIndex.getNextRow(row);
-	while (row != null && row.getKey() == ColumnarIndex.TOMBSTONE.getKey()) {
-	    row = theIndex.getNextRow(row);
-	}
-
-	log.info("next() - row: " + row);
-	
-        return row != null;
+        if (batch == null || ++batchRow >= batch.getRowCount()) {
+            if (nextBatch() == null) {
+                searchRow = null;
+                return false;
+            }
+            batchRow = 0;
+        }
+        searchRow = batch.getSearchRow(batchRow);
+        return true;
     }
 
     @Override
@@ -1,165 +1,488 @@
 package org.h2.column;
 
+import java.util.Arrays;
 import java.util.HashSet;
+import org.h2.engine.Constants;
 import org.h2.engine.Session;
+import org.h2.index.BaseIndex;
+import org.h2.index.Cursor;
+import org.h2.index.IndexCondition;
+import org.h2.index.IndexType;
 import org.h2.message.DbException;
 import org.h2.result.Row;
 import org.h2.result.SearchRow;
 import org.h2.result.SortOrder;
 import org.h2.table.Column;
 import org.h2.table.IndexColumn;
-import org.h2.table.RegularTable;
 import org.h2.table.TableFilter;
 import org.h2.value.Value;
-import org.h2.index.Cursor;
-import org.h2.index.SingleRowCursor;
-import org.h2.index.BaseIndex;
-import org.h2.index.Index;
-import org.h2.index.IndexType;
-import org.h2.index.IndexCondition;
-import java.util.Map;
-import java.util.List;
-import java.util.ArrayList;
-import java.util.HashMap;
 
 /**
- * Hash index implementation for a table stored in columnar format. Uses a simple
- * extensible hashing algorithm, based on Java Collections containers.
- *
+ * An in-memory hash index for a columnar table, on one or more columns. The
+ * keys are kept in an open addressing hash table with linear probing, where
+ * each slot stores the key values, the hash code, and the first row key.
+ * Further row keys of the same index key are stored in blocks of a flat long
+ * array that are chained per slot, so that adding, removing and looking up
+ * rows does not allocate objects per row.
  */
 public class ColumnarHashIndex extends BaseIndex {
-    private final ColumnarTable table;
-    private final int idxColId; // array index of column on which this index is defined
 
-    private long rowCount = 0;
-    private Map<Value,List<Long>> hashTable = new HashMap<Value,List<Long>>();
-    
+    /**
+     * The number of row keys in an overflow block.
+     */
+    private static final int BLOCK_ROWS = 7;
+
+    /**
+     * The length of an overflow block: the index of the next block, followed
+     * by the row keys.
+     */
+    private static final int BLOCK_LENGTH = BLOCK_ROWS + 1;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final ColumnarTable tableData;
+    private final ColumnarIndex scanIndex;
+    private final int[] columnIds;
+    private final int[] columnTypes;
+
+    /**
+     * The key values, columnIds.length per slot.
+     */
+    private Value[] keys;
+    private int[] hashes;
+    private long[] firstRows;
+
+    /**
+     * The number of rows per slot, 0 if the slot is empty.
+     */
+    private int[] counts;
+
+    /**
+     * The overflow block that is filled next, per slot, or -1.
+     */
+    private int[] heads;
+    private int mask;
+    private int keyCount;
+    private long rowCount;
+
+    private long[] overflow;
+    private int overflowLength;
+    private int freeBlock;
+
     public ColumnarHashIndex(ColumnarTable table, int id, String indexName,
-		     IndexColumn[] columns, IndexType indexType) {
-	this.table = table;
-	this.idxColId = columns[0].column.getColumnId();
-	clear();
+            IndexColumn[] columns, IndexType indexType) {
+        initBaseIndex(table, id, indexName, columns, indexType);
+        this.tableData = table;
+        scanIndex = table.getColumnarIndex();
+        columnIds = new int[columns.length];
+        columnTypes = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            Column c = columns[i].column;
+            columnIds[i] = c.getColumnId();
+            columnTypes[i] = c.getType();
+        }
+        reset();
+    }
+
+    private void reset() {
+        allocate(INITIAL_CAPACITY);
+        keyCount = 0;
+        rowCount = 0;
+        overflow = new long[0];
+        overflowLength = 0;
+        freeBlock = -1;
     }
 
-    private void clear() {
-	hashTable.clear();
-	rowCount = 0;
+    private void allocate(int capacity) {
+        mask = capacity - 1;
+        keys = new Value[capacity * columnIds.length];
+        hashes = new int[capacity];
+        firstRows = new long[capacity];
+        counts = new int[capacity];
+        heads = new int[capacity];
     }
 
     @Override
     public void truncate(Session session) {
-	clear();
+        reset();
     }
 
     @Override
     public void add(Session session, Row row) {
-	Value v = row.getValue(idxColId);
-	List<Long> hashBin = null;
-	if (hashTable.containsKey(v)) {
-	    hashBin = hashTable.get(v);
-	} else {
-	    hashBin = new ArrayList<Long>();
-	    hashTable.put(v, hashBin);
-	}
-	hashBin.add(row.getKey());
-	rowCount++;
+        int hash = getHash(row);
+        int slot = getSlot(row, hash);
+        if (slot >= 0) {
+            if (indexType.isUnique() && !containsNullAndAllowMultipleNull(row)) {
+                throw getDuplicateKeyException(getKeySQL(slot));
+            }
+        } else {
+            if ((keyCount + 1) * 4L > (mask + 1) * 3L) {
+                rehash();
+                slot = getSlot(row, hash);
+            }
+            slot = ~slot;
+            int len = columnIds.length;
+            for (int i = 0; i < len; i++) {
+                keys[slot * len + i] = getKey(row, i);
+            }
+            hashes[slot] = hash;
+            heads[slot] = -1;
+            keyCount++;
+        }
+        append(slot, row.getKey());
+        rowCount++;
+    }
+
+    private void append(int slot, long key) {
+        int count = counts[slot];
+        if (count == 0) {
+            firstRows[slot] = key;
+        } else {
+            int offset = (count - 1) % BLOCK_ROWS;
+            if (offset == 0) {
+                int block = allocateBlock();
+                overflow[block] = heads[slot];
+                heads[slot] = block;
+            }
+            overflow[heads[slot] + 1 + offset] = key;
+        }
+        counts[slot] = count + 1;
+    }
+
+    private int allocateBlock() {
+        int block = freeBlock;
+        if (block >= 0) {
+            freeBlock = (int) overflow[block];
+            return block;
+        }
+        if (overflowLength == overflow.length) {
+            overflow = Arrays.copyOf(overflow,
+                    Math.max(BLOCK_LENGTH * 4, overflow.length * 2));
+        }
+        block = overflowLength;
+        overflowLength += BLOCK_LENGTH;
+        return block;
     }
 
     @Override
     public void remove(Session session, Row row) {
-	Value v = row.getValue(idxColId);
-	if (hashTable.containsKey(v)) {
-	    List<Long> hashBin = hashTable.get(v);
-	    if (hashBin.contains(row.getKey())) {
-		hashBin.remove(row.getKey());
-		rowCount--;
-	    }
-	    if (hashBin.size() == 0) {
-		hashTable.remove(v);
-	    }
-	}
+        int slot = getSlot(row, getHash(row));
+        if (slot < 0) {
+            return;
+        }
+        long key = row.getKey();
+        int count = counts[slot];
+        // the last row key is moved to the position of the removed key
+        int lastOffset = count < 2 ? -1 : (count - 2) % BLOCK_ROWS;
+        long last = count < 2 ? firstRows[slot] :
+                overflow[heads[slot] + 1 + lastOffset];
+        if (firstRows[slot] == key) {
+            firstRows[slot] = last;
+        } else if (!replace(slot, key, last)) {
+            return;
+        }
+        if (lastOffset == 0) {
+            int block = heads[slot];
+            heads[slot] = (int) overflow[block];
+            overflow[block] = freeBlock;
+            freeBlock = block;
+        }
+        rowCount--;
+        if (--counts[slot] == 0) {
+            removeSlot(slot);
+        }
+    }
+
+    private boolean replace(int slot, long key, long replacement) {
+        int remaining = counts[slot] - 1;
+        int inBlock = (remaining - 1) % BLOCK_ROWS + 1;
+        for (int block = heads[slot]; block >= 0; block = (int) overflow[block]) {
+            for (int i = 1; i <= inBlock; i++) {
+                if (overflow[block + i] == key) {
+                    overflow[block + i] = replacement;
+                    return true;
+                }
+            }
+            inBlock = BLOCK_ROWS;
+        }
+        return false;
+    }
+
+    /**
+     * Remove an empty slot, and move the following slots of the probe
+     * sequence back, so that no deleted markers are needed.
+     *
+     * @param slot the slot
+     */
+    private void removeSlot(int slot) {
+        keyCount--;
+        int len = columnIds.length;
+        int i = slot;
+        while (true) {
+            int j = i;
+            int home;
+            do {
+                j = (j + 1) & mask;
+                if (counts[j] == 0) {
+                    Arrays.fill(keys, i * len, i * len + len, null);
+                    return;
+                }
+                home = hashes[j] & mask;
+            } while (i <= j ? (i < home && home <= j) : (i < home || home <= j));
+            System.arraycopy(keys, j * len, keys, i * len, len);
+            hashes[i] = hashes[j];
+            firstRows[i] = firstRows[j];
+            counts[i] = counts[j];
+            heads[i] = heads[j];
+            counts[j] = 0;
+            i = j;
+        }
+    }
+
+    private void rehash() {
+        Value[] oldKeys = keys;
+        int[] oldHashes = hashes, oldCounts = counts, oldHeads = heads;
+        long[] oldFirstRows = firstRows;
+        int len = columnIds.length;
+        allocate((mask + 1) * 2);
+        for (int old = 0; old < oldCounts.length; old++) {
+            if (oldCounts[old] == 0) {
+                continue;
+            }
+            int slot = oldHashes[old] & mask;
+            while (counts[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            System.arraycopy(oldKeys, old * len, keys, slot * len, len);
+            hashes[slot] = oldHashes[old];
+            firstRows[slot] = oldFirstRows[old];
+            counts[slot] = oldCounts[old];
+            heads[slot] = oldHeads[old];
+        }
+    }
+
+    /**
+     * Get a key value of a row, converted to the column type. The search
+     * value may be of a similar type, for example INT for a BIGINT column.
+     *
+     * @param row the row
+     * @param i the index of the column within the index
+     * @return the value
+     */
+    private Value getKey(SearchRow row, int i) {
+        return row.getValue(columnIds[i]).convertTo(columnTypes[i]);
+    }
+
+    private int getHash(SearchRow row) {
+        int hash = 0;
+        for (int i = 0; i < columnIds.length; i++) {
+            hash = hash * 31 + getKey(row, i).hashCode();
+        }
+        // spread the bits, as the slot is taken from the lower bits
+        hash *= 0x9e3779b9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Find the slot of the key of a row.
+     *
+     * @param row the row
+     * @param hash the hash code of the key
+     * @return the slot, or the (bitwise inverted) empty slot where the key
+     *         would be inserted
+     */
+    private int getSlot(SearchRow row, int hash) {
+        int len = columnIds.length;
+        for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+            if (counts[slot] == 0) {
+                return ~slot;
+            }
+            if (hashes[slot] == hash) {
+                boolean equal = true;
+                for (int i = 0; equal && i < len; i++) {
+                    equal = keys[slot * len + i].equals(getKey(row, i));
+                }
+                if (equal) {
+                    return slot;
+                }
+            }
+        }
+    }
+
+    private String getKeySQL(int slot) {
+        int len = columnIds.length;
+        StringBuilder buff = new StringBuilder();
+        for (int i = 0; i < len; i++) {
+            if (i > 0) {
+                buff.append(", ");
+            }
+            buff.append(keys[slot * len + i].getTraceSQL());
+        }
+        return buff.toString();
     }
 
     @Override
     public Cursor find(Session session, SearchRow first, SearchRow last) {
-	if (first == null || last == null) {
-	    throw DbException.throwInternalError(first + " " + last);
-	}
-	
-	Value v = first.getValue(idxColId);
-	v = v.convertTo(table.getColumn(idxColId).getType());  // convert int->long if needed
-	Row result;
-	Long rowKey = hashTable.get(v).get(0);
-	if (rowKey == null) {
-	    result = null;
-	} else {
-	    result = table.getRow(session, rowKey.intValue());
-	}
-	return new SingleRowCursor(result);
-    }
-    
+        if (first == null || last == null) {
+            throw DbException.throwInternalError(first + " " + last);
+        }
+        int slot = getSlot(first, getHash(first));
+        return new HashCursor(session, slot < 0 ? 0 : counts[slot],
+                slot < 0 ? 0 : firstRows[slot], slot < 0 ? -1 : heads[slot]);
+    }
+
     @Override
     public long getRowCount(Session session) {
-	return getRowCountApproximation();
+        return rowCount;
     }
 
     @Override
     public long getRowCountApproximation() {
-	return rowCount;
+        return rowCount;
     }
 
     @Override
     public long getDiskSpaceUsed() {
-	return 0;  // in-memory
+        return 0;
+    }
+
+    /**
+     * Get the estimated memory used by this index, in bytes. The key values
+     * are shared with the rows, and are not included.
+     *
+     * @return the memory
+     */
+    public long getMemory() {
+        int capacity = mask + 1;
+        return Constants.MEMORY_OBJECT * 6 +
+                (long) capacity * (columnIds.length * Constants.MEMORY_POINTER +
+                4 + 8 + 4 + 4) + overflow.length * 8L;
+    }
+
+    /**
+     * Get a summary of the memory used by this index.
+     *
+     * @return the summary
+     */
+    public String getMemoryReport() {
+        int blocks = overflowLength / BLOCK_LENGTH;
+        return getName() + ": " + keyCount + " keys, " + rowCount +
+                " rows, " + (mask + 1) + " slots, " + blocks +
+                " overflow blocks, " + getMemory() + " bytes";
     }
 
     @Override
     public void close(Session session) {
-	clear();
+        // nothing to do
     }
-    
+
     @Override
     public void remove(Session session) {
-	clear();
+        reset();
     }
-    
+
     @Override
     public double getCost(Session session, int[] masks,
-			  TableFilter[] filters, int filter, SortOrder sortOrder,
-			  HashSet<Column> allColumnsSet) {
-	for (Column column : columns) {
-	    int index = column.getColumnId();
-	    int mask = masks[index];
-	    if ((mask & IndexCondition.EQUALITY) != IndexCondition.EQUALITY) {
-		return Long.MAX_VALUE;
-	    }
-	}
-	return 2;
+            TableFilter[] filters, int filter, SortOrder sortOrder,
+            HashSet<Column> allColumnsSet) {
+        for (Column column : columns) {
+            int index = column.getColumnId();
+            int mask = masks[index];
+            if ((mask & IndexCondition.EQUALITY) != IndexCondition.EQUALITY) {
+                return Long.MAX_VALUE;
+            }
+        }
+        return 2;
     }
 
     @Override
     public void checkRename() {
-	// always permitted
+        // ok
     }
 
     @Override
     public boolean needRebuild() {
-	return true;
+        return true;
     }
-    
+
     @Override
     public boolean canGetFirstOrLast() {
-	return false;  // not an ordered index
+        return false;
     }
-    
+
     @Override
     public Cursor findFirstOrLast(Session session, boolean first) {
-	throw DbException.getUnsupportedException("ColumnarHash");
+        throw DbException.getUnsupportedException("HASH");
     }
-    
+
     @Override
     public boolean canScan() {
-	return false;
+        return false;
+    }
+
+    /**
+     * The cursor over the rows of one key. The index must not be changed
+     * while the cursor is used.
+     */
+    private class HashCursor implements Cursor {
+
+        private final Session session;
+        private final long firstRow;
+        private int remaining;
+        private int block;
+        private int offset;
+        private SearchRow searchRow;
+        private Row row;
+
+        HashCursor(Session session, int count, long firstRow, int head) {
+            this.session = session;
+            this.remaining = count;
+            this.firstRow = firstRow;
+            this.block = head;
+            // the head block is filled first, and may not be full
+            offset = count < 2 ? 0 : (count - 2) % BLOCK_ROWS + 2;
+        }
+
+        @Override
+        public Row get() {
+            if (row == null && searchRow != null) {
+                row = tableData.getRow(session, searchRow.getKey());
+            }
+            return row;
+        }
+
+        @Override
+        public SearchRow getSearchRow() {
+            return searchRow;
+        }
+
+        @Override
+        public boolean next() {
+            row = null;
+            if (remaining <= 0) {
+                searchRow = null;
+                return false;
+            }
+            long key;
+            if (--remaining == 0) {
+                key = firstRow;
+            } else {
+                if (--offset == 0) {
+                    block = (int) overflow[block];
+                    offset = BLOCK_ROWS;
+                }
+                key = overflow[block + offset];
+            }
+            // the values are read when the conditions are evaluated
+            searchRow = scanIndex.getSearchRow(key);
+            return true;
+        }
+
+        @Override
+        public boolean previous() {
+            throw DbException.throwInternalError(toString());
+        }
+
     }
-    
+
 }
@@ -6,21 +6,24 @@ import org.h2.result.Row;
 import org.h2.result.RowImpl;
 import org.h2.engine.Session;
 import org.h2.index.Cursor;
+import org.h2.index.Index;
 import org.h2.value.Value;
 import org.h2.index.BaseIndex;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
-import java.util.LinkedHashMap;
 import org.h2.api.ErrorCode;
+import org.h2.column.mvstore.ColumnarTableData;
 import org.h2.engine.Constants;
 import org.h2.engine.Session;
 import org.h2.engine.UndoLogRecord;
+import org.h2.expression.Comparison;
+import org.h2.expression.Expression;
+import org.h2.index.IndexCondition;
 import org.h2.message.DbException;
 import org.h2.result.Row;
 import org.h2.result.SearchRow;
@@ -29,6 +32,8 @@ import org.h2.table.Column;
 import org.h2.table.IndexColumn;
 import org.h2.table.TableFilter;
 import org.h2.util.New;
+import org.h2.value.CompareMode;
+import org.h2.value.ValueNull;
 
 import java.util.logging.Logger;
 
@@ -49,19 +54,37 @@ public class ColumnarIndex extends BaseIndex {
     private long rowCount;
     private HashSet<Row> delta;  // used for MVCC support
 
-    private long nextKey = 0;
+    private volatile long nextKey = 0;
     private ArrayList<Row> rows = New.arrayList();  // row-wise storage
-    private String[] columnNames = null;
-    private Map<String,List<Value>> columnStore = new LinkedHashMap<String,List<Value>>();  // columnar storage
+    private final Column[] tableColumns;
+    private final int columnCount;
+    private final CompareMode compareMode;
+    // columnar storage, replaced (copy on write) when a segment is added
+    private volatile Segment[] segments = new Segment[0];
+    private final ColumnarTableData store;  // null for in-memory tables
+
+    private int sparseSegments;  // sealed segments that should be compacted
+
+    // the merged statistics, and the row count and changes when computed
+    private ColumnStatistics[] statistics;
+    private long statisticsRows;
+    private long statisticsChanges;
+
+    /**
+     * The number of rows removed since the index was opened or truncated.
+     */
+    private long removedRows;
 
-    private Set<Long> tombstoneKeys = new HashSet<Long>();
     public static final Row TOMBSTONE = new RowImpl(null, 0);  // singleton tombstone marker
-    static { TOMBSTONE.setKey(-9999); }
+    static {
+        TOMBSTONE.setKey(-9999);
+        TOMBSTONE.setDeleted(true);
+    }
 
     boolean debugOn = false; 
     
     public ColumnarIndex(ColumnarTable table, int id, IndexColumn[] columns,
-			 IndexType indexType) {
+			 IndexType indexType, ColumnarTableData store) {
 
 	tableName = table.getTableName();
 	
@@ -71,13 +94,11 @@ public class ColumnarIndex extends BaseIndex {
 	
 	log.info("ColumnarIndex() - table: " + tableName);
 
-	// store column names, used as keys for the columnar store
-	Column[] cols = table.getColumns();
-	columnNames = new String[cols.length];
-	for (int i = 0; i < cols.length; i++) {
-	    columnNames[i] = cols[i].getName();
-	    columnStore.put(columnNames[i], new ArrayList<Value>());  // initialize columnStore
-	}
+        // segments of one typed vector per column, indexed by the column id
+        tableColumns = table.getColumns();
+        columnCount = tableColumns.length;
+        compareMode = table.getDatabase().getCompareMode();
+        this.store = store;
 	
         initBaseIndex(table, id, table.getName() + "_DATA", columns, indexType);
         if (database.isMultiVersion()) {
@@ -86,20 +107,341 @@ public class ColumnarIndex extends BaseIndex {
             sessionRowCount = null;
         }
         tableData = table;
+        if (store != null) {
+            recover();
+        } else {
+            addSegment();
+        }
+    }
+
+    /**
+     * Load the segment summaries, the write buffer and the deleted rows from
+     * the store. The column vectors of sealed segments are read on demand.
+     */
+    private void recover() {
+        int sealed = store.getSegmentCount();
+        Segment[] list = new Segment[sealed];
+        long deletedCount = 0;
+        for (int i = 0; i < sealed; i++) {
+            Segment segment = new Segment(i, store.getZoneMap(i), null);
+            segment.rowCount = Segment.SIZE;
+            segment.sealed = true;
+            long[] bits = store.getDeleted(i);
+            if (bits != null) {
+                segment.setDeleted(bits);
+                deletedCount += segment.deletedCount;
+                if (segment.isEmpty()) {
+                    // the compaction may not have completed
+                    segment.released = true;
+                    store.releaseSegment(i, columnCount);
+                } else if (segment.isSparse()) {
+                    sparseSegments++;
+                }
+            }
+            list[i] = segment;
+        }
+        segments = list;
+        nextKey = (long) sealed << Segment.SHIFT;
+        addSegment();
+        for (Value[] data : store.getBufferedRows()) {
+            append(data);
+        }
+        long[] bits = store.getDeleted(sealed);
+        if (bits != null) {
+            for (int pos = 0; pos < Segment.SIZE; pos++) {
+                if ((bits[pos >>> 6] & (1L << pos)) != 0) {
+                    markDeleted(((long) sealed << Segment.SHIFT) + pos);
+                    deletedCount++;
+                }
+            }
+        }
+        rowCount = nextKey - deletedCount;
+        tableData.setRowCount(rowCount);
+        log.info("ColumnarIndex() - recovered " + rowCount + " rows of " + tableName);
+    }
+
+    private void addSegment() {
+        ColumnVector[] columns = new ColumnVector[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            columns[i] = ColumnVector.create(tableColumns[i]);
+        }
+        Segment[] list = segments;
+        list = Arrays.copyOf(list, list.length + 1);
+        list[list.length - 1] = new Segment(list.length - 1,
+                new ZoneMap(columnCount), columns);
+        segments = list;
+    }
+
+    /**
+     * Append a row to the last segment, and seal the segment if it is full.
+     * The row is visible to readers once the next key is updated.
+     *
+     * @param data the values
+     */
+    private void append(Value[] data) {
+        Segment[] list = segments;
+        Segment segment = list[list.length - 1];
+        ColumnVector[] columns = segment.columns;
+        for (int i = 0; i < columnCount; i++) {
+            Value v = data[i];
+            ColumnVector vector = columns[i];
+            if (!vector.canStore(v)) {
+                // for example too many distinct values for a dictionary
+                vector = vector.expand();
+                columns[i] = vector;
+            }
+            vector.add(v);
+            segment.zoneMap.add(i, v, compareMode);
+        }
+        segment.rowCount++;
+        nextKey++;
+        if (segment.rowCount == Segment.SIZE) {
+            seal(segment);
+        }
+    }
+
+    /**
+     * Append a batch of rows. The values are written one column at a time,
+     * and the rows get consecutive keys. Rows that are part of a segment that
+     * is sealed by this batch are not added to the write buffer of the store,
+     * as the segment is written as a whole.
+     *
+     * @param session the session
+     * @param rows the rows
+     */
+    synchronized void addRows(Session session, ArrayList<Row> rows) {
+        setChanged(session);
+        if (database.isMultiVersion()) {
+            // each row is tracked in the delta until it is committed
+            for (Row row : rows) {
+                add(session, row);
+            }
+            return;
+        }
+        int count = rows.size();
+        for (int start = 0; start < count;) {
+            Segment[] list = segments;
+            Segment segment = list[list.length - 1];
+            int end = start + Math.min(count - start,
+                    Segment.SIZE - segment.rowCount);
+            ColumnVector[] columns = segment.columns;
+            for (int i = 0; i < columnCount; i++) {
+                ColumnVector vector = columns[i];
+                vector.ensureCapacity(vector.size + end - start);
+                for (int j = start; j < end; j++) {
+                    Value v = rows.get(j).getValue(i);
+                    if (!vector.canStore(v)) {
+                        vector = vector.expand();
+                        columns[i] = vector;
+                    }
+                    vector.add(v);
+                    segment.zoneMap.add(i, v, compareMode);
+                }
+            }
+            long key = nextKey;
+            for (int j = start; j < end; j++) {
+                Row row = rows.get(j);
+                row.setKey(key + j - start);
+                row.setDeleted(false);
+            }
+            segment.rowCount += end - start;
+            // the rows are visible to readers from now on
+            nextKey = key + end - start;
+            if (segment.rowCount == Segment.SIZE) {
+                seal(segment);
+            } else if (store != null) {
+                for (int j = start; j < end; j++) {
+                    Row row = rows.get(j);
+                    Value[] data = new Value[columnCount];
+                    for (int i = 0; i < columnCount; i++) {
+                        data[i] = row.getValue(i);
+                    }
+                    store.addRow(row.getKey(), data);
+                }
+            }
+            start = end;
+        }
+        rowCount += count;
+    }
+
+    /**
+     * Seal a full segment: encode the column vectors, write the segment to
+     * the store, and start a new segment.
+     *
+     * @param segment the segment
+     */
+    private void seal(Segment segment) {
+        segment.sealed = true;
+        if (segment.isSparse()) {
+            sparseSegments++;
+        }
+        // readers may still use the plain vectors
+        ColumnVector[] columns = segment.columns.clone();
+        ColumnStatistics[] stats = new ColumnStatistics[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            stats[i] = ColumnStatistics.create(columns[i], segment.rowCount,
+                    compareMode);
+            columns[i] = columns[i].encode();
+        }
+        segment.statistics = stats;
+        segment.columns = columns;
+        if (store != null) {
+            store.writeSegment(segment.id, columns, segment.zoneMap, stats,
+                    segment.getStart(), segment.rowCount);
+            // from now on read through the store
+            segment.columns = null;
+            segment.statistics = null;
+        }
+        addSegment();
+    }
+
+    /**
+     * Mark a row as deleted. The values are not changed, as concurrent
+     * readers may still read them.
+     *
+     * @param key the row key
+     * @return the segment, or null if the row was already deleted
+     */
+    private Segment markDeleted(long key) {
+        Segment segment = segments[(int) (key >>> Segment.SHIFT)];
+        int pos = (int) (key - segment.getStart());
+        if (!segment.setDeleted(pos)) {
+            return null;
+        }
+        if (segment.sealed && segment.deletedCount * 2 == segment.rowCount) {
+            sparseSegments++;
+        }
+        return segment;
+    }
+
+    /**
+     * Clear the deleted flag of a row that is added again with the key and
+     * the values it had when it was deleted, for example when a delete is
+     * rolled back. This keeps the key of the row, which the undo log may
+     * still refer to. Rows of compacted segments are not restored.
+     *
+     * @param row the row
+     * @return true if the row was restored
+     */
+    private boolean undelete(Row row) {
+        long key = row.getKey();
+        if (key < 0 || key >= nextKey) {
+            return false;
+        }
+        Segment segment = segments[(int) (key >>> Segment.SHIFT)];
+        int pos = (int) (key - segment.getStart());
+        if (segment.released || !segment.isDeleted(pos)) {
+            return false;
+        }
+        for (int i = 0; i < columnCount; i++) {
+            if (!getVector(segment, i).get(pos).equals(row.getValue(i))) {
+                return false;
+            }
+        }
+        if (segment.sealed && segment.deletedCount * 2 == segment.rowCount) {
+            sparseSegments--;
+        }
+        segment.clearDeleted(pos);
+        if (store != null) {
+            store.setDeleted(segment.id, segment.deleted);
+        }
+        return true;
+    }
+
+    /**
+     * Check whether there are sealed segments where at least half of the
+     * rows are deleted.
+     *
+     * @return true if the table should be compacted
+     */
+    boolean needsCompaction() {
+        return sparseSegments > 0 && !database.isMultiVersion();
+    }
+
+    /**
+     * Get the remaining rows of the sealed segments where at least half of
+     * the rows are deleted. A compaction moves these rows to the end of the
+     * table, so that the segments can be released.
+     *
+     * @param session the session
+     * @return the rows
+     */
+    synchronized ArrayList<Row> getRowsToCompact(Session session) {
+        ArrayList<Row> rows = New.arrayList();
+        // the open segment is not compacted
+        Segment[] list = segments;
+        for (int i = 0, last = list.length - 1; i < last; i++) {
+            Segment segment = list[i];
+            if (!segment.isSparse()) {
+                continue;
+            }
+            long start = segment.getStart();
+            for (int pos = 0; pos < segment.rowCount; pos++) {
+                if (!segment.isDeleted(pos)) {
+                    rows.add(getRow(session, start + pos));
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Release the column vectors of the sealed segments where all rows are
+     * deleted. The session must hold an exclusive lock on the table, and the
+     * deletes must be committed, as an undo log may refer to rows by key.
+     */
+    synchronized void releaseEmptySegments() {
+        Segment[] list = segments;
+        for (int i = 0, last = list.length - 1; i < last; i++) {
+            Segment segment = list[i];
+            if (!segment.sealed || segment.released || !segment.isEmpty()) {
+                continue;
+            }
+            segment.released = true;
+            segment.columns = null;
+            if (store != null) {
+                store.releaseSegment(segment.id, columnCount);
+            }
+            sparseSegments--;
+        }
+        if (debugOn) {
+            log.info("releaseEmptySegments() - " + tableName + ": " + segments.length + " segments");
+        }
+    }
+
+    private ColumnVector getVector(Segment segment, int columnId) {
+        ColumnVector[] columns = segment.columns;
+        if (columns != null) {
+            return columns[columnId];
+        } else if (store == null) {
+            // released by a compaction
+            return null;
+        }
+        return store.getColumn(segment.id, columnId);
     }
 
     @Override
     public void remove(Session session) {
         truncate(session);
+        if (store != null) {
+            store.remove();
+        }
     }
 
     @Override
-    public void truncate(Session session) {
+    public synchronized void truncate(Session session) {
 
 	log.info("ColumnarIndex() - truncate()");
+        setChanged(session);
 	nextKey = 0;
-	columnStore = new LinkedHashMap<String,List<Value>>();
-	tombstoneKeys = new HashSet<Long>();
+	statistics = null;
+	removedRows = 0;
+        segments = new Segment[0];
+        addSegment();
+        if (store != null) {
+            store.truncate();
+        }
+	sparseSegments = 0;
 	
         if (tableData.getContainsLargeObject() && tableData.isPersistData()) {
             database.getLobStorage().removeAllForTable(table.getId());
@@ -121,42 +463,81 @@ public class ColumnarIndex extends BaseIndex {
     public Row getRow(Session session, long key) {
 	if (key >= nextKey) {
 	    return null;
-	} else if (tombstoneKeys.contains(key)) {
+	}
+        Segment segment = segments[(int) (key >>> Segment.SHIFT)];
+        int pos = (int) (key - segment.getStart());
+	if (segment.isDeleted(pos)) {
 	    return TOMBSTONE;  // signal to cursor to skip this row
 	}
 	
-	// construct a row from our columnar values
-	Value[] data = new Value[columnNames.length];
-	if (debugOn) {
-	    log.info("getRow() - key: " + key);
-	}
-	for (int i = 0; i < columnNames.length; i++) {
-	    data[i] = columnStore.get(columnNames[i]).get((int) key);
-	    if (debugOn) { log.info("getRow() - column: " + columnNames[i] + " / " + i + ", val: " + data[i]); }
-	}
+        // construct a row from our columnar values
+        Value[] data = new Value[columnCount];
+        if (debugOn) {
+            log.info("getRow() - key: " + key);
+        }
+        for (int i = 0; i < columnCount; i++) {
+            data[i] = getVector(segment, i).get(pos);
+            if (debugOn) {
+                log.info("getRow() - column: " + tableColumns[i].getName() +
+                        " / " + i + ", val: " + data[i]);
+            }
+        }
 
 	Row r = new RowImpl(data, 0);  // 0 => in-memory
 	r.setKey(key);
 	return r;
     }
 
+    /**
+     * Get a row whose values are only read from the column vectors when they
+     * are used. This is used for lookups that are followed by conditions
+     * (for example joins), so that the remaining columns are only read for
+     * the rows that match.
+     *
+     * @param key the row key
+     * @return the row, {@link #TOMBSTONE} if the row was deleted, or null if
+     *         there is no such row
+     */
+    SearchRow getSearchRow(long key) {
+        if (key >= nextKey) {
+            return null;
+        }
+        Segment segment = segments[(int) (key >>> Segment.SHIFT)];
+        if (segment.isDeleted((int) (key - segment.getStart()))) {
+            return TOMBSTONE;
+        }
+        return new LazyRow(key);
+    }
+
     @Override
-    public void add(Session session, Row row) {
+    public synchronized void add(Session session, Row row) {
+        setChanged(session);
 
-	row.setKey(nextKey);
-	Value[] vals = row.getValueList();
-	for (int i = 0; i < columnNames.length; i++) {
-	    columnStore.get(columnNames[i]).add(vals[i]);
-	}
-	nextKey++;
-
-	if (debugOn) {
-	    // debug output, print the full column store after adding this row
-	    StringBuffer sb = new StringBuffer("'"+ tableName +"' columnStore: [\n");
-	    columnStore.forEach((k,v) -> sb.append("  " + k + ": " + v + "\n"));
-	    sb.append("]");
-	    log.info(sb.toString());
-	}
+        if (!undelete(row)) {
+            row.setKey(nextKey);
+            Value[] data = new Value[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                data[i] = row.getValue(i);
+            }
+            if (store != null) {
+                store.addRow(nextKey, data);
+            }
+            append(data);
+        }
+
+        if (debugOn) {
+            // debug output, print the open segment after adding this row
+            Segment[] list = segments;
+            Segment segment = list[list.length - 1];
+            StringBuilder sb = new StringBuilder("'" + tableName + "' segment " +
+                    segment.id + ": [\n");
+            for (int i = 0; i < columnCount; i++) {
+                sb.append("  ").append(tableColumns[i].getName()).append(": ").
+                        append(segment.columns[i]).append('\n');
+            }
+            sb.append(']');
+            log.info(sb.toString());
+        }
 	
         row.setDeleted(false);
 	
@@ -174,7 +555,7 @@ public class ColumnarIndex extends BaseIndex {
     }
 
     @Override
-    public void commit(int operation, Row row) {
+    public synchronized void commit(int operation, Row row) {
         if (database.isMultiVersion()) {
             if (delta != null) {
                 delta.remove(row);
@@ -195,13 +576,13 @@ public class ColumnarIndex extends BaseIndex {
     }
 
     @Override
-    public void remove(Session session, Row row) {
+    public synchronized void remove(Session session, Row row) {
+        setChanged(session);
 
-	long key = row.getKey();
-	tombstoneKeys.add(key);
-	for (int i = 0; i < columnNames.length; i++) {
-	    columnStore.get(columnNames[i]).set((int) key, null);
-	}
+        Segment segment = markDeleted(row.getKey());
+        if (segment != null && store != null) {
+            store.setDeleted(segment.id, segment.deleted);
+        }
 	
         if (database.isMultiVersion()) {
             // if storage is null, the delete flag is not yet set
@@ -216,18 +597,342 @@ public class ColumnarIndex extends BaseIndex {
             incrementRowCount(session.getId(), -1);
         }
         rowCount--;
+        removedRows++;
     }
 
     @Override
     public Cursor find(Session session, SearchRow first, SearchRow last) {
-        return new ColumnarCursor(session, this, database.isMultiVersion());
+        ColumnFilter[] filters = getFilters(first, last, null);
+        return new ColumnarCursor(session, this, filters, getColumnIds(null),
+                database.isMultiVersion());
+    }
+
+    @Override
+    public Cursor find(TableFilter filter, SearchRow first, SearchRow last) {
+        Session session = filter.getSession();
+        ColumnFilter[] filters = getFilters(first, last, filter);
+        return new ColumnarCursor(session, this, filters, getColumnIds(filter),
+                database.isMultiVersion());
+    }
+
+    /**
+     * Get the conditions that can be checked while scanning. The range of
+     * each column is taken from the first and last row, and IN(..) lists are
+     * taken from the index conditions of the table filter.
+     *
+     * @param first the first row, or null
+     * @param last the last row, or null
+     * @param filter the table filter, or null
+     * @return the conditions, or null if there are none
+     */
+    private ColumnFilter[] getFilters(SearchRow first, SearchRow last,
+            TableFilter filter) {
+        ColumnFilter[] byColumn = null;
+        int count = 0;
+        if (first != null || last != null) {
+            for (int i = 0; i < columnCount; i++) {
+                Value start = first == null ? null : first.getValue(i);
+                Value end = last == null ? null : last.getValue(i);
+                if (start != null || end != null) {
+                    if (byColumn == null) {
+                        byColumn = new ColumnFilter[columnCount];
+                    }
+                    ColumnFilter f = new ColumnFilter(table, i);
+                    f.setRange(start, end);
+                    byColumn[i] = f;
+                    count++;
+                }
+            }
+        }
+        if (filter != null) {
+            for (IndexCondition condition : filter.getIndexConditions()) {
+                if (condition.getCompareType() != Comparison.IN_LIST) {
+                    continue;
+                }
+                Column column = condition.getColumn();
+                int id = column.getColumnId();
+                if (id < 0 || column.getTable() != table) {
+                    continue;
+                }
+                if (byColumn == null) {
+                    byColumn = new ColumnFilter[columnCount];
+                }
+                ColumnFilter f = byColumn[id];
+                if (f == null) {
+                    f = new ColumnFilter(table, id);
+                    byColumn[id] = f;
+                    count++;
+                }
+                f.setInList(condition.getCurrentValueList(filter.getSession()));
+            }
+        }
+        return count == 0 ? null : compact(byColumn, count);
+    }
+
+    /**
+     * Check whether the row at the given position may match all conditions.
+     *
+     * @param vectors the vectors of the segment, by column id
+     * @param pos the position within the segment
+     * @param filters the conditions
+     * @return true if the row may match
+     */
+    private static boolean matches(ColumnVector[] vectors, int pos,
+            ColumnFilter[] filters) {
+        for (ColumnFilter f : filters) {
+            if (!f.test(vectors[f.columnId], pos)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check whether the given row may match all conditions.
+     *
+     * @param row the row
+     * @param filters the conditions, or null
+     * @return true if the row may match
+     */
+    static boolean matches(Row row, ColumnFilter[] filters) {
+        if (filters != null) {
+            for (ColumnFilter f : filters) {
+                if (!f.test(row.getValue(f.columnId))) {
+                    return false;
+                }
+            }
+        }
+        return true;
     }
 
     @Override
     public double getCost(Session session, int[] masks,
 			  TableFilter[] filters, int filter, SortOrder sortOrder,
 			  HashSet<Column> allColumnsSet) {
-        return tableData.getRowCountApproximation() + Constants.COST_ROW_OFFSET;
+        double rows = tableData.getRowCountApproximation();
+        if (filters != null) {
+            ColumnFilter[] f = getPlanFilters(session, filters[filter]);
+            double fraction = f == null ? 1 : getBlockFraction(f);
+            if (masks != null) {
+                fraction = Math.min(fraction,
+                        getSelectivity(filters[filter], f, masks));
+            }
+            rows *= fraction;
+        }
+        return rows + Constants.COST_ROW_OFFSET;
+    }
+
+    /**
+     * Estimate the fraction of rows that match the conditions, using the
+     * column statistics. Conditions with constant values use the histograms;
+     * join conditions assume uniformly distributed values.
+     *
+     * @param filter the table filter
+     * @param planFilters the conditions with constant values, or null
+     * @param masks the condition masks, by column id
+     * @return the fraction (between 0 and 1)
+     */
+    private double getSelectivity(TableFilter filter,
+            ColumnFilter[] planFilters, int[] masks) {
+        ColumnStatistics[] stats = getStatistics();
+        double selectivity = 1;
+        boolean[] done = new boolean[columnCount];
+        if (planFilters != null) {
+            for (ColumnFilter f : planFilters) {
+                done[f.columnId] = true;
+                selectivity *= f.getSelectivity(stats[f.columnId],
+                        compareMode);
+            }
+        }
+        for (IndexCondition condition : filter.getIndexConditions()) {
+            Column column = condition.getColumn();
+            int id = column.getColumnId();
+            if (id < 0 || column.getTable() != table || done[id] ||
+                    masks[id] == 0 || !condition.isEvaluatable()) {
+                continue;
+            }
+            done[id] = true;
+            int mask = masks[id];
+            if ((mask & IndexCondition.EQUALITY) == IndexCondition.EQUALITY) {
+                // for example a join condition
+                selectivity *= stats[id].getEqualFraction(null, compareMode);
+            } else if ((mask & IndexCondition.RANGE) == IndexCondition.RANGE) {
+                selectivity /= 4;
+            } else {
+                selectivity /= 3;
+            }
+        }
+        return selectivity;
+    }
+
+    /**
+     * Get the statistics of the columns, merged from the statistics of the
+     * segments. The statistics are computed again once more than an eighth
+     * of the rows were added or removed. The column selectivity is updated
+     * accordingly, so that the other indexes of the table use it as well.
+     *
+     * @return the statistics, by column id
+     */
+    synchronized ColumnStatistics[] getStatistics() {
+        // rows are added at the end, so the changes are the added keys and
+        // the removed rows
+        long changes = nextKey + removedRows;
+        if (statistics != null &&
+                (changes - statisticsChanges) * 8 <= statisticsRows) {
+            return statistics;
+        }
+        Segment[] list = segments;
+        ColumnStatistics[] merged = new ColumnStatistics[columnCount];
+        // the histograms are merged from at most this many segments
+        int step = Math.max(1, list.length / 256);
+        for (int i = 0; i < columnCount; i++) {
+            ArrayList<ColumnStatistics> parts = New.arrayList();
+            for (Segment segment : list) {
+                if (segment.released) {
+                    continue;
+                } else if (!segment.sealed) {
+                    parts.add(ColumnStatistics.create(segment.columns[i],
+                            segment.rowCount, compareMode).scale(
+                            segment.rowCount - segment.deletedCount));
+                } else {
+                    ColumnStatistics stats = segment.statistics != null ?
+                            segment.statistics[i] : store == null ? null :
+                            store.getStatistics(segment.id, i);
+                    if (stats != null) {
+                        parts.add(stats.scale(
+                                segment.rowCount - segment.deletedCount));
+                    }
+                }
+            }
+            ColumnStatistics s = ColumnStatistics.merge(parts, step,
+                    compareMode);
+            merged[i] = s;
+            if (s.getRowCount() > 0) {
+                int selectivity = (int) (100 * s.getDistinctCount() /
+                        s.getRowCount());
+                tableColumns[i].setSelectivity(Math.max(1, selectivity));
+            }
+        }
+        statistics = merged;
+        statisticsRows = rowCount;
+        statisticsChanges = changes;
+        return merged;
+    }
+
+    /**
+     * Get the conditions with constant values, which are known when the
+     * query is prepared.
+     *
+     * @param session the session
+     * @param filter the table filter
+     * @return the conditions, or null if there are none
+     */
+    private ColumnFilter[] getPlanFilters(Session session, TableFilter filter) {
+        ColumnFilter[] byColumn = null;
+        int count = 0;
+        for (IndexCondition condition : filter.getIndexConditions()) {
+            Column column = condition.getColumn();
+            int id = column.getColumnId();
+            if (id < 0 || column.getTable() != table) {
+                continue;
+            }
+            int compareType = condition.getCompareType();
+            Value v = null;
+            Value[] list = null;
+            if (compareType == Comparison.IN_LIST) {
+                if (!isConstant(condition.getExpressionList())) {
+                    continue;
+                }
+                list = condition.getCurrentValueList(session);
+            } else if (condition.getExpression() != null &&
+                    condition.getExpression().isConstant()) {
+                v = condition.getCurrentValue(session);
+            } else {
+                continue;
+            }
+            if (byColumn == null) {
+                byColumn = new ColumnFilter[columnCount];
+            }
+            ColumnFilter f = byColumn[id];
+            if (f == null) {
+                f = new ColumnFilter(table, id);
+                byColumn[id] = f;
+                count++;
+            }
+            if (list != null) {
+                f.setInList(list);
+            } else if (v == ValueNull.INSTANCE) {
+                if (compareType == Comparison.EQUAL_NULL_SAFE) {
+                    f.setRange(v, v);
+                }
+            } else {
+                if (condition.isStart()) {
+                    f.restrictStart(v);
+                }
+                if (condition.isEnd()) {
+                    f.restrictEnd(v);
+                }
+            }
+        }
+        return count == 0 ? null : compact(byColumn, count);
+    }
+
+    private static boolean isConstant(List<Expression> list) {
+        for (Expression e : list) {
+            if (!e.isConstant()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static ColumnFilter[] compact(ColumnFilter[] byColumn, int count) {
+        ColumnFilter[] filters = new ColumnFilter[count];
+        for (int i = 0, j = 0; i < byColumn.length; i++) {
+            if (byColumn[i] != null) {
+                filters[j++] = byColumn[i];
+            }
+        }
+        return filters;
+    }
+
+    /**
+     * Get the fraction of segments that may contain rows matching the
+     * conditions.
+     *
+     * @param filters the conditions
+     * @return the fraction (between 0 and 1)
+     */
+    private double getBlockFraction(ColumnFilter[] filters) {
+        Segment[] list = segments;
+        int scanned = 0;
+        for (Segment segment : list) {
+            if (mayMatch(segment, filters)) {
+                scanned++;
+            }
+        }
+        return (double) scanned / list.length;
+    }
+
+    /**
+     * Check whether a segment may contain rows that match all conditions.
+     *
+     * @param segment the segment
+     * @param filters the conditions, or null
+     * @return false if no row of the segment matches
+     */
+    private static boolean mayMatch(Segment segment, ColumnFilter[] filters) {
+        if (segment.isEmpty()) {
+            return false;
+        }
+        if (filters != null) {
+            for (ColumnFilter f : filters) {
+                if (!f.test(segment.zoneMap, segment.rowCount)) {
+                    return false;
+                }
+            }
+        }
+        return true;
     }
 
     @Override
@@ -242,21 +947,121 @@ public class ColumnarIndex extends BaseIndex {
         return rowCount;
     }
 
-    Row getNextRow(Row row) {
-        long key = row == null ? -1 : row.getKey();
-        while (true) {
-            key++;
-            row = getRow(null, key);
-	    if (row == null) { return row; }
-            if (!row.isEmpty() && row != TOMBSTONE) {
-                return row;
+    /**
+     * Get the key of the next row that is added. Rows with a smaller key are
+     * visible to readers.
+     *
+     * @return the key
+     */
+    long getEnd() {
+        return nextKey;
+    }
+
+    /**
+     * Read the next block of rows that may match the conditions. A block
+     * contains rows of only one segment. Segments that can not contain
+     * matching rows are skipped. This method does not synchronize: rows are
+     * only appended, and sealed segments are not changed, so the rows
+     * before the given end form a consistent snapshot.
+     *
+     * @param start the position where to start
+     * @param end the key of the first row that is not read
+     * @param filters the conditions, or null
+     * @param columnIds the ids of the columns to read
+     * @return the batch, or null if there are no more rows
+     */
+    ColumnarBatch getBatch(long start, long end, ColumnFilter[] filters,
+            int[] columnIds) {
+        // read after the end, so that all segments before the end are seen
+        Segment[] list = segments;
+        long pos = start;
+        while (pos < end) {
+            int index = (int) (pos >>> Segment.SHIFT);
+            if (index >= list.length) {
+                // truncated in the meantime
+                return null;
+            }
+            Segment segment = list[index];
+            long segmentStart = segment.getStart();
+            long segmentEnd = Math.min(end, segmentStart + Segment.SIZE);
+            if (!mayMatch(segment, filters)) {
+                pos = segmentEnd;
+                continue;
+            }
+            ColumnVector[] vectors = new ColumnVector[columnCount];
+            if (filters != null) {
+                for (ColumnFilter f : filters) {
+                    ColumnVector vector = getVector(segment, f.columnId);
+                    if (vector == null) {
+                        // truncated in the meantime
+                        return null;
+                    }
+                    vectors[f.columnId] = vector;
+                }
+            }
+            long[] deleted = segment.deleted;
+            int[] positions = null;
+            int count = 0;
+            for (; pos < segmentEnd && count < ColumnarBatch.BLOCK_SIZE; pos++) {
+                int x = (int) (pos - segmentStart);
+                if (deleted != null && (deleted[x >>> 6] & (1L << x)) != 0) {
+                    continue;
+                }
+                if (filters != null && !matches(vectors, x, filters)) {
+                    continue;
+                }
+                if (positions == null) {
+                    positions = new int[(int) Math.min(ColumnarBatch.BLOCK_SIZE,
+                            segmentEnd - pos)];
+                }
+                positions[count++] = x;
+            }
+            if (count == 0) {
+                continue;
+            }
+            ColumnVector[] read = new ColumnVector[columnCount];
+            for (int id : columnIds) {
+                ColumnVector vector = vectors[id];
+                if (vector == null) {
+                    vector = getVector(segment, id);
+                    if (vector == null) {
+                        return null;
+                    }
+                }
+                read[id] = vector;
+            }
+            return new ColumnarBatch(segmentStart, positions, count, read, pos);
+        }
+        return null;
+    }
+
+    /**
+     * Get the ids of the columns that are used by the query.
+     *
+     * @param filter the table filter, or null
+     * @return the column ids
+     */
+    private int[] getColumnIds(TableFilter filter) {
+        Column[] used = filter == null ? null : filter.getColumnsUsed();
+        if (used == null) {
+            used = tableColumns;
+        }
+        int[] ids = new int[used.length];
+        int count = 0;
+        for (Column column : used) {
+            if (column.getTable() == table && column.getColumnId() >= 0) {
+                ids[count++] = column.getColumnId();
             }
         }
+        return count == ids.length ? ids : Arrays.copyOf(ids, count);
     }
 
     @Override
     public int getColumnIndex(Column col) {
-        // the scan index cannot use any columns
+        // conditions on any column can be checked while scanning
+        if (col.getTable() == table) {
+            return col.getColumnId();
+        }
         return -1;
     }
 
@@ -285,12 +1090,13 @@ public class ColumnarIndex extends BaseIndex {
         throw DbException.getUnsupportedException("SCAN");
     }
 
-    Iterator<Row> getDelta() {
+    synchronized Iterator<Row> getDelta() {
         if (delta == null) {
             List<Row> e = Collections.emptyList();
             return e.iterator();
         }
-        return delta.iterator();
+        // a copy, as other sessions may change the delta while reading
+        return new ArrayList<>(delta).iterator();
     }
 
     @Override
@@ -300,7 +1106,7 @@ public class ColumnarIndex extends BaseIndex {
 
     @Override
     public long getDiskSpaceUsed() {
-        return 0;  // this implementation supports in-memory usage only
+        return 0;  // the columnar store does not track the space per table
     }
 
     @Override
@@ -310,7 +1116,100 @@ public class ColumnarIndex extends BaseIndex {
 
     @Override
     public void close(Session session) {
-        // nothing to do
+        if (store != null) {
+            store.close();
+        }
     }
-    
+
+    private void setChanged(Session session) {
+        if (store != null) {
+            store.setChanged(session.getId());
+        }
+    }
+
+    /**
+     * The transaction of the given session ended. The changes are committed
+     * to the store, if the table is persistent.
+     *
+     * @param session the session
+     */
+    void endTransaction(Session session) {
+        if (store != null) {
+            store.endTransaction(session.getId());
+        }
+    }
+
+    /**
+     * A row that reads each value from its column vector when it is first
+     * used. The segment is looked up again for each value, as it may be
+     * sealed in the meantime.
+     */
+    private class LazyRow implements SearchRow {
+
+        private final long key;
+        private final Value[] values;
+
+        LazyRow(long key) {
+            this.key = key;
+            values = new Value[columnCount];
+        }
+
+        @Override
+        public int getColumnCount() {
+            return columnCount;
+        }
+
+        @Override
+        public Value getValue(int index) {
+            Value v = values[index];
+            if (v == null) {
+                Segment segment = segments[(int) (key >>> Segment.SHIFT)];
+                ColumnVector vector = getVector(segment, index);
+                if (vector == null) {
+                    // released by a compaction
+                    return null;
+                }
+                v = vector.get((int) (key - segment.getStart()));
+                values[index] = v;
+            }
+            return v;
+        }
+
+        @Override
+        public void setValue(int index, Value v) {
+            throw DbException.throwInternalError(toString());
+        }
+
+        @Override
+        public void setKeyAndVersion(SearchRow old) {
+            throw DbException.throwInternalError(toString());
+        }
+
+        @Override
+        public int getVersion() {
+            return 0;
+        }
+
+        @Override
+        public void setKey(long key) {
+            throw DbException.throwInternalError(toString());
+        }
+
+        @Override
+        public long getKey() {
+            return key;
+        }
+
+        @Override
+        public int getMemory() {
+            return Constants.MEMORY_ROW;
+        }
+
+        @Override
+        public String toString() {
+            return "lazy row key " + key;
+        }
+
+    }
+
 }
@@ -1,13 +1,22 @@
 package org.h2.column;
 
+import org.h2.column.mvstore.ColumnarTableData;
+import org.h2.engine.Database;
 import org.h2.engine.Session;
+import org.h2.engine.UndoLogRecord;
 import org.h2.command.ddl.CreateTableData;
 import org.h2.index.Index;
 import org.h2.index.IndexType;
+import org.h2.index.PageBtreeIndex;
+import org.h2.message.DbException;
 import org.h2.table.IndexColumn;
 import org.h2.table.RegularTable;
 import org.h2.index.Index;
 import org.h2.result.Row;
+import org.h2.store.PageStore;
+import org.h2.util.IntIntHashMap;
+import org.h2.util.Task;
+import java.util.ArrayList;
 import java.util.logging.Logger;
 
 /**
@@ -21,9 +30,23 @@ public class ColumnarTable extends RegularTable {
 
     private final String tableName;
     private boolean debugOn = false;
+    private final ColumnarIndex columnarIndex;
+    private final ColumnarTableData store;
+    private Task compaction;
     
     public ColumnarTable(CreateTableData data) {
-        super(data);
+        this(data, null);
+    }
+
+    /**
+     * Create a columnar table.
+     *
+     * @param data the table definition
+     * @param store the persistent storage, or null for an in-memory table
+     */
+    public ColumnarTable(CreateTableData data, ColumnarTableData store) {
+        super(recoverMainIndex(data));
+        this.store = store;
 
 	tableName = data.tableName;
 
@@ -35,9 +58,36 @@ public class ColumnarTable extends RegularTable {
 	log.info("ColumnarTable() - table name: " + tableName + ", database: " + database);
 
 	// activate columnar index as the "scan index" for this table
-	Index scanIndex = new ColumnarIndex(this, data.id,
-					    IndexColumn.wrap(getColumns()), IndexType.createScan(data.persistData));
-	super.setScanIndex(scanIndex);
+	columnarIndex = new ColumnarIndex(this, data.id,
+					    IndexColumn.wrap(getColumns()), IndexType.createScan(data.persistData), store);
+	super.setScanIndex(columnarIndex);
+    }
+
+    /**
+     * The rows are stored in the columnar store, which is committed when the
+     * transaction commits, while the page store writes its changes later. If
+     * the database was not closed, the page store may therefore not know the
+     * (unused) main index of the table, which is then created again.
+     *
+     * @param data the table definition
+     * @return the table definition
+     */
+    private static CreateTableData recoverMainIndex(CreateTableData data) {
+	if (!data.create && data.persistData) {
+	    PageStore pageStore = getPageStore(data.session.getDatabase());
+	    if (pageStore != null &&
+		    pageStore.getRootPageId(data.id) == IntIntHashMap.NOT_FOUND) {
+		data.create = true;
+	    }
+	}
+	return data;
+    }
+
+    private static PageStore getPageStore(Database db) {
+	if (!db.isPersistent() || db.getSettings().mvStore) {
+	    return null;
+	}
+	return db.getPageStore();
     }
 
     @Override
@@ -45,7 +95,52 @@ public class ColumnarTable extends RegularTable {
 			  IndexColumn[] cols, IndexType indexType, boolean create,
 			  String indexComment) {
 	log.info(tableName + "::addIndex() - index name: " + indexName + ", isPrimaryKey? " + indexType.isPrimaryKey());
-	return super.addIndex(session, indexName, indexId, cols, indexType, create, indexComment);
+	PageStore pageStore = getPageStore(database);
+	if (!create && store != null && pageStore != null &&
+		indexType.isPersistent() && !indexType.isHash() &&
+		!indexType.isSpatial()) {
+	    // the page store may have lost its last changes, which the rows in
+	    // the columnar store already contain, so the index is created again
+	    // and filled from the rows
+	    if (pageStore.getRootPageId(indexId) == IntIntHashMap.NOT_FOUND) {
+		create = true;
+	    } else if (!store.isClosedNormally()) {
+		log.info(tableName + "::addIndex() - rebuild " + indexName);
+		database.lockMeta(session);
+		new PageBtreeIndex(this, indexId, indexName, cols, indexType,
+			false, session).remove(session);
+		create = true;
+	    }
+	}
+	Index index = super.addIndex(session, indexName, indexId, cols, indexType, create, indexComment);
+	if (index instanceof ColumnarHashIndex) {
+	    log.info(tableName + "::addIndex() - " + ((ColumnarHashIndex) index).getMemoryReport());
+	}
+	return index;
+    }
+
+    @Override
+    protected Index createHashIndex(int indexId, String indexName,
+				    IndexColumn[] cols, IndexType indexType) {
+	return new ColumnarHashIndex(this, indexId, indexName, cols, indexType);
+    }
+
+    /**
+     * Get the scan index, which stores the rows.
+     *
+     * @return the index
+     */
+    ColumnarIndex getColumnarIndex() {
+	return columnarIndex;
+    }
+
+    /**
+     * Get the statistics of the columns of this table.
+     *
+     * @return the statistics, by column id
+     */
+    public ColumnStatistics[] getColumnStatistics() {
+	return columnarIndex.getStatistics();
     }
 
     protected String getTableName() {
@@ -60,6 +155,105 @@ public class ColumnarTable extends RegularTable {
 	super.addRow(session, row);
     }
 
+    @Override
+    public boolean canAddRows() {
+	// with MVCC, each row needs its own undo log record to be committed
+	return !database.isMultiVersion();
+    }
+
+    @Override
+    protected void addRowsToScanIndex(Session session, ArrayList<Row> rows) {
+	if (debugOn) {
+	    log.info(tableName + "::addRows() - " + rows.size() + " rows");
+	}
+	columnarIndex.addRows(session, rows);
+    }
+
+    /**
+     * The transaction of the given session was committed or rolled back.
+     * The changes are durable from now on. If there are sealed segments
+     * where at least half of the rows are deleted, a compaction is started
+     * in the background.
+     *
+     * @param session the session
+     */
+    public void endTransaction(Session session) {
+	columnarIndex.endTransaction(session);
+	if (columnarIndex.needsCompaction()) {
+	    startCompaction();
+	}
+    }
+
+    private synchronized void startCompaction() {
+	if (compaction != null || database.isClosing()) {
+	    return;
+	}
+	compaction = new Task() {
+	    @Override
+	    public void call() {
+		try {
+		    compact(database.createTempSystemSession());
+		} catch (DbException e) {
+		    // for example a lock timeout, the next commit tries again
+		    trace.error(e, "compact {0}", getName());
+		} finally {
+		    synchronized (ColumnarTable.this) {
+			compaction = null;
+		    }
+		}
+	    }
+	};
+	compaction.execute("H2 Columnar Compaction " + tableName);
+    }
+
+    /**
+     * Compact the table: the remaining rows of the sealed segments where at
+     * least half of the rows are deleted are moved to the end of the table,
+     * and the column vectors of these segments are released afterwards. The
+     * rows are moved in a transaction of the given session, which is
+     * committed, so that the other indexes are updated as for a delete and
+     * an insert, and are consistent with the table if the operation fails.
+     *
+     * @param session the session, which must not have uncommitted changes
+     */
+    public void compact(Session session) {
+	try {
+	    lock(session, true, true);
+	    for (Row oldRow : columnarIndex.getRowsToCompact(session)) {
+		Row newRow = database.createRow(oldRow.getValueList(),
+			Row.MEMORY_CALCULATE);
+		// the row gets a new key, not the key of the deleted row
+		newRow.setKey(-1);
+		removeRow(session, oldRow);
+		session.log(this, UndoLogRecord.DELETE, oldRow);
+		addRow(session, newRow);
+		session.log(this, UndoLogRecord.INSERT, newRow);
+	    }
+	    session.commit(false);
+	    // the undo log no longer refers to the old keys
+	    lock(session, true, true);
+	    columnarIndex.releaseEmptySegments();
+	    session.commit(false);
+	} catch (DbException e) {
+	    session.rollback();
+	    throw e;
+	}
+    }
+
+    /**
+     * Wait until the compaction that runs in the background, if any, is
+     * finished.
+     */
+    public void waitForCompaction() {
+	Task task;
+	synchronized (this) {
+	    task = compaction;
+	}
+	if (task != null) {
+	    task.join();
+	}
+    }
+
     @Override
     public void removeRow(Session session, Row row) {
 	if (debugOn) {
@@ -1,5 +1,7 @@
 package org.h2.column;
 
+import org.h2.column.mvstore.ColumnarStore;
+import org.h2.column.mvstore.ColumnarTableData;
 import org.h2.engine.Database;
 import org.h2.api.TableEngine;
 import org.h2.table.TableBase;
@@ -18,14 +20,39 @@ public class ColumnarTableEngine implements TableEngine {
     private Logger log = Logger.getLogger(ColumnarTableEngine.class.getName());
 
     private static ColumnarTable lastCreated = null;
+
+    // the persistent storage of the tables of this database
+    private ColumnarStore store;
     
     @Override
     public TableBase createTable(CreateTableData data) {
 	log.info("createTable(" + data.tableName + ")");
-	lastCreated = new ColumnarTable(data);
+	ColumnarTableData tableData = null;
+	Database db = data.session.getDatabase();
+	if (data.persistData && db.isPersistent()) {
+	    synchronized (this) {
+		if (store == null || store.isClosed()) {
+		    store = ColumnarStore.open(db);
+		}
+	    }
+	    if (store != null) {
+		tableData = store.openTable(data.id);
+	    }
+	}
+	lastCreated = new ColumnarTable(data, tableData);
 	return lastCreated;
     }
 
+    /**
+     * Close the store without writing anything, for example when the
+     * database is shut down immediately.
+     */
+    public synchronized void closeImmediately() {
+	if (store != null) {
+	    store.closeImmediately();
+	}
+    }
+
     // used for detailed unit testing
     public static ColumnarTable getLastCreated() {
 	return lastCreated;
@@ -0,0 +1,165 @@
+package org.h2.column;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import org.h2.engine.Constants;
+import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.WriteBuffer;
+import org.h2.mvstore.type.DataType;
+import org.h2.value.Value;
+import org.h2.value.ValueNull;
+
+/**
+ * A dictionary encoded column vector for character data. Each distinct value
+ * is stored once, and the cells only contain the (int) code of the value.
+ * Values are considered distinct if their string representation differs, so
+ * that case insensitive or blank padded values are kept as they were inserted.
+ * Once the dictionary reaches the maximum size, the vector is expanded to a
+ * plain vector.
+ */
+public class DictionaryVector extends ColumnVector {
+
+    /**
+     * The maximum number of distinct values. If there are more values, the
+     * data is stored in a plain vector.
+     */
+    static final int MAX_DICTIONARY_SIZE = 4096;
+
+    private int[] codes = new int[0];
+    private Value[] dictionary = new Value[0];
+    private int dictionarySize;
+    private HashMap<String, Integer> codeMap = new HashMap<>();
+    private long dictionaryMemory;
+
+    DictionaryVector(int type) {
+        super(type);
+    }
+
+    /**
+     * Get the code of the value at the given position. The result is
+     * undefined if the cell is NULL.
+     *
+     * @param pos the position
+     * @return the code
+     */
+    public int getCode(int pos) {
+        return codes[pos];
+    }
+
+    /**
+     * Get the value for the given code.
+     *
+     * @param code the code
+     * @return the value
+     */
+    public Value getDictionaryValue(int code) {
+        return dictionary[code];
+    }
+
+    /**
+     * Get the number of distinct values in the dictionary.
+     *
+     * @return the number of entries
+     */
+    public int getDictionarySize() {
+        return dictionarySize;
+    }
+
+    @Override
+    boolean canStore(Value v) {
+        return dictionarySize < MAX_DICTIONARY_SIZE || v == null ||
+                v == ValueNull.INSTANCE || codeMap.containsKey(v.getString());
+    }
+
+    @Override
+    ColumnVector expand() {
+        BytesVector vector = new BytesVector(type);
+        vector.ensureCapacity(size);
+        for (int i = 0; i < size; i++) {
+            vector.add(get(i));
+        }
+        return vector;
+    }
+
+    @Override
+    protected Value getNotNull(int pos) {
+        return dictionary[codes[pos]];
+    }
+
+    @Override
+    protected void setNotNull(int pos, Value v) {
+        codes[pos] = getOrAddCode(v);
+    }
+
+    private int getOrAddCode(Value v) {
+        String s = v.getString();
+        Integer code = codeMap.get(s);
+        if (code != null) {
+            return code;
+        }
+        if (dictionarySize == dictionary.length) {
+            dictionary = Arrays.copyOf(dictionary,
+                    grow(dictionary.length, dictionarySize + 1));
+        }
+        int c = dictionarySize++;
+        dictionary[c] = v;
+        codeMap.put(s, c);
+        dictionaryMemory += v.getMemory() + Constants.MEMORY_OBJECT * 2;
+        return c;
+    }
+
+    @Override
+    protected void writeData(WriteBuffer buff, DataType valueType) {
+        buff.putVarInt(dictionarySize);
+        for (int i = 0; i < dictionarySize; i++) {
+            valueType.write(buff, dictionary[i]);
+        }
+        for (int i = 0; i < size; i++) {
+            if (!isNull(i)) {
+                buff.putVarInt(codes[i]);
+            }
+        }
+    }
+
+    @Override
+    protected void readData(ByteBuffer buff, DataType valueType) {
+        int len = DataUtils.readVarInt(buff);
+        for (int i = 0; i < len; i++) {
+            getOrAddCode((Value) valueType.read(buff));
+        }
+        for (int i = 0; i < size; i++) {
+            if (!isNull(i)) {
+                codes[i] = DataUtils.readVarInt(buff);
+            }
+        }
+    }
+
+    @Override
+    protected void clear(int pos) {
+        codes[pos] = 0;
+    }
+
+    @Override
+    protected void ensureCapacity(int minCapacity) {
+        if (minCapacity > codes.length) {
+            codes = Arrays.copyOf(codes, grow(codes.length, minCapacity));
+        }
+    }
+
+    @Override
+    protected void reset() {
+        codes = new int[0];
+        dictionary = new Value[0];
+        dictionarySize = 0;
+        codeMap = new HashMap<>();
+        dictionaryMemory = 0;
+    }
+
+    @Override
+    protected int getDataMemory() {
+        return (int) Math.min(Integer.MAX_VALUE, codes.length * 4L +
+                dictionary.length * Constants.MEMORY_POINTER + dictionaryMemory);
+    }
+
+}
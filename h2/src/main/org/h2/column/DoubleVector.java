@@ -0,0 +1,96 @@
+package org.h2.column;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.h2.mvstore.WriteBuffer;
+import org.h2.mvstore.type.DataType;
+import org.h2.value.Value;
+import org.h2.value.ValueDouble;
+import org.h2.value.ValueFloat;
+
+/**
+ * A column vector for DOUBLE and REAL values, stored in a double array.
+ */
+public class DoubleVector extends ColumnVector {
+
+    private double[] data = new double[0];
+
+    DoubleVector(int type) {
+        super(type);
+    }
+
+    /**
+     * Get the primitive value at the given position. The result is undefined
+     * if the cell is NULL.
+     *
+     * @param pos the position
+     * @return the value
+     */
+    public double getDouble(int pos) {
+        return data[pos];
+    }
+
+    /**
+     * Get the data array. Cells that are NULL contain 0.
+     *
+     * @return the array (must not be modified), at least as long as the size
+     */
+    double[] getData() {
+        return data;
+    }
+
+    @Override
+    protected Value getNotNull(int pos) {
+        double x = data[pos];
+        if (type == Value.FLOAT) {
+            return ValueFloat.get((float) x);
+        }
+        return ValueDouble.get(x);
+    }
+
+    @Override
+    protected void setNotNull(int pos, Value v) {
+        data[pos] = v.getDouble();
+    }
+
+    @Override
+    protected void writeData(WriteBuffer buff, DataType valueType) {
+        for (int i = 0; i < size; i++) {
+            if (!isNull(i)) {
+                buff.putDouble(data[i]);
+            }
+        }
+    }
+
+    @Override
+    protected void readData(ByteBuffer buff, DataType valueType) {
+        for (int i = 0; i < size; i++) {
+            if (!isNull(i)) {
+                data[i] = buff.getDouble();
+            }
+        }
+    }
+
+    @Override
+    protected void clear(int pos) {
+        data[pos] = 0;
+    }
+
+    @Override
+    protected void ensureCapacity(int minCapacity) {
+        if (minCapacity > data.length) {
+            data = Arrays.copyOf(data, grow(data.length, minCapacity));
+        }
+    }
+
+    @Override
+    protected void reset() {
+        data = new double[0];
+    }
+
+    @Override
+    protected int getDataMemory() {
+        return data.length * 8;
+    }
+
+}
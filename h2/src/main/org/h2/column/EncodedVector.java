@@ -0,0 +1,122 @@
+package org.h2.column;
+
+import org.h2.message.DbException;
+import org.h2.util.BitField;
+import org.h2.value.Value;
+
+/**
+ * An immutable, compressed column vector for BYTE, SHORT, INT, BIGINT, DATE
+ * and TIME values. The values are kept in the same primitive form as in
+ * {@link LongVector}. Encoded vectors are created when a segment is sealed,
+ * and when reading a segment from the store; the encoding is chosen for each
+ * vector from the values it contains.
+ */
+public abstract class EncodedVector extends ColumnVector {
+
+    EncodedVector(int type) {
+        super(type);
+    }
+
+    /**
+     * Encode the values of a vector if that saves memory.
+     *
+     * @param vector the vector (an IntVector or LongVector)
+     * @param data the primitive values, by position
+     * @param width the number of bytes per value of the vector
+     * @return the encoded vector, or the given vector
+     */
+    static ColumnVector encode(ColumnVector vector, long[] data, int width) {
+        int size = vector.size;
+        BitField nulls = vector.nulls;
+        // a NULL does not end a run, and is not used for the range
+        int runs = 0;
+        boolean sorted = true;
+        long last = 0, min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            if (nulls != null && nulls.get(i)) {
+                continue;
+            }
+            long x = data[i];
+            if (runs == 0 || x != last) {
+                runs++;
+            }
+            if (runs > 1 && x < last) {
+                sorted = false;
+            }
+            min = Math.min(min, x);
+            max = Math.max(max, x);
+            last = x;
+        }
+        if (runs == 0) {
+            // only NULL
+            return vector;
+        }
+        long plain = (long) size * width;
+        long runLength = runs * 12L;
+        int bits = FrameOfReferenceVector.getBits(min, max);
+        long packed = ((long) size * bits + 63) / 64 * 8;
+        if (runLength < plain && runLength <= packed) {
+            return RunLengthVector.create(vector, data, runs);
+        } else if (packed < plain) {
+            return FrameOfReferenceVector.create(vector, data, min, bits,
+                    sorted);
+        }
+        return vector;
+    }
+
+    /**
+     * Get the primitive value at the given position. The result is undefined
+     * if the cell is NULL.
+     *
+     * @param pos the position
+     * @return the value
+     */
+    public abstract long getLong(int pos);
+
+    /**
+     * Decode the values at the given positions. The result is undefined for
+     * cells that are NULL.
+     *
+     * @param positions the positions, ascending
+     * @param count the number of positions
+     * @param target the array that receives the values, by position
+     */
+    abstract void decode(int[] positions, int count, long[] target);
+
+    /**
+     * Copy the size and the NULL positions of the vector that is encoded.
+     *
+     * @param vector the vector
+     */
+    void init(ColumnVector vector) {
+        size = vector.size;
+        // not changed any more once the segment is sealed
+        nulls = vector.nulls;
+    }
+
+    @Override
+    protected Value getNotNull(int pos) {
+        return LongVector.toValue(type, getLong(pos));
+    }
+
+    @Override
+    protected void setNotNull(int pos, Value v) {
+        throw DbException.throwInternalError(toString());
+    }
+
+    @Override
+    protected void clear(int pos) {
+        throw DbException.throwInternalError(toString());
+    }
+
+    @Override
+    protected void ensureCapacity(int minCapacity) {
+        // the data is allocated when it is read
+    }
+
+    @Override
+    protected void reset() {
+        throw DbException.throwInternalError(toString());
+    }
+
+}
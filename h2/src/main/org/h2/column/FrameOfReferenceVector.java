@@ -0,0 +1,169 @@
+package org.h2.column;
+
+import java.nio.ByteBuffer;
+import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.WriteBuffer;
+import org.h2.mvstore.type.DataType;
+
+/**
+ * A frame-of-reference encoded vector: the values are stored as the
+ * difference to the smallest value, bit-packed using as many bits as the
+ * largest difference needs. Cells that are NULL contain the smallest value.
+ * If the values are ascending, they are written to the store as the
+ * differences between consecutive values (delta encoding), which is usually
+ * smaller for keys and timestamps; in memory they are bit-packed, so that
+ * each value can be read directly.
+ */
+public class FrameOfReferenceVector extends EncodedVector {
+
+    private final boolean sorted;
+    private long base;
+    private int bits;
+    private long[] packed;
+
+    FrameOfReferenceVector(int type, boolean sorted) {
+        super(type);
+        this.sorted = sorted;
+    }
+
+    /**
+     * Encode the values of a vector.
+     *
+     * @param vector the vector
+     * @param data the primitive values, by position
+     * @param min the smallest value that is not in a NULL cell
+     * @param bits the number of bits per value
+     * @param sorted whether the values that are not NULL are ascending
+     * @return the encoded vector
+     */
+    static FrameOfReferenceVector create(ColumnVector vector, long[] data,
+            long min, int bits, boolean sorted) {
+        FrameOfReferenceVector v = new FrameOfReferenceVector(vector.type,
+                sorted);
+        v.init(vector);
+        v.base = min;
+        v.bits = bits;
+        v.packed = new long[getLength(v.size, bits)];
+        for (int i = 0; i < v.size; i++) {
+            if (!v.isNull(i)) {
+                v.set(i, data[i] - min);
+            }
+        }
+        return v;
+    }
+
+    /**
+     * Get the number of bits needed to store the difference of two values.
+     *
+     * @param min the smallest value
+     * @param max the largest value
+     * @return the number of bits
+     */
+    static int getBits(long min, long max) {
+        long range = max - min;
+        // overflow if the range does not fit in a signed long
+        return range < 0 ? 64 : 64 - Long.numberOfLeadingZeros(range);
+    }
+
+    private static int getLength(int size, int bits) {
+        return (int) (((long) size * bits + 63) >>> 6);
+    }
+
+    private void set(int pos, long offset) {
+        if (bits == 0) {
+            return;
+        }
+        long bitPos = (long) pos * bits;
+        int index = (int) (bitPos >>> 6);
+        int shift = (int) (bitPos & 63);
+        packed[index] |= offset << shift;
+        if (shift + bits > 64) {
+            packed[index + 1] |= offset >>> (64 - shift);
+        }
+    }
+
+    @Override
+    public long getLong(int pos) {
+        if (bits == 0) {
+            return base;
+        }
+        long bitPos = (long) pos * bits;
+        int index = (int) (bitPos >>> 6);
+        int shift = (int) (bitPos & 63);
+        long x = packed[index] >>> shift;
+        if (shift + bits > 64) {
+            x |= packed[index + 1] << (64 - shift);
+        }
+        if (bits < 64) {
+            x &= (1L << bits) - 1;
+        }
+        return base + x;
+    }
+
+    @Override
+    void decode(int[] positions, int count, long[] target) {
+        for (int i = 0; i < count; i++) {
+            int p = positions[i];
+            target[p] = getLong(p);
+        }
+    }
+
+    @Override
+    protected int getEncoding() {
+        return sorted ? ENCODING_DELTA : ENCODING_FRAME_OF_REFERENCE;
+    }
+
+    @Override
+    protected void writeData(WriteBuffer buff, DataType valueType) {
+        buff.putVarLong(base);
+        if (sorted) {
+            long last = base;
+            for (int i = 0; i < size; i++) {
+                if (!isNull(i)) {
+                    long x = getLong(i);
+                    buff.putVarLong(x - last);
+                    last = x;
+                }
+            }
+            return;
+        }
+        buff.put((byte) bits);
+        for (long x : packed) {
+            buff.putLong(x);
+        }
+    }
+
+    @Override
+    protected void readData(ByteBuffer buff, DataType valueType) {
+        base = DataUtils.readVarLong(buff);
+        if (!sorted) {
+            bits = buff.get();
+            packed = new long[getLength(size, bits)];
+            for (int i = 0; i < packed.length; i++) {
+                packed[i] = buff.getLong();
+            }
+            return;
+        }
+        long[] data = new long[size];
+        long last = base;
+        for (int i = 0; i < size; i++) {
+            if (!isNull(i)) {
+                last += DataUtils.readVarLong(buff);
+                data[i] = last;
+            }
+        }
+        bits = getBits(base, last);
+        packed = new long[getLength(size, bits)];
+        for (int i = 0; i < size; i++) {
+            if (!isNull(i)) {
+                set(i, data[i] - base);
+            }
+        }
+    }
+
+    @Override
+    protected int getDataMemory() {
+        return packed.length * 8;
+    }
+
+}
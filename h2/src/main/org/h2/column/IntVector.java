@@ -0,0 +1,111 @@
+package org.h2.column;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.WriteBuffer;
+import org.h2.mvstore.type.DataType;
+import org.h2.value.Value;
+import org.h2.value.ValueByte;
+import org.h2.value.ValueInt;
+import org.h2.value.ValueShort;
+
+/**
+ * A column vector for BYTE, SHORT and INT values, stored in an int array.
+ */
+public class IntVector extends ColumnVector {
+
+    private int[] data = new int[0];
+
+    IntVector(int type) {
+        super(type);
+    }
+
+    /**
+     * Get the primitive value at the given position. The result is undefined
+     * if the cell is NULL.
+     *
+     * @param pos the position
+     * @return the value
+     */
+    public int getInt(int pos) {
+        return data[pos];
+    }
+
+    /**
+     * Get the data array. Cells that are NULL contain 0.
+     *
+     * @return the array (must not be modified), at least as long as the size
+     */
+    int[] getData() {
+        return data;
+    }
+
+    @Override
+    ColumnVector encode() {
+        long[] values = new long[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = data[i];
+        }
+        return EncodedVector.encode(this, values, 4);
+    }
+
+    @Override
+    protected Value getNotNull(int pos) {
+        int x = data[pos];
+        switch (type) {
+        case Value.BYTE:
+            return ValueByte.get((byte) x);
+        case Value.SHORT:
+            return ValueShort.get((short) x);
+        default:
+            return ValueInt.get(x);
+        }
+    }
+
+    @Override
+    protected void setNotNull(int pos, Value v) {
+        data[pos] = v.getInt();
+    }
+
+    @Override
+    protected void writeData(WriteBuffer buff, DataType valueType) {
+        for (int i = 0; i < size; i++) {
+            if (!isNull(i)) {
+                buff.putVarInt(data[i]);
+            }
+        }
+    }
+
+    @Override
+    protected void readData(ByteBuffer buff, DataType valueType) {
+        for (int i = 0; i < size; i++) {
+            if (!isNull(i)) {
+                data[i] = DataUtils.readVarInt(buff);
+            }
+        }
+    }
+
+    @Override
+    protected void clear(int pos) {
+        data[pos] = 0;
+    }
+
+    @Override
+    protected void ensureCapacity(int minCapacity) {
+        if (minCapacity > data.length) {
+            data = Arrays.copyOf(data, grow(data.length, minCapacity));
+        }
+    }
+
+    @Override
+    protected void reset() {
+        data = new int[0];
+    }
+
+    @Override
+    protected int getDataMemory() {
+        return data.length * 4;
+    }
+
+}
@@ -0,0 +1,148 @@
+package org.h2.column;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.WriteBuffer;
+import org.h2.mvstore.type.DataType;
+import org.h2.value.Value;
+import org.h2.value.ValueByte;
+import org.h2.value.ValueDate;
+import org.h2.value.ValueInt;
+import org.h2.value.ValueLong;
+import org.h2.value.ValueShort;
+import org.h2.value.ValueTime;
+
+/**
+ * A column vector for BIGINT, DATE and TIME values, stored in a long array.
+ * Dates are kept as the encoded date value, and times as nanoseconds since
+ * midnight.
+ */
+public class LongVector extends ColumnVector {
+
+    private long[] data = new long[0];
+
+    LongVector(int type) {
+        super(type);
+    }
+
+    /**
+     * Get the primitive value at the given position. The result is undefined
+     * if the cell is NULL.
+     *
+     * @param pos the position
+     * @return the value
+     */
+    public long getLong(int pos) {
+        return data[pos];
+    }
+
+    /**
+     * Get the data array. Cells that are NULL contain 0.
+     *
+     * @return the array (must not be modified), at least as long as the size
+     */
+    long[] getData() {
+        return data;
+    }
+
+    @Override
+    ColumnVector encode() {
+        return EncodedVector.encode(this, data, 8);
+    }
+
+    @Override
+    protected Value getNotNull(int pos) {
+        return toValue(type, data[pos]);
+    }
+
+    /**
+     * Convert a primitive value of a BYTE, SHORT, INT, BIGINT, DATE or TIME
+     * column to a value.
+     *
+     * @param type the column type
+     * @param x the primitive value
+     * @return the value
+     */
+    static Value toValue(int type, long x) {
+        switch (type) {
+        case Value.BYTE:
+            return ValueByte.get((byte) x);
+        case Value.SHORT:
+            return ValueShort.get((short) x);
+        case Value.INT:
+            return ValueInt.get((int) x);
+        case Value.DATE:
+            return ValueDate.fromDateValue(x);
+        case Value.TIME:
+            return ValueTime.fromNanos(x);
+        default:
+            return ValueLong.get(x);
+        }
+    }
+
+    @Override
+    protected void setNotNull(int pos, Value v) {
+        data[pos] = toLong(type, v);
+    }
+
+    /**
+     * Convert a value of the given type to the primitive representation used
+     * by this vector.
+     *
+     * @param type the column type
+     * @param v the value
+     * @return the primitive value
+     */
+    static long toLong(int type, Value v) {
+        switch (type) {
+        case Value.DATE:
+            return ((ValueDate) v).getDateValue();
+        case Value.TIME:
+            return ((ValueTime) v).getNanos();
+        default:
+            return v.getLong();
+        }
+    }
+
+    @Override
+    protected void writeData(WriteBuffer buff, DataType valueType) {
+        for (int i = 0; i < size; i++) {
+            if (!isNull(i)) {
+                buff.putVarLong(data[i]);
+            }
+        }
+    }
+
+    @Override
+    protected void readData(ByteBuffer buff, DataType valueType) {
+        for (int i = 0; i < size; i++) {
+            if (!isNull(i)) {
+                data[i] = DataUtils.readVarLong(buff);
+            }
+        }
+    }
+
+    @Override
+    protected void clear(int pos) {
+        data[pos] = 0;
+    }
+
+    @Override
+    protected void ensureCapacity(int minCapacity) {
+        if (minCapacity > data.length) {
+            data = Arrays.copyOf(data, grow(data.length, minCapacity));
+        }
+    }
+
+    @Override
+    protected void reset() {
+        data = new long[0];
+    }
+
+    @Override
+    protected int getDataMemory() {
+        return data.length * 8;
+    }
+
+}
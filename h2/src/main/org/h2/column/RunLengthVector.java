@@ -0,0 +1,159 @@
+package org.h2.column;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.WriteBuffer;
+import org.h2.mvstore.type.DataType;
+import org.h2.value.Value;
+
+/**
+ * A run-length encoded vector: each run of equal values is stored once,
+ * together with the position where the run ends. NULL cells do not end a
+ * run; they are recorded in the NULL bitmap only. Filters are evaluated once
+ * per run instead of once per row.
+ */
+public class RunLengthVector extends EncodedVector {
+
+    private long[] values;
+    private int[] ends;
+
+    RunLengthVector(int type) {
+        super(type);
+    }
+
+    /**
+     * Encode the values of a vector.
+     *
+     * @param vector the vector
+     * @param data the primitive values, by position
+     * @param runCount the number of runs
+     * @return the encoded vector
+     */
+    static RunLengthVector create(ColumnVector vector, long[] data,
+            int runCount) {
+        RunLengthVector v = new RunLengthVector(vector.type);
+        v.init(vector);
+        v.values = new long[runCount];
+        v.ends = new int[runCount];
+        int run = -1;
+        for (int i = 0; i < v.size; i++) {
+            if (v.isNull(i)) {
+                continue;
+            }
+            long x = data[i];
+            if (run < 0 || x != v.values[run]) {
+                if (run >= 0) {
+                    v.ends[run] = i;
+                }
+                v.values[++run] = x;
+            }
+        }
+        v.ends[run] = v.size;
+        return v;
+    }
+
+    /**
+     * Get the number of runs.
+     *
+     * @return the number of runs
+     */
+    public int getRunCount() {
+        return values.length;
+    }
+
+    /**
+     * Get the run that contains the given position.
+     *
+     * @param pos the position
+     * @return the run
+     */
+    int getRun(int pos) {
+        int run = Arrays.binarySearch(ends, pos);
+        // the end is exclusive
+        return run < 0 ? -run - 1 : run + 1;
+    }
+
+    /**
+     * Get the first position of a run.
+     *
+     * @param run the run
+     * @return the position
+     */
+    int getRunStart(int run) {
+        return run == 0 ? 0 : ends[run - 1];
+    }
+
+    /**
+     * Get the position after the end of a run.
+     *
+     * @param run the run
+     * @return the position
+     */
+    int getRunEnd(int run) {
+        return ends[run];
+    }
+
+    /**
+     * Get the value of a run.
+     *
+     * @param run the run
+     * @return the value (not NULL)
+     */
+    Value getRunValue(int run) {
+        return LongVector.toValue(type, values[run]);
+    }
+
+    @Override
+    public long getLong(int pos) {
+        return values[getRun(pos)];
+    }
+
+    @Override
+    void decode(int[] positions, int count, long[] target) {
+        if (count == 0) {
+            return;
+        }
+        int run = getRun(positions[0]);
+        for (int i = 0; i < count; i++) {
+            int p = positions[i];
+            while (ends[run] <= p) {
+                run++;
+            }
+            target[p] = values[run];
+        }
+    }
+
+    @Override
+    protected int getEncoding() {
+        return ENCODING_RUN_LENGTH;
+    }
+
+    @Override
+    protected void writeData(WriteBuffer buff, DataType valueType) {
+        buff.putVarInt(values.length);
+        for (int run = 0, start = 0; run < values.length; run++) {
+            buff.putVarLong(values[run]);
+            buff.putVarInt(ends[run] - start);
+            start = ends[run];
+        }
+    }
+
+    @Override
+    protected void readData(ByteBuffer buff, DataType valueType) {
+        int runCount = DataUtils.readVarInt(buff);
+        values = new long[runCount];
+        ends = new int[runCount];
+        for (int run = 0, end = 0; run < runCount; run++) {
+            values[run] = DataUtils.readVarLong(buff);
+            end += DataUtils.readVarInt(buff);
+            ends[run] = end;
+        }
+    }
+
+    @Override
+    protected int getDataMemory() {
+        return values.length * 12;
+    }
+
+}
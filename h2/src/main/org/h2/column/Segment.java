@@ -0,0 +1,164 @@
+package org.h2.column;
+
+/**
+ * A block of consecutive rows of a columnar table. Only the last segment of a
+ * table accepts new rows, and only by appending them. Once it is full, it is
+ * sealed: its values are not changed any more, and for persistent tables the
+ * column vectors are written to the store and read back on demand. Deleted
+ * rows are only recorded in the deletion bitmap, which is replaced (not
+ * modified) on each change, so that readers do not need to synchronize.
+ */
+class Segment {
+
+    /**
+     * The number of bits of a row key that address a row within a segment.
+     */
+    static final int SHIFT = 10;
+
+    /**
+     * The maximum number of rows in a segment.
+     */
+    static final int SIZE = 1 << SHIFT;
+
+    /**
+     * The segment number. The first row of the segment has the key
+     * id * SIZE.
+     */
+    final int id;
+
+    /**
+     * The summary of the values.
+     */
+    final ZoneMap zoneMap;
+
+    /**
+     * The column vectors, by column id, or null if they are kept in the
+     * store.
+     */
+    volatile ColumnVector[] columns;
+
+    /**
+     * The statistics of the columns, by column id, once the segment is
+     * sealed, or null if they are kept in the store.
+     */
+    ColumnStatistics[] statistics;
+
+    /**
+     * The number of rows, including deleted rows.
+     */
+    int rowCount;
+
+    /**
+     * The number of deleted rows.
+     */
+    int deletedCount;
+
+    /**
+     * The deleted rows, one bit per row, or null if no row is deleted.
+     */
+    volatile long[] deleted;
+
+    /**
+     * Whether the segment is full and no longer changed.
+     */
+    boolean sealed;
+
+    /**
+     * Whether the segment was compacted: all rows are deleted, and the
+     * column vectors are released.
+     */
+    boolean released;
+
+    Segment(int id, ZoneMap zoneMap, ColumnVector[] columns) {
+        this.id = id;
+        this.zoneMap = zoneMap;
+        this.columns = columns;
+    }
+
+    /**
+     * Get the key of the first row.
+     *
+     * @return the key
+     */
+    long getStart() {
+        return (long) id << SHIFT;
+    }
+
+    /**
+     * Check whether a row is deleted.
+     *
+     * @param pos the position within the segment
+     * @return true if it is deleted
+     */
+    boolean isDeleted(int pos) {
+        long[] bits = deleted;
+        return bits != null && (bits[pos >>> 6] & (1L << pos)) != 0;
+    }
+
+    /**
+     * Mark a row as deleted.
+     *
+     * @param pos the position within the segment
+     * @return false if the row was already deleted
+     */
+    boolean setDeleted(int pos) {
+        long[] bits = deleted;
+        long mask = 1L << pos;
+        if (bits == null) {
+            bits = new long[SIZE >>> 6];
+        } else if ((bits[pos >>> 6] & mask) != 0) {
+            return false;
+        } else {
+            bits = bits.clone();
+        }
+        bits[pos >>> 6] |= mask;
+        deletedCount++;
+        deleted = bits;
+        return true;
+    }
+
+    /**
+     * Clear the deleted flag of a row.
+     *
+     * @param pos the position within the segment
+     */
+    void clearDeleted(int pos) {
+        long[] bits = deleted.clone();
+        bits[pos >>> 6] &= ~(1L << pos);
+        deletedCount--;
+        deleted = bits;
+    }
+
+    /**
+     * Set the deleted rows.
+     *
+     * @param bits the bitmap, one bit per row
+     */
+    void setDeleted(long[] bits) {
+        deleted = bits;
+        deletedCount = 0;
+        for (long x : bits) {
+            deletedCount += Long.bitCount(x);
+        }
+    }
+
+    /**
+     * Check whether at least half of the rows of a sealed segment are
+     * deleted, so that the segment should be compacted.
+     *
+     * @return true if the segment should be compacted
+     */
+    boolean isSparse() {
+        return sealed && !released && deletedCount * 2 >= rowCount;
+    }
+
+    /**
+     * Check whether all rows of this segment are deleted.
+     *
+     * @return true if there are no live rows
+     */
+    boolean isEmpty() {
+        return deletedCount >= rowCount;
+    }
+
+}
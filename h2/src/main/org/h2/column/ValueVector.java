@@ -0,0 +1,61 @@
+package org.h2.column;
+
+import java.util.Arrays;
+import org.h2.engine.Constants;
+import org.h2.value.Value;
+
+/**
+ * A column vector for all types that don't have a more compact
+ * representation (DECIMAL, TIMESTAMP, UUID, LOBs and so on). The cells are
+ * kept as Value objects.
+ */
+public class ValueVector extends ColumnVector {
+
+    private Value[] data = new Value[0];
+    private long memory;
+
+    ValueVector(int type) {
+        super(type);
+    }
+
+    @Override
+    protected Value getNotNull(int pos) {
+        return data[pos];
+    }
+
+    @Override
+    protected void setNotNull(int pos, Value v) {
+        clear(pos);
+        data[pos] = v;
+        memory += v.getMemory();
+    }
+
+    @Override
+    protected void clear(int pos) {
+        Value old = data[pos];
+        if (old != null) {
+            memory -= old.getMemory();
+            data[pos] = null;
+        }
+    }
+
+    @Override
+    protected void ensureCapacity(int minCapacity) {
+        if (minCapacity > data.length) {
+            data = Arrays.copyOf(data, grow(data.length, minCapacity));
+        }
+    }
+
+    @Override
+    protected void reset() {
+        data = new Value[0];
+        memory = 0;
+    }
+
+    @Override
+    protected int getDataMemory() {
+        return (int) Math.min(Integer.MAX_VALUE,
+                data.length * Constants.MEMORY_POINTER + memory);
+    }
+
+}
@@ -0,0 +1,140 @@
+package org.h2.column;
+
+import java.nio.ByteBuffer;
+import org.h2.engine.Constants;
+import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.WriteBuffer;
+import org.h2.mvstore.type.DataType;
+import org.h2.value.CompareMode;
+import org.h2.value.Value;
+import org.h2.value.ValueNull;
+
+/**
+ * The minimum and maximum value, and the number of NULL values, of each column
+ * of a segment. The summary is conservative: deleted rows are still included,
+ * so the minimum and maximum may be smaller respectively larger than the
+ * values of the remaining rows.
+ */
+public class ZoneMap {
+
+    private final Value[] min;
+    private final Value[] max;
+    private final int[] nullCount;
+
+    ZoneMap(int columnCount) {
+        min = new Value[columnCount];
+        max = new Value[columnCount];
+        nullCount = new int[columnCount];
+    }
+
+    /**
+     * Read a zone map that was written using
+     * {@link #write(WriteBuffer, DataType)}.
+     *
+     * @param buff the source buffer
+     * @param valueType the data type used to read values
+     * @return the zone map
+     */
+    public static ZoneMap read(ByteBuffer buff, DataType valueType) {
+        int columnCount = DataUtils.readVarInt(buff);
+        ZoneMap zoneMap = new ZoneMap(columnCount);
+        for (int i = 0; i < columnCount; i++) {
+            zoneMap.nullCount[i] = DataUtils.readVarInt(buff);
+            if (buff.get() != 0) {
+                zoneMap.min[i] = (Value) valueType.read(buff);
+                zoneMap.max[i] = (Value) valueType.read(buff);
+            }
+        }
+        return zoneMap;
+    }
+
+    /**
+     * Write the zone map to the buffer.
+     *
+     * @param buff the target buffer
+     * @param valueType the data type used to write values
+     */
+    public void write(WriteBuffer buff, DataType valueType) {
+        int columnCount = min.length;
+        buff.putVarInt(columnCount);
+        for (int i = 0; i < columnCount; i++) {
+            buff.putVarInt(nullCount[i]);
+            if (min[i] == null) {
+                buff.put((byte) 0);
+            } else {
+                buff.put((byte) 1);
+                valueType.write(buff, min[i]);
+                valueType.write(buff, max[i]);
+            }
+        }
+    }
+
+    /**
+     * Update the summary after a value was appended.
+     *
+     * @param columnId the column id
+     * @param v the value
+     * @param compareMode the compare mode
+     */
+    void add(int columnId, Value v, CompareMode compareMode) {
+        if (v == null || v == ValueNull.INSTANCE) {
+            nullCount[columnId]++;
+            return;
+        }
+        Value m = min[columnId];
+        if (m == null || v.compareTo(m, compareMode) < 0) {
+            min[columnId] = v;
+        }
+        m = max[columnId];
+        if (m == null || v.compareTo(m, compareMode) > 0) {
+            max[columnId] = v;
+        }
+    }
+
+    /**
+     * Get the smallest value of a column.
+     *
+     * @param columnId the column id
+     * @return the value, or null if the column only contains NULL
+     */
+    Value getMin(int columnId) {
+        return min[columnId];
+    }
+
+    /**
+     * Get the largest value of a column.
+     *
+     * @param columnId the column id
+     * @return the value, or null if the column only contains NULL
+     */
+    Value getMax(int columnId) {
+        return max[columnId];
+    }
+
+    /**
+     * Get the number of NULL values of a column.
+     *
+     * @param columnId the column id
+     * @return the number of NULL values
+     */
+    int getNullCount(int columnId) {
+        return nullCount[columnId];
+    }
+
+    /**
+     * Get the estimated memory used, in bytes.
+     *
+     * @return the memory
+     */
+    public int getMemory() {
+        int memory = 4 * Constants.MEMORY_OBJECT +
+                min.length * (2 * Constants.MEMORY_POINTER + 4);
+        for (int i = 0; i < min.length; i++) {
+            if (min[i] != null) {
+                memory += min[i].getMemory() + max[i].getMemory();
+            }
+        }
+        return memory;
+    }
+
+}
@@ -0,0 +1,60 @@
+package org.h2.column.mvstore;
+
+import java.nio.ByteBuffer;
+import org.h2.column.ColumnVector;
+import org.h2.message.DbException;
+import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.WriteBuffer;
+import org.h2.mvstore.type.DataType;
+
+/**
+ * The data type of a stored column vector. The value type of the vector is
+ * written first, so that vectors of different columns can be kept in the
+ * same map.
+ */
+class ColumnVectorType implements DataType {
+
+    private final DataType valueType;
+
+    ColumnVectorType(DataType valueType) {
+        this.valueType = valueType;
+    }
+
+    @Override
+    public int compare(Object a, Object b) {
+        throw DbException.getUnsupportedException("compare");
+    }
+
+    @Override
+    public int getMemory(Object obj) {
+        return ((ColumnVector) obj).getMemory();
+    }
+
+    @Override
+    public void write(WriteBuffer buff, Object obj) {
+        ColumnVector vector = (ColumnVector) obj;
+        buff.putVarInt(vector.getType());
+        vector.write(buff, valueType);
+    }
+
+    @Override
+    public void write(WriteBuffer buff, Object[] obj, int len, boolean key) {
+        for (int i = 0; i < len; i++) {
+            write(buff, obj[i]);
+        }
+    }
+
+    @Override
+    public Object read(ByteBuffer buff) {
+        int type = DataUtils.readVarInt(buff);
+        return ColumnVector.read(type, buff, valueType);
+    }
+
+    @Override
+    public void read(ByteBuffer buff, Object[] obj, int len, boolean key) {
+        for (int i = 0; i < len; i++) {
+            obj[i] = read(buff);
+        }
+    }
+
+}
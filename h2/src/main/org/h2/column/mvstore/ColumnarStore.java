@@ -0,0 +1,220 @@
+package org.h2.column.mvstore;
+
+import java.lang.Thread.UncaughtExceptionHandler;
+import java.util.HashSet;
+import org.h2.api.ErrorCode;
+import org.h2.engine.Constants;
+import org.h2.engine.Database;
+import org.h2.message.DbException;
+import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.h2.mvstore.db.ValueDataType;
+import org.h2.store.fs.FileUtils;
+import org.h2.util.New;
+
+/**
+ * The store for the columnar tables of a database. The data is kept in a
+ * separate MVStore file next to the database file, so that it can be used
+ * with both the PageStore and the MVStore. Column segments are paged in and
+ * out through the page cache of the MVStore.
+ */
+public class ColumnarStore {
+
+    /**
+     * The suffix of the file name.
+     */
+    public static final String SUFFIX = ".columnar" + Constants.SUFFIX_MV_FILE;
+
+    /**
+     * The key of the setting that is stored when the store is closed.
+     */
+    private static final String CLOSED = "closed";
+
+    private final MVStore store;
+    private final ValueDataType valueType;
+    private final MVMap<String, Object> settings;
+    private int openTables;
+
+    /**
+     * The ids of the sessions that changed the data and did not yet commit or
+     * roll back.
+     */
+    private final HashSet<Integer> changedSessions = New.hashSet();
+
+    /**
+     * Whether the store was closed when the database was last closed. If
+     * not, the page store indexes of the tables may not match the rows, as
+     * the page store may lose its last changes.
+     */
+    private final boolean closedNormally;
+
+    private ColumnarStore(MVStore store, ValueDataType valueType) {
+        this.store = store;
+        this.valueType = valueType;
+        if (store.isReadOnly()) {
+            // the indexes can not be repaired anyway
+            settings = null;
+            closedNormally = true;
+        } else {
+            settings = store.openMap("settings");
+            closedNormally = settings.remove(CLOSED) != null;
+            store.commit();
+        }
+    }
+
+    /**
+     * Open the store for the given database.
+     *
+     * @param db the database
+     * @return the store, or null if the database is not persistent
+     */
+    public static ColumnarStore open(final Database db) {
+        String dbPath = db.getDatabasePath();
+        if (dbPath == null || !db.isPersistent()) {
+            return null;
+        }
+        String fileName = dbPath + SUFFIX;
+        MVStore.Builder builder = new MVStore.Builder();
+        builder.fileName(fileName);
+        // only committed when a transaction ends
+        builder.autoCommitDisabled();
+        builder.cacheSize(Math.max(1, db.getCacheSize() / 1024));
+        if (db.isReadOnly()) {
+            if (!FileUtils.exists(fileName)) {
+                return null;
+            }
+            builder.readOnly();
+        } else {
+            FileUtils.createDirectories(FileUtils.getParent(fileName));
+        }
+        byte[] key = db.getFileEncryptionKey();
+        if (key != null) {
+            char[] password = new char[key.length / 2];
+            for (int i = 0; i < password.length; i++) {
+                password[i] = (char) (((key[i + i] & 255) << 16) |
+                        ((key[i + i + 1]) & 255));
+            }
+            builder.encryptionKey(password);
+        }
+        if (db.getSettings().compressData) {
+            builder.compress();
+        }
+        builder.backgroundExceptionHandler(new UncaughtExceptionHandler() {
+
+            @Override
+            public void uncaughtException(Thread t, Throwable e) {
+                db.setBackgroundException(DbException.convert(e));
+            }
+
+        });
+        try {
+            MVStore store = builder.open();
+            return new ColumnarStore(store,
+                    new ValueDataType(db.getCompareMode(), db, null));
+        } catch (IllegalStateException e) {
+            throw convert(e, fileName);
+        }
+    }
+
+    private static DbException convert(IllegalStateException e,
+            String fileName) {
+        if (DataUtils.getErrorCode(e.getMessage()) ==
+                DataUtils.ERROR_FILE_LOCKED) {
+            return DbException.get(ErrorCode.DATABASE_ALREADY_OPEN_1, e,
+                    fileName);
+        }
+        return DbException.get(ErrorCode.FILE_CORRUPTED_1, e, fileName);
+    }
+
+    /**
+     * Open the data of a table. Each open table must be closed or removed.
+     *
+     * @param tableId the table id
+     * @return the table data
+     */
+    public synchronized ColumnarTableData openTable(int tableId) {
+        openTables++;
+        return new ColumnarTableData(this, tableId);
+    }
+
+    /**
+     * Commit the changes, if there are any.
+     */
+    public synchronized void commit() {
+        if (!store.isClosed() && store.hasUnsavedChanges()) {
+            store.commit();
+        }
+    }
+
+    /**
+     * Remember that the given session changed the data.
+     *
+     * @param sessionId the session id
+     */
+    synchronized void setChanged(int sessionId) {
+        changedSessions.add(sessionId);
+    }
+
+    /**
+     * The transaction of the given session ended. The changes are committed
+     * if no other session has uncommitted changes, as those must not become
+     * durable.
+     *
+     * @param sessionId the session id
+     */
+    public synchronized void endTransaction(int sessionId) {
+        changedSessions.remove(sessionId);
+        if (changedSessions.isEmpty()) {
+            commit();
+        }
+    }
+
+    /**
+     * Close the store without writing anything.
+     */
+    public synchronized void closeImmediately() {
+        store.closeImmediately();
+    }
+
+    /**
+     * Check whether the store is closed.
+     *
+     * @return true if it is closed
+     */
+    public synchronized boolean isClosed() {
+        return store.isClosed();
+    }
+
+    /**
+     * Check whether the store was closed when the database was last closed.
+     *
+     * @return true if yes
+     */
+    public boolean isClosedNormally() {
+        return closedNormally;
+    }
+
+    /**
+     * Release a table. The store is closed after the last table is released.
+     */
+    synchronized void release() {
+        if (--openTables == 0) {
+            // uncommitted changes are stored as well, so the indexes of the
+            // page store need to be rebuilt in this case
+            if (settings != null && changedSessions.isEmpty()) {
+                settings.put(CLOSED, 1);
+            }
+            store.close();
+        }
+    }
+
+    MVStore getStore() {
+        return store;
+    }
+
+    ValueDataType getValueType() {
+        return valueType;
+    }
+
+}
@@ -0,0 +1,259 @@
+package org.h2.column.mvstore;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import org.h2.column.ColumnStatistics;
+import org.h2.column.ColumnVector;
+import org.h2.column.ZoneMap;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.h2.value.Value;
+import org.h2.value.ValueArray;
+
+/**
+ * The stored data of one columnar table. Sealed segments are stored as one
+ * immutable column vector per column and segment, together with the zone map
+ * of the segment. Rows of the segment that is not full yet are stored row by
+ * row in a write buffer, and the keys of deleted rows are kept separately.
+ */
+public class ColumnarTableData {
+
+    private final ColumnarStore store;
+    private final MVStore mvStore;
+
+    /**
+     * The column vectors of the sealed segments. Key: the column id in the
+     * upper 32 bits and the segment number in the lower 32 bits, so that the
+     * segments of a column are stored next to each other.
+     */
+    private final MVMap<Long, ColumnVector> columns;
+
+    /**
+     * The zone maps of the sealed segments. Key: the segment number.
+     */
+    private final MVMap<Long, ZoneMap> zoneMaps;
+
+    /**
+     * The statistics of the columns of the sealed segments. Key: as for the
+     * column vectors.
+     */
+    private final MVMap<Long, ColumnStatistics> statistics;
+
+    /**
+     * The rows that are not in a sealed segment yet. Key: the row key.
+     */
+    private final MVMap<Long, Value> buffer;
+
+    /**
+     * The deleted rows, as one bitmap per segment. Key: the segment number.
+     */
+    private final MVMap<Long, long[]> deleted;
+
+    ColumnarTableData(ColumnarStore store, int tableId) {
+        this.store = store;
+        this.mvStore = store.getStore();
+        String prefix = "columnar." + tableId + ".";
+        columns = mvStore.openMap(prefix + "columns",
+                new MVMap.Builder<Long, ColumnVector>().valueType(
+                        new ColumnVectorType(store.getValueType())));
+        zoneMaps = mvStore.openMap(prefix + "zoneMaps",
+                new MVMap.Builder<Long, ZoneMap>().valueType(
+                        new ZoneMapType(store.getValueType())));
+        statistics = mvStore.openMap(prefix + "statistics",
+                new MVMap.Builder<Long, ColumnStatistics>().valueType(
+                        new ColumnStatisticsType(store.getValueType())));
+        buffer = mvStore.openMap(prefix + "buffer",
+                new MVMap.Builder<Long, Value>().valueType(
+                        store.getValueType()));
+        deleted = mvStore.openMap(prefix + "deleted");
+    }
+
+    /**
+     * Get the number of sealed segments.
+     *
+     * @return the segment count
+     */
+    public int getSegmentCount() {
+        return (int) zoneMaps.sizeAsLong();
+    }
+
+    /**
+     * Get the zone map of a sealed segment.
+     *
+     * @param segment the segment number
+     * @return the zone map
+     */
+    public ZoneMap getZoneMap(int segment) {
+        return zoneMaps.get((long) segment);
+    }
+
+    /**
+     * Get a column vector of a sealed segment.
+     *
+     * @param segment the segment number
+     * @param columnId the column id
+     * @return the vector (must not be modified)
+     */
+    public ColumnVector getColumn(int segment, int columnId) {
+        return columns.get(getKey(segment, columnId));
+    }
+
+    /**
+     * Get the statistics of a column of a sealed segment.
+     *
+     * @param segment the segment number
+     * @param columnId the column id
+     * @return the statistics
+     */
+    public ColumnStatistics getStatistics(int segment, int columnId) {
+        return statistics.get(getKey(segment, columnId));
+    }
+
+    /**
+     * Store a sealed segment, and remove its rows from the write buffer.
+     *
+     * @param segment the segment number
+     * @param vectors the column vectors, by column id
+     * @param zoneMap the zone map
+     * @param stats the statistics of the columns, by column id
+     * @param firstKey the key of the first row of the segment
+     * @param rowCount the number of rows
+     */
+    public void writeSegment(int segment, ColumnVector[] vectors,
+            ZoneMap zoneMap, ColumnStatistics[] stats, long firstKey,
+            int rowCount) {
+        for (int i = 0; i < vectors.length; i++) {
+            columns.put(getKey(segment, i), vectors[i]);
+            statistics.put(getKey(segment, i), stats[i]);
+        }
+        zoneMaps.put((long) segment, zoneMap);
+        for (long key = firstKey; key < firstKey + rowCount; key++) {
+            buffer.remove(key);
+        }
+    }
+
+    /**
+     * Add a row to the write buffer.
+     *
+     * @param key the row key
+     * @param data the values
+     */
+    public void addRow(long key, Value[] data) {
+        buffer.put(key, ValueArray.get(data));
+    }
+
+    /**
+     * Get the rows of the write buffer, ordered by key.
+     *
+     * @return the rows
+     */
+    public ArrayList<Value[]> getBufferedRows() {
+        ArrayList<Value[]> rows = new ArrayList<>();
+        for (Iterator<Long> it = buffer.keyIterator(null); it.hasNext();) {
+            rows.add(((ValueArray) buffer.get(it.next())).getList());
+        }
+        return rows;
+    }
+
+    /**
+     * Store the deleted rows of a segment.
+     *
+     * @param segment the segment number
+     * @param bits the bitmap, one bit per row
+     */
+    public void setDeleted(int segment, long[] bits) {
+        deleted.put((long) segment, bits.clone());
+    }
+
+    /**
+     * Get the deleted rows of a segment.
+     *
+     * @param segment the segment number
+     * @return the bitmap, or null if no row is deleted
+     */
+    public long[] getDeleted(int segment) {
+        return deleted.get((long) segment);
+    }
+
+    /**
+     * Remove the column vectors and statistics of a sealed segment where all
+     * rows are deleted. The zone map and the deleted rows are kept, so that
+     * the segment numbers stay the same.
+     *
+     * @param segment the segment number
+     * @param columnCount the number of columns
+     */
+    public void releaseSegment(int segment, int columnCount) {
+        for (int i = 0; i < columnCount; i++) {
+            columns.remove(getKey(segment, i));
+            statistics.remove(getKey(segment, i));
+        }
+    }
+
+    /**
+     * Remove all rows.
+     */
+    public void truncate() {
+        columns.clear();
+        zoneMaps.clear();
+        statistics.clear();
+        buffer.clear();
+        deleted.clear();
+    }
+
+    /**
+     * Remove the table data from the store, and release the store.
+     */
+    public void remove() {
+        mvStore.removeMap(columns);
+        mvStore.removeMap(zoneMaps);
+        mvStore.removeMap(statistics);
+        mvStore.removeMap(buffer);
+        mvStore.removeMap(deleted);
+        store.commit();
+        store.release();
+    }
+
+    /**
+     * Check whether the store was closed when the database was last closed.
+     * If not, the indexes of the table in the page store may not match the
+     * rows.
+     *
+     * @return true if yes
+     */
+    public boolean isClosedNormally() {
+        return store.isClosedNormally();
+    }
+
+    /**
+     * Remember that the given session changed the data, so that the changes
+     * are committed when its transaction ends.
+     *
+     * @param sessionId the session id
+     */
+    public void setChanged(int sessionId) {
+        store.setChanged(sessionId);
+    }
+
+    /**
+     * The transaction of the given session ended.
+     *
+     * @param sessionId the session id
+     */
+    public void endTransaction(int sessionId) {
+        store.endTransaction(sessionId);
+    }
+
+    /**
+     * Close the table data, and release the store.
+     */
+    public void close() {
+        store.commit();
+        store.release();
+    }
+
+    private static long getKey(int segment, int columnId) {
+        return ((long) columnId << 32) | segment;
+    }
+
+}
@@ -0,0 +1,54 @@
+package org.h2.column.mvstore;
+
+import java.nio.ByteBuffer;
+import org.h2.column.ZoneMap;
+import org.h2.message.DbException;
+import org.h2.mvstore.WriteBuffer;
+import org.h2.mvstore.type.DataType;
+
+/**
+ * The data type of a stored zone map.
+ */
+class ZoneMapType implements DataType {
+
+    private final DataType valueType;
+
+    ZoneMapType(DataType valueType) {
+        this.valueType = valueType;
+    }
+
+    @Override
+    public int compare(Object a, Object b) {
+        throw DbException.getUnsupportedException("compare");
+    }
+
+    @Override
+    public int getMemory(Object obj) {
+        return ((ZoneMap) obj).getMemory();
+    }
+
+    @Override
+    public void write(WriteBuffer buff, Object obj) {
+        ((ZoneMap) obj).write(buff, valueType);
+    }
+
+    @Override
+    public void write(WriteBuffer buff, Object[] obj, int len, boolean key) {
+        for (int i = 0; i < len; i++) {
+            write(buff, obj[i]);
+        }
+    }
+
+    @Override
+    public Object read(ByteBuffer buff) {
+        return ZoneMap.read(buff, valueType);
+    }
+
+    @Override
+    public void read(ByteBuffer buff, Object[] obj, int len, boolean key) {
+        for (int i = 0; i < len; i++) {
+            obj[i] = read(buff);
+        }
+    }
+
+}
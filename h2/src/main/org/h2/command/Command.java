@@ -239,6 +239,20 @@ public abstract class Command implements CommandInterface {
 
     @Override
     public int executeUpdate() {
+        // a durable commit waits for the disk after the database lock is
+        // released, so that concurrent commits are written together
+        boolean deferred = session.setCommitSyncDeferred(true);
+        try {
+            return executeUpdateLocked();
+        } finally {
+            session.setCommitSyncDeferred(deferred);
+            if (!deferred) {
+                session.syncCommit();
+            }
+        }
+    }
+
+    private int executeUpdateLocked() {
         long start = 0;
         Database database = session.getDatabase();
         Object sync = database.isMultiThreaded() ? (Object) session : (Object) database;
@@ -310,6 +324,34 @@ public abstract class Command implements CommandInterface {
             throw DbException.get(ErrorCode.LOCK_TIMEOUT_1, e.getCause(), "");
         }
         Database database = session.getDatabase();
+        if (session.beginWaitForRowLock()) {
+            // wait until the row lock is released, or the lock timeout is
+            // reached
+            long end = (start == 0 ? now : start) + session.getLockTimeout();
+            try {
+                while (session.continueWaitForRowLock()) {
+                    long remaining = end - System.nanoTime() / 1000000;
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    // don't wait too long so that deadlocks are detected
+                    // even if the wake up was missed
+                    long sleep = Math.min(Constants.DEADLOCK_CHECK, remaining);
+                    try {
+                        if (database.isMultiThreaded()) {
+                            Thread.sleep(sleep);
+                        } else {
+                            database.wait(sleep);
+                        }
+                    } catch (InterruptedException e1) {
+                        // ignore
+                    }
+                }
+            } finally {
+                session.endWaitForRowLock();
+            }
+            return start == 0 ? now : start;
+        }
         int sleep = 1 + MathUtils.randomInt(10);
         while (true) {
             try {
@@ -40,6 +40,11 @@ import org.h2.value.ValueNull;
  */
 public class Insert extends Prepared implements ResultTarget {
 
+    /**
+     * The maximum number of rows that are added to a table at once.
+     */
+    private static final int BULK_INSERT_SIZE = 4096;
+
     private Table table;
     private Column[] columns;
     private final ArrayList<Expression[]> list = New.arrayList();
@@ -57,6 +62,12 @@ public class Insert extends Prepared implements ResultTarget {
      */
     private HashMap<Column, Expression> duplicateKeyAssignmentMap;
 
+    /**
+     * The rows that are not yet added to the table, if the table supports
+     * adding rows in batches.
+     */
+    private ArrayList<Row> bulkRows;
+
     public Insert(Session session) {
         super(session);
     }
@@ -129,6 +140,11 @@ public class Insert extends Prepared implements ResultTarget {
         setCurrentRowNumber(0);
         table.fire(session, Trigger.INSERT, true);
         rowNumber = 0;
+        bulkRows = null;
+        if (table.canAddRows() && !table.fireRow() &&
+                duplicateKeyAssignmentMap == null) {
+            bulkRows = New.arrayList();
+        }
         int listSize = list.size();
         if (listSize > 0) {
             int columnLen = columns.length;
@@ -154,6 +170,11 @@ public class Insert extends Prepared implements ResultTarget {
                 }
                 rowNumber++;
                 table.validateConvertUpdateSequence(session, newRow);
+                if (bulkRows != null) {
+                    table.lock(session, true, false);
+                    addBulkRow(newRow);
+                    continue;
+                }
                 boolean done = table.fireBeforeRow(session, null, newRow);
                 if (!done) {
                     table.lock(session, true, false);
@@ -179,6 +200,7 @@ public class Insert extends Prepared implements ResultTarget {
                 rows.close();
             }
         }
+        flushBulkRows();
         table.fire(session, Trigger.INSERT, false);
         return rowNumber;
     }
@@ -198,6 +220,10 @@ public class Insert extends Prepared implements ResultTarget {
             }
         }
         table.validateConvertUpdateSequence(session, newRow);
+        if (bulkRows != null) {
+            addBulkRow(newRow);
+            return;
+        }
         boolean done = table.fireBeforeRow(session, null, newRow);
         if (!done) {
             table.addRow(session, newRow);
@@ -206,6 +232,26 @@ public class Insert extends Prepared implements ResultTarget {
         }
     }
 
+    private void addBulkRow(Row row) {
+        bulkRows.add(row);
+        if (bulkRows.size() >= BULK_INSERT_SIZE) {
+            flushBulkRows();
+        }
+    }
+
+    /**
+     * Add the buffered rows to the table, and log them as one range of keys.
+     */
+    private void flushBulkRows() {
+        if (bulkRows == null || bulkRows.isEmpty()) {
+            return;
+        }
+        table.addRows(session, bulkRows);
+        session.logInsertRange(table, bulkRows.get(0).getKey(),
+                bulkRows.size());
+        bulkRows.clear();
+    }
+
     @Override
     public int getRowCount() {
         return rowNumber;
@@ -11,6 +11,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import org.h2.api.ErrorCode;
 import org.h2.api.Trigger;
+import org.h2.column.ColumnarAggregate;
 import org.h2.command.CommandInterface;
 import org.h2.engine.Constants;
 import org.h2.engine.Database;
@@ -312,7 +313,11 @@ public class Select extends Query {
         currentGroup = null;
         ValueArray defaultGroup = ValueArray.get(new Value[0]);
         int sampleSize = getSampleSizeValue(session);
-        while (topTableFilter.next()) {
+        // aggregate columnar tables in parallel, if possible
+        boolean scan = sampleSize > 0 || !ColumnarAggregate.query(session,
+                topTableFilter, condition, expressions, columnCount,
+                groupIndex, groups);
+        while (scan && topTableFilter.next()) {
             setCurrentRowNumber(rowNumber + 1);
             if (isConditionMet()) {
                 Value key;
@@ -946,9 +951,39 @@ public class Select extends Query {
         }
         expressionArray = new Expression[expressions.size()];
         expressions.toArray(expressionArray);
+        setColumnsUsed();
         isPrepared = true;
     }
 
+    /**
+     * Tell each table filter which columns of its table are used by this
+     * query, so that column oriented indexes only need to read those.
+     */
+    private void setColumnsUsed() {
+        HashSet<Column> columns = New.hashSet();
+        ExpressionVisitor visitor = ExpressionVisitor.getColumnsVisitor(columns);
+        isEverything(visitor);
+        for (int i = 0, size = filters.size(); i < size; i++) {
+            TableFilter f = filters.get(i);
+            if (f.getJoinCondition() != null) {
+                f.getJoinCondition().isEverything(visitor);
+            }
+            if (f.getFilterCondition() != null) {
+                f.getFilterCondition().isEverything(visitor);
+            }
+        }
+        for (int i = 0, size = filters.size(); i < size; i++) {
+            TableFilter f = filters.get(i);
+            ArrayList<Column> list = New.arrayList();
+            for (Column c : columns) {
+                if (c.getTable() == f.getTable()) {
+                    list.add(c);
+                }
+            }
+            f.setColumnsUsed(list.toArray(new Column[0]));
+        }
+    }
+
     @Override
     public void prepareJoinBatch() {
         ArrayList<TableFilter> list = New.arrayList();
@@ -22,6 +22,7 @@ import org.h2.api.DatabaseEventListener;
 import org.h2.api.ErrorCode;
 import org.h2.api.JavaObjectSerializer;
 import org.h2.api.TableEngine;
+import org.h2.column.ColumnarTableEngine;
 import org.h2.command.CommandInterface;
 import org.h2.command.ddl.CreateTableData;
 import org.h2.command.dml.SetTypes;
@@ -1442,6 +1443,11 @@ public class Database implements DataHandler {
             if (mvStore != null) {
                 mvStore.closeImmediately();
             }
+            for (TableEngine engine : tableEngines.values()) {
+                if (engine instanceof ColumnarTableEngine) {
+                    ((ColumnarTableEngine) engine).closeImmediately();
+                }
+            }
             if (pageStore != null) {
                 pageStore.close();
                 pageStore = null;
@@ -1897,6 +1903,15 @@ public class Database implements DataHandler {
         return traceSystem;
     }
 
+    /**
+     * Get the cache size.
+     *
+     * @return the cache size in KB
+     */
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
     public synchronized void setCacheSize(int kb) {
         if (starting) {
             int max = MathUtils.convertLongToInt(Utils.getMemoryMax()) / 2;
@@ -2220,6 +2235,18 @@ public class Database implements DataHandler {
         return systemSession;
     }
 
+    /**
+     * Create a session for an internal operation that runs in a transaction
+     * of its own, for example in a background thread. The session is not a
+     * user session, so it does not keep the database open, and it must not
+     * be closed.
+     *
+     * @return the session
+     */
+    public synchronized Session createTempSystemSession() {
+        return new Session(this, systemUser, ++nextSessionId);
+    }
+
     /**
      * Check if the database is in the process of closing.
      *
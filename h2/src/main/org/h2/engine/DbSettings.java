@@ -344,6 +344,24 @@ public class DbSettings extends SettingsBase {
      */
     public final boolean compressData = get("COMPRESS", false);
 
+    /**
+     * Database setting <code>MV_STORE_MAPPED_READ</code>
+     * (default: false).<br />
+     * Read MVStore pages from memory mapped chunks, instead of copying them
+     * to the heap.
+     */
+    public final boolean mvStoreMappedRead = get("MV_STORE_MAPPED_READ", false);
+
+    /**
+     * Database setting <code>MV_STORE_OFF_HEAP_CACHE_SIZE</code>
+     * (default: 0).<br />
+     * The size of the second level MVStore page cache in direct memory, in
+     * MB. Pages evicted from the page cache are read from there instead of
+     * from the file.
+     */
+    public final int mvStoreOffHeapCacheSize = get(
+            "MV_STORE_OFF_HEAP_CACHE_SIZE", 0);
+
     /**
      * Database setting <code>MULTI_THREADED</code>
      * (default: false).<br />
@@ -14,6 +14,7 @@ import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.TimeUnit;
 import org.h2.api.ErrorCode;
+import org.h2.column.ColumnarTable;
 import org.h2.command.Command;
 import org.h2.command.CommandInterface;
 import org.h2.command.Parser;
@@ -29,8 +30,10 @@ import org.h2.message.DbException;
 import org.h2.message.Trace;
 import org.h2.message.TraceSystem;
 import org.h2.mvstore.db.MVTable;
+import org.h2.mvstore.db.MVTableEngine;
 import org.h2.mvstore.db.TransactionStore.Change;
 import org.h2.mvstore.db.TransactionStore.Transaction;
+import org.h2.mvstore.db.WaitForGraph;
 import org.h2.result.ResultInterface;
 import org.h2.result.Row;
 import org.h2.result.SortOrder;
@@ -113,6 +116,8 @@ public class Session extends SessionWithState {
     private boolean commitOrRollbackDisabled;
     private Table waitForLock;
     private Thread waitForLockThread;
+    private WaitForGraph.Waiter rowLockWaiter;
+    private Transaction rowLockBlocker;
     private int modificationId;
     private int objectId;
     private final int queryCacheSize;
@@ -150,6 +155,13 @@ public class Session extends SessionWithState {
     private Transaction transaction;
     private long startStatement = -1;
 
+    /**
+     * The store version with the committed changes of this session that are
+     * not yet synced, or -1.
+     */
+    private long commitSyncVersion = -1;
+    private boolean commitSyncDeferred;
+
     public Session(Database database, User user, int id) {
         this.database = database;
         this.queryTimeout = database.getSettings().maxQueryTimeout;
@@ -513,6 +525,106 @@ public class Session extends SessionWithState {
         this.lockTimeout = lockTimeout;
     }
 
+    /**
+     * Start waiting for the transaction that had locked the row because of
+     * which the last change of this session failed, and record the wait in
+     * the wait-for graph.
+     *
+     * @return false if that transaction is not known or already closed
+     * @throws DbException if waiting would cause a deadlock
+     */
+    public boolean beginWaitForRowLock() {
+        Transaction blocker = transaction == null ? null :
+                transaction.getBlockingTransaction();
+        if (blocker == null ||
+                blocker.getStatus() == Transaction.STATUS_CLOSED) {
+            return false;
+        }
+        ArrayList<Session> holders = New.arrayList();
+        for (Session s : database.getSessions(false)) {
+            if (s.transaction == blocker) {
+                holders.add(s);
+            }
+        }
+        // without the multi-threaded mode, the session waits on the database,
+        // as the session of the blocking transaction needs the database lock
+        // to close it
+        rowLockWaiter = database.getMvStore().getWaitForGraph().beginWait(
+                this, null, true, holders,
+                database.isMultiThreaded() ? null : database);
+        rowLockBlocker = blocker;
+        return true;
+    }
+
+    /**
+     * Check whether this session still needs to wait for the row lock. In the
+     * multi-threaded mode, the thread is interrupted if it sleeps, or the next
+     * time it sleeps, when the blocking transaction is closed, or when this
+     * session is chosen as the victim of a deadlock.
+     *
+     * @return true if the blocking transaction is not closed yet
+     * @throws DbException if this session is the victim of a deadlock
+     */
+    public boolean continueWaitForRowLock() {
+        boolean multiThreaded = database.isMultiThreaded();
+        if (multiThreaded) {
+            rowLockWaiter.endSleep();
+        }
+        database.getMvStore().getWaitForGraph().checkVictim(this);
+        if (rowLockBlocker.getStatus() == Transaction.STATUS_CLOSED) {
+            return false;
+        }
+        if (multiThreaded) {
+            rowLockWaiter.beginSleep();
+        }
+        return true;
+    }
+
+    /**
+     * Stop waiting for the row lock.
+     */
+    public void endWaitForRowLock() {
+        if (database.isMultiThreaded()) {
+            rowLockWaiter.endSleep();
+        }
+        database.getMvStore().getWaitForGraph().endWait(this);
+        rowLockWaiter = null;
+        rowLockBlocker = null;
+    }
+
+    /**
+     * Get the number of changes of the current transaction, which would need
+     * to be undone to roll it back. When called from another thread, the
+     * value is approximate.
+     *
+     * @return the number of changes
+     */
+    public long getUndoLogSize() {
+        long size = undoLog.size();
+        Transaction t = transaction;
+        if (t != null) {
+            // may be called by another session (the deadlock detector),
+            // so the transaction is only read
+            size += t.getLogId();
+        }
+        return size;
+    }
+
+    /**
+     * Wake up the sessions waiting for a row lock of the transaction of this
+     * session, which was just closed, and remove their wait for this session
+     * from the wait-for graph. In the multi-threaded mode, the wait-for graph
+     * signals them.
+     */
+    private void notifyRowLockWaiters() {
+        database.getMvStore().getWaitForGraph().release(this, null);
+        if (!database.isMultiThreaded()) {
+            synchronized (database) {
+                database.notifyAll();
+            }
+        }
+    }
+
     @Override
     public synchronized CommandInterface prepareCommand(String sql,
             int fetchSize) {
@@ -629,8 +741,15 @@ public class Session extends SessionWithState {
                     }
                 }
             }
-            transaction.commit();
+            long version = transaction.commitNoSync();
             transaction = null;
+            notifyRowLockWaiters();
+            if (version > commitSyncVersion) {
+                commitSyncVersion = version;
+            }
+            if (!commitSyncDeferred) {
+                syncCommit();
+            }
         }
         if (containsUncommitted()) {
             // need to commit even if rollback is not possible
@@ -657,6 +776,7 @@ public class Session extends SessionWithState {
             }
             undoLog.clear();
         }
+        endColumnarTransaction();
         if (!ddl) {
             // do not clean the temp tables if the last command was a
             // create/drop
@@ -677,6 +797,38 @@ public class Session extends SessionWithState {
         tablesToAnalyze = null;
     }
 
+    /**
+     * Wait until the changes committed by this session are written and
+     * synced, if the store does not write them automatically (write delay 0).
+     * Sessions that commit concurrently share one write and one sync.
+     */
+    public void syncCommit() {
+        long version = commitSyncVersion;
+        if (version < 0) {
+            return;
+        }
+        commitSyncVersion = -1;
+        MVTableEngine.Store store = database.getMvStore();
+        if (store != null) {
+            store.getTransactionStore().syncCommit(version);
+        }
+    }
+
+    /**
+     * Set whether committing should wait until the changes are written and
+     * synced, or leave this to a later call to syncCommit. Commands defer it
+     * until they released the database lock, so that the commits of other
+     * sessions can be written together with this one.
+     *
+     * @param deferred whether to defer syncing
+     * @return the previous setting
+     */
+    public boolean setCommitSyncDeferred(boolean deferred) {
+        boolean old = commitSyncDeferred;
+        commitSyncDeferred = deferred;
+        return old;
+    }
+
     private void removeTemporaryLobs(boolean onTimeout) {
         if (SysProperties.CHECK2) {
             if (this == getDatabase().getLobSession()
@@ -747,10 +899,12 @@ public class Session extends SessionWithState {
             // committing will end the transaction
             transaction.commit();
             transaction = null;
+            notifyRowLockWaiters();
         }
         if (locks.size() > 0 || needCommit) {
             database.commit(this);
         }
+        endColumnarTransaction();
         cleanTempTables(false);
         if (autoCommitAtTransactionEnd) {
             autoCommit = true;
@@ -759,6 +913,19 @@ public class Session extends SessionWithState {
         endTransaction();
     }
 
+    /**
+     * Commit the columnar tables changed in this transaction. This is done
+     * before the locks are released.
+     */
+    private void endColumnarTransaction() {
+        for (int i = 0, size = locks.size(); i < size; i++) {
+            Table t = locks.get(i);
+            if (t instanceof ColumnarTable) {
+                ((ColumnarTable) t).endTransaction(this);
+            }
+        }
+    }
+
     /**
      * Partially roll back the current transaction.
      *
@@ -914,6 +1081,21 @@ public class Session extends SessionWithState {
         }
     }
 
+    /**
+     * Add an undo log entry for a batch of rows with consecutive keys that
+     * were inserted using {@link Table#addRows}. Not supported when using
+     * multi-version concurrency, as each row needs to be committed.
+     *
+     * @param table the table
+     * @param firstKey the key of the first row
+     * @param count the number of rows
+     */
+    public void logInsertRange(Table table, long firstKey, int count) {
+        if (undoLogEnabled) {
+            undoLog.add(new UndoLogRecord(table, firstKey, count));
+        }
+    }
+
     /**
      * Unlock all read locks. This is done if the transaction isolation mode is
      * READ_COMMITTED.
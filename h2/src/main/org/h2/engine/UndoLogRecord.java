@@ -28,12 +28,20 @@ public class UndoLogRecord {
      */
     public static final short DELETE = 1;
 
+    /**
+     * Operation type meaning a range of rows with consecutive keys was
+     * inserted (see {@link org.h2.table.Table#addRows}).
+     */
+    public static final short INSERT_RANGE = 2;
+
     private static final int IN_MEMORY = 0, STORED = 1, IN_MEMORY_INVALID = 2;
     private Table table;
     private Row row;
     private short operation;
     private short state;
     private int filePos;
+    private long firstKey;
+    private int count;
 
     /**
      * Create a new undo log record
@@ -49,6 +57,19 @@ public class UndoLogRecord {
         this.state = IN_MEMORY;
     }
 
+    /**
+     * Create a new undo log record for a range of inserted rows.
+     *
+     * @param table the table
+     * @param firstKey the key of the first row
+     * @param count the number of rows
+     */
+    UndoLogRecord(Table table, long firstKey, int count) {
+        this(table, INSERT_RANGE, null);
+        this.firstKey = firstKey;
+        this.count = count;
+    }
+
     /**
      * Check if the log record is stored in the file.
      *
@@ -66,6 +87,10 @@ public class UndoLogRecord {
      */
     boolean canStore() {
         // if large transactions are enabled, this method is not called
+        if (operation == INSERT_RANGE) {
+            // does not contain the rows
+            return false;
+        }
         if (table.getUniqueIndex() != null) {
             return true;
         }
@@ -122,6 +147,16 @@ public class UndoLogRecord {
                 }
             }
             break;
+        case INSERT_RANGE:
+            for (long key = firstKey + count - 1; key >= firstKey; key--) {
+                Row r = table.getRow(session, key);
+                if (r == null || r.isDeleted()) {
+                    // deleted later on in this transaction
+                    continue;
+                }
+                table.removeRow(session, r);
+            }
+            break;
         default:
             DbException.throwInternalError("op=" + operation);
         }
@@ -137,6 +172,14 @@ public class UndoLogRecord {
         int p = buff.length();
         buff.writeInt(0);
         buff.writeInt(operation);
+        if (operation == INSERT_RANGE) {
+            buff.writeInt(log.getTableId(table));
+            buff.writeLong(firstKey);
+            buff.writeInt(count);
+            buff.fillAligned();
+            buff.setInt(p, (buff.length() - p) / Constants.FILE_BLOCK_SIZE);
+            return;
+        }
         buff.writeByte(row.isDeleted() ? (byte) 1 : (byte) 0);
         buff.writeInt(log.getTableId(table));
         buff.writeLong(row.getKey());
@@ -212,6 +255,13 @@ public class UndoLogRecord {
 
     private void load(Data buff, UndoLog log) {
         operation = (short) buff.readInt();
+        if (operation == INSERT_RANGE) {
+            table = log.getTable(buff.readInt());
+            firstKey = buff.readLong();
+            count = buff.readInt();
+            state = IN_MEMORY_INVALID;
+            return;
+        }
         boolean deleted = buff.readByte() == 1;
         table = log.getTable(buff.readInt());
         long key = buff.readLong();
@@ -251,13 +301,18 @@ public class UndoLogRecord {
      * It commits the change to the indexes.
      */
     void commit() {
+        if (operation == INSERT_RANGE) {
+            // only used without multi-version concurrency, where the indexes
+            // do not need to be notified
+            return;
+        }
         table.commit(operation, row);
     }
 
     /**
      * Get the row that was deleted or inserted.
      *
-     * @return the row
+     * @return the row, or null for a range of inserted rows
      */
     public Row getRow() {
         return row;
@@ -12,6 +12,7 @@ import java.util.HashMap;
 import org.h2.api.ErrorCode;
 import org.h2.command.dml.Select;
 import org.h2.command.dml.SelectOrderBy;
+import org.h2.engine.Database;
 import org.h2.engine.Session;
 import org.h2.index.Cursor;
 import org.h2.index.Index;
@@ -58,22 +59,22 @@ public class Aggregate extends Expression {
     /**
      * The aggregate type for SUM(expression).
      */
-    static final int SUM = 3;
+    public static final int SUM = 3;
 
     /**
      * The aggregate type for MIN(expression).
      */
-    static final int MIN = 4;
+    public static final int MIN = 4;
 
     /**
      * The aggregate type for MAX(expression).
      */
-    static final int MAX = 5;
+    public static final int MAX = 5;
 
     /**
      * The aggregate type for AVG(expression).
      */
-    static final int AVG = 6;
+    public static final int AVG = 6;
 
     /**
      * The aggregate type for STDDEV_POP(expression).
@@ -357,6 +358,97 @@ public class Aggregate extends Expression {
         return dataType;
     }
 
+    /**
+     * Get the type of the aggregate operation, for example COUNT or SUM.
+     *
+     * @return the aggregate type
+     */
+    public int getAggregateType() {
+        return type;
+    }
+
+    /**
+     * Get the expression the aggregate is computed on.
+     *
+     * @return the expression, or null for COUNT(*)
+     */
+    public Expression getOn() {
+        return on;
+    }
+
+    /**
+     * Check whether partial results of this aggregate can be computed
+     * independently, for example in different threads, and merged
+     * afterwards.
+     *
+     * @return true if partial results can be merged
+     */
+    public boolean isMergeable() {
+        if (distinct) {
+            return false;
+        }
+        switch (type) {
+        case COUNT_ALL:
+        case COUNT:
+        case SUM:
+        case AVG:
+        case MIN:
+        case MAX:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Create the state of a partial result.
+     *
+     * @return the aggregate data
+     */
+    public AggregateData createData() {
+        return AggregateData.create(type);
+    }
+
+    /**
+     * Add a value to a partial result.
+     *
+     * @param database the database
+     * @param data the partial result
+     * @param v the value of the expression, or null for COUNT(*)
+     */
+    public void add(Database database, AggregateData data, Value v) {
+        data.add(database, dataType, distinct, v);
+    }
+
+    /**
+     * Add a partial result to another partial result.
+     *
+     * @param database the database
+     * @param data the partial result to update
+     * @param other the other partial result
+     */
+    public void merge(Database database, AggregateData data, AggregateData other) {
+        data.merge(database, dataType, other);
+    }
+
+    /**
+     * Add a partial result that was computed without an aggregate data
+     * object to another partial result.
+     *
+     * @param database the database
+     * @param data the partial result to update
+     * @param count the number of rows for COUNT(*), otherwise the number of
+     *            values that are not NULL
+     * @param value the sum (of the type used by the aggregate data), minimum
+     *            or maximum of the values, or null if all values are NULL
+     */
+    public void merge(Database database, AggregateData data, long count,
+            Value value) {
+        AggregateData other = createData();
+        other.init(count, value);
+        data.merge(database, dataType, other);
+    }
+
     @Override
     public void mapColumns(ColumnResolver resolver, int level) {
         if (on != null) {
@@ -6,12 +6,13 @@
 package org.h2.expression;
 
 import org.h2.engine.Database;
+import org.h2.message.DbException;
 import org.h2.value.Value;
 
 /**
  * Abstract class for the computation of an aggregate.
  */
-abstract class AggregateData {
+public abstract class AggregateData {
 
     /**
      * Create an AggregateData object of the correct sub-type.
@@ -54,4 +55,29 @@ abstract class AggregateData {
      * @return the value
      */
     abstract Value getValue(Database database, int dataType, boolean distinct);
+
+    /**
+     * Add the state of another aggregate of the same type, which was computed
+     * over a different set of rows. Only supported if distinct is not used.
+     *
+     * @param database the database
+     * @param dataType the datatype of the computed result
+     * @param other the other aggregate
+     */
+    void merge(Database database, int dataType, AggregateData other) {
+        throw DbException.throwInternalError(getClass().getName());
+    }
+
+    /**
+     * Set the state of a new aggregate to a partial result that was computed
+     * elsewhere. Only supported if distinct is not used.
+     *
+     * @param count the number of rows for COUNT(*), otherwise the number of
+     *            values that are not NULL
+     * @param value the sum, minimum or maximum of the values, or null if all
+     *            values are NULL
+     */
+    void init(long count, Value value) {
+        throw DbException.throwInternalError(getClass().getName());
+    }
 }
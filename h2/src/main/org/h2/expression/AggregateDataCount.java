@@ -46,4 +46,14 @@ class AggregateDataCount extends AggregateData {
         return v.convertTo(dataType);
     }
 
+    @Override
+    void merge(Database database, int dataType, AggregateData other) {
+        count += ((AggregateDataCount) other).count;
+    }
+
+    @Override
+    void init(long count, Value value) {
+        this.count = count;
+    }
+
 }
@@ -34,4 +34,14 @@ class AggregateDataCountAll extends AggregateData {
         return v == null ? ValueNull.INSTANCE : v.convertTo(dataType);
     }
 
+    @Override
+    void merge(Database database, int dataType, AggregateData other) {
+        count += ((AggregateDataCountAll) other).count;
+    }
+
+    @Override
+    void init(long count, Value value) {
+        this.count = count;
+    }
+
 }
@@ -183,6 +183,45 @@ class AggregateDataDefault extends AggregateData {
         return v == null ? ValueNull.INSTANCE : v.convertTo(dataType);
     }
 
+    @Override
+    void merge(Database database, int dataType, AggregateData other) {
+        AggregateDataDefault o = (AggregateDataDefault) other;
+        Value v = o.value;
+        count += o.count;
+        if (v == null) {
+            return;
+        }
+        switch (aggregateType) {
+        case Aggregate.SUM:
+        case Aggregate.AVG:
+            if (value == null) {
+                value = v;
+            } else {
+                v = v.convertTo(value.getType());
+                value = value.add(v);
+            }
+            break;
+        case Aggregate.MIN:
+            if (value == null || database.compare(v, value) < 0) {
+                value = v;
+            }
+            break;
+        case Aggregate.MAX:
+            if (value == null || database.compare(v, value) > 0) {
+                value = v;
+            }
+            break;
+        default:
+            DbException.throwInternalError("type=" + aggregateType);
+        }
+    }
+
+    @Override
+    void init(long count, Value value) {
+        this.count = count;
+        this.value = value;
+    }
+
     private static Value divide(Value a, long by) {
         if (by == 0) {
             return ValueNull.INSTANCE;
@@ -592,4 +592,13 @@ public class Comparison extends Condition {
         return getLeft ? this.left : right;
     }
 
+    /**
+     * Get the comparison type, for example EQUAL or BIGGER.
+     *
+     * @return the comparison type
+     */
+    public int getCompareType() {
+        return compareType;
+    }
+
 }
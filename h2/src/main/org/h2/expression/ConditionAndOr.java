@@ -295,4 +295,13 @@ public class ConditionAndOr extends Condition {
         return getLeft ? this.left : right;
     }
 
+    /**
+     * Get the type of the condition.
+     *
+     * @return AND or OR
+     */
+    public int getAndOrType() {
+        return andOrType;
+    }
+
 }
@@ -101,6 +101,16 @@ public class FileStore {
         return dst;
     }
 
+    /**
+     * Release a buffer that was returned by readFully, once it was read. The
+     * buffer must not be used afterwards.
+     *
+     * @param buff the buffer
+     */
+    public void release(ByteBuffer buff) {
+        // the buffer is not shared
+    }
+
     /**
      * Write to the file.
      *
@@ -8,12 +8,14 @@ package org.h2.mvstore;
 import java.util.AbstractList;
 import java.util.AbstractMap;
 import java.util.AbstractSet;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import org.h2.mvstore.type.DataType;
 import org.h2.mvstore.type.ObjectDataType;
 import org.h2.util.New;
@@ -27,8 +29,8 @@ import org.h2.util.New;
  * Write operations first read the relevant area from disk to memory
  * concurrently, and only then modify the data. The in-memory part of write
  * operations is synchronized. For scalable concurrent in-memory write
- * operations, the map should be split into multiple smaller sub-maps that are
- * then synchronized independently.
+ * operations, use a {@link MVMapConcurrent}, or split the map into multiple
+ * smaller sub-maps that are then synchronized independently.
  *
  * @param <K> the key class
  * @param <V> the value class
@@ -36,6 +38,11 @@ import org.h2.util.New;
 public class MVMap<K, V> extends AbstractMap<K, V>
         implements ConcurrentMap<K, V> {
 
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<MVMap, Page> ROOT =
+            AtomicReferenceFieldUpdater.newUpdater(MVMap.class, Page.class,
+                    "root");
+
     /**
      * The store.
      */
@@ -195,6 +202,44 @@ public class MVMap<K, V> extends AbstractMap<K, V>
         return result;
     }
 
+    /**
+     * Add the entries of a sorted iterator to this empty map. Instead of
+     * inserting the entries one by one, which needs to descend the tree and
+     * copy and split pages for each entry, the leaf and node pages are built
+     * bottom-up, and each page is filled up to the page split size.
+     * <p>
+     * The keys must be unique and in ascending order; this is not verified.
+     * For large maps, the part of the tree that is built so far is stored
+     * when the store needs to save unsaved pages, so that the pages do not
+     * need to be kept in memory.
+     *
+     * @param entries the entries, in ascending order of the keys
+     * @return the number of entries added
+     * @throws IllegalStateException if the map is not empty
+     */
+    public synchronized long bulkLoad(
+            Iterator<? extends Map.Entry<K, V>> entries) {
+        beforeWrite();
+        if (!isEmpty()) {
+            throw DataUtils.newIllegalStateException(
+                    DataUtils.ERROR_INTERNAL, "The map is not empty");
+        }
+        BulkLoader loader = new BulkLoader();
+        try {
+            while (entries.hasNext()) {
+                Map.Entry<K, V> e = entries.next();
+                V value = e.getValue();
+                DataUtils.checkArgument(value != null,
+                        "The value may not be null");
+                loader.add(e.getKey(), value);
+            }
+            return loader.finish();
+        } catch (RuntimeException e) {
+            loader.rollback();
+            throw e;
+        }
+    }
+
     /**
      * Get the first key, or null if the map is empty.
      *
@@ -660,6 +705,40 @@ public class MVMap<K, V> extends AbstractMap<K, V>
         }
     }
 
+    /**
+     * Use the new root page from now on, if the root page was not changed
+     * concurrently. If the new root is the first root of a new version, the
+     * old root is kept, so that the old version can still be read.
+     *
+     * @param expect the root page the new root page is based on
+     * @param update the new root page
+     * @return true if the root page was replaced
+     */
+    protected boolean updateRoot(Page expect, Page update) {
+        if (expect.getVersion() == update.getVersion()) {
+            return ROOT.compareAndSet(this, expect, update);
+        }
+        synchronized (this) {
+            if (root != expect) {
+                return false;
+            }
+            removeUnusedOldVersions();
+            Page last = oldRoots.peekLast();
+            if (last != null && last != expect &&
+                    last.getVersion() == expect.getVersion()) {
+                // the root was kept by an earlier attempt, but then replaced
+                // by a concurrent change of the same version
+                oldRoots.removeLast(last);
+                last = oldRoots.peekLast();
+            }
+            if (last != expect) {
+                oldRoots.add(expect);
+            }
+            // a change of the old version may still be installed concurrently
+            return ROOT.compareAndSet(this, expect, update);
+        }
+    }
+
     /**
      * Compare two keys.
      *
@@ -1221,6 +1300,228 @@ public class MVMap<K, V> extends AbstractMap<K, V>
         return asString(null);
     }
 
+    /**
+     * Builds the pages of a map bottom-up from sorted entries. For each level
+     * of the tree, only the rightmost page that is not complete yet is kept;
+     * when a page is full, it is added to the parent level.
+     */
+    private final class BulkLoader {
+
+        private final boolean persistent = store.getFileStore() != null;
+        private final int pageSplitSize = store.getPageSplitSize();
+
+        private final ArrayList<Object> keys = New.arrayList();
+        private final ArrayList<Object> values = New.arrayList();
+        private int memory;
+
+        /**
+         * The node levels, starting with the parents of the leaf pages.
+         */
+        private final ArrayList<Level> levels = New.arrayList();
+
+        /**
+         * The pages of the current root that were only built to store the
+         * tree, and that are replaced when the tree is complete.
+         */
+        private final ArrayList<Page> temporaryPages = New.arrayList();
+
+        private final Page initialRoot = root;
+        private long count;
+
+        BulkLoader() {
+            temporaryPages.add(initialRoot);
+        }
+
+        /**
+         * Add an entry.
+         *
+         * @param key the key
+         * @param value the value
+         */
+        void add(Object key, Object value) {
+            int mem = persistent ?
+                    keyType.getMemory(key) + valueType.getMemory(value) : 1;
+            if (!keys.isEmpty() && isFull(memory + mem)) {
+                addLeaf();
+            }
+            keys.add(key);
+            values.add(value);
+            memory += mem;
+            count++;
+        }
+
+        private boolean isFull(int mem) {
+            if (persistent) {
+                return DataUtils.PAGE_MEMORY + mem > pageSplitSize;
+            }
+            return mem > pageSplitSize;
+        }
+
+        private void addLeaf() {
+            Object first = keys.get(0);
+            Page p = Page.create(MVMap.this, writeVersion,
+                    keys.toArray(), values.toArray(), null, keys.size(), 0);
+            keys.clear();
+            values.clear();
+            memory = 0;
+            addChild(0, first, p);
+            if (store.isSaveNeeded()) {
+                save();
+            }
+        }
+
+        private void addChild(int level, Object first, Page p) {
+            if (level == levels.size()) {
+                levels.add(new Level());
+            }
+            Level l = levels.get(level);
+            int mem = persistent ?
+                    keyType.getMemory(first) + DataUtils.PAGE_MEMORY_CHILD : 1;
+            if (l.children.size() > 1 && isFull(l.memory + mem)) {
+                addNode(level);
+            }
+            if (l.children.isEmpty()) {
+                l.first = first;
+                l.memory = persistent ? DataUtils.PAGE_MEMORY_CHILD : 0;
+            } else {
+                l.keys.add(first);
+                l.memory += mem;
+            }
+            l.children.add(new Page.PageReference(
+                    p, p.getPos(), p.getTotalCount()));
+            l.totalCount += p.getTotalCount();
+        }
+
+        private void addNode(int level) {
+            Level l = levels.get(level);
+            Page p = l.createPage(null, null);
+            Object first = l.first;
+            l.clear();
+            addChild(level + 1, first, p);
+        }
+
+        /**
+         * Use the tree built so far as the root, so that its pages can be
+         * stored, and then only keep the positions of the stored pages.
+         */
+        private void save() {
+            ArrayList<Page> spine = New.arrayList();
+            Page p = null;
+            Object first = null;
+            for (Level l : levels) {
+                Object levelFirst = l.children.isEmpty() ? first : l.first;
+                p = l.createPage(p, first);
+                first = levelFirst;
+                spine.add(p);
+            }
+            setRoot(p);
+            temporaryPages.addAll(spine);
+            beforeWrite();
+            for (Level l : levels) {
+                for (int i = 0; i < l.children.size(); i++) {
+                    Page.PageReference ref = l.children.get(i);
+                    if (ref.page != null && ref.page.getPos() != 0) {
+                        l.children.set(i, new Page.PageReference(null,
+                                ref.page.getPos(), ref.count));
+                    }
+                }
+            }
+        }
+
+        /**
+         * Add the remaining entries, and use the complete tree as the root.
+         *
+         * @return the number of entries
+         */
+        long finish() {
+            if (!keys.isEmpty()) {
+                addLeaf();
+            }
+            for (int i = 0; i < levels.size(); i++) {
+                Level l = levels.get(i);
+                if (i == levels.size() - 1 && l.children.size() == 1) {
+                    Page.PageReference ref = l.children.get(0);
+                    setRoot(ref.page != null ? ref.page : readPage(ref.pos));
+                    break;
+                }
+                addNode(i);
+            }
+            return count;
+        }
+
+        /**
+         * Remove the entries that were added so far.
+         */
+        void rollback() {
+            if (root != initialRoot) {
+                // a part of the tree was stored
+                root.removeAllRecursive();
+                newRoot(Page.createEmpty(MVMap.this, writeVersion));
+            }
+        }
+
+        private void setRoot(Page p) {
+            for (Page old : temporaryPages) {
+                old.removePage();
+            }
+            temporaryPages.clear();
+            newRoot(p);
+        }
+
+    }
+
+    /**
+     * A node page that is built by the bulk loader.
+     */
+    private final class Level {
+
+        /**
+         * The first key of the first child.
+         */
+        Object first;
+
+        final ArrayList<Object> keys = New.arrayList();
+        final ArrayList<Page.PageReference> children = New.arrayList();
+        long totalCount;
+        int memory;
+
+        /**
+         * Create a node page.
+         *
+         * @param last the additional last child, or null
+         * @param lastFirst the first key of the additional last child
+         * @return the page
+         */
+        Page createPage(Page last, Object lastFirst) {
+            ArrayList<Object> k = keys;
+            ArrayList<Page.PageReference> c = children;
+            long total = totalCount;
+            if (last != null) {
+                k = New.arrayList(keys);
+                c = New.arrayList(children);
+                if (!c.isEmpty()) {
+                    k.add(lastFirst);
+                }
+                c.add(new Page.PageReference(last, 0, last.getTotalCount()));
+                total += last.getTotalCount();
+            }
+            return Page.create(MVMap.this, writeVersion, k.toArray(),
+                    null, c.toArray(new Page.PageReference[0]), total, 0);
+        }
+
+        /**
+         * Remove all children.
+         */
+        void clear() {
+            first = null;
+            keys.clear();
+            children.clear();
+            totalCount = 0;
+            memory = 0;
+        }
+
+    }
+
     /**
      * A builder for maps.
      *
@@ -5,21 +5,203 @@
  */
 package org.h2.mvstore;
 
+import java.util.ArrayList;
 import org.h2.mvstore.type.DataType;
 import org.h2.mvstore.type.ObjectDataType;
+import org.h2.util.New;
 
 /**
- * A class used for backward compatibility.
+ * A map that supports concurrent writers.
+ * <p>
+ * Write operations do not synchronize on the map. Instead, each change copies
+ * the pages from the root to the leaf, and then replaces the root page using
+ * compare-and-swap. If another thread changed the map in the meantime, the
+ * change is applied again to the new root page. Conditional operations such as
+ * putIfAbsent and replace are atomic in the same way.
+ * <p>
+ * Bulk loading and rolling back must not be run concurrently with other write
+ * operations.
  *
  * @param <K> the key type
  * @param <V> the value type
  */
 public class MVMapConcurrent<K, V> extends MVMap<K, V> {
 
+    /**
+     * The expected value if the change is unconditional.
+     */
+    private static final Object ANY = new Object();
+
+    /**
+     * The expected value if the key must exist.
+     */
+    private static final Object PRESENT = new Object();
+
     public MVMapConcurrent(DataType keyType, DataType valueType) {
         super(keyType, valueType);
     }
 
+    @Override
+    @SuppressWarnings("unchecked")
+    public V put(K key, V value) {
+        DataUtils.checkArgument(value != null, "The value may not be null");
+        return (V) set(key, value, ANY);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V remove(Object key) {
+        return (V) set(key, null, ANY);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V putIfAbsent(K key, V value) {
+        DataUtils.checkArgument(value != null, "The value may not be null");
+        return (V) set(key, value, null);
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        return areValuesEqual(set(key, null, value), value);
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        DataUtils.checkArgument(newValue != null, "The value may not be null");
+        return areValuesEqual(set(key, newValue, oldValue), oldValue);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V replace(K key, V value) {
+        DataUtils.checkArgument(value != null, "The value may not be null");
+        return (V) set(key, value, PRESENT);
+    }
+
+    @Override
+    public void clear() {
+        beforeWrite();
+        while (true) {
+            Page r = root;
+            Page p = Page.createEmpty(this, writeVersion);
+            if (updateRoot(r, p)) {
+                r.removeAllRecursive();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Add, replace, or remove an entry, if the current value matches the
+     * expected value.
+     *
+     * @param key the key
+     * @param value the new value, or null to remove the entry
+     * @param expected the expected value, null if the key must not exist,
+     *            PRESENT if the key must exist, or ANY
+     * @return the old value, or null if the key did not exist
+     */
+    private Object set(Object key, Object value, Object expected) {
+        beforeWrite();
+        while (true) {
+            Page r = root;
+            // read after the root, so it is not older than the root
+            long v = writeVersion;
+            Object old = binarySearch(r, key);
+            if (expected == PRESENT ? old == null :
+                    expected != ANY && !areValuesEqual(old, expected)) {
+                return old;
+            }
+            if (old == null && value == null) {
+                return null;
+            }
+            // the replaced pages are only removed if the change succeeds,
+            // the estimated memory of discarded copies is released when the
+            // store is saved
+            ArrayList<Page> removed = New.arrayList();
+            Page p = copy(r, v, removed);
+            if (value == null) {
+                remove(p, v, key, removed);
+                if (!p.isLeaf() && p.getTotalCount() == 0) {
+                    removed.add(p);
+                    p = Page.createEmpty(this, v);
+                }
+            } else {
+                p = splitRootIfNeeded(p, v);
+                put(p, v, key, value, removed);
+            }
+            if (updateRoot(r, p)) {
+                for (Page x : removed) {
+                    x.removePage();
+                }
+                return old;
+            }
+        }
+    }
+
+    private Page copy(Page p, long writeVersion, ArrayList<Page> removed) {
+        removed.add(p);
+        return Page.create(this, writeVersion, p);
+    }
+
+    private void put(Page p, long writeVersion, Object key, Object value,
+            ArrayList<Page> removed) {
+        int index = p.binarySearch(key);
+        if (p.isLeaf()) {
+            if (index < 0) {
+                p.insertLeaf(-index - 1, key, value);
+            } else {
+                p.setValue(index, value);
+            }
+            return;
+        }
+        if (index < 0) {
+            index = -index - 1;
+        } else {
+            index++;
+        }
+        Page c = copy(p.getChildPage(index), writeVersion, removed);
+        if (c.getMemory() > store.getPageSplitSize() && c.getKeyCount() > 1) {
+            // split on the way down
+            int at = c.getKeyCount() / 2;
+            Object k = c.getKey(at);
+            Page split = c.split(at);
+            p.setChild(index, split);
+            p.insertNode(index, k, c);
+            // now we are not sure where to add
+            put(p, writeVersion, key, value, removed);
+            return;
+        }
+        put(c, writeVersion, key, value, removed);
+        p.setChild(index, c);
+    }
+
+    private void remove(Page p, long writeVersion, Object key,
+            ArrayList<Page> removed) {
+        int index = p.binarySearch(key);
+        if (p.isLeaf()) {
+            p.remove(index);
+            return;
+        }
+        if (index < 0) {
+            index = -index - 1;
+        } else {
+            index++;
+        }
+        Page c = copy(p.getChildPage(index), writeVersion, removed);
+        remove(c, writeVersion, key, removed);
+        if (c.getTotalCount() != 0) {
+            p.setChild(index, c);
+        } else if (p.getKeyCount() == 0) {
+            // this child was deleted
+            p.setChild(index, c);
+            removed.add(c);
+        } else {
+            p.remove(index);
+        }
+    }
+
     /**
      * A builder for this class.
      *
@@ -23,6 +23,7 @@ import org.h2.compress.CompressLZF;
 import org.h2.compress.Compressor;
 import org.h2.mvstore.Page.PageChildren;
 import org.h2.mvstore.cache.CacheLongKeyLIRS;
+import org.h2.mvstore.cache.OffHeapCache;
 import org.h2.mvstore.type.StringDataType;
 import org.h2.util.MathUtils;
 import org.h2.util.New;
@@ -148,6 +149,17 @@ public final class MVStore {
      */
     volatile BackgroundWriterThread backgroundWriterThread;
 
+    /**
+     * The thread that writes chunks stored in the background, if any.
+     */
+    private volatile ChunkWriterThread chunkWriterThread;
+
+    /**
+     * Whether a chunk was stored in the background since the file was last
+     * shrunk. The file is shrunk when the next chunk is stored.
+     */
+    private boolean shrinkPending;
+
     private volatile boolean reuseSpace = true;
 
     private volatile boolean closed;
@@ -171,6 +183,14 @@ public final class MVStore {
      */
     private final CacheLongKeyLIRS<PageChildren> cacheChunkRef;
 
+    /**
+     * The second level page cache, with serialized pages in direct memory,
+     * or null if not used. Pages read from the file are added, so that they
+     * don't need to be read again after they were evicted from the page
+     * cache.
+     */
+    private final OffHeapCache offHeapCache;
+
     /**
      * The newest chunk. If nothing was stored yet, this field is not set.
      */
@@ -224,6 +244,11 @@ public final class MVStore {
 
     private final UncaughtExceptionHandler backgroundExceptionHandler;
 
+    /**
+     * The task that is run before changes are stored, or null.
+     */
+    private volatile Runnable beforeStoreTask;
+
     private volatile long currentVersion;
 
     /**
@@ -279,6 +304,15 @@ public final class MVStore {
 
     private Object compactSync = new Object();
 
+    /**
+     * The lock for the group commit state: the versions below syncedVersion
+     * are written and synced, and syncRunning is set while a caller of
+     * syncCommit writes and syncs for the others.
+     */
+    private final Object groupCommitSync = new Object();
+    private long syncedVersion;
+    private boolean syncRunning;
+
     private IllegalStateException panicException;
 
     private long lastTimeAbsolute;
@@ -299,7 +333,11 @@ public final class MVStore {
         FileStore fileStore = (FileStore) config.get("fileStore");
         fileStoreIsProvided = fileStore != null;
         if(fileStore == null && fileName != null) {
-            fileStore = new FileStore();
+            if (config.containsKey("mappedRead")) {
+                fileStore = new MappedFileStore();
+            } else {
+                fileStore = new FileStore();
+            }
         }
         this.fileStore = fileStore;
 
@@ -325,6 +363,12 @@ public final class MVStore {
             cache = null;
             cacheChunkRef = null;
         }
+        int offHeapMb = Utils.getConfigParam(config, "offHeapCacheSize", 0);
+        if (this.fileStore != null && offHeapMb > 0) {
+            offHeapCache = new OffHeapCache(offHeapMb * 1024L * 1024L);
+        } else {
+            offHeapCache = null;
+        }
 
         pgSplitSize = Utils.getConfigParam(config, "pageSplitSize", pgSplitSize);
         // Make sure pages will fit into cache
@@ -529,6 +573,11 @@ public final class MVStore {
     private MVMap<String, String> getMetaMap(long version) {
         Chunk c = getChunkForVersion(version);
         DataUtils.checkArgument(c != null, "Unknown version {0}", version);
+        ChunkWriterThread writer = chunkWriterThread;
+        if (writer != null) {
+            // the chunk could still be written in the background
+            writer.waitForChunk(c.id);
+        }
         c = readChunkHeader(c.block);
         MVMap<String, String> oldMeta = meta.openReadOnly();
         oldMeta.setRootPos(c.metaRootPos, version);
@@ -610,6 +659,7 @@ public final class MVStore {
                 continue;
             }
         }
+        fileStore.release(fileHeaderBlocks);
         if (!validStoreHeader) {
             throw DataUtils.newIllegalStateException(
                     DataUtils.ERROR_FILE_CORRUPT,
@@ -803,6 +853,7 @@ public final class MVStore {
                     end - Chunk.FOOTER_LENGTH, Chunk.FOOTER_LENGTH);
             byte[] buff = new byte[Chunk.FOOTER_LENGTH];
             lastBlock.get(buff);
+            fileStore.release(lastBlock);
             String s = new String(buff, DataUtils.LATIN).trim();
             HashMap<String, String> m = DataUtils.parseMap(s);
             int check = DataUtils.readHexInt(m, "fletcher", 0);
@@ -823,7 +874,7 @@ public final class MVStore {
         return null;
     }
 
-    private void writeStoreHeader() {
+    private ByteBuffer getStoreHeaderBytes() {
         StringBuilder buff = new StringBuilder();
         if (lastChunk != null) {
             storeHeader.put("block", lastChunk.block);
@@ -841,7 +892,11 @@ public final class MVStore {
         header.position(BLOCK_SIZE);
         header.put(bytes);
         header.rewind();
-        write(0, header);
+        return header;
+    }
+
+    private void writeStoreHeader() {
+        write(0, getStoreHeaderBytes());
     }
 
     private void write(long pos, ByteBuffer buffer) {
@@ -863,6 +918,10 @@ public final class MVStore {
         FileStore f = fileStore;
         if (f != null && !f.isReadOnly()) {
             stopBackgroundThread();
+            IllegalStateException e = stopChunkWriterThread();
+            if (e != null) {
+                panic(e);
+            }
             if (hasUnsavedChanges()) {
                 commitAndSave();
             }
@@ -892,6 +951,7 @@ public final class MVStore {
         // the thread also synchronized on this, which
         // could result in a deadlock
         stopBackgroundThread();
+        stopChunkWriterThread();
         closed = true;
         synchronized (this) {
             if (fileStore != null && shrinkIfPossible) {
@@ -905,6 +965,9 @@ public final class MVStore {
             if (cacheChunkRef != null) {
                 cacheChunkRef.clear();
             }
+            if (offHeapCache != null) {
+                offHeapCache.clear();
+            }
             for (MVMap<?, ?> m : New.arrayList(maps.values())) {
                 m.close();
             }
@@ -1004,7 +1067,20 @@ public final class MVStore {
      *
      * @return the new version (incremented if there were changes)
      */
-    private synchronized long commitAndSave() {
+    private long commitAndSave() {
+        return commitAndSave(false);
+    }
+
+    /**
+     * Commit all changes and persist them to disk. If the changes are stored
+     * in the background and there is a chunk writer thread, the chunk is
+     * written by that thread, and this method only waits if too many chunks
+     * are not yet written.
+     *
+     * @param background whether the changes are stored in the background
+     * @return the new version (incremented if there were changes)
+     */
+    private synchronized long commitAndSave(boolean background) {
         if (closed) {
             return currentVersion;
         }
@@ -1027,7 +1103,11 @@ public final class MVStore {
         try {
             currentStoreVersion = currentVersion;
             currentStoreThread = Thread.currentThread();
-            return storeNow();
+            Runnable task = beforeStoreTask;
+            if (task != null) {
+                task.run();
+            }
+            return storeNow(background);
         } finally {
             // in any case reset the current store version,
             // to allow closing the store
@@ -1037,15 +1117,31 @@ public final class MVStore {
     }
 
     private long storeNow() {
+        return storeNow(false);
+    }
+
+    private long storeNow(boolean background) {
         try {
-            return storeNowTry();
+            return storeNowTry(background);
         } catch (IllegalStateException e) {
             panic(e);
             return -1;
         }
     }
 
-    private long storeNowTry() {
+    private long storeNowTry(boolean background) {
+        ChunkWriterThread writer = chunkWriterThread;
+        if (!background && writer != null) {
+            // chunks are written in the order they are stored
+            writer.waitForWrites();
+            writer = null;
+        }
+        if (shrinkPending && (writer == null || !writer.hasPending())) {
+            // the store header of the chunks stored in the background is
+            // written now
+            shrinkPending = false;
+            shrinkFileIfPossible(1);
+        }
         long time = getTimeSinceCreation();
         int freeDelay = retentionTime / 10;
         if (time >= lastFreeUnusedChunks + freeDelay) {
@@ -1196,8 +1292,6 @@ public final class MVStore {
         buff.put(c.getFooterBytes());
 
         buff.position(0);
-        write(filePos, buff.getBuffer());
-        releaseWriteBuffer(buff);
 
         // whether we need to write the store header
         boolean writeStoreHeader = false;
@@ -1233,20 +1327,29 @@ public final class MVStore {
         }
 
         lastChunk = c;
-        if (writeStoreHeader) {
-            writeStoreHeader();
-        }
-        if (!storeAtEndOfFile) {
-            // may only shrink after the store header was written
-            shrinkFileIfPossible(1);
-        }
-        for (MVMap<?, ?> m : changed) {
-            Page p = m.getRoot();
-            if (p.getTotalCount() > 0) {
-                p.writeEnd();
+        ByteBuffer header = writeStoreHeader ? getStoreHeaderBytes() : null;
+        ChunkWrite w = new ChunkWrite(c, filePos, buff, header, changed,
+                metaRoot);
+        if (writer != null) {
+            // the pages are unlinked by the writer thread once the chunk is
+            // written; until then, they are kept in memory
+            writer.add(w);
+            if (!storeAtEndOfFile) {
+                // shrinking has to wait until the store header is written
+                shrinkPending = true;
             }
+        } else {
+            write(filePos, buff.getBuffer());
+            releaseWriteBuffer(buff);
+            if (header != null) {
+                write(0, header);
+            }
+            if (!storeAtEndOfFile) {
+                // may only shrink after the store header was written
+                shrinkFileIfPossible(1);
+            }
+            w.writeEnd();
         }
-        metaRoot.writeEnd();
 
         // some pages might have been changed in the meantime (in the newest
         // version)
@@ -1398,6 +1501,8 @@ public final class MVStore {
         WriteBuffer buff;
         if (writeBuffer != null) {
             buff = writeBuffer;
+            // the buffer might be in use until the chunk is written
+            writeBuffer = null;
             buff.clear();
         } else {
             buff = new WriteBuffer();
@@ -1573,7 +1678,11 @@ public final class MVStore {
     private Chunk readChunkHeader(long block) {
         long p = block * BLOCK_SIZE;
         ByteBuffer buff = fileStore.readFully(p, Chunk.MAX_HEADER_LENGTH);
-        return Chunk.readChunkHeader(buff, p);
+        try {
+            return Chunk.readChunkHeader(buff, p);
+        } finally {
+            fileStore.release(buff);
+        }
     }
 
     /**
@@ -1630,6 +1739,7 @@ public final class MVStore {
      */
     public synchronized boolean compactMoveChunks(int targetFillRate, long moveSize) {
         checkOpen();
+        waitForChunkWrites();
         if (lastChunk == null || !reuseSpace) {
             // nothing to do
             return false;
@@ -1699,6 +1809,7 @@ public final class MVStore {
             int chunkHeaderLen = readBuff.position();
             buff.position(chunkHeaderLen);
             buff.put(readBuff);
+            fileStore.release(readBuff);
             long end = getFileLengthInUse();
             fileStore.markUsed(end, length);
             fileStore.free(start, length);
@@ -1737,6 +1848,7 @@ public final class MVStore {
             int chunkHeaderLen = readBuff.position();
             buff.position(chunkHeaderLen);
             buff.put(readBuff);
+            fileStore.release(readBuff);
             long pos = fileStore.allocate(length);
             fileStore.free(start, length);
             buff.position(0);
@@ -1757,12 +1869,70 @@ public final class MVStore {
         shrinkFileIfPossible(0);
     }
 
+    /**
+     * Write the changes up to the given version to disk, and sync the file,
+     * unless this was already done. This is used to commit transactions
+     * durably. Concurrent callers are grouped: while one of them writes and
+     * syncs, the others wait; then one of them writes a single chunk with
+     * all their changes and syncs the file once for all of them (group
+     * commit). For in-memory stores, this is the same as commit().
+     *
+     * @param version the version that contains the changes, see
+     *            {@link #getCurrentVersion()}
+     */
+    public void syncCommit(long version) {
+        if (closed) {
+            // synced when closing, or lost if closed without storing
+            return;
+        } else if (fileStore == null) {
+            commit();
+            return;
+        }
+        synchronized (groupCommitSync) {
+            while (true) {
+                if (syncedVersion > version) {
+                    return;
+                }
+                if (!syncRunning) {
+                    break;
+                }
+                try {
+                    groupCommitSync.wait();
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }
+            syncRunning = true;
+        }
+        long synced = -1;
+        try {
+            long v;
+            synchronized (this) {
+                // the changes of all versions up to v are stored after this
+                v = currentVersion;
+                commitAndSave();
+            }
+            sync();
+            synced = v + 1;
+        } finally {
+            synchronized (groupCommitSync) {
+                syncRunning = false;
+                if (synced > syncedVersion) {
+                    syncedVersion = synced;
+                }
+                // if the leader failed, one of the others tries again
+                groupCommitSync.notifyAll();
+            }
+        }
+    }
+
     /**
      * Force all stored changes to be written to the storage. The default
      * implementation calls FileChannel.force(true).
      */
     public void sync() {
         checkOpen();
+        waitForChunkWrites();
         FileStore f = fileStore;
         if (f != null) {
             f.sync();
@@ -1934,6 +2104,10 @@ public final class MVStore {
         Page p = cache == null ? null : cache.get(pos);
         if (p == null) {
             Chunk c = getChunk(pos);
+            ChunkWriterThread writer = chunkWriterThread;
+            if (writer != null) {
+                writer.waitForChunk(c.id);
+            }
             long filePos = c.block * BLOCK_SIZE;
             filePos += DataUtils.getPageOffset(pos);
             if (filePos < 0) {
@@ -1942,7 +2116,24 @@ public final class MVStore {
                         "Negative position {0}", filePos);
             }
             long maxPos = (c.block + c.len) * BLOCK_SIZE;
-            p = Page.read(fileStore, pos, map, filePos, maxPos);
+            if (offHeapCache == null) {
+                p = Page.read(fileStore, pos, map, filePos, maxPos);
+            } else {
+                // the chunk id is re-used, but not the chunk version
+                ByteBuffer buff = offHeapCache.get(pos, c.version);
+                if (buff != null) {
+                    p = Page.read(buff, pos, map);
+                } else {
+                    buff = Page.readBuffer(fileStore, pos, filePos, maxPos);
+                    try {
+                        p = Page.read(buff, pos, map);
+                        buff.position(0);
+                        offHeapCache.put(pos, c.version, buff);
+                    } finally {
+                        fileStore.release(buff);
+                    }
+                }
+            }
             cachePage(pos, p, p.getMemory());
         }
         return p;
@@ -2194,6 +2385,16 @@ public final class MVStore {
         }
     }
 
+    /**
+     * Check whether the unsaved pages should be stored, because they use
+     * more than the configured amount of memory.
+     *
+     * @return true if a store is needed
+     */
+    boolean isSaveNeeded() {
+        return saveNeeded;
+    }
+
     /**
      * This method is called before writing to a map.
      *
@@ -2211,7 +2412,7 @@ public final class MVStore {
             saveNeeded = false;
             // check again, because it could have been written by now
             if (unsavedMemory > autoCommitMemory && autoCommitMemory > 0) {
-                commitAndSave();
+                commitAndSave(true);
             }
         }
     }
@@ -2258,6 +2459,7 @@ public final class MVStore {
      */
     public synchronized void rollbackTo(long version) {
         checkOpen();
+        waitForChunkWrites();
         if (version == 0) {
             // special case: remove all data
             for (MVMap<?, ?> m : maps.values()) {
@@ -2265,6 +2467,9 @@ public final class MVStore {
             }
             meta.clear();
             chunks.clear();
+            if (offHeapCache != null) {
+                offHeapCache.clear();
+            }
             if (fileStore != null) {
                 fileStore.clear();
             }
@@ -2308,6 +2513,10 @@ public final class MVStore {
             Collections.sort(remove, Collections.reverseOrder());
             revertTemp(version);
             loadFromFile = true;
+            // a new chunk could get the same id and version
+            if (offHeapCache != null) {
+                offHeapCache.clear();
+            }
             for (int id : remove) {
                 Chunk c = chunks.remove(id);
                 long start = c.block * BLOCK_SIZE;
@@ -2370,6 +2579,15 @@ public final class MVStore {
         }
     }
 
+    /**
+     * Check whether changes are being stored at the moment.
+     *
+     * @return true if yes
+     */
+    public boolean isStoreInProgress() {
+        return currentStoreVersion >= 0;
+    }
+
     /**
      * Get the current version of the data. When a new store is created, the
      * version is 0.
@@ -2482,7 +2700,7 @@ public final class MVStore {
         }
         if (hasUnsavedChanges()) {
             try {
-                commitAndSave();
+                commitAndSave(true);
             } catch (Exception e) {
                 if (backgroundExceptionHandler != null) {
                     backgroundExceptionHandler.uncaughtException(null, e);
@@ -2581,17 +2799,75 @@ public final class MVStore {
             return;
         }
         stopBackgroundThread();
-        // start the background thread if needed
+        IllegalStateException e = stopChunkWriterThread();
+        if (e != null) {
+            panic(e);
+        }
+        // start the background threads if needed
         if (millis > 0) {
+            ChunkWriterThread w = new ChunkWriterThread(fileStore.toString(),
+                    backgroundExceptionHandler);
+            w.start();
+            chunkWriterThread = w;
             int sleep = Math.max(1, millis / 10);
             BackgroundWriterThread t =
                     new BackgroundWriterThread(this, sleep,
                             fileStore.toString());
-            t.start();
+            // the thread stops if it does not find itself
             backgroundWriterThread = t;
+            t.start();
+        }
+    }
+
+    /**
+     * Stop the chunk writer thread, after all pending chunks are written.
+     *
+     * @return the exception if writing a chunk failed, or null
+     */
+    private IllegalStateException stopChunkWriterThread() {
+        // synchronize, so that no chunk is stored while the thread stops;
+        // the thread never synchronizes on the store
+        synchronized (this) {
+            ChunkWriterThread t = chunkWriterThread;
+            if (t == null) {
+                return null;
+            }
+            chunkWriterThread = null;
+            t.stopWriting();
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                // ignore
+            }
+            return t.getException();
+        }
+    }
+
+    /**
+     * Wait until all chunks stored in the background are written to the file.
+     */
+    private void waitForChunkWrites() {
+        ChunkWriterThread t = chunkWriterThread;
+        if (t != null) {
+            try {
+                t.waitForWrites();
+            } catch (IllegalStateException e) {
+                panic(e);
+            }
         }
     }
 
+    /**
+     * Set the task that is run before changes are stored, while the store is
+     * locked. Changes the task makes to the maps are stored as well. The task
+     * must not wait for other threads that write to the store.
+     *
+     * @param task the task, or null
+     */
+    public void setBeforeStoreTask(Runnable task) {
+        beforeStoreTask = task;
+    }
+
     /**
      * Get the auto-commit delay.
      *
@@ -2673,6 +2949,15 @@ public final class MVStore {
         return cache;
     }
 
+    /**
+     * Get the second level page cache in direct memory.
+     *
+     * @return the cache, or null if not used
+     */
+    public OffHeapCache getOffHeapCache() {
+        return offHeapCache;
+    }
+
     /**
      * Whether the store is read-only.
      *
@@ -2719,6 +3004,225 @@ public final class MVStore {
 
     }
 
+    /**
+     * A chunk that was serialized, but not yet written to the file.
+     */
+    private final class ChunkWrite {
+
+        /**
+         * The chunk.
+         */
+        final Chunk chunk;
+
+        /**
+         * The position in the file.
+         */
+        final long filePos;
+
+        /**
+         * The serialized chunk.
+         */
+        final WriteBuffer buff;
+
+        /**
+         * The store header to write after the chunk, or null.
+         */
+        final ByteBuffer header;
+
+        private final ArrayList<MVMap<?, ?>> changed;
+        private final Page metaRoot;
+
+        ChunkWrite(Chunk chunk, long filePos, WriteBuffer buff,
+                ByteBuffer header, ArrayList<MVMap<?, ?>> changed,
+                Page metaRoot) {
+            this.chunk = chunk;
+            this.filePos = filePos;
+            this.buff = buff;
+            this.header = header;
+            this.changed = changed;
+            this.metaRoot = metaRoot;
+        }
+
+        /**
+         * Write the chunk and the store header (if needed) to the file, and
+         * then unlink the written pages.
+         */
+        void write() {
+            fileStore.writeFully(filePos, buff.getBuffer());
+            if (header != null) {
+                fileStore.writeFully(0, header);
+            }
+            writeEnd();
+        }
+
+        /**
+         * Unlink the written pages, so that they can be garbage collected and
+         * are read from the file if needed.
+         */
+        void writeEnd() {
+            for (MVMap<?, ?> m : changed) {
+                Page p = m.getRoot();
+                if (p.getTotalCount() > 0) {
+                    p.writeEnd();
+                }
+            }
+            metaRoot.writeEnd();
+        }
+
+    }
+
+    /**
+     * A thread that writes the chunks stored in the background, so that the
+     * store is only locked while the pages are serialized, and not while the
+     * file is written. Chunks are written in the order they were stored. The
+     * thread never synchronizes on the store.
+     */
+    private static class ChunkWriterThread extends Thread {
+
+        /**
+         * The maximum number of chunks that are stored but not yet written.
+         * If there are more, storing waits.
+         */
+        private static final int MAX_PENDING = 2;
+
+        private final ArrayList<ChunkWrite> pending = New.arrayList();
+        private final UncaughtExceptionHandler exceptionHandler;
+        private boolean stop;
+        private IllegalStateException exception;
+
+        ChunkWriterThread(String fileStoreName,
+                UncaughtExceptionHandler exceptionHandler) {
+            super("MVStore chunk writer " + fileStoreName);
+            this.exceptionHandler = exceptionHandler;
+            setDaemon(true);
+        }
+
+        /**
+         * Add a chunk to be written. This method waits if there are too many
+         * pending chunks.
+         *
+         * @param w the chunk
+         */
+        synchronized void add(ChunkWrite w) {
+            while (pending.size() >= MAX_PENDING && exception == null) {
+                waitForChange();
+            }
+            checkException();
+            pending.add(w);
+            notifyAll();
+        }
+
+        /**
+         * Wait until all pending chunks are written.
+         */
+        synchronized void waitForWrites() {
+            while (!pending.isEmpty() && exception == null) {
+                waitForChange();
+            }
+            checkException();
+        }
+
+        /**
+         * Check whether there are chunks that are not yet written.
+         *
+         * @return true if yes
+         */
+        synchronized boolean hasPending() {
+            return !pending.isEmpty();
+        }
+
+        /**
+         * Wait until the given chunk is written, if it is pending.
+         *
+         * @param chunkId the chunk id
+         */
+        synchronized void waitForChunk(int chunkId) {
+            while (isPending(chunkId) && exception == null) {
+                waitForChange();
+            }
+            checkException();
+        }
+
+        /**
+         * Stop the thread after all pending chunks are written.
+         */
+        synchronized void stopWriting() {
+            stop = true;
+            notifyAll();
+        }
+
+        /**
+         * Get the exception if writing a chunk failed.
+         *
+         * @return the exception, or null
+         */
+        synchronized IllegalStateException getException() {
+            return exception;
+        }
+
+        private boolean isPending(int chunkId) {
+            for (ChunkWrite w : pending) {
+                if (w.chunk.id == chunkId) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void checkException() {
+            if (exception != null) {
+                throw exception;
+            }
+        }
+
+        private void waitForChange() {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                // ignore
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                ChunkWrite w;
+                synchronized (this) {
+                    while (pending.isEmpty() && !stop) {
+                        waitForChange();
+                    }
+                    if (pending.isEmpty()) {
+                        break;
+                    }
+                    // keep it in the list until it is written,
+                    // so that reading the chunk waits
+                    w = pending.get(0);
+                }
+                try {
+                    w.write();
+                } catch (Throwable e) {
+                    synchronized (this) {
+                        exception = DataUtils.newIllegalStateException(
+                                DataUtils.ERROR_WRITING_FAILED,
+                                "Writing chunk {0} failed", w.chunk.id, e);
+                        pending.clear();
+                        notifyAll();
+                    }
+                    // the store is closed when the next chunk is stored
+                    if (exceptionHandler != null) {
+                        exceptionHandler.uncaughtException(this, exception);
+                    }
+                    break;
+                }
+                synchronized (this) {
+                    pending.remove(0);
+                    notifyAll();
+                }
+            }
+        }
+
+    }
+
     /**
      * A builder for an MVStore.
      */
@@ -2833,6 +3337,21 @@ public final class MVStore {
             return set("cacheSize", mb);
         }
 
+        /**
+         * Set the size of the second level page cache in MB. This cache keeps
+         * serialized pages in direct memory, outside of the Java heap, so
+         * that pages evicted from the read cache don't need to be read from
+         * the file again. The default is 0 (disabled). The maximum direct
+         * memory of the JVM may need to be increased
+         * (-XX:MaxDirectMemorySize).
+         *
+         * @param mb the cache size in megabytes
+         * @return this
+         */
+        public Builder offHeapCacheSize(int mb) {
+            return set("offHeapCacheSize", mb);
+        }
+
         /**
          * Set the read cache concurrency. The default is 16, meaning 16
          * segments are used.
@@ -2859,6 +3378,18 @@ public final class MVStore {
             return set("compress", 1);
         }
 
+        /**
+         * Read pages directly from memory mapped chunks, instead of copying
+         * them to the heap. This can speed up reading if the file does not
+         * fit in the page cache, but fits in the cache of the operating
+         * system. It has no effect if the file is encrypted.
+         *
+         * @return this
+         */
+        public Builder mappedRead() {
+            return set("mappedRead", 1);
+        }
+
         /**
          * Compress data before writing using the Deflate algorithm. This will
          * save more disk space, but will slow down read and write operations
@@ -0,0 +1,376 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.mvstore;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import org.h2.engine.SysProperties;
+import org.h2.store.fs.FilePath;
+import org.h2.store.fs.FilePathDisk;
+import org.h2.store.fs.FilePathNio;
+
+/**
+ * A file store that reads pages directly from memory mapped chunks, instead
+ * of copying them to a new heap buffer. The region of a chunk is mapped when
+ * a page of the chunk is read the first time, and pages are decoded from a
+ * slice of the mapped region. Writes go through the file as usual; they are
+ * visible in the mapped regions, as both use the cache of the operating
+ * system.
+ * <p>
+ * Readers release the slice once the page is decoded. When a chunk is freed,
+ * its region is unmapped as soon as no reader uses it any more. Before the
+ * file is truncated, the regions after the new end are unmapped, waiting for
+ * their readers if needed, as a mapped region can not be truncated on some
+ * platforms, and reading a truncated region fails. Unmapping uses the cleaner
+ * if h2.nioCleanerHack is enabled, otherwise the garbage collector. If the
+ * file can not be mapped (for example because it is encrypted, or not a plain
+ * file on disk), pages are read by copying.
+ */
+public class MappedFileStore extends FileStore {
+
+    /**
+     * How long to wait for readers and for the garbage collector before
+     * truncating the file.
+     */
+    private static final long UNMAP_TIMEOUT_MS = 10000;
+
+    /**
+     * The regions in use (the chunks), from position to length.
+     */
+    private final TreeMap<Long, Integer> used = new TreeMap<>();
+
+    /**
+     * The mapped regions, by position.
+     */
+    private final TreeMap<Long, Region> mapped = new TreeMap<>();
+
+    /**
+     * The freed regions that may still be mapped.
+     */
+    private final ArrayList<Region> retired = new ArrayList<>();
+
+    /**
+     * The slices that are read, and their regions.
+     */
+    private final IdentityHashMap<ByteBuffer, Region> reading =
+            new IdentityHashMap<>();
+
+    /**
+     * The file channel used for mapping, or null if mapping is not possible.
+     */
+    private FileChannel mapFile;
+
+    @Override
+    public void open(String fileName, boolean readOnly, char[] encryptionKey) {
+        if (file != null) {
+            return;
+        }
+        super.open(fileName, readOnly, encryptionKey);
+        if (encryptionKey != null) {
+            return;
+        }
+        FilePath p = FilePath.get(this.fileName);
+        while (p instanceof FilePathNio) {
+            p = p.unwrap();
+        }
+        if (p instanceof FilePathDisk) {
+            try {
+                mapFile = new RandomAccessFile(p.toString(), "r").getChannel();
+            } catch (IOException e) {
+                // read by copying
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            used.clear();
+            unmapAll();
+            if (mapFile != null) {
+                try {
+                    mapFile.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+                mapFile = null;
+            }
+        }
+        super.close();
+    }
+
+    @Override
+    public ByteBuffer readFully(long pos, int len) {
+        ByteBuffer buff = readMapped(pos, len);
+        if (buff == null) {
+            return super.readFully(pos, len);
+        }
+        readCount.incrementAndGet();
+        readBytes.addAndGet(len);
+        return buff;
+    }
+
+    @Override
+    public synchronized void release(ByteBuffer buff) {
+        Region r = reading.remove(buff);
+        if (r != null && --r.readers == 0) {
+            if (r.freed) {
+                unmap(r, false);
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Get a slice of the mapped chunk that contains the given range, mapping
+     * the chunk if needed.
+     *
+     * @param pos the position
+     * @param len the number of bytes
+     * @return the slice, or null if the range is not within a chunk that is
+     *         written, or if mapping failed
+     */
+    private synchronized ByteBuffer readMapped(long pos, int len) {
+        if (mapFile == null) {
+            return null;
+        }
+        Entry<Long, Region> m = mapped.floorEntry(pos);
+        if (m == null || pos + len > m.getKey() + m.getValue().length) {
+            Entry<Long, Integer> u = used.floorEntry(pos);
+            if (u == null || pos + len > u.getKey() + u.getValue()) {
+                return null;
+            }
+            long start = u.getKey();
+            int length = u.getValue();
+            if (start + length > fileSize) {
+                // not written yet
+                return null;
+            }
+            ByteBuffer buff;
+            try {
+                buff = mapFile.map(MapMode.READ_ONLY, start, length);
+            } catch (IOException e) {
+                return null;
+            }
+            mapped.put(start, new Region(start, buff));
+            m = mapped.floorEntry(pos);
+        }
+        Region r = m.getValue();
+        ByteBuffer read = r.buffer.duplicate();
+        int offset = (int) (pos - r.start);
+        read.position(offset);
+        read.limit(offset + len);
+        read = read.slice();
+        r.readers++;
+        reading.put(read, r);
+        return read;
+    }
+
+    @Override
+    public void markUsed(long pos, int length) {
+        super.markUsed(pos, length);
+        synchronized (this) {
+            used.put(pos, length);
+        }
+    }
+
+    @Override
+    public long allocate(int length) {
+        long pos = super.allocate(length);
+        synchronized (this) {
+            used.put(pos, length);
+        }
+        return pos;
+    }
+
+    @Override
+    public void free(long pos, int length) {
+        super.free(pos, length);
+        synchronized (this) {
+            used.subMap(pos, pos + length).clear();
+            retire(mapped.subMap(pos, pos + length).values());
+            // forget the regions that were garbage collected
+            for (Iterator<Region> it = retired.iterator(); it.hasNext();) {
+                if (it.next().isUnmapped()) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void truncate(long size) {
+        synchronized (this) {
+            used.tailMap(size).clear();
+            Entry<Long, Region> m = mapped.lowerEntry(size);
+            if (m != null && m.getKey() + m.getValue().length > size) {
+                retire(mapped.tailMap(m.getKey()).values());
+            } else {
+                retire(mapped.tailMap(size).values());
+            }
+            long end = System.nanoTime() +
+                    TimeUnit.MILLISECONDS.toNanos(UNMAP_TIMEOUT_MS);
+            for (Iterator<Region> it = retired.iterator(); it.hasNext();) {
+                Region r = it.next();
+                if (r.start + r.length <= size) {
+                    continue;
+                }
+                while (r.readers > 0 && System.nanoTime() < end) {
+                    try {
+                        wait(TimeUnit.NANOSECONDS.toMillis(
+                                end - System.nanoTime()) + 1);
+                    } catch (InterruptedException e) {
+                        // ignore
+                    }
+                }
+                if (r.readers == 0) {
+                    unmap(r, true);
+                    it.remove();
+                }
+            }
+        }
+        super.truncate(size);
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        synchronized (this) {
+            used.clear();
+            unmapAll();
+        }
+    }
+
+    /**
+     * Remove the given regions from the mapped regions, and unmap those that
+     * are not read.
+     *
+     * @param regions the regions (a view of the mapped regions)
+     */
+    private void retire(Iterable<Region> regions) {
+        for (Iterator<Region> it = regions.iterator(); it.hasNext();) {
+            Region r = it.next();
+            it.remove();
+            r.freed = true;
+            retired.add(r);
+            if (r.readers == 0) {
+                unmap(r, false);
+            }
+        }
+    }
+
+    private void unmapAll() {
+        retire(mapped.values());
+        for (Region r : retired) {
+            unmap(r, false);
+        }
+        retired.clear();
+        reading.clear();
+    }
+
+    /**
+     * Unmap a region that is no longer read. If the cleaner can not be used,
+     * only the reference is released, so that the garbage collector can unmap
+     * it.
+     *
+     * @param r the region
+     * @param wait whether to wait until the garbage collector unmapped it
+     */
+    private static void unmap(Region r, boolean wait) {
+        ByteBuffer buff = r.buffer;
+        r.buffer = null;
+        if (buff != null) {
+            if (SysProperties.NIO_CLEANER_HACK && clean(buff)) {
+                return;
+            }
+            r.unmapped = new WeakReference<>(buff);
+        }
+        if (wait) {
+            // see also FilePathNioMapped
+            long start = System.nanoTime();
+            while (!r.isUnmapped() && System.nanoTime() - start <
+                    TimeUnit.MILLISECONDS.toNanos(UNMAP_TIMEOUT_MS)) {
+                System.gc();
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Unmap a buffer using its cleaner, see
+     * http://bugs.sun.com/bugdatabase/view_bug.do?bug_id=4724038
+     *
+     * @param buff the mapped buffer
+     * @return true if it was unmapped
+     */
+    private static boolean clean(ByteBuffer buff) {
+        try {
+            Method cleanerMethod = buff.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buff);
+            if (cleaner != null) {
+                Method clearMethod = cleaner.getClass().getMethod("clean");
+                clearMethod.invoke(cleaner);
+            }
+            return true;
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
+    /**
+     * A mapped region of the file.
+     */
+    private static class Region {
+
+        final long start;
+        final int length;
+
+        /**
+         * The mapped buffer, or null if it was unmapped or released.
+         */
+        ByteBuffer buffer;
+
+        /**
+         * The released buffer, until it is garbage collected.
+         */
+        WeakReference<ByteBuffer> unmapped;
+
+        /**
+         * The number of slices that are read.
+         */
+        int readers;
+
+        /**
+         * Whether the region was freed.
+         */
+        boolean freed;
+
+        Region(long start, ByteBuffer buffer) {
+            this.start = start;
+            this.length = buffer.capacity();
+            this.buffer = buffer;
+        }
+
+        boolean isUnmapped() {
+            return buffer == null &&
+                    (unmapped == null || unmapped.get() == null);
+        }
+
+    }
+
+}
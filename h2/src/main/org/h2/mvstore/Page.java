@@ -163,11 +163,33 @@ public class Page {
      */
     static Page read(FileStore fileStore, long pos, MVMap<?, ?> map,
             long filePos, long maxPos) {
+        ByteBuffer buff = readBuffer(fileStore, pos, filePos, maxPos);
+        try {
+            return read(buff, pos, map);
+        } finally {
+            fileStore.release(buff);
+        }
+    }
+
+    /**
+     * Read the serialized page from the file. The buffer may contain more
+     * bytes than the page.
+     *
+     * @param fileStore the file store
+     * @param pos the position
+     * @param filePos the position in the file
+     * @param maxPos the maximum position (the end of the chunk)
+     * @return the buffer, to be released with FileStore.release once it is
+     *         read
+     */
+    static ByteBuffer readBuffer(FileStore fileStore, long pos, long filePos,
+            long maxPos) {
         ByteBuffer buff;
         int maxLength = DataUtils.getPageMaxLength(pos);
         if (maxLength == DataUtils.PAGE_LARGE) {
             buff = fileStore.readFully(filePos, 128);
             maxLength = buff.getInt();
+            fileStore.release(buff);
             // read the first bytes again
         }
         maxLength = (int) Math.min(maxPos - filePos, maxLength);
@@ -178,12 +200,24 @@ public class Page {
                     "Illegal page length {0} reading at {1}; max pos {2} ",
                     length, filePos, maxPos);
         }
-        buff = fileStore.readFully(filePos, length);
+        return fileStore.readFully(filePos, length);
+    }
+
+    /**
+     * Read a page from a buffer that starts with the serialized page. After
+     * reading, the limit of the buffer is the end of the page.
+     *
+     * @param buff the buffer
+     * @param pos the position
+     * @param map the map
+     * @return the page
+     */
+    static Page read(ByteBuffer buff, long pos, MVMap<?, ?> map) {
         Page p = new Page(map, 0);
         p.pos = pos;
         int chunkId = DataUtils.getPageChunkId(pos);
         int offset = DataUtils.getPageOffset(pos);
-        p.read(buff, chunkId, offset, maxLength);
+        p.read(buff, chunkId, offset, buff.remaining());
         return p;
     }
 
@@ -1044,6 +1078,7 @@ public class Page {
             if (maxLength == DataUtils.PAGE_LARGE) {
                 buff = fileStore.readFully(filePos, 128);
                 maxLength = buff.getInt();
+                fileStore.release(buff);
                 // read the first bytes again
             }
             maxLength = (int) Math.min(maxPos - filePos, maxLength);
@@ -1055,45 +1090,49 @@ public class Page {
                         length, filePos, maxPos);
             }
             buff = fileStore.readFully(filePos, length);
-            int chunkId = DataUtils.getPageChunkId(pos);
-            int offset = DataUtils.getPageOffset(pos);
-            int start = buff.position();
-            int pageLength = buff.getInt();
-            if (pageLength > maxLength) {
-                throw DataUtils.newIllegalStateException(
-                        DataUtils.ERROR_FILE_CORRUPT,
-                        "File corrupted in chunk {0}, expected page length =< {1}, got {2}",
-                        chunkId, maxLength, pageLength);
-            }
-            buff.limit(start + pageLength);
-            short check = buff.getShort();
-            int m = DataUtils.readVarInt(buff);
-            if (m != mapId) {
-                throw DataUtils.newIllegalStateException(
-                        DataUtils.ERROR_FILE_CORRUPT,
-                        "File corrupted in chunk {0}, expected map id {1}, got {2}",
-                        chunkId, mapId, m);
-            }
-            int checkTest = DataUtils.getCheckValue(chunkId)
-                    ^ DataUtils.getCheckValue(offset)
-                    ^ DataUtils.getCheckValue(pageLength);
-            if (check != (short) checkTest) {
-                throw DataUtils.newIllegalStateException(
-                        DataUtils.ERROR_FILE_CORRUPT,
-                        "File corrupted in chunk {0}, expected check value {1}, got {2}",
-                        chunkId, checkTest, check);
-            }
-            int len = DataUtils.readVarInt(buff);
-            int type = buff.get();
-            boolean node = (type & 1) == DataUtils.PAGE_TYPE_NODE;
-            if (!node) {
-                return null;
-            }
-            long[] children = new long[len + 1];
-            for (int i = 0; i <= len; i++) {
-                children[i] = buff.getLong();
+            try {
+                int chunkId = DataUtils.getPageChunkId(pos);
+                int offset = DataUtils.getPageOffset(pos);
+                int start = buff.position();
+                int pageLength = buff.getInt();
+                if (pageLength > maxLength) {
+                    throw DataUtils.newIllegalStateException(
+                            DataUtils.ERROR_FILE_CORRUPT,
+                            "File corrupted in chunk {0}, expected page length =< {1}, got {2}",
+                            chunkId, maxLength, pageLength);
+                }
+                buff.limit(start + pageLength);
+                short check = buff.getShort();
+                int m = DataUtils.readVarInt(buff);
+                if (m != mapId) {
+                    throw DataUtils.newIllegalStateException(
+                            DataUtils.ERROR_FILE_CORRUPT,
+                            "File corrupted in chunk {0}, expected map id {1}, got {2}",
+                            chunkId, mapId, m);
+                }
+                int checkTest = DataUtils.getCheckValue(chunkId)
+                        ^ DataUtils.getCheckValue(offset)
+                        ^ DataUtils.getCheckValue(pageLength);
+                if (check != (short) checkTest) {
+                    throw DataUtils.newIllegalStateException(
+                            DataUtils.ERROR_FILE_CORRUPT,
+                            "File corrupted in chunk {0}, expected check value {1}, got {2}",
+                            chunkId, checkTest, check);
+                }
+                int len = DataUtils.readVarInt(buff);
+                int type = buff.get();
+                boolean node = (type & 1) == DataUtils.PAGE_TYPE_NODE;
+                if (!node) {
+                    return null;
+                }
+                long[] children = new long[len + 1];
+                for (int i = 0; i <= len; i++) {
+                    children[i] = buff.getLong();
+                }
+                return new PageChildren(pos, children);
+            } finally {
+                fileStore.release(buff);
             }
-            return new PageChildren(pos, children);
         }
 
         /**
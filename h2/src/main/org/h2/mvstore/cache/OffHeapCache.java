@@ -0,0 +1,316 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.mvstore.cache;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A cache for serialized data that is kept in direct memory, outside of the
+ * Java heap, so that a large cache does not increase the garbage collection
+ * pauses. It is meant as a second level cache behind a heap cache of
+ * deserialized objects.
+ * <p>
+ * The data is appended to a ring of fixed size segments, which are allocated
+ * when first used. When all segments are full, the oldest segment is
+ * overwritten, and its entries are removed. Each entry has a key and a
+ * version; reading only returns the data if both match, so that an entry
+ * whose key was re-used does not need to be removed explicitly.
+ * <p>
+ * This implementation is multi-threading safe. Reading copies the data to a
+ * heap buffer, as the segment could be overwritten concurrently.
+ */
+public class OffHeapCache {
+
+    /**
+     * The maximum size of a segment.
+     */
+    private static final int MAX_SEGMENT_SIZE = 1 << 30;
+
+    /**
+     * The size of the entry header: the key, the version, and the length.
+     */
+    private static final int HEADER_LENGTH = 8 + 8 + 4;
+
+    private final ByteBuffer[] segments;
+    private final int segmentSize;
+
+    /**
+     * The end of the data in each segment.
+     */
+    private final int[] segmentEnd;
+
+    /**
+     * The segment data is appended to.
+     */
+    private int current;
+
+    /**
+     * The index from key to location (segment and offset).
+     */
+    private final LongLongHashMap index = new LongLongHashMap();
+
+    private long hits;
+    private long misses;
+
+    /**
+     * Create a new cache.
+     *
+     * @param maxMemory the maximum memory to use, in bytes
+     */
+    public OffHeapCache(long maxMemory) {
+        // at least 2 segments, so that overwriting the oldest segment only
+        // removes a part of the data
+        long size = Math.max(1 << 16, Math.min(MAX_SEGMENT_SIZE,
+                maxMemory / 16));
+        int count = (int) Math.max(2, maxMemory / size);
+        segmentSize = (int) size;
+        segments = new ByteBuffer[count];
+        segmentEnd = new int[count];
+    }
+
+    /**
+     * Get the data for the given key.
+     *
+     * @param key the key
+     * @param version the version
+     * @return a heap buffer with the data, or null if not found
+     */
+    public synchronized ByteBuffer get(long key, long version) {
+        long location = index.get(key);
+        if (location >= 0) {
+            ByteBuffer segment = segments[(int) (location >>> 32)];
+            int offset = (int) location;
+            if (segment.getLong(offset + 8) == version) {
+                int len = segment.getInt(offset + 16);
+                ByteBuffer read = segment.duplicate();
+                read.position(offset + HEADER_LENGTH);
+                read.limit(offset + HEADER_LENGTH + len);
+                ByteBuffer buff = ByteBuffer.allocate(len);
+                buff.put(read);
+                buff.flip();
+                hits++;
+                return buff;
+            }
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Add an entry. The remaining bytes of the buffer are copied; the
+     * position of the buffer is not changed. Entries that are larger than a
+     * segment are ignored.
+     *
+     * @param key the key
+     * @param version the version
+     * @param buff the data
+     */
+    public synchronized void put(long key, long version, ByteBuffer buff) {
+        int len = buff.remaining();
+        int entryLength = HEADER_LENGTH + len;
+        if (entryLength > segmentSize) {
+            return;
+        }
+        if (segmentEnd[current] + entryLength > segmentSize) {
+            current = (current + 1) % segments.length;
+            evictSegment(current);
+        }
+        ByteBuffer segment = segments[current];
+        if (segment == null) {
+            segment = ByteBuffer.allocateDirect(segmentSize);
+            segments[current] = segment;
+        }
+        int offset = segmentEnd[current];
+        segment.putLong(offset, key);
+        segment.putLong(offset + 8, version);
+        segment.putInt(offset + 16, len);
+        ByteBuffer write = segment.duplicate();
+        write.position(offset + HEADER_LENGTH);
+        write.put(buff.duplicate());
+        segmentEnd[current] = offset + entryLength;
+        index.put(key, ((long) current << 32) | offset);
+    }
+
+    /**
+     * Remove all entries of a segment, so that it can be overwritten.
+     *
+     * @param s the segment
+     */
+    private void evictSegment(int s) {
+        ByteBuffer segment = segments[s];
+        int end = segmentEnd[s];
+        for (int offset = 0; offset < end;) {
+            long key = segment.getLong(offset);
+            int len = segment.getInt(offset + 16);
+            long location = ((long) s << 32) | offset;
+            if (index.get(key) == location) {
+                index.remove(key);
+            }
+            offset += HEADER_LENGTH + len;
+        }
+        segmentEnd[s] = 0;
+    }
+
+    /**
+     * Remove all entries. The direct memory is kept.
+     */
+    public synchronized void clear() {
+        index.clear();
+        for (int i = 0; i < segments.length; i++) {
+            segmentEnd[i] = 0;
+        }
+        current = 0;
+    }
+
+    /**
+     * Get the number of cached entries.
+     *
+     * @return the number of entries
+     */
+    public synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * Get the maximum memory to use.
+     *
+     * @return the maximum memory, in bytes
+     */
+    public long getMaxMemory() {
+        return (long) segmentSize * segments.length;
+    }
+
+    /**
+     * Get the number of cache hits.
+     *
+     * @return the number of hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Get the number of cache misses.
+     *
+     * @return the number of misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * A hash map from long to long, with open addressing (linear probing).
+     * The key 0 is not supported; it is used to mark empty slots. Values
+     * must not be negative.
+     */
+    static class LongLongHashMap {
+
+        private long[] keys = new long[16];
+        private long[] values = new long[16];
+        private int mask = 15;
+        private int size;
+
+        /**
+         * Get the value for the given key.
+         *
+         * @param key the key (not 0)
+         * @return the value, or -1 if not found
+         */
+        long get(long key) {
+            for (int i = index(key);; i = (i + 1) & mask) {
+                long k = keys[i];
+                if (k == key) {
+                    return values[i];
+                } else if (k == 0) {
+                    return -1;
+                }
+            }
+        }
+
+        /**
+         * Add or replace an entry.
+         *
+         * @param key the key (not 0)
+         * @param value the value (0 or larger)
+         */
+        void put(long key, long value) {
+            if ((size + 1) * 4 > keys.length * 3) {
+                rehash(keys.length * 2);
+            }
+            int i = index(key);
+            while (keys[i] != 0 && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (keys[i] == 0) {
+                keys[i] = key;
+                size++;
+            }
+            values[i] = value;
+        }
+
+        /**
+         * Remove an entry, if it exists.
+         *
+         * @param key the key (not 0)
+         */
+        void remove(long key) {
+            int i = index(key);
+            while (keys[i] != key) {
+                if (keys[i] == 0) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            // shift the following entries back, so that no tombstones are
+            // needed
+            int hole = i;
+            for (i = (i + 1) & mask; keys[i] != 0; i = (i + 1) & mask) {
+                int home = index(keys[i]);
+                // the entry may move to the hole if its home slot is not
+                // (cyclically) between the hole and its current slot
+                if (((i - home) & mask) >= ((i - hole) & mask)) {
+                    keys[hole] = keys[i];
+                    values[hole] = values[i];
+                    hole = i;
+                }
+            }
+            keys[hole] = 0;
+            size--;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            keys = new long[16];
+            values = new long[16];
+            mask = 15;
+            size = 0;
+        }
+
+        private int index(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+
+        private void rehash(int newLength) {
+            long[] oldKeys = keys;
+            long[] oldValues = values;
+            keys = new long[newLength];
+            values = new long[newLength];
+            mask = newLength - 1;
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+    }
+
+}
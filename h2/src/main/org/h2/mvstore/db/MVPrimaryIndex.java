@@ -169,6 +169,29 @@ public class MVPrimaryIndex extends BaseIndex {
         }
     }
 
+    /**
+     * Lock a row, without changing it.
+     *
+     * @param session the session
+     * @param row the row, as it was read
+     */
+    void lockRow(Session session, Row row) {
+        TransactionMap<Value, Value> map = getMap(session);
+        Value value;
+        try {
+            value = map.lock(ValueLong.get(row.getKey()));
+        } catch (IllegalStateException e) {
+            throw mvTable.convertException(e);
+        }
+        if (value == null ||
+                !value.equals(ValueArray.get(row.getValueList()))) {
+            // changed by a transaction that was committed after the row was
+            // read, so the statement needs to read it again
+            throw DbException.get(ErrorCode.CONCURRENT_UPDATE_1,
+                    table.getName());
+        }
+    }
+
     @Override
     public Cursor find(Session session, SearchRow first, SearchRow last) {
         ValueLong min, max;
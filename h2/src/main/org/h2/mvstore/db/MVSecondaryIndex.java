@@ -10,6 +10,7 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map.Entry;
 import java.util.PriorityQueue;
 import java.util.Queue;
 import org.h2.api.ErrorCode;
@@ -19,9 +20,11 @@ import org.h2.index.BaseIndex;
 import org.h2.index.Cursor;
 import org.h2.index.IndexType;
 import org.h2.message.DbException;
+import org.h2.mvstore.DataUtils;
 import org.h2.mvstore.MVMap;
 import org.h2.mvstore.db.TransactionStore.Transaction;
 import org.h2.mvstore.db.TransactionStore.TransactionMap;
+import org.h2.mvstore.type.DataType;
 import org.h2.result.Row;
 import org.h2.result.SearchRow;
 import org.h2.result.SortOrder;
@@ -29,7 +32,6 @@ import org.h2.table.Column;
 import org.h2.table.IndexColumn;
 import org.h2.table.TableFilter;
 import org.h2.util.New;
-import org.h2.value.CompareMode;
 import org.h2.value.Value;
 import org.h2.value.ValueArray;
 import org.h2.value.ValueLong;
@@ -105,15 +107,16 @@ public final class MVSecondaryIndex extends BaseIndex implements MVIndex {
         }
 
         public static final class Comparator implements java.util.Comparator<Source> {
-            private final CompareMode compareMode;
+            private final DataType keyType;
 
-            public Comparator(CompareMode compareMode) {
-                this.compareMode = compareMode;
+            public Comparator(DataType keyType) {
+                this.keyType = keyType;
             }
 
             @Override
             public int compare(Source one, Source two) {
-                return one.currentRowData.compareTo(two.currentRowData, compareMode);
+                // use the sort order of the index
+                return keyType.compare(one.currentRowData, two.currentRowData);
             }
         }
     }
@@ -121,9 +124,9 @@ public final class MVSecondaryIndex extends BaseIndex implements MVIndex {
     @Override
     public void addBufferedRows(List<String> bufferNames) {
         ArrayList<String> mapNames = New.arrayList(bufferNames);
-        CompareMode compareMode = database.getCompareMode();
         int buffersCount = bufferNames.size();
-        Queue<Source> queue = new PriorityQueue<>(buffersCount, new Source.Comparator(compareMode));
+        Queue<Source> queue = new PriorityQueue<>(buffersCount,
+                new Source.Comparator(dataMap.getKeyType()));
         for (String bufferName : bufferNames) {
             Iterator<ValueArray> iter = openMap(bufferName).keyIterator(null);
             if (iter.hasNext()) {
@@ -132,6 +135,12 @@ public final class MVSecondaryIndex extends BaseIndex implements MVIndex {
         }
 
         try {
+            if (dataMap.sizeAsLongMax() == 0) {
+                // the rows are merged in sorted order,
+                // so the pages of the new index can be built bottom-up
+                dataMap.bulkLoadCommitted(new MergedRows(queue));
+                return;
+            }
             while (!queue.isEmpty()) {
                 Source s = queue.remove();
                 ValueArray rowData = s.next();
@@ -160,6 +169,50 @@ public final class MVSecondaryIndex extends BaseIndex implements MVIndex {
         }
     }
 
+    /**
+     * The rows of the buffers, merged in sorted order. Duplicate keys are
+     * detected by comparing each row with the previous one.
+     */
+    private final class MergedRows implements Iterator<Entry<Value, Value>> {
+
+        private final Queue<Source> queue;
+        private SearchRow last;
+
+        MergedRows(Queue<Source> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public Entry<Value, Value> next() {
+            Source s = queue.remove();
+            ValueArray rowData = s.next();
+            if (indexType.isUnique()) {
+                SearchRow row = convertToSearchRow(rowData);
+                if (last != null && compareRows(row, last) == 0 &&
+                        !containsNullAndAllowMultipleNull(row)) {
+                    throw getDuplicateKeyException(rowData.toString());
+                }
+                last = row;
+            }
+            if (s.hasNext()) {
+                queue.offer(s);
+            }
+            return new DataUtils.MapEntry<Value, Value>(
+                    rowData, ValueNull.INSTANCE);
+        }
+
+        @Override
+        public void remove() {
+            throw DataUtils.newUnsupportedOperationException("remove");
+        }
+
+    }
+
     private MVMap<ValueArray, Value> openMap(String mapName) {
         int[] sortTypes = new int[keyColumns];
         for (int i = 0; i < indexColumns.length; i++) {
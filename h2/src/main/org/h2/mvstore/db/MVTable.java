@@ -172,6 +172,13 @@ public class MVTable extends TableBase {
                     WAITING_FOR_LOCK.remove();
                 }
                 waitingSessions.remove(session);
+                WaitForGraph graph = store.getWaitForGraph();
+                graph.endWait(session);
+                if (lockExclusiveSession != session &&
+                        !lockSharedSessions.containsKey(session)) {
+                    // gave up, so it is no longer ahead in the queue
+                    graph.release(session, this);
+                }
             }
         }
         return false;
@@ -196,7 +203,7 @@ public class MVTable extends TableBase {
         traceLock(session, exclusive, "requesting for");
         // don't get the current time unless necessary
         long max = 0;
-        boolean checkDeadlock = false;
+        WaitForGraph graph = store.getWaitForGraph();
         while (true) {
             // if I'm the next one in the queue
             if (waitingSessions.getFirst() == session) {
@@ -204,16 +211,10 @@ public class MVTable extends TableBase {
                     return;
                 }
             }
-            if (checkDeadlock) {
-                ArrayList<Session> sessions = checkDeadlock(session, null, null);
-                if (sessions != null) {
-                    throw DbException.get(ErrorCode.DEADLOCK_1,
-                            getDeadlockDetails(sessions, exclusive));
-                }
-            } else {
-                // check for deadlocks from now on
-                checkDeadlock = true;
-            }
+            // throws an exception if this wait completes a cycle,
+            // or if another session chose this one as the victim
+            graph.beginWait(session, this, exclusive,
+                    getLockHolders(session, exclusive), getLockSyncObject());
             long now = System.nanoTime();
             if (max == 0) {
                 // try at least one more time
@@ -306,35 +307,39 @@ public class MVTable extends TableBase {
         return false;
     }
 
-    private static String getDeadlockDetails(ArrayList<Session> sessions, boolean exclusive) {
-        // We add the thread details here to make it easier for customers to
-        // match up these error messages with their own logs.
-        StringBuilder buff = new StringBuilder();
-        for (Session s : sessions) {
-            Table lock = s.getWaitForLock();
-            Thread thread = s.getWaitForLockThread();
-            buff.append("\nSession ").append(s.toString())
-                    .append(" on thread ").append(thread.getName())
-                    .append(" is waiting to lock ").append(lock.toString())
-                    .append(exclusive ? " (exclusive)" : " (shared)")
-                    .append(" while locking ");
-            int i = 0;
-            for (Table t : s.getLocks()) {
-                if (i++ > 0) {
-                    buff.append(", ");
-                }
-                buff.append(t.toString());
-                if (t instanceof MVTable) {
-                    if (((MVTable) t).lockExclusiveSession == s) {
-                        buff.append(" (exclusive)");
-                    } else {
-                        buff.append(" (shared)");
-                    }
+    /**
+     * Get the sessions a session waits for when it can not lock this table:
+     * the sessions that hold a conflicting lock, and the sessions that are
+     * ahead in the queue.
+     *
+     * @param session the waiting session
+     * @param exclusive whether an exclusive lock is requested
+     * @return the sessions
+     */
+    private ArrayList<Session> getLockHolders(Session session,
+            boolean exclusive) {
+        ArrayList<Session> holders = New.arrayList();
+        Session s = lockExclusiveSession;
+        if (s != null) {
+            if (s != session) {
+                holders.add(s);
+            }
+        } else if (exclusive) {
+            for (Session shared : lockSharedSessions.keySet()) {
+                if (shared != session) {
+                    holders.add(shared);
                 }
             }
-            buff.append('.');
         }
-        return buff.toString();
+        for (Session waiting : waitingSessions) {
+            if (waiting == session) {
+                break;
+            }
+            if (!holders.contains(waiting)) {
+                holders.add(waiting);
+            }
+        }
+        return holders;
     }
 
     @Override
@@ -428,6 +433,7 @@ public class MVTable extends TableBase {
                     }
                 }
                 if (!waitingSessions.isEmpty()) {
+                    store.getWaitForGraph().release(s, this);
                     getLockSyncObject().notifyAll();
                 }
             }
@@ -685,6 +691,11 @@ public class MVTable extends TableBase {
         analyzeIfRequired(session);
     }
 
+    @Override
+    public void lockRow(Session session, Row row) {
+        primaryIndex.lockRow(session, row);
+    }
+
     @Override
     public void truncate(Session session) {
         lastModificationId = database.getNextModificationDataId();
@@ -88,6 +88,13 @@ public class MVTableEngine implements TableEngine {
                 // use a larger page split size to improve the compression ratio
                 builder.pageSplitSize(64 * 1024);
             }
+            if (db.getSettings().mvStoreMappedRead) {
+                builder.mappedRead();
+            }
+            int offHeapCacheSize = db.getSettings().mvStoreOffHeapCacheSize;
+            if (offHeapCacheSize > 0) {
+                builder.offHeapCacheSize(offHeapCacheSize);
+            }
             builder.backgroundExceptionHandler(new UncaughtExceptionHandler() {
 
                 @Override
@@ -134,6 +141,11 @@ public class MVTableEngine implements TableEngine {
          */
         private TransactionStore transactionStore;
 
+        /**
+         * The sessions waiting for a lock.
+         */
+        private final WaitForGraph waitForGraph = new WaitForGraph();
+
         private long statisticsStart;
 
         private int temporaryMapId;
@@ -207,6 +219,10 @@ public class MVTableEngine implements TableEngine {
             return transactionStore;
         }
 
+        public WaitForGraph getWaitForGraph() {
+            return waitForGraph;
+        }
+
         public HashMap<String, MVTable> getTables() {
             return new HashMap<>(tableMap);
         }
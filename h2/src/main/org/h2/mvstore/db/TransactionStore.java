@@ -8,14 +8,16 @@ package org.h2.mvstore.db;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.BitSet;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import org.h2.mvstore.Cursor;
 import org.h2.mvstore.DataUtils;
 import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVMapConcurrent;
 import org.h2.mvstore.MVStore;
 import org.h2.mvstore.WriteBuffer;
 import org.h2.mvstore.type.DataType;
@@ -39,33 +41,82 @@ public class TransactionStore {
     final MVMap<Integer, Object[]> preparedTransactions;
 
     /**
-     * The undo log.
+     * The undo logs, by transaction id. Each transaction id has its own log,
+     * so that logging does not need to write to a map that is shared by all
+     * transactions, and so that committing only needs to read the entries of
+     * the transaction. The entries are kept in memory, and only written to a
+     * map (named "undoLog." followed by the id) if needed, see UndoLog.
      * <p>
      * If the first entry for a transaction doesn't have a logId
      * of 0, then the transaction is partially committed (which means rollback
      * is not possible). Log entries are written before the data is changed
      * (write-ahead).
      * <p>
-     * Key: opId, value: [ mapId, key, oldValue ].
+     * Key: opId, value: [ mapId, key, oldValue ]. If the entry was only
+     * locked, the complement of the map id is stored instead of the map id.
      */
-    final MVMap<Long, Object[]> undoLog;
+    final ConcurrentHashMap<Integer, UndoLog> undoLogs =
+            new ConcurrentHashMap<>();
 
     /**
-     * the reader/writer lock for the undo-log. Allows us to process multiple
-     * selects in parallel.
+     * the reader/writer lock for committing and rolling back. Allows us to
+     * process multiple selects in parallel.
      */
     final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
 
     /**
-     * The map of maps.
+     * The name prefix of the undo log maps.
      */
-    private HashMap<Integer, MVMap<Object, VersionedValue>> maps =
-            New.hashMap();
+    private static final String UNDO_LOG_PREFIX = "undoLog.";
+
+    /**
+     * The name of the undo log map that was shared by all transactions in
+     * older versions.
+     */
+    private static final String UNDO_LOG_SHARED = "undoLog";
+
+    /**
+     * The maximum number of undo log entries that are cleaned up when
+     * committing. The rest is cleaned up by later commits, so that committing
+     * a large transaction does not need to update all changed entries.
+     */
+    private static final int CLEAN_UP_ENTRIES = 1024;
+
+    /**
+     * The maximum number of undo log entries of a transaction that are kept
+     * in memory. If there are more, they are written to the undo log map.
+     */
+    static final int UNDO_LOG_MEMORY_ENTRIES = 10000;
+
+    private final ArrayType undoLogValueType;
+
+    /**
+     * The map of maps. It is only changed while synchronized on this object,
+     * but can be read while the store saves changes.
+     */
+    private final ConcurrentHashMap<Integer, MVMap<Object, VersionedValue>>
+            maps = new ConcurrentHashMap<>();
 
     private final DataType dataType;
 
     private final BitSet openTransactions = new BitSet();
 
+    /**
+     * The transactions that are committed, but whose changes still refer to
+     * the transaction id, because they were not cleaned up yet. Readers treat
+     * such changes as committed. The ids can not be re-used until the changes
+     * are cleaned up. The set is replaced instead of modified, so that it can
+     * be read without synchronization.
+     */
+    private volatile BitSet committedTransactions = new BitSet();
+
+    /**
+     * The open transactions that were started by this store, by id. Used to
+     * wait for the transaction that has locked an entry.
+     */
+    private final ConcurrentHashMap<Integer, Transaction> transactions =
+            new ConcurrentHashMap<>();
+
     private boolean init;
 
     private int maxTransactionId = 0xffff;
@@ -96,18 +147,112 @@ public class TransactionStore {
         preparedTransactions = store.openMap("openTransactions",
                 new MVMap.Builder<Integer, Object[]>());
         VersionedValueType oldValueType = new VersionedValueType(dataType);
-        ArrayType undoLogValueType = new ArrayType(new DataType[]{
+        undoLogValueType = new ArrayType(new DataType[]{
                 new ObjectDataType(), dataType, oldValueType
         });
-        MVMap.Builder<Long, Object[]> builder =
-                new MVMap.Builder<Long, Object[]>().
+    }
+
+    /**
+     * Open an undo log map. The map does not synchronize on writes, so that
+     * the entries of a transaction can be written to it while the store saves
+     * changes.
+     *
+     * @param mapName the map name
+     * @return the map
+     */
+    MVMap<Long, Object[]> openUndoLog(String mapName) {
+        MVMapConcurrent.Builder<Long, Object[]> builder =
+                new MVMapConcurrent.Builder<Long, Object[]>().
                 valueType(undoLogValueType);
-        undoLog = store.openMap("undoLog", builder);
+        MVMap<Long, Object[]> undoLog = store.openMap(mapName, builder);
         if (undoLog.getValueType() != undoLogValueType) {
             throw DataUtils.newIllegalStateException(
                     DataUtils.ERROR_TRANSACTION_CORRUPT,
                     "Undo map open with a different value type");
         }
+        return undoLog;
+    }
+
+    /**
+     * Get the undo log of the given transaction id, creating it if needed.
+     *
+     * @param transactionId the transaction id
+     * @return the undo log
+     */
+    UndoLog getUndoLog(int transactionId) {
+        UndoLog undoLog = undoLogs.get(transactionId);
+        if (undoLog == null) {
+            undoLog = new UndoLog(this, transactionId,
+                    UNDO_LOG_PREFIX + transactionId);
+            UndoLog old = undoLogs.putIfAbsent(transactionId, undoLog);
+            if (old != null) {
+                undoLog = old;
+            }
+        }
+        return undoLog;
+    }
+
+    /**
+     * Get the undo log entry for the given operation id, if it exists.
+     *
+     * @param operationId the operation id
+     * @return the entry, or null
+     */
+    Object[] getUndoLogEntry(long operationId) {
+        UndoLog undoLog = undoLogs.get(getTransactionId(operationId));
+        return undoLog == null ? null : undoLog.get(operationId);
+    }
+
+    /**
+     * Open the undo logs of all transaction ids that were used before.
+     */
+    private synchronized void openUndoLogs() {
+        for (String mapName : store.getMapNames()) {
+            if (mapName.startsWith(UNDO_LOG_PREFIX)) {
+                int transactionId = Integer.parseInt(
+                        mapName.substring(UNDO_LOG_PREFIX.length()));
+                getUndoLog(transactionId);
+            }
+        }
+    }
+
+    /**
+     * Whether any transaction has undo log entries.
+     *
+     * @return true if yes
+     */
+    private boolean hasUndoLogEntries() {
+        for (UndoLog undoLog : undoLogs.values()) {
+            if (!undoLog.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Clean up the changes of committed transactions, and write the undo log
+     * entries that are kept in memory to the undo log maps. This is called
+     * before the store saves changes, so that the undo log entries of
+     * committed transactions are usually not saved, while the changed entries
+     * of open transactions may be saved.
+     */
+    void beforeStore() {
+        // the store is locked, and the threads that lock the transaction
+        // store might wait for it, so the clean up is skipped if it would
+        // need to wait (or if it is already running in this thread)
+        if (!committedTransactions.isEmpty() &&
+                !rwLock.isWriteLockedByCurrentThread() &&
+                rwLock.writeLock().tryLock()) {
+            try {
+                cleanUpCommitted(Integer.MAX_VALUE, true);
+            } finally {
+                rwLock.writeLock().unlock();
+            }
+        }
+        for (UndoLog undoLog : undoLogs.values()) {
+            undoLog.writeWhileStoring();
+        }
     }
 
     /**
@@ -126,15 +271,37 @@ public class TransactionStore {
         }
         rwLock.writeLock().lock();
         try {
-            if (undoLog.size() > 0) {
-                for (Long key : undoLog.keySet()) {
-                    int transactionId = getTransactionId(key);
+            if (store.hasMap(UNDO_LOG_SHARED) && !store.isReadOnly()) {
+                // move the entries to the undo log of each transaction
+                MVMap<Long, Object[]> shared = openUndoLog(UNDO_LOG_SHARED);
+                for (Entry<Long, Object[]> e : shared.entrySet()) {
+                    Long key = e.getKey();
+                    getUndoLog(getTransactionId(key)).getMap().put(
+                            key, e.getValue());
+                }
+                store.removeMap(shared);
+            }
+            openUndoLogs();
+            for (Entry<Integer, UndoLog> e : undoLogs.entrySet()) {
+                UndoLog undoLog = e.getValue();
+                if (!undoLog.isEmpty()) {
+                    int transactionId = e.getKey();
                     openTransactions.set(transactionId);
+                    if (undoLog.get(getOperationId(transactionId, 0)) == null) {
+                        // partially committed
+                        setCommitted(transactionId, true);
+                    }
                 }
             }
         } finally {
             rwLock.writeLock().unlock();
         }
+        store.setBeforeStoreTask(new Runnable() {
+            @Override
+            public void run() {
+                beforeStore();
+            }
+        });
     }
 
     /**
@@ -183,38 +350,61 @@ public class TransactionStore {
         return operationId & ((1L << 40) - 1);
     }
 
+    /**
+     * Get the map id of an undo log entry.
+     *
+     * @param op the undo log entry
+     * @return the map id
+     */
+    static int getMapId(Object[] op) {
+        int mapId = (Integer) op[0];
+        return mapId < 0 ? ~mapId : mapId;
+    }
+
+    /**
+     * Check whether an undo log entry only records a lock, that is, whether
+     * the value was not changed.
+     *
+     * @param op the undo log entry
+     * @return true if the entry was only locked
+     */
+    static boolean isLock(Object[] op) {
+        return (Integer) op[0] < 0;
+    }
+
     /**
      * Get the list of unclosed transactions that have pending writes.
      *
      * @return the list of transactions (sorted by id)
      */
     public List<Transaction> getOpenTransactions() {
+        openUndoLogs();
         rwLock.readLock().lock();
         try {
             ArrayList<Transaction> list = New.arrayList();
-            Long key = undoLog.firstKey();
-            while (key != null) {
-                int transactionId = getTransactionId(key);
-                key = undoLog.lowerKey(getOperationId(transactionId + 1, 0));
+            ArrayList<Integer> ids = New.arrayList(undoLogs.keySet());
+            Collections.sort(ids);
+            for (int transactionId : ids) {
+                UndoLog undoLog = undoLogs.get(transactionId);
+                Long key = undoLog.lastKey();
+                if (key == null) {
+                    continue;
+                }
                 long logId = getLogId(key) + 1;
                 Object[] data = preparedTransactions.get(transactionId);
                 int status;
-                String name;
-                if (data == null) {
-                    if (undoLog.containsKey(getOperationId(transactionId, 0))) {
-                        status = Transaction.STATUS_OPEN;
-                    } else {
-                        status = Transaction.STATUS_COMMITTING;
-                    }
-                    name = null;
+                String name = data == null ? null : (String) data[1];
+                if (undoLog.get(getOperationId(transactionId, 0)) == null) {
+                    // partially committed (possibly after it was prepared)
+                    status = Transaction.STATUS_COMMITTING;
+                } else if (data == null) {
+                    status = Transaction.STATUS_OPEN;
                 } else {
                     status = (Integer) data[0];
-                    name = (String) data[1];
                 }
                 Transaction t = new Transaction(this, transactionId, status,
                         name, logId);
                 list.add(t);
-                key = undoLog.ceilingKey(getOperationId(transactionId + 1, 0));
             }
             return list;
         } finally {
@@ -225,7 +415,8 @@ public class TransactionStore {
     /**
      * Close the transaction store.
      */
-    public synchronized void close() {
+    public void close() {
+        cleanUp(Integer.MAX_VALUE);
         store.commit();
     }
 
@@ -234,8 +425,17 @@ public class TransactionStore {
      *
      * @return the transaction
      */
-    public synchronized Transaction begin() {
+    public Transaction begin() {
+        Transaction t = tryBegin(false);
+        if (t == null) {
+            // re-use the ids of committed transactions
+            cleanUp(Integer.MAX_VALUE);
+            t = tryBegin(true);
+        }
+        return t;
+    }
 
+    private synchronized Transaction tryBegin(boolean failIfNoId) {
         int transactionId;
         int status;
         if (!init) {
@@ -245,6 +445,9 @@ public class TransactionStore {
         }
         transactionId = openTransactions.nextClearBit(1);
         if (transactionId > maxTransactionId) {
+            if (!failIfNoId && !committedTransactions.isEmpty()) {
+                return null;
+            }
             throw DataUtils.newIllegalStateException(
                     DataUtils.ERROR_TOO_MANY_OPEN_TRANSACTIONS,
                     "There are {0} open transactions",
@@ -252,7 +455,20 @@ public class TransactionStore {
         }
         openTransactions.set(transactionId);
         status = Transaction.STATUS_OPEN;
-        return new Transaction(this, transactionId, status, null, 0);
+        Transaction t = new Transaction(this, transactionId, status, null, 0);
+        transactions.put(transactionId, t);
+        return t;
+    }
+
+    /**
+     * Get the open transaction with the given id, if it was started by this
+     * store.
+     *
+     * @param transactionId the transaction id
+     * @return the transaction, or null
+     */
+    Transaction getTransaction(int transactionId) {
+        return transactions.get(transactionId);
     }
 
     /**
@@ -273,7 +489,7 @@ public class TransactionStore {
      *
      * @param t the transaction
      * @param logId the log id
-     * @param mapId the map id
+     * @param mapId the map id, or its complement if the entry is only locked
      * @param key the key
      * @param oldValue the old value
      */
@@ -281,21 +497,19 @@ public class TransactionStore {
             Object key, Object oldValue) {
         Long undoKey = getOperationId(t.getId(), logId);
         Object[] log = new Object[] { mapId, key, oldValue };
-        rwLock.writeLock().lock();
-        try {
-            if (logId == 0) {
-                if (undoLog.containsKey(undoKey)) {
-                    throw DataUtils.newIllegalStateException(
-                            DataUtils.ERROR_TOO_MANY_OPEN_TRANSACTIONS,
-                            "An old transaction with the same id " +
-                            "is still open: {0}",
-                            t.getId());
-                }
+        // only this transaction writes to its undo log,
+        // so no lock is needed
+        UndoLog undoLog = t.getUndoLog();
+        if (logId == 0) {
+            if (!undoLog.isEmpty()) {
+                throw DataUtils.newIllegalStateException(
+                        DataUtils.ERROR_TOO_MANY_OPEN_TRANSACTIONS,
+                        "An old transaction with the same id " +
+                        "is still open: {0}",
+                        t.getId());
             }
-            undoLog.put(undoKey, log);
-        } finally {
-            rwLock.writeLock().unlock();
         }
+        undoLog.add(undoKey, log);
     }
 
     /**
@@ -306,17 +520,12 @@ public class TransactionStore {
      */
     public void logUndo(Transaction t, long logId) {
         Long undoKey = getOperationId(t.getId(), logId);
-        rwLock.writeLock().lock();
-        try {
-            Object[] old = undoLog.remove(undoKey);
-            if (old == null) {
-                throw DataUtils.newIllegalStateException(
-                        DataUtils.ERROR_TRANSACTION_ILLEGAL_STATE,
-                        "Transaction {0} was concurrently rolled back",
-                        t.getId());
-            }
-        } finally {
-            rwLock.writeLock().unlock();
+        Object[] old = t.getUndoLog().remove(undoKey);
+        if (old == null) {
+            throw DataUtils.newIllegalStateException(
+                    DataUtils.ERROR_TRANSACTION_ILLEGAL_STATE,
+                    "Transaction {0} was concurrently rolled back",
+                    t.getId());
         }
     }
 
@@ -333,57 +542,184 @@ public class TransactionStore {
     }
 
     /**
-     * Commit a transaction.
+     * Commit a transaction. If the changes are not stored automatically (the
+     * auto commit delay is 0), the caller needs to store them, using
+     * syncCommit with the returned version.
      *
      * @param t the transaction
      * @param maxLogId the last log id
+     * @return the version to sync, or -1 if there is nothing to sync
      */
-    void commit(Transaction t, long maxLogId) {
+    long commit(Transaction t, long maxLogId) {
         if (store.isClosed()) {
-            return;
+            return -1;
         }
-        // TODO could synchronize on blocks (100 at a time or so)
         rwLock.writeLock().lock();
         try {
             t.setStatus(Transaction.STATUS_COMMITTING);
-            for (long logId = 0; logId < maxLogId; logId++) {
-                Long undoKey = getOperationId(t.getId(), logId);
+            if (maxLogId > 0) {
+                setCommitted(t.getId(), true);
+                // once the first entry is removed, the transaction is
+                // partially committed, and can no longer be rolled back;
+                // the other changed entries are updated later, in cleanUp
+                UndoLog undoLog = t.getUndoLog();
+                Long undoKey = getOperationId(t.getId(), 0);
                 Object[] op = undoLog.get(undoKey);
-                if (op == null) {
-                    // partially committed: load next
-                    undoKey = undoLog.ceilingKey(undoKey);
-                    if (undoKey == null ||
-                            getTransactionId(undoKey) != t.getId()) {
-                        break;
-                    }
-                    logId = getLogId(undoKey) - 1;
-                    continue;
-                }
-                int mapId = (Integer) op[0];
-                MVMap<Object, VersionedValue> map = openMap(mapId);
-                if (map != null) { // might be null if map was removed later
-                    Object key = op[1];
-                    VersionedValue value = map.get(key);
-                    if (value != null) {
-                        // only commit (remove/update) value if we've reached
-                        // last undoLog entry for a given key
-                        if (value.operationId == undoKey) {
-                            if (value.value == null) {
-                                map.remove(key);
-                            } else {
-                                VersionedValue v2 = new VersionedValue();
-                                v2.value = value.value;
-                                map.put(key, v2);
-                            }
-                        }
-                    }
+                if (op != null) {
+                    cleanUp(undoKey, op, false);
+                    undoLog.remove(undoKey);
                 }
-                undoLog.remove(undoKey);
             }
         } finally {
             rwLock.writeLock().unlock();
         }
-        endTransaction(t);
+        if (maxLogId > 0) {
+            // before ending the transaction, so that the undo log is usually
+            // empty if ending it stores the changes
+            cleanUp(CLEAN_UP_ENTRIES);
+        }
+        // the changes are stored after the locks are released, so that
+        // concurrent commits can share the write and the sync
+        boolean sync = maxLogId > 0 && store.getAutoCommitDelay() == 0 &&
+                store.getFileStore() != null;
+        endTransaction(t, sync);
+        return sync ? store.getCurrentVersion() : -1;
+    }
+
+    /**
+     * Check whether the given transaction is committed, but its changes are
+     * not cleaned up yet.
+     *
+     * @param transactionId the transaction id
+     * @return true if yes
+     */
+    boolean isCommitted(int transactionId) {
+        return committedTransactions.get(transactionId);
+    }
+
+    private synchronized void setCommitted(int transactionId,
+            boolean committed) {
+        BitSet b = (BitSet) committedTransactions.clone();
+        b.set(transactionId, committed);
+        committedTransactions = b;
+        if (!committed) {
+            openTransactions.clear(transactionId);
+        }
+    }
+
+    /**
+     * Update the entries changed by committed transactions, so that they no
+     * longer refer to the transaction id, and remove the undo log entries.
+     * Once all entries of a transaction are cleaned up, its id can be
+     * re-used.
+     *
+     * @param maxEntries the maximum number of undo log entries to process
+     */
+    void cleanUp(int maxEntries) {
+        if (committedTransactions.isEmpty() || store.isClosed() ||
+                store.isReadOnly()) {
+            return;
+        }
+        rwLock.writeLock().lock();
+        try {
+            cleanUpCommitted(maxEntries, false);
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Clean up the changes of committed transactions. The caller needs to
+     * hold the write lock.
+     *
+     * @param maxEntries the maximum number of undo log entries to process
+     * @param whileStoring whether the store saves changes; if yes, only maps
+     *            that are already open are updated, and the transaction ids
+     *            are released by the next clean up
+     */
+    private void cleanUpCommitted(int maxEntries, boolean whileStoring) {
+        BitSet committed = committedTransactions;
+        int count = 0;
+        for (int transactionId = committed.nextSetBit(0);
+                transactionId >= 0 && count < maxEntries;
+                transactionId = committed.nextSetBit(transactionId + 1)) {
+            if (!isCommitted(transactionId)) {
+                // cleaned up concurrently
+                continue;
+            }
+            UndoLog undoLog = undoLogs.get(transactionId);
+            while (count < maxEntries) {
+                Long undoKey = undoLog == null ? null : undoLog.firstKey();
+                if (undoKey == null) {
+                    break;
+                }
+                if (!cleanUp(undoKey, undoLog.get(undoKey), whileStoring)) {
+                    return;
+                }
+                undoLog.remove(undoKey);
+                count++;
+            }
+            if (!whileStoring && (undoLog == null || undoLog.isEmpty())) {
+                setCommitted(transactionId, false);
+            }
+        }
+    }
+
+    /**
+     * Update the entry changed by a committed transaction.
+     *
+     * @param undoKey the operation id
+     * @param op the undo log entry
+     * @param whileStoring whether the store saves changes
+     * @return false if the map is not open, and can not be opened while the
+     *         store saves changes
+     */
+    private boolean cleanUp(long undoKey, Object[] op, boolean whileStoring) {
+        int mapId = getMapId(op);
+        MVMap<Object, VersionedValue> map;
+        if (whileStoring) {
+            // opening a map needs the lock on this object, which might be
+            // held by a thread that waits for the store
+            map = maps.get(mapId);
+            if (map == null) {
+                return false;
+            }
+        } else {
+            map = openMap(mapId);
+            if (map == null) {
+                // might be null if map was removed later
+                return true;
+            }
+        }
+        Object key = op[1];
+        VersionedValue value = map.get(key);
+        // only commit (remove/update) value if we've reached
+        // last undoLog entry for a given key; other transactions
+        // may change it concurrently, as it is committed
+        if (value == null || value.operationId != undoKey) {
+            return true;
+        }
+        if (value.value == null) {
+            map.remove(key, value);
+        } else {
+            VersionedValue v2 = new VersionedValue();
+            v2.value = value.value;
+            map.replace(key, value, v2);
+        }
+        return true;
+    }
+
+    /**
+     * Write and sync the changes of committed transactions, up to the given
+     * version. Concurrent callers share the write and the sync (group
+     * commit).
+     *
+     * @param version the version returned when committing, or -1
+     */
+    public void syncCommit(long version) {
+        if (version >= 0) {
+            store.syncCommit(version);
+        }
     }
 
     /**
@@ -405,8 +741,8 @@ public class TransactionStore {
         }
         VersionedValueType vt = new VersionedValueType(valueType);
         MVMap<K, VersionedValue> map;
-        MVMap.Builder<K, VersionedValue> builder =
-                new MVMap.Builder<K, VersionedValue>().
+        MVMapConcurrent.Builder<K, VersionedValue> builder =
+                new MVMapConcurrent.Builder<K, VersionedValue>().
                 keyType(keyType).valueType(vt);
         map = store.openMap(name, builder);
         @SuppressWarnings("unchecked")
@@ -432,8 +768,8 @@ public class TransactionStore {
             return null;
         }
         VersionedValueType vt = new VersionedValueType(dataType);
-        MVMap.Builder<Object, VersionedValue> mapBuilder =
-                new MVMap.Builder<Object, VersionedValue>().
+        MVMapConcurrent.Builder<Object, VersionedValue> mapBuilder =
+                new MVMapConcurrent.Builder<Object, VersionedValue>().
                 keyType(dataType).valueType(vt);
         map = store.openMap(mapName, mapBuilder);
         maps.put(mapId, map);
@@ -467,21 +803,36 @@ public class TransactionStore {
      * End this transaction
      *
      * @param t the transaction
+     * @param syncLater whether the caller stores the changes (only used if
+     *            the auto commit delay is 0)
      */
-    synchronized void endTransaction(Transaction t) {
+    synchronized void endTransaction(Transaction t, boolean syncLater) {
         if (t.getStatus() == Transaction.STATUS_PREPARED) {
             preparedTransactions.remove(t.getId());
         }
+        // the id of a transaction that committed changes is released by
+        // cleanUp; it may already be in use by a new transaction
+        boolean committedChanges =
+                t.getStatus() == Transaction.STATUS_COMMITTING && t.logId > 0;
         t.setStatus(Transaction.STATUS_CLOSED);
-        openTransactions.clear(t.transactionId);
+        if (!committedChanges) {
+            openTransactions.clear(t.transactionId);
+        }
+        transactions.remove(t.transactionId, t);
+        // wake up the transactions waiting for a lock of this transaction
+        synchronized (t) {
+            t.notifyAll();
+        }
         if (store.getAutoCommitDelay() == 0) {
-            store.commit();
+            if (!syncLater) {
+                store.commit();
+            }
             return;
         }
         // to avoid having to store the transaction log,
         // if there is no open transaction,
         // and if there have been many changes, store them now
-        if (undoLog.isEmpty()) {
+        if (!hasUndoLogEntries()) {
             int unsaved = store.getUnsavedMemory();
             int max = store.getAutoCommitMemory();
             // save at 3/4 capacity
@@ -499,6 +850,10 @@ public class TransactionStore {
      * @param toLogId the log id to roll back to
      */
     void rollbackTo(Transaction t, long maxLogId, long toLogId) {
+        if (maxLogId <= toLogId) {
+            return;
+        }
+        UndoLog undoLog = t.getUndoLog();
         // TODO could synchronize on blocks (100 at a time or so)
         rwLock.writeLock().lock();
         try {
@@ -515,7 +870,7 @@ public class TransactionStore {
                     logId = getLogId(undoKey) + 1;
                     continue;
                 }
-                int mapId = ((Integer) op[0]).intValue();
+                int mapId = getMapId(op);
                 MVMap<Object, VersionedValue> map = openMap(mapId);
                 if (map != null) {
                     Object key = op[1];
@@ -548,6 +903,7 @@ public class TransactionStore {
             final long toLogId) {
         return new Iterator<Change>() {
 
+            private final UndoLog undoLog = t.getUndoLog();
             private long logId = maxLogId - 1;
             private Change current;
 
@@ -572,7 +928,11 @@ public class TransactionStore {
                             logId = getLogId(undoKey);
                             continue;
                         }
-                        int mapId = ((Integer) op[0]).intValue();
+                        if (isLock(op)) {
+                            // the value was not changed
+                            continue;
+                        }
+                        int mapId = getMapId(op);
                         MVMap<Object, VersionedValue> m = openMap(mapId);
                         if (m == null) {
                             // map was removed later on
@@ -679,10 +1039,18 @@ public class TransactionStore {
          */
         long logId;
 
-        private int status;
+        private volatile int status;
 
         private String name;
 
+        private UndoLog undoLog;
+
+        /**
+         * The transaction that had locked the entry when a change of this
+         * transaction failed last.
+         */
+        private volatile Transaction blockingTransaction;
+
         Transaction(TransactionStore store, int transactionId, int status,
                 String name, long logId) {
             this.store = store;
@@ -696,10 +1064,50 @@ public class TransactionStore {
             return transactionId;
         }
 
+        /**
+         * Get the undo log of this transaction.
+         *
+         * @return the undo log
+         */
+        UndoLog getUndoLog() {
+            if (undoLog == null) {
+                undoLog = store.getUndoLog(transactionId);
+            }
+            return undoLog;
+        }
+
         public int getStatus() {
             return status;
         }
 
+        /**
+         * Get the transaction that had locked the entry when a change of this
+         * transaction failed last, if it is known.
+         *
+         * @return the transaction, or null
+         */
+        public Transaction getBlockingTransaction() {
+            return blockingTransaction;
+        }
+
+        /**
+         * Wait until this transaction is closed, the timeout expired, or the
+         * waiting thread is woken up by a notification on this transaction.
+         *
+         * @param timeoutMillis the maximum time to wait, in milliseconds
+         * @return true if the transaction is closed
+         */
+        public synchronized boolean waitForEnd(long timeoutMillis) {
+            if (status != STATUS_CLOSED && timeoutMillis > 0) {
+                try {
+                    wait(timeoutMillis);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }
+            return status == STATUS_CLOSED;
+        }
+
         void setStatus(int status) {
             this.status = status;
         }
@@ -723,10 +1131,24 @@ public class TransactionStore {
             return logId;
         }
 
+        /**
+         * Get the log id of the next undo log entry, which is the number of
+         * changes of this transaction that would need to be undone. Unlike
+         * setSavepoint, this is only a read. If called from a thread other
+         * than the one that uses the transaction, the value is approximate,
+         * as the transaction may change concurrently.
+         *
+         * @return the log id
+         */
+        public long getLogId() {
+            return logId;
+        }
+
         /**
          * Add a log entry.
          *
-         * @param mapId the map id
+         * @param mapId the map id, or its complement if the entry is only
+         *            locked
          * @param key the key
          * @param oldValue the old value
          */
@@ -797,14 +1219,31 @@ public class TransactionStore {
             checkNotClosed();
             status = STATUS_PREPARED;
             store.storeTransaction(this);
+            // the undo log is stored with the prepared state
+            getUndoLog().write();
         }
 
         /**
-         * Commit the transaction. Afterwards, this transaction is closed.
+         * Commit the transaction. Afterwards, this transaction is closed. If
+         * the changes are not stored automatically (the auto commit delay is
+         * 0), this method waits until they are written and synced.
          */
         public void commit() {
+            store.syncCommit(commitNoSync());
+        }
+
+        /**
+         * Commit the transaction, but do not wait until the changes are
+         * written. Afterwards, this transaction is closed. The changes are
+         * visible to other transactions, but are only durable once
+         * {@link TransactionStore#syncCommit(long)} was called with the
+         * returned version.
+         *
+         * @return the version to sync, or -1 if there is nothing to sync
+         */
+        public long commitNoSync() {
             checkNotClosed();
-            store.commit(this, logId);
+            return store.commit(this, logId);
         }
 
         /**
@@ -825,7 +1264,7 @@ public class TransactionStore {
         public void rollback() {
             checkNotClosed();
             store.rollbackTo(this, logId, 0);
-            store.endTransaction(this);
+            store.endTransaction(this, false);
         }
 
         /**
@@ -949,10 +1388,11 @@ public class TransactionStore {
             transaction.store.rwLock.readLock().lock();
             try {
                 long sizeRaw = map.sizeAsLong();
-                MVMap<Long, Object[]> undo = transaction.store.undoLog;
-                long undoLogSize;
-                synchronized (undo) {
-                    undoLogSize = undo.sizeAsLong();
+                ArrayList<UndoLog> undoLogs =
+                        New.arrayList(transaction.store.undoLogs.values());
+                long undoLogSize = 0;
+                for (UndoLog undo : undoLogs) {
+                    undoLogSize += undo.size();
                 }
                 if (undoLogSize == 0) {
                     return sizeRaw;
@@ -974,15 +1414,14 @@ public class TransactionStore {
                 }
                 // the undo log is smaller than the map -
                 // scan the undo log and subtract invisible entries
-                synchronized (undo) {
-                    // re-fetch in case any transaction was committed now
-                    long size = map.sizeAsLong();
-                    MVMap<Object, Integer> temp = transaction.store
-                            .createTempMap();
-                    try {
-                        for (Entry<Long, Object[]> e : undo.entrySet()) {
-                            Object[] op = e.getValue();
-                            int m = (Integer) op[0];
+                // re-fetch in case any transaction was committed now
+                long size = map.sizeAsLong();
+                MVMap<Object, Integer> temp = transaction.store
+                        .createTempMap();
+                try {
+                    for (UndoLog undo : undoLogs) {
+                        for (Object[] op : undo.getEntries()) {
+                            int m = getMapId(op);
                             if (m != mapId) {
                                 // a different map - ignore
                                 continue;
@@ -992,18 +1431,17 @@ public class TransactionStore {
                             if (get(key) == null) {
                                 Integer old = temp.put(key, 1);
                                 // count each key only once (there might be
-                                // multiple
-                                // changes for the same key)
+                                // multiple changes for the same key)
                                 if (old == null) {
                                     size--;
                                 }
                             }
                         }
-                    } finally {
-                        transaction.store.store.removeMap(temp);
                     }
-                    return size;
+                } finally {
+                    transaction.store.store.removeMap(temp);
                 }
+                return size;
             } finally {
                 transaction.store.rwLock.readLock().unlock();
             }
@@ -1054,6 +1492,38 @@ public class TransactionStore {
             return (V) (oldValue == null ? null : oldValue.value);
         }
 
+        /**
+         * Add sorted entries to the empty map, without a transaction. The
+         * pages are built bottom-up, see {@link MVMap#bulkLoad(Iterator)}.
+         *
+         * @param entries the entries, in ascending order of the keys
+         * @return the number of entries added
+         */
+        public long bulkLoadCommitted(
+                final Iterator<? extends Entry<K, V>> entries) {
+            return map.bulkLoad(new Iterator<Entry<K, VersionedValue>>() {
+
+                @Override
+                public boolean hasNext() {
+                    return entries.hasNext();
+                }
+
+                @Override
+                public Entry<K, VersionedValue> next() {
+                    Entry<K, V> e = entries.next();
+                    VersionedValue v = new VersionedValue();
+                    v.value = e.getValue();
+                    return new DataUtils.MapEntry<>(e.getKey(), v);
+                }
+
+                @Override
+                public void remove() {
+                    throw DataUtils.newUnsupportedOperationException("remove");
+                }
+
+            });
+        }
+
         private V set(K key, V value) {
             transaction.checkNotClosed();
             V old = get(key);
@@ -1106,12 +1576,60 @@ public class TransactionStore {
          *         update
          */
         public boolean trySet(K key, V value, boolean onlyIfUnchanged) {
+            return trySet(key, map.get(key), value, onlyIfUnchanged, mapId);
+        }
+
+        /**
+         * Lock the entry for the given key, without changing the value, so
+         * that other transactions can not change it until this transaction is
+         * closed. This is only possible if the entry was not changed by
+         * another open transaction.
+         *
+         * @param key the key
+         * @return the value, or null if the entry doesn't exist
+         * @throws IllegalStateException if the entry is locked by another
+         *             transaction
+         */
+        @SuppressWarnings("unchecked")
+        public V lock(K key) {
+            transaction.checkNotClosed();
             VersionedValue current = map.get(key);
+            if (current == null) {
+                return null;
+            }
+            if (current.operationId != 0 && getTransactionId(
+                    current.operationId) == transaction.transactionId) {
+                // already locked or changed by this transaction
+                return (V) current.value;
+            }
+            if (!trySet(key, current, (V) current.value, true, ~mapId)) {
+                throw DataUtils.newIllegalStateException(
+                        DataUtils.ERROR_TRANSACTION_LOCKED, "Entry is locked");
+            }
+            return (V) current.value;
+        }
+
+        /**
+         * Try to set or remove the value.
+         *
+         * @param key the key
+         * @param current the current value in the map
+         * @param value the new value (null to remove the value)
+         * @param onlyIfUnchanged only set the value if it was not changed (by
+         *            this or another transaction) since the map was opened
+         * @param logMapId the map id to log, or its complement for a lock
+         * @return true if the value was set
+         */
+        private boolean trySet(K key, VersionedValue current, V value,
+                boolean onlyIfUnchanged, int logMapId) {
             if (onlyIfUnchanged) {
                 VersionedValue old = getValue(key, readLogId);
                 if (!map.areValuesEqual(old, current)) {
-                    long tx = getTransactionId(current.operationId);
-                    if (tx == transaction.transactionId) {
+                    int tx = getTransactionId(current.operationId);
+                    if (old == null && current.value == null &&
+                            transaction.store.isCommitted(tx)) {
+                        // removed by a committed transaction
+                    } else if (tx == transaction.transactionId) {
                         if (value == null) {
                             // ignore removing an entry
                             // if it was added or changed
@@ -1124,7 +1642,7 @@ public class TransactionStore {
                             return false;
                         }
                     } else {
-                        return false;
+                        return setBlockingTransaction(tx);
                     }
                 }
             }
@@ -1134,7 +1652,7 @@ public class TransactionStore {
             newValue.value = value;
             if (current == null) {
                 // a new value
-                transaction.log(mapId, key, current);
+                transaction.log(logMapId, key, current);
                 VersionedValue old = map.putIfAbsent(key, newValue);
                 if (old != null) {
                     transaction.logUndo();
@@ -1143,9 +1661,20 @@ public class TransactionStore {
                 return true;
             }
             long id = current.operationId;
+            if (id != 0 && transaction.store.isCommitted(getTransactionId(id))) {
+                // committed, but not cleaned up yet: log the committed value,
+                // as the transaction id can be re-used after cleaning up
+                transaction.log(logMapId, key, getCommitted(current));
+                if (!map.replace(key, current, newValue)) {
+                    // somebody else was faster
+                    transaction.logUndo();
+                    return false;
+                }
+                return true;
+            }
             if (id == 0) {
                 // committed
-                transaction.log(mapId, key, current);
+                transaction.log(logMapId, key, current);
                 // the transaction is committed:
                 // overwrite the value
                 if (!map.replace(key, current, newValue)) {
@@ -1158,7 +1687,7 @@ public class TransactionStore {
             int tx = getTransactionId(current.operationId);
             if (tx == transaction.transactionId) {
                 // added or updated by this transaction
-                transaction.log(mapId, key, current);
+                transaction.log(logMapId, key, current);
                 if (!map.replace(key, current, newValue)) {
                     // strange, somebody overwrote the value
                     // even though the change was not committed
@@ -1168,6 +1697,12 @@ public class TransactionStore {
                 return true;
             }
             // the transaction is not yet committed
+            return setBlockingTransaction(tx);
+        }
+
+        private boolean setBlockingTransaction(int transactionId) {
+            transaction.blockingTransaction =
+                    transaction.store.getTransaction(transactionId);
             return false;
         }
 
@@ -1266,10 +1801,13 @@ public class TransactionStore {
                     if (getLogId(id) < maxLog) {
                         return data;
                     }
+                } else if (transaction.store.isCommitted(tx)) {
+                    // committed, but not cleaned up yet
+                    return data.value == null ? null : data;
                 }
                 // get the value before the uncommitted transaction
                 Object[] d;
-                d = transaction.store.undoLog.get(id);
+                d = transaction.store.getUndoLogEntry(id);
                 if (d == null) {
                     if (transaction.store.store.isReadOnly()) {
                         // uncommitted transaction for a read-only store
@@ -1286,6 +1824,22 @@ public class TransactionStore {
             }
         }
 
+        /**
+         * Get the committed version of a value that was changed by a
+         * committed transaction.
+         *
+         * @param data the value stored in the main map
+         * @return the committed value, or null if it was removed
+         */
+        private static VersionedValue getCommitted(VersionedValue data) {
+            if (data.value == null) {
+                return null;
+            }
+            VersionedValue v = new VersionedValue();
+            v.value = data.value;
+            return v;
+        }
+
         /**
          * Check whether this map is closed.
          *
@@ -1606,6 +2160,273 @@ public class TransactionStore {
 
     }
 
+    /**
+     * The undo log of a transaction id. The entries are kept in memory, so
+     * that usually nothing needs to be stored, and are only written to the
+     * undo log map if there are many of them, when the transaction is
+     * prepared, and before the store saves changes (as the changed entries of
+     * the transaction may be saved). The stored entries are those with the
+     * lowest log ids; the log ids of all entries are contiguous.
+     * <p>
+     * Only the transaction adds and removes entries, except when the entries
+     * of a committed transaction are cleaned up. The entries in memory are
+     * also read by other transactions, and written to the map while the store
+     * saves changes, so they are accessed while synchronized on the log. The
+     * map is not accessed while synchronized, except while the store saves
+     * changes, because writing to the map may need to save changes.
+     */
+    static final class UndoLog {
+
+        private final TransactionStore store;
+        private final int transactionId;
+        private final String mapName;
+
+        /**
+         * The entries in memory, starting with the log id bufferStart.
+         */
+        private final ArrayList<Object[]> buffer = New.arrayList();
+
+        private long bufferStart;
+
+        /**
+         * The map of the stored entries, or null if it was not opened yet.
+         */
+        private volatile MVMap<Long, Object[]> map;
+
+        UndoLog(TransactionStore store, int transactionId, String mapName) {
+            this.store = store;
+            this.transactionId = transactionId;
+            this.mapName = mapName;
+            if (store.store.hasMap(mapName)) {
+                map = store.openUndoLog(mapName);
+            }
+        }
+
+        /**
+         * Get the map of the stored entries, opening or creating it if needed.
+         *
+         * @return the map
+         */
+        MVMap<Long, Object[]> getMap() {
+            MVMap<Long, Object[]> m = map;
+            if (m == null) {
+                m = store.openUndoLog(mapName);
+                map = m;
+            }
+            return m;
+        }
+
+        /**
+         * Add an entry.
+         *
+         * @param undoKey the operation id
+         * @param op the entry
+         */
+        void add(long undoKey, Object[] op) {
+            boolean write;
+            synchronized (this) {
+                if (buffer.isEmpty()) {
+                    bufferStart = getLogId(undoKey);
+                }
+                buffer.add(op);
+                // changes might be stored before the next store would write
+                // the entry, so it is written now
+                write = buffer.size() > UNDO_LOG_MEMORY_ENTRIES ||
+                        store.store.isStoreInProgress();
+            }
+            if (write) {
+                write();
+            }
+        }
+
+        /**
+         * Get the entry with the given operation id.
+         *
+         * @param undoKey the operation id
+         * @return the entry, or null if it does not exist
+         */
+        Object[] get(long undoKey) {
+            synchronized (this) {
+                long index = getLogId(undoKey) - bufferStart;
+                if (index >= 0 && index < buffer.size()) {
+                    return buffer.get((int) index);
+                }
+            }
+            MVMap<Long, Object[]> m = map;
+            return m == null ? null : m.get(undoKey);
+        }
+
+        /**
+         * Remove the entry with the given operation id. Only the first and the
+         * last entry can be removed.
+         *
+         * @param undoKey the operation id
+         * @return the removed entry, or null if it did not exist
+         */
+        Object[] remove(long undoKey) {
+            synchronized (this) {
+                long index = getLogId(undoKey) - bufferStart;
+                if (index == 0 && !buffer.isEmpty()) {
+                    bufferStart++;
+                    return buffer.remove(0);
+                } else if (index > 0 && index == buffer.size() - 1) {
+                    return buffer.remove((int) index);
+                }
+            }
+            MVMap<Long, Object[]> m = map;
+            return m == null ? null : m.remove(undoKey);
+        }
+
+        /**
+         * Get the operation id of the first entry.
+         *
+         * @return the operation id, or null if the log is empty
+         */
+        Long firstKey() {
+            Long key = null;
+            synchronized (this) {
+                if (!buffer.isEmpty()) {
+                    key = getOperationId(transactionId, bufferStart);
+                }
+            }
+            // the entries in memory might be written to the map concurrently
+            MVMap<Long, Object[]> m = map;
+            Long stored = m == null ? null : m.firstKey();
+            return stored != null && (key == null || stored < key) ?
+                    stored : key;
+        }
+
+        /**
+         * Get the operation id of the last entry.
+         *
+         * @return the operation id, or null if the log is empty
+         */
+        Long lastKey() {
+            synchronized (this) {
+                if (!buffer.isEmpty()) {
+                    return getOperationId(transactionId,
+                            bufferStart + buffer.size() - 1);
+                }
+            }
+            MVMap<Long, Object[]> m = map;
+            return m == null ? null : m.lastKey();
+        }
+
+        /**
+         * Get the largest operation id of an entry that is smaller or equal to
+         * the given operation id.
+         *
+         * @param undoKey the operation id
+         * @return the operation id, or null if there is no such entry
+         */
+        Long floorKey(long undoKey) {
+            synchronized (this) {
+                long logId = getLogId(undoKey);
+                if (!buffer.isEmpty() && logId >= bufferStart) {
+                    return getOperationId(transactionId, Math.min(logId,
+                            bufferStart + buffer.size() - 1));
+                }
+            }
+            MVMap<Long, Object[]> m = map;
+            return m == null ? null : m.floorKey(undoKey);
+        }
+
+        /**
+         * Check whether the log is empty.
+         *
+         * @return true if yes
+         */
+        boolean isEmpty() {
+            synchronized (this) {
+                if (!buffer.isEmpty()) {
+                    return false;
+                }
+            }
+            MVMap<Long, Object[]> m = map;
+            return m == null || m.isEmpty();
+        }
+
+        /**
+         * Get the number of entries.
+         *
+         * @return the number of entries
+         */
+        long size() {
+            long size;
+            synchronized (this) {
+                size = buffer.size();
+            }
+            MVMap<Long, Object[]> m = map;
+            return m == null ? size : size + m.sizeAsLong();
+        }
+
+        /**
+         * Get the entries. Entries that are written to the map concurrently
+         * may be contained twice.
+         *
+         * @return the entries
+         */
+        ArrayList<Object[]> getEntries() {
+            ArrayList<Object[]> list;
+            synchronized (this) {
+                list = New.arrayList(buffer);
+            }
+            MVMap<Long, Object[]> m = map;
+            if (m != null) {
+                list.addAll(m.values());
+            }
+            return list;
+        }
+
+        /**
+         * Write the entries in memory to the map. This is only called by the
+         * transaction.
+         */
+        void write() {
+            Object[][] list;
+            long start;
+            synchronized (this) {
+                if (buffer.isEmpty()) {
+                    return;
+                }
+                list = buffer.toArray(new Object[buffer.size()][]);
+                start = bufferStart;
+            }
+            MVMap<Long, Object[]> m = getMap();
+            for (int i = 0; i < list.length; i++) {
+                m.put(getOperationId(transactionId, start + i), list[i]);
+            }
+            synchronized (this) {
+                // the entries might have been written while the store saved
+                // changes in the meantime
+                long count = Math.min(buffer.size(),
+                        start + list.length - bufferStart);
+                if (count > 0) {
+                    buffer.subList(0, (int) count).clear();
+                    bufferStart += count;
+                }
+            }
+        }
+
+        /**
+         * Write the entries in memory to the map, while the store saves
+         * changes.
+         */
+        synchronized void writeWhileStoring() {
+            if (buffer.isEmpty()) {
+                return;
+            }
+            MVMap<Long, Object[]> m = getMap();
+            for (int i = 0; i < buffer.size(); i++) {
+                m.put(getOperationId(transactionId, bufferStart + i),
+                        buffer.get(i));
+            }
+            bufferStart += buffer.size();
+            buffer.clear();
+        }
+
+    }
+
     /**
      * A versioned value (possibly null). It contains a pointer to the old
      * value, and the value itself.
@@ -0,0 +1,360 @@
+/*
+ * Copyright 2004-2014 H2 Group. Multiple-Licensed under the MPL 2.0,
+ * and the EPL 1.0 (http://h2database.com/html/license.html).
+ * Initial Developer: H2 Group
+ */
+package org.h2.mvstore.db;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import org.h2.api.ErrorCode;
+import org.h2.engine.Session;
+import org.h2.message.DbException;
+import org.h2.table.Table;
+import org.h2.util.New;
+
+/**
+ * The wait-for graph of the sessions that wait for a table lock or a row lock
+ * of a MVStore table. The graph is updated when a session starts and stops
+ * waiting, so that a deadlock is detected as soon as a wait closes a cycle.
+ * The session in the cycle with the fewest changes to undo is rolled back.
+ */
+public class WaitForGraph {
+
+    /**
+     * The waiting sessions. Changes are synchronized on this object, but
+     * releasing a lock checks whether it is empty without synchronization.
+     */
+    private final ConcurrentHashMap<Session, Waiter> waiters =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Record that a session waits for a lock, and check whether this wait
+     * closes a cycle. If it does, the session with the smallest transaction
+     * in the cycle is chosen as the victim. This method may be called
+     * repeatedly while the session waits, with the current lock holders.
+     *
+     * @param session the waiting session
+     * @param table the locked table, or null for a row lock
+     * @param exclusive whether an exclusive lock is requested
+     * @param holders the sessions the lock is waited for
+     * @param monitor the object the session waits on, or null if the thread
+     *            of the session sleeps and is interrupted using the returned
+     *            waiter
+     * @return the waiter
+     * @throws DbException if the waiting session is the victim of a deadlock
+     */
+    public Waiter beginWait(Session session, Table table, boolean exclusive,
+            Collection<Session> holders, Object monitor) {
+        Waiter w, victim;
+        synchronized (this) {
+            w = waiters.get(session);
+            if (w == null) {
+                w = new Waiter(session, table, exclusive, monitor);
+                waiters.put(session, w);
+            }
+            checkVictim(w);
+            Session[] list = holders.toArray(new Session[0]);
+            if (w.holders != null &&
+                    new HashSet<>(Arrays.asList(w.holders)).equals(
+                    new HashSet<>(Arrays.asList(list)))) {
+                // unchanged, so no new cycle can exist
+                return w;
+            }
+            w.holders = list;
+            ArrayList<Waiter> cycle = findCycle(w);
+            if (cycle == null) {
+                return w;
+            }
+            victim = w;
+            long cost = session.getUndoLogSize();
+            for (Waiter x : cycle) {
+                long c = x.session.getUndoLogSize();
+                if (c < cost) {
+                    victim = x;
+                    cost = c;
+                }
+            }
+            victim.deadlock = getDeadlockDetails(cycle);
+            if (victim == w) {
+                checkVictim(w);
+            }
+        }
+        Object m = victim.monitor;
+        if (m == null) {
+            victim.signal();
+        } else if (m == monitor || !(m instanceof Table) ||
+                !(monitor instanceof Table)) {
+            // the monitor of a table is not acquired while holding another
+            // one, the victim notices the deadlock when its wait times out
+            synchronized (m) {
+                m.notifyAll();
+            }
+        }
+        return w;
+    }
+
+    /**
+     * Check whether the session was chosen as the victim of a deadlock.
+     *
+     * @param session the waiting session
+     * @throws DbException if the session is the victim of a deadlock
+     */
+    public synchronized void checkVictim(Session session) {
+        Waiter w = waiters.get(session);
+        if (w != null) {
+            checkVictim(w);
+        }
+    }
+
+    private void checkVictim(Waiter w) {
+        if (w.deadlock != null) {
+            waiters.remove(w.session);
+            throw DbException.get(ErrorCode.DEADLOCK_1, w.deadlock);
+        }
+    }
+
+    /**
+     * Record that a session no longer waits.
+     *
+     * @param session the session
+     */
+    public synchronized void endWait(Session session) {
+        waiters.remove(session);
+    }
+
+    /**
+     * Record that a session released a lock, or gave up waiting for it, so
+     * that the sessions waiting for the same lock no longer wait for it.
+     *
+     * @param session the session
+     * @param table the table, or null if the transaction of the session
+     *            ended and released its row locks
+     */
+    public void release(Session session, Table table) {
+        if (waiters.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            for (Waiter w : waiters.values()) {
+                if (w.table != table || w.holders == null) {
+                    continue;
+                }
+                ArrayList<Session> list = New.arrayList();
+                for (Session s : w.holders) {
+                    if (s != session) {
+                        list.add(s);
+                    }
+                }
+                if (list.size() < w.holders.length) {
+                    w.holders = list.toArray(new Session[0]);
+                    if (w.monitor == null) {
+                        w.signal();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the waiting sessions.
+     *
+     * @return a snapshot of the waiting sessions
+     */
+    public synchronized ArrayList<Waiter> getWaiters() {
+        return new ArrayList<>(waiters.values());
+    }
+
+    /**
+     * Find a cycle from the given session back to itself. Sessions that were
+     * already chosen as a victim are ignored, as their wait ends soon.
+     *
+     * @param start the session that started to wait
+     * @return the sessions of the cycle, starting with the given session, or
+     *         null if there is no cycle
+     */
+    private ArrayList<Waiter> findCycle(Waiter start) {
+        // the waiter through which a session was reached
+        HashMap<Session, Waiter> parent = new HashMap<>();
+        ArrayDeque<Waiter> stack = new ArrayDeque<>();
+        stack.push(start);
+        while (!stack.isEmpty()) {
+            Waiter w = stack.pop();
+            for (Session s : w.holders) {
+                if (s == start.session) {
+                    ArrayList<Waiter> cycle = New.arrayList();
+                    for (Waiter x = w; x != start; x = parent.get(x.session)) {
+                        cycle.add(x);
+                    }
+                    cycle.add(start);
+                    Collections.reverse(cycle);
+                    return cycle;
+                }
+                if (parent.containsKey(s)) {
+                    continue;
+                }
+                Waiter next = waiters.get(s);
+                if (next == null || next.deadlock != null) {
+                    continue;
+                }
+                parent.put(s, w);
+                stack.push(next);
+            }
+        }
+        return null;
+    }
+
+    private static String getDeadlockDetails(ArrayList<Waiter> cycle) {
+        // We add the thread details here to make it easier for customers to
+        // match up these error messages with their own logs.
+        StringBuilder buff = new StringBuilder();
+        for (Waiter w : cycle) {
+            Session s = w.session;
+            buff.append("\nSession ").append(s.toString())
+                    .append(" on thread ").append(w.thread.getName());
+            if (w.table == null) {
+                buff.append(" is waiting to lock a row of ");
+                for (int i = 0; i < w.holders.length; i++) {
+                    if (i > 0) {
+                        buff.append(", ");
+                    }
+                    buff.append("session ").append(w.holders[i].toString());
+                }
+            } else {
+                buff.append(" is waiting to lock ").append(w.table.toString())
+                        .append(w.exclusive ? " (exclusive)" : " (shared)");
+            }
+            buff.append(" while locking ");
+            int i = 0;
+            for (Table t : s.getLocks()) {
+                if (i++ > 0) {
+                    buff.append(", ");
+                }
+                buff.append(t.toString()).append(t.isLockedExclusivelyBy(s) ?
+                        " (exclusive)" : " (shared)");
+            }
+            buff.append('.');
+        }
+        return buff.toString();
+    }
+
+    /**
+     * A session that waits for a lock.
+     */
+    public static class Waiter {
+
+        final Session session;
+        final Table table;
+        final boolean exclusive;
+        final Object monitor;
+        final Thread thread;
+        final long start;
+
+        /**
+         * The sessions this session waits for.
+         */
+        Session[] holders;
+
+        /**
+         * The deadlock details, if this session was chosen as the victim.
+         */
+        String deadlock;
+
+        /**
+         * Whether the waiter was signalled while the thread did not sleep.
+         */
+        private boolean signalled;
+
+        /**
+         * Whether the thread may be interrupted when the waiter is signalled.
+         */
+        private boolean sleeping;
+
+        Waiter(Session session, Table table, boolean exclusive,
+                Object monitor) {
+            this.session = session;
+            this.table = table;
+            this.exclusive = exclusive;
+            this.monitor = monitor;
+            this.thread = Thread.currentThread();
+            this.start = System.currentTimeMillis();
+        }
+
+        /**
+         * Wake up the thread of the session if it sleeps, or let it return
+         * immediately the next time it sleeps.
+         */
+        synchronized void signal() {
+            if (sleeping) {
+                thread.interrupt();
+            } else {
+                signalled = true;
+            }
+        }
+
+        /**
+         * Let the thread be interrupted when the waiter is signalled, until
+         * endSleep is called. This must be called by the thread of the session
+         * before it sleeps.
+         */
+        public synchronized void beginSleep() {
+            sleeping = true;
+            if (signalled) {
+                signalled = false;
+                thread.interrupt();
+            }
+        }
+
+        /**
+         * Stop interrupting the thread, and clear its interrupted status. This
+         * must be called by the thread of the session after it slept.
+         */
+        public synchronized void endSleep() {
+            sleeping = false;
+            Thread.interrupted();
+        }
+
+        public Session getSession() {
+            return session;
+        }
+
+        /**
+         * Get the table that is waited for.
+         *
+         * @return the table, or null if a row lock is waited for
+         */
+        public Table getTable() {
+            return table;
+        }
+
+        public boolean isExclusive() {
+            return exclusive;
+        }
+
+        /**
+         * Get the sessions this session waits for.
+         *
+         * @return the sessions
+         */
+        public Session[] getHolders() {
+            return holders;
+        }
+
+        /**
+         * Get the time when the session started to wait.
+         *
+         * @return the time in milliseconds since 1970
+         */
+        public long getStart() {
+            return start;
+        }
+
+    }
+
+}
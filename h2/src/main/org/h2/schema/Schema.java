@@ -659,7 +659,9 @@ public class Schema extends DbObjectBase {
                 return database.getTableEngine(data.tableEngine).createTable(data);
             }
             //return new RegularTable(data);
-	    return new org.h2.column.ColumnarTable(data);
+	    // columnar tables are persisted by the engine of the database
+	    return database.getTableEngine(
+		    org.h2.column.ColumnarTableEngine.class.getName()).createTable(data);
         }
     }
 
@@ -17,6 +17,8 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Locale;
+import org.h2.column.ColumnStatistics;
+import org.h2.column.ColumnarTable;
 import org.h2.command.Command;
 import org.h2.constraint.Constraint;
 import org.h2.constraint.ConstraintCheck;
@@ -44,6 +46,7 @@ import org.h2.jdbc.JdbcSQLException;
 import org.h2.message.DbException;
 import org.h2.mvstore.FileStore;
 import org.h2.mvstore.db.MVTableEngine.Store;
+import org.h2.mvstore.db.WaitForGraph;
 import org.h2.result.Row;
 import org.h2.result.SearchRow;
 import org.h2.result.SortOrder;
@@ -109,7 +112,9 @@ public class MetaTable extends Table {
     private static final int SESSION_STATE = 27;
     private static final int QUERY_STATISTICS = 28;
     private static final int SYNONYMS = 29;
-    private static final int META_TABLE_TYPE_COUNT = SYNONYMS + 1;
+    private static final int COLUMN_STATISTICS = 30;
+    private static final int LOCK_WAITS = 31;
+    private static final int META_TABLE_TYPE_COUNT = LOCK_WAITS + 1;
 
     private final int type;
     private final int indexColumn;
@@ -555,6 +560,33 @@ public class MetaTable extends Table {
                 indexColumnName = "SYNONYM_NAME";
                 break;
         }
+        case COLUMN_STATISTICS: {
+            setObjectName("COLUMN_STATISTICS");
+            cols = createColumns(
+                    "TABLE_CATALOG",
+                    "TABLE_SCHEMA",
+                    "TABLE_NAME",
+                    "COLUMN_NAME",
+                    "ROW_COUNT BIGINT",
+                    "NULL_FRACTION DOUBLE",
+                    "DISTINCT_COUNT BIGINT",
+                    "HISTOGRAM"
+            );
+            indexColumnName = "TABLE_NAME";
+            break;
+        }
+        case LOCK_WAITS: {
+            setObjectName("LOCK_WAITS");
+            cols = createColumns(
+                    "SESSION_ID INT",
+                    "BLOCKING_SESSION_ID INT",
+                    "LOCK_TYPE",
+                    "TABLE_SCHEMA",
+                    "TABLE_NAME",
+                    "WAIT_START"
+            );
+            break;
+        }
         default:
             throw DbException.throwInternalError("type="+type);
         }
@@ -1904,6 +1936,74 @@ public class MetaTable extends Table {
                 }
                 break;
             }
+        case COLUMN_STATISTICS: {
+            for (Table table : getAllTables(session)) {
+                String tableName = identifier(table.getName());
+                if (!checkIndex(session, tableName, indexFrom, indexTo)) {
+                    continue;
+                }
+                if (!(table instanceof ColumnarTable) ||
+                        hideTable(table, session)) {
+                    continue;
+                }
+                ColumnStatistics[] stats =
+                        ((ColumnarTable) table).getColumnStatistics();
+                Column[] cols = table.getColumns();
+                for (int j = 0; j < cols.length; j++) {
+                    ColumnStatistics s = stats[j];
+                    add(rows,
+                            // TABLE_CATALOG
+                            catalog,
+                            // TABLE_SCHEMA
+                            identifier(table.getSchema().getName()),
+                            // TABLE_NAME
+                            tableName,
+                            // COLUMN_NAME
+                            identifier(cols[j].getName()),
+                            // ROW_COUNT
+                            "" + s.getRowCount(),
+                            // NULL_FRACTION
+                            "" + s.getNullFraction(),
+                            // DISTINCT_COUNT
+                            "" + s.getDistinctCount(),
+                            // HISTOGRAM
+                            s.getHistogram()
+                    );
+                }
+            }
+            break;
+        }
+        case LOCK_WAITS: {
+            Store store = database.getMvStore();
+            if (store == null) {
+                break;
+            }
+            for (WaitForGraph.Waiter w : store.getWaitForGraph().getWaiters()) {
+                Session s = w.getSession();
+                if (!admin && s != session) {
+                    continue;
+                }
+                Table table = w.getTable();
+                for (Session holder : w.getHolders()) {
+                    add(rows,
+                            // SESSION_ID
+                            "" + s.getId(),
+                            // BLOCKING_SESSION_ID
+                            "" + holder.getId(),
+                            // LOCK_TYPE
+                            table == null ? "ROW" :
+                                    w.isExclusive() ? "WRITE" : "READ",
+                            // TABLE_SCHEMA
+                            table == null ? null : table.getSchema().getName(),
+                            // TABLE_NAME
+                            table == null ? null : table.getName(),
+                            // WAIT_START
+                            new Timestamp(w.getStart()).toString()
+                    );
+                }
+            }
+            break;
+        }
         default:
             DbException.throwInternalError("type="+type);
         }
@@ -2089,6 +2189,7 @@ public class MetaTable extends Table {
         case SESSIONS:
         case LOCKS:
         case SESSION_STATE:
+        case LOCK_WAITS:
             return Long.MAX_VALUE;
         }
         return database.getModificationDataId();
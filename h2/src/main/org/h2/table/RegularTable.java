@@ -153,6 +153,53 @@ public class RegularTable extends TableBase {
         analyzeIfRequired(session);
     }
 
+    @Override
+    public void addRows(Session session, ArrayList<Row> rows) {
+        lastModificationId = database.getNextModificationDataId();
+        addRowsToScanIndex(session, rows);
+        int count = rows.size(), size = indexes.size();
+        int j = 0, i = 1;
+        try {
+            for (; j < count; j++) {
+                Row row = rows.get(j);
+                for (i = 1; i < size; i++) {
+                    indexes.get(i).add(session, row);
+                }
+            }
+        } catch (Throwable e) {
+            try {
+                for (; j >= 0; j--, i = size) {
+                    Row row = rows.get(j);
+                    while (--i >= 1) {
+                        indexes.get(i).remove(session, row);
+                    }
+                }
+                Index scan = indexes.get(0);
+                for (j = count - 1; j >= 0; j--) {
+                    scan.remove(session, rows.get(j));
+                }
+            } catch (DbException e2) {
+                trace.error(e2, "could not undo operation");
+                throw e2;
+            }
+            throw DbException.convert(e);
+        }
+        rowCount += count;
+        changesSinceAnalyze += count - 1;
+        analyzeIfRequired(session);
+    }
+
+    /**
+     * Add a batch of rows to the scan index, and assign consecutive keys.
+     * This method needs to be overridden by tables that support addRows.
+     *
+     * @param session the session
+     * @param rows the rows
+     */
+    protected void addRowsToScanIndex(Session session, ArrayList<Row> rows) {
+        throw DbException.getUnsupportedException("addRows");
+    }
+
     @Override
     public void commit(short operation, Row row) {
         lastModificationId = database.getNextModificationDataId();
@@ -204,6 +251,22 @@ public class RegularTable extends TableBase {
         return indexes;
     }
 
+    /**
+     * Create a hash index. This method can be overridden by tables that keep
+     * their own kind of hash index; by default, a hash index is only used for
+     * in-memory indexes on one column.
+     *
+     * @param indexId the index id
+     * @param indexName the index name
+     * @param cols the index columns
+     * @param indexType the index type
+     * @return the index, or null to create the default index
+     */
+    protected Index createHashIndex(int indexId, String indexName,
+            IndexColumn[] cols, IndexType indexType) {
+        return null;
+    }
+
     @Override
     public Index addIndex(Session session, String indexName, int indexId,
             IndexColumn[] cols, IndexType indexType, boolean create,
@@ -222,10 +285,16 @@ public class RegularTable extends TableBase {
         if (!isSessionTemporary) {
             database.lockMeta(session);
         }
-        Index index;
-        if (isPersistIndexes() && indexType.isPersistent()) {
+        Index index = indexType.isHash() ?
+                createHashIndex(indexId, indexName, cols, indexType) : null;
+        if (index != null) {
+            // the table provides its own hash index
+        } else if (isPersistIndexes() && indexType.isPersistent()) {
             int mainIndexColumn;
-            if (database.isStarting() &&
+            if (scanIndex != mainIndex) {
+                // the rows are not stored in the main index
+                mainIndexColumn = -1;
+            } else if (database.isStarting() &&
                     database.getPageStore().getRootPageId(indexId) != 0) {
                 mainIndexColumn = -1;
             } else if (!database.isStarting() && mainIndex.getRowCount(session) != 0) {
@@ -727,6 +796,11 @@ public class RegularTable extends TableBase {
             }
         }
         scanIndex.remove(session);
+        if (mainIndex != null && mainIndex != scanIndex) {
+            // the scan index was replaced, but the page store still knows
+            // the main index, and the id of the table may be used again
+            mainIndex.remove(session);
+        }
         database.removeMeta(session, getId());
         scanIndex = null;
         lockExclusiveSession = null;
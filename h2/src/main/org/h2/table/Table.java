@@ -185,6 +185,47 @@ public abstract class Table extends SchemaObjectBase {
      */
     public abstract void addRow(Session session, Row row);
 
+    /**
+     * Lock a row for update (SELECT ... FOR UPDATE), so that other sessions
+     * can not change it until the transaction is closed. By default, the row
+     * is removed and added again.
+     *
+     * @param session the session
+     * @param row the row
+     */
+    public void lockRow(Session session, Row row) {
+        Row newRow = row.getCopy();
+        removeRow(session, row);
+        session.log(this, UndoLogRecord.DELETE, row);
+        addRow(session, newRow);
+        session.log(this, UndoLogRecord.INSERT, newRow);
+    }
+
+    /**
+     * Check whether rows can be added in batches using addRows. Row based
+     * triggers and constraints are not checked by addRows, so the caller
+     * needs to add such rows one at a time.
+     *
+     * @return true if batches of rows are supported
+     */
+    public boolean canAddRows() {
+        return false;
+    }
+
+    /**
+     * Add a batch of rows to the table and all indexes. The rows get
+     * consecutive keys, so that the batch can be logged as one range of keys
+     * (see {@link Session#logInsertRange}). If a row can not be added, none of
+     * the rows are added.
+     *
+     * @param session the session
+     * @param rows the rows
+     * @throws DbException if a constraint was violated
+     */
+    public void addRows(Session session, ArrayList<Row> rows) {
+        throw DbException.getUnsupportedException("addRows");
+    }
+
     /**
      * Commit an operation (when using multi-version concurrency).
      *
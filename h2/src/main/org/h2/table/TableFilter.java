@@ -13,7 +13,6 @@ import org.h2.command.dml.Select;
 import org.h2.engine.Right;
 import org.h2.engine.Session;
 import org.h2.engine.SysProperties;
-import org.h2.engine.UndoLogRecord;
 import org.h2.expression.Comparison;
 import org.h2.expression.ConditionAndOr;
 import org.h2.expression.Expression;
@@ -111,6 +110,12 @@ public class TableFilter implements ColumnResolver {
      */
     private TableFilter nestedJoin;
 
+    /**
+     * The columns of the table that are used by the query, or null if not
+     * known.
+     */
+    private Column[] columnsUsed;
+
     private ArrayList<Column> naturalJoinColumns;
     private boolean foundOne;
     private Expression fullCondition;
@@ -926,6 +931,21 @@ public class TableFilter implements ColumnResolver {
         this.used = used;
     }
 
+    /**
+     * Set the columns of the table that are used by the query. An index may
+     * then only read those columns; the values of the other columns of the
+     * search row may be null.
+     *
+     * @param columnsUsed the columns, or null if not known
+     */
+    public void setColumnsUsed(Column[] columnsUsed) {
+        this.columnsUsed = columnsUsed;
+    }
+
+    public Column[] getColumnsUsed() {
+        return columnsUsed;
+    }
+
     public boolean isUsed() {
         return used;
     }
@@ -1169,11 +1189,7 @@ public class TableFilter implements ColumnResolver {
      */
     public void lockRows(ArrayList<Row> forUpdateRows) {
         for (Row row : forUpdateRows) {
-            Row newRow = row.getCopy();
-            table.removeRow(session, row);
-            session.log(table, UndoLogRecord.DELETE, row);
-            table.addRow(session, newRow);
-            session.log(table, UndoLogRecord.INSERT, newRow);
+            table.lockRow(session, row);
         }
     }
 
@@ -28,6 +28,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
+import org.h2.api.ErrorCode;
 import org.h2.api.TableEngine;
 import org.h2.command.ddl.CreateTableData;
 import org.h2.engine.Session;
@@ -44,14 +45,18 @@ import org.h2.result.Row;
 import org.h2.result.SearchRow;
 import org.h2.result.SortOrder;
 import org.h2.table.*;
+import org.h2.store.fs.FileUtils;
 import org.h2.test.TestBase;
 import org.h2.util.DoneFuture;
+import org.h2.util.JdbcUtils;
 import org.h2.util.New;
+import org.h2.util.Task;
 import org.h2.value.Value;
 import org.h2.value.ValueInt;
 import org.h2.value.ValueNull;
 import org.h2.value.ValueString;
 
+import org.h2.column.ColumnarCursor;
 import org.h2.column.ColumnarTable;
 import org.h2.column.ColumnarTableEngine;
 
@@ -69,6 +74,22 @@ public class TestColumnOrientedTableEngine extends TestBase {
         testQueryExpressionFlag();
         testSubQueryInfo();
         testColumnOrientedIndex();
+        testColumnVectorTypes();
+        testDictionaryEncoding();
+        testBatchCursor();
+        testZoneMaps();
+        testPersistence();
+        testRecoverAfterCrash();
+        testUncommittedNotDurable();
+        testCompaction();
+        testSnapshotScan();
+        testParallelAggregate();
+        testAggregateKernels();
+        testEncodings();
+        testHashIndex();
+        testBulkLoad();
+        testColumnStatistics();
+        testLateMaterialization();
     }
 
     /**
@@ -661,6 +682,921 @@ public class TestColumnOrientedTableEngine extends TestBase {
         deleteDb("tableEngine");
     }
 
+    private void testColumnVectorTypes() throws SQLException {
+        deleteDb("columnVectorTypes");
+        Connection conn = getConnection("columnVectorTypes;MV_STORE=FALSE");
+        Statement stat = conn.createStatement();
+        stat.execute("CREATE TABLE T(ID INT, B BOOLEAN, T TINYINT, S SMALLINT, " +
+                "L BIGINT, D DOUBLE, R REAL, V VARCHAR, I VARCHAR_IGNORECASE, " +
+                "C CHAR(3), X BINARY, DT DATE, TM TIME, TS TIMESTAMP, " +
+                "N DECIMAL(10, 2)) ENGINE \"" + ColumnarTableEngine.class.getName() + "\"");
+        stat.execute("INSERT INTO T VALUES(1, TRUE, 1, 2, 3, 4.5, 5.5, 'a\u00e4', 'Ab', " +
+                "'x', X'0102', DATE '2017-01-02', TIME '10:11:12', " +
+                "TIMESTAMP '2017-01-02 10:11:12.5', 12.34)");
+        stat.execute("INSERT INTO T(ID) VALUES(2)");
+        stat.execute("INSERT INTO T VALUES(3, FALSE, -1, -2, -3, -4.5, -5.5, '', 'cD', " +
+                "'yz', X'', DATE '1999-12-31', TIME '00:00:00', " +
+                "TIMESTAMP '1999-12-31 23:59:59', -0.01)");
+        ResultSet rs = stat.executeQuery("SELECT * FROM T ORDER BY ID");
+        assertTrue(rs.next());
+        assertEquals(1, rs.getInt(1));
+        assertTrue(rs.getBoolean(2));
+        assertEquals(1, rs.getByte(3));
+        assertEquals(2, rs.getShort(4));
+        assertEquals(3L, rs.getLong(5));
+        assertEquals(4.5, rs.getDouble(6));
+        assertEquals(5.5f, rs.getFloat(7));
+        assertEquals("a\u00e4", rs.getString(8));
+        assertEquals("Ab", rs.getString(9));
+        assertEquals("x", rs.getString(10));
+        assertEquals(new byte[] { 1, 2 }, rs.getBytes(11));
+        assertEquals("2017-01-02", rs.getString(12));
+        assertEquals("10:11:12", rs.getString(13));
+        assertEquals("2017-01-02 10:11:12.5", rs.getString(14));
+        assertEquals("12.34", rs.getString(15));
+        assertTrue(rs.next());
+        assertEquals(2, rs.getInt(1));
+        for (int i = 2; i <= 15; i++) {
+            assertNull(rs.getObject(i));
+        }
+        assertTrue(rs.next());
+        assertEquals(3, rs.getInt(1));
+        assertFalse(rs.getBoolean(2));
+        assertEquals(-3L, rs.getLong(5));
+        assertEquals("", rs.getString(8));
+        assertEquals(0, rs.getBytes(11).length);
+        assertFalse(rs.next());
+        rs = stat.executeQuery("SELECT COUNT(*) FROM T WHERE I = 'ab' OR I = 'CD'");
+        rs.next();
+        assertEquals(2, rs.getInt(1));
+        assertEquals(1, stat.executeUpdate("UPDATE T SET V = 'new', L = NULL WHERE ID = 3"));
+        assertEquals(1, stat.executeUpdate("DELETE FROM T WHERE ID = 1"));
+        rs = stat.executeQuery("SELECT ID, V, L FROM T ORDER BY ID");
+        assertTrue(rs.next());
+        assertEquals(2, rs.getInt(1));
+        assertTrue(rs.next());
+        assertEquals(3, rs.getInt(1));
+        assertEquals("new", rs.getString(2));
+        assertNull(rs.getObject(3));
+        assertFalse(rs.next());
+        stat.execute("TRUNCATE TABLE T");
+        stat.execute("INSERT INTO T(ID, V) VALUES(4, 'after truncate')");
+        rs = stat.executeQuery("SELECT ID, V FROM T");
+        assertTrue(rs.next());
+        assertEquals(4, rs.getInt(1));
+        assertEquals("after truncate", rs.getString(2));
+        assertFalse(rs.next());
+        conn.close();
+        deleteDb("columnVectorTypes");
+    }
+
+    private void testDictionaryEncoding() throws SQLException {
+        deleteDb("dictionaryEncoding");
+        Connection conn = getConnection("dictionaryEncoding;MV_STORE=FALSE");
+        Statement stat = conn.createStatement();
+        stat.execute("CREATE TABLE T(ID INT, NAME VARCHAR, CODE VARCHAR_IGNORECASE) " +
+                "ENGINE \"" + ColumnarTableEngine.class.getName() + "\"");
+        PreparedStatement prep = conn.prepareStatement("INSERT INTO T VALUES(?, ?, ?)");
+        for (int i = 0; i < 1000; i++) {
+            prep.setInt(1, i);
+            prep.setString(2, i % 10 == 9 ? null : "n" + (i % 10));
+            prep.setString(3, (i & 1) == 0 ? "even" : "Odd");
+            prep.execute();
+        }
+        checkPlan(stat, "SELECT * FROM T WHERE NAME = 'n3'", "tableScan");
+        ResultSet rs = stat.executeQuery("SELECT COUNT(*), MIN(ID) FROM T WHERE NAME = 'n3'");
+        rs.next();
+        assertEquals(100, rs.getInt(1));
+        assertEquals(3, rs.getInt(2));
+        rs = stat.executeQuery("SELECT COUNT(*) FROM T WHERE NAME IN('n1', 'n2', 'x')");
+        rs.next();
+        assertEquals(200, rs.getInt(1));
+        rs = stat.executeQuery("SELECT COUNT(*) FROM T WHERE NAME IS NULL");
+        rs.next();
+        assertEquals(100, rs.getInt(1));
+        rs = stat.executeQuery("SELECT COUNT(*) FROM T WHERE NAME > 'n6'");
+        rs.next();
+        assertEquals(200, rs.getInt(1));
+        rs = stat.executeQuery("SELECT COUNT(*) FROM T WHERE CODE = 'ODD' AND NAME = 'n1'");
+        rs.next();
+        assertEquals(100, rs.getInt(1));
+        rs = stat.executeQuery("SELECT COUNT(*) FROM T WHERE CODE IN('EVEN') AND ID < 10");
+        rs.next();
+        assertEquals(5, rs.getInt(1));
+        // more distinct values than the dictionary can hold
+        for (int i = 1000; i < 6000; i++) {
+            prep.setInt(1, i);
+            prep.setString(2, "n" + i);
+            prep.setString(3, "c" + i);
+            prep.execute();
+        }
+        rs = stat.executeQuery("SELECT COUNT(*) FROM T WHERE NAME = 'n3'");
+        rs.next();
+        assertEquals(100, rs.getInt(1));
+        rs = stat.executeQuery("SELECT ID FROM T WHERE CODE IN('C5999', 'c1000') ORDER BY ID");
+        assertTrue(rs.next());
+        assertEquals(1000, rs.getInt(1));
+        assertTrue(rs.next());
+        assertEquals(5999, rs.getInt(1));
+        assertFalse(rs.next());
+        conn.close();
+        deleteDb("dictionaryEncoding");
+    }
+
+    private void testBatchCursor() throws SQLException {
+        deleteDb("batchCursor");
+        Connection conn = getConnection("batchCursor;MV_STORE=FALSE");
+        Statement stat = conn.createStatement();
+        String engine = " ENGINE \"" + ColumnarTableEngine.class.getName() + "\"";
+        stat.execute("CREATE TABLE T(ID INT, A INT, B VARCHAR, C DOUBLE, D VARCHAR)" + engine);
+        stat.execute("INSERT INTO T SELECT X, MOD(X, 7), 'b' || MOD(X, 3), X / 2, " +
+                "SPACE(10) FROM SYSTEM_RANGE(1, 3000)");
+        stat.execute("DELETE FROM T WHERE ID = 1500");
+        Session session = (Session) ((JdbcConnection) conn).getSession();
+        Table table = session.getDatabase().getSchema("PUBLIC").findTableOrView(session, "T");
+        ColumnarCursor cursor = (ColumnarCursor) table.getScanIndex(session).
+                find(session, null, null);
+        assertTrue(cursor.next());
+        assertEquals(0, cursor.getSearchRow().getKey());
+        assertEquals(1, cursor.getSearchRow().getValue(0).getInt());
+        assertEquals("b1", cursor.getSearchRow().getValue(2).getString());
+        int rows = 1;
+        while (cursor.next()) {
+            rows++;
+        }
+        assertEquals(2999, rows);
+        ResultSet rs = stat.executeQuery("SELECT SUM(A), COUNT(*) FROM T WHERE B = 'b1'");
+        rs.next();
+        assertEquals(2998, rs.getInt(1));
+        assertEquals(1000, rs.getInt(2));
+        rs = stat.executeQuery("SELECT B, COUNT(*) FROM T GROUP BY B ORDER BY B");
+        assertTrue(rs.next());
+        assertEquals("b0", rs.getString(1));
+        assertEquals(999, rs.getInt(2));
+        rs = stat.executeQuery("SELECT ID, C FROM T WHERE A = 3 AND ID > 2990");
+        assertTrue(rs.next());
+        assertEquals(2992, rs.getInt(1));
+        assertEquals(1496.0, rs.getDouble(2));
+        assertTrue(rs.next());
+        assertEquals(2999, rs.getInt(1));
+        assertFalse(rs.next());
+        // columns that are only used in a join condition or via the full row
+        stat.execute("CREATE TABLE U(ID INT, X INT)" + engine);
+        stat.execute("INSERT INTO U VALUES(1, 10), (2, 20)");
+        rs = stat.executeQuery("SELECT U.X FROM U LEFT JOIN T ON T.ID = U.ID AND T.A = 1 " +
+                "ORDER BY U.X");
+        assertTrue(rs.next());
+        assertEquals(10, rs.getInt(1));
+        assertTrue(rs.next());
+        assertEquals(20, rs.getInt(1));
+        assertFalse(rs.next());
+        rs = stat.executeQuery("SELECT COUNT(*) FROM U WHERE EXISTS(" +
+                "SELECT 1 FROM T WHERE T.ID = U.X AND T.D IS NOT NULL)");
+        rs.next();
+        assertEquals(2, rs.getInt(1));
+        assertEquals(428, stat.executeUpdate("UPDATE T SET D = 'x' WHERE A = 0"));
+        rs = stat.executeQuery("SELECT COUNT(*) FROM T WHERE D = 'x' AND MOD(ID, 7) = 0");
+        rs.next();
+        assertEquals(428, rs.getInt(1));
+        conn.close();
+        deleteDb("batchCursor");
+    }
+
+    private void testZoneMaps() throws SQLException {
+        deleteDb("zoneMaps");
+        Connection conn = getConnection("zoneMaps;MV_STORE=FALSE");
+        Statement stat = conn.createStatement();
+        stat.execute("CREATE TABLE EVENTS(ID INT, TS TIMESTAMP, KIND VARCHAR, V INT) " +
+                "ENGINE \"" + ColumnarTableEngine.class.getName() + "\"");
+        // append ordered: each block of 1024 rows covers a small time range
+        stat.execute("INSERT INTO EVENTS SELECT X, " +
+                "DATEADD('SECOND', X, TIMESTAMP '2017-01-01 00:00:00'), " +
+                "CASEWHEN(X < 5000, 'old', 'new'), " +
+                "CASEWHEN(MOD(X, 1000) = 0, NULL, X) FROM SYSTEM_RANGE(1, 20000)");
+        ResultSet rs = stat.executeQuery("SELECT COUNT(*), MIN(ID), MAX(ID) FROM EVENTS " +
+                "WHERE TS BETWEEN TIMESTAMP '2017-01-01 01:00:00' " +
+                "AND TIMESTAMP '2017-01-01 01:10:00'");
+        rs.next();
+        assertEquals(601, rs.getInt(1));
+        assertEquals(3600, rs.getInt(2));
+        assertEquals(4200, rs.getInt(3));
+        rs = stat.executeQuery("SELECT COUNT(*) FROM EVENTS WHERE ID > 19990");
+        rs.next();
+        assertEquals(10, rs.getInt(1));
+        rs = stat.executeQuery("SELECT COUNT(*) FROM EVENTS WHERE ID IN(1, 1024, 1025, 30000)");
+        rs.next();
+        assertEquals(3, rs.getInt(1));
+        rs = stat.executeQuery("SELECT COUNT(*) FROM EVENTS WHERE V IS NULL");
+        rs.next();
+        assertEquals(20, rs.getInt(1));
+        rs = stat.executeQuery("SELECT COUNT(*) FROM EVENTS WHERE KIND = 'old' AND V > 4990");
+        rs.next();
+        assertEquals(9, rs.getInt(1));
+        // deleted rows are NULL in the vectors and must not match
+        stat.execute("DELETE FROM EVENTS WHERE ID <= 10000");
+        rs = stat.executeQuery("SELECT COUNT(*) FROM EVENTS WHERE ID < 10010");
+        rs.next();
+        assertEquals(9, rs.getInt(1));
+        rs = stat.executeQuery("SELECT COUNT(*) FROM EVENTS WHERE V IS NULL");
+        rs.next();
+        assertEquals(10, rs.getInt(1));
+        PreparedStatement prep = conn.prepareStatement(
+                "SELECT COUNT(*) FROM EVENTS WHERE ID >= ? AND ID < ?");
+        prep.setInt(1, 15000);
+        prep.setInt(2, 16000);
+        rs = prep.executeQuery();
+        rs.next();
+        assertEquals(1000, rs.getInt(1));
+        prep.setInt(1, 5000);
+        prep.setInt(2, 10500);
+        rs = prep.executeQuery();
+        rs.next();
+        assertEquals(499, rs.getInt(1));
+        stat.execute("INSERT INTO EVENTS(ID) VALUES(5)");
+        rs = stat.executeQuery("SELECT COUNT(*) FROM EVENTS WHERE ID = 5");
+        rs.next();
+        assertEquals(1, rs.getInt(1));
+        conn.close();
+        deleteDb("zoneMaps");
+    }
+
+    private void testPersistence() throws SQLException {
+        if (config.memory) {
+            return;
+        }
+        deleteDb("columnarPersistence");
+        Connection conn = getConnection("columnarPersistence;MV_STORE=FALSE");
+        Statement stat = conn.createStatement();
+        stat.execute("CREATE TABLE T(ID INT, NAME VARCHAR, D DOUBLE, L BIGINT) " +
+                "ENGINE \"" + ColumnarTableEngine.class.getName() + "\"");
+        // two sealed segments, the remaining rows are in the write buffer
+        stat.execute("INSERT INTO T SELECT X, 'name' || MOD(X, 10), X / 2.0, " +
+                "CASEWHEN(MOD(X, 7) = 0, NULL, X * 1000000000) FROM SYSTEM_RANGE(1, 3000)");
+        stat.execute("DELETE FROM T WHERE ID <= 100 OR ID >= 2990");
+        conn.close();
+
+        conn = getConnection("columnarPersistence;MV_STORE=FALSE");
+        stat = conn.createStatement();
+        ResultSet rs = stat.executeQuery("SELECT COUNT(*), SUM(ID), COUNT(L) FROM T");
+        rs.next();
+        assertEquals(2889, rs.getInt(1));
+        assertEquals(4463505L, rs.getLong(2));
+        assertEquals(2476, rs.getInt(3));
+        rs = stat.executeQuery("SELECT NAME, D, L FROM T WHERE ID = 2025");
+        rs.next();
+        assertEquals("name5", rs.getString(1));
+        assertEquals(1012.5, rs.getDouble(2));
+        assertEquals(2025000000000L, rs.getLong(3));
+        assertFalse(rs.next());
+        rs = stat.executeQuery("SELECT COUNT(*) FROM T WHERE NAME = 'name3'");
+        rs.next();
+        assertEquals(289, rs.getInt(1));
+        stat.execute("INSERT INTO T(ID, NAME) VALUES(5000, 'new')");
+        stat.execute("DELETE FROM T WHERE ID = 2025");
+        conn.close();
+
+        conn = getConnection("columnarPersistence;MV_STORE=FALSE");
+        stat = conn.createStatement();
+        rs = stat.executeQuery("SELECT COUNT(*), MAX(ID) FROM T");
+        rs.next();
+        assertEquals(2889, rs.getInt(1));
+        assertEquals(5000, rs.getInt(2));
+        rs = stat.executeQuery("SELECT COUNT(*) FROM T WHERE ID = 2025");
+        rs.next();
+        assertEquals(0, rs.getInt(1));
+        stat.execute("TRUNCATE TABLE T");
+        conn.close();
+
+        conn = getConnection("columnarPersistence;MV_STORE=FALSE");
+        stat = conn.createStatement();
+        rs = stat.executeQuery("SELECT COUNT(*) FROM T");
+        rs.next();
+        assertEquals(0, rs.getInt(1));
+        stat.execute("DROP TABLE T");
+        conn.close();
+        deleteDb("columnarPersistence");
+    }
+
+    private void testRecoverAfterCrash() throws SQLException {
+        if (config.memory) {
+            return;
+        }
+        deleteDb("columnarCrash");
+        Connection conn = getConnection("columnarCrash;MV_STORE=FALSE");
+        Statement stat = conn.createStatement();
+        stat.execute("CREATE TABLE A(ID INT, V VARCHAR) " +
+                "ENGINE \"" + ColumnarTableEngine.class.getName() + "\"");
+        stat.execute("CREATE TABLE B(ID INT PRIMARY KEY, V VARCHAR) " +
+                "ENGINE \"" + ColumnarTableEngine.class.getName() + "\"");
+        stat.execute("CREATE INDEX IDX_B_V ON B(V)");
+        stat.execute("INSERT INTO A VALUES(1, 'x')");
+        stat.execute("INSERT INTO B SELECT X, 'v' || X FROM SYSTEM_RANGE(1, 100)");
+        stat.execute("SHUTDOWN IMMEDIATELY");
+        JdbcUtils.closeSilently(conn);
+
+        conn = getConnection("columnarCrash;MV_STORE=FALSE");
+        stat = conn.createStatement();
+        ResultSet rs = stat.executeQuery("SELECT ID, V FROM A");
+        assertTrue(rs.next());
+        assertEquals(1, rs.getInt(1));
+        assertEquals("x", rs.getString(2));
+        assertFalse(rs.next());
+        rs = stat.executeQuery("SELECT COUNT(*) FROM B");
+        rs.next();
+        assertEquals(100, rs.getInt(1));
+        rs = stat.executeQuery("SELECT ID FROM B WHERE V = 'v42'");
+        assertTrue(rs.next());
+        assertEquals(42, rs.getInt(1));
+        assertFalse(rs.next());
+        rs = stat.executeQuery("SELECT V FROM B WHERE ID = 57");
+        assertTrue(rs.next());
+        assertEquals("v57", rs.getString(1));
+        assertFalse(rs.next());
+        stat.execute("INSERT INTO A VALUES(2, 'y')");
+        conn.close();
+
+        conn = getConnection("columnarCrash;MV_STORE=FALSE");
+        stat = conn.createStatement();
+        rs = stat.executeQuery("SELECT COUNT(*) FROM A");
+        rs.next();
+        assertEquals(2, rs.getInt(1));
+        conn.close();
+        deleteDb("columnarCrash");
+    }
+
+    private void testUncommittedNotDurable() throws SQLException {
+        if (config.memory) {
+            return;
+        }
+        deleteDb("columnarUncommitted");
+        String url = "columnarUncommitted;MV_STORE=FALSE;MVCC=FALSE";
+        Connection conn = getConnection(url);
+        Statement stat = conn.createStatement();
+        stat.execute("CREATE TABLE A(ID INT) " +
+                "ENGINE \"" + ColumnarTableEngine.class.getName() + "\"");
+        stat.execute("CREATE TABLE B(ID INT) " +
+                "ENGINE \"" + ColumnarTableEngine.class.getName() + "\"");
+        stat.execute("INSERT INTO A VALUES(1)");
+        conn.setAutoCommit(false);
+        stat.execute("INSERT INTO A VALUES(2)");
+        stat.execute("DELETE FROM A WHERE ID = 1");
+        // the transaction of the other session must not commit the store
+        Connection conn2 = getConnection(url);
+        Statement stat2 = conn2.createStatement();
+        stat2.execute("INSERT INTO B VALUES(1)");
+        stat2.executeQuery("SELECT * FROM B").close();
+        stat2.execute("SHUTDOWN IMMEDIATELY");
+        JdbcUtils.closeSilently(conn2);
+        JdbcUtils.closeSilently(conn);
+
+        conn = getConnection(url);
+        stat = conn.createStatement();
+        ResultSet rs = stat.executeQuery("SELECT ID FROM A");
+        assertTrue(rs.next());
+        assertEquals(1, rs.getInt(1));
+        assertFalse(rs.next());
+        // rolled back changes are not durable either
+        conn.setAutoCommit(false);
+        stat.execute("INSERT INTO A VALUES(3)");
+        conn.rollback();
+        stat.execute("SHUTDOWN IMMEDIATELY");
+        JdbcUtils.closeSilently(conn);
+
+        conn = getConnection(url);
+        stat = conn.createStatement();
+        rs = stat.executeQuery("SELECT COUNT(*) FROM A");
+        rs.next();
+        assertEquals(1, rs.getInt(1));
+        conn.close();
+        deleteDb("columnarUncommitted");
+    }
+
+    private void testCompaction() throws SQLException {
+        deleteDb("columnarCompaction");
+        Connection conn = getConnection("columnarCompaction;MV_STORE=FALSE;MVCC=FALSE");
+        Statement stat = conn.createStatement();
+        stat.execute("CREATE TABLE T(ID INT PRIMARY KEY, NAME VARCHAR) " +
+                "ENGINE \"" + ColumnarTableEngine.class.getName() + "\"");
+        ColumnarTable table = ColumnarTableEngine.getLastCreated();
+        stat.execute("CREATE INDEX IDX_NAME ON T(NAME)");
+        stat.execute("INSERT INTO T SELECT X, 'n' || X FROM SYSTEM_RANGE(1, 4000)");
+        // the first two segments are sparse afterwards and get compacted
+        // in the background
+        stat.execute("DELETE FROM T WHERE ID <= 2048 AND MOD(ID, 4) <> 0");
+        table.waitForCompaction();
+        ResultSet rs = stat.executeQuery("SELECT MIN(_ROWID_) FROM T");
+        rs.next();
+        assertTrue(rs.getLong(1) >= 2048);
+        rs = stat.executeQuery("SELECT COUNT(*), SUM(ID) FROM T");
+        rs.next();
+        assertEquals(2464, rs.getInt(1));
+        assertEquals(6429136L, rs.getLong(2));
+        rs = stat.executeQuery("SELECT NAME FROM T WHERE ID = 8");
+        assertTrue(rs.next());
+        assertEquals("n8", rs.getString(1));
+        rs = stat.executeQuery("SELECT ID FROM T WHERE NAME = 'n1024'");
+        assertTrue(rs.next());
+        assertEquals(1024, rs.getInt(1));
+        rs = stat.executeQuery("SELECT COUNT(*) FROM T WHERE NAME = 'n1023'");
+        rs.next();
+        assertEquals(0, rs.getInt(1));
+        // uncommitted deletes are not compacted before the commit
+        conn.setAutoCommit(false);
+        stat.execute("DELETE FROM T WHERE ID > 2048");
+        conn.rollback();
+        conn.setAutoCommit(true);
+        table.waitForCompaction();
+        rs = stat.executeQuery("SELECT COUNT(*) FROM T");
+        rs.next();
+        assertEquals(2464, rs.getInt(1));
+        conn.close();
+
+        if (!config.memory) {
+            conn = getConnection("columnarCompaction;MV_STORE=FALSE;MVCC=FALSE");
+            stat = conn.createStatement();
+            rs = stat.executeQuery("SELECT COUNT(*), SUM(ID) FROM T");
+            rs.next();
+            assertEquals(2464, rs.getInt(1));
+            assertEquals(6429136L, rs.getLong(2));
+            rs = stat.executeQuery("SELECT NAME FROM T WHERE ID = 2000");
+            assertTrue(rs.next());
+            assertEquals("n2000", rs.getString(1));
+            conn.close();
+        }
+        deleteDb("columnarCompaction");
+    }
+
+    private void testSnapshotScan() throws Exception {
+        deleteDb("snapshotScan");
+        Connection conn = getConnection("snapshotScan;MV_STORE=FALSE");
+        Statement stat = conn.createStatement();
+        stat.execute("CREATE TABLE T(ID INT, NAME VARCHAR) " +
+                "ENGINE \"" + ColumnarTableEngine.class.getName() + "\"");
+        stat.execute("INSERT INTO T SELECT X, 'n' || X FROM SYSTEM_RANGE(1, 1500)");
+        Session session = (Session) ((JdbcConnection) conn).getSession();
+        Table table = session.getDatabase().getSchema("PUBLIC").findTableOrView(session, "T");
+        ColumnarCursor cursor = (ColumnarCursor) table.getScanIndex(session).
+                find(session, null, null);
+        assertTrue(cursor.next());
+        int rows = 1;
+        // rows that are added while scanning (sealing a segment) are not seen
+        stat.execute("INSERT INTO T SELECT X, 'n' || X FROM SYSTEM_RANGE(1501, 4000)");
+        while (cursor.next()) {
+            rows++;
+        }
+        assertEquals(1500, rows);
+
+        // a loader and a reader at the same time
+        final Connection loader = getConnection("snapshotScan;MV_STORE=FALSE");
+        Task task = new Task() {
+            @Override
+            public void call() throws Exception {
+                PreparedStatement prep = loader.prepareStatement(
+                        "INSERT INTO T SELECT X, 'n' || X FROM SYSTEM_RANGE(?, ?)");
+                for (int i = 0; i < 100; i++) {
+                    prep.setInt(1, 4001 + i * 100);
+                    prep.setInt(2, 4100 + i * 100);
+                    prep.execute();
+                }
+            }
+        };
+        task.execute();
+        int last = 0;
+        for (int i = 0; i < 50; i++) {
+            ResultSet rs = stat.executeQuery("SELECT COUNT(*), MAX(ID) FROM T");
+            rs.next();
+            int count = rs.getInt(1);
+            assertTrue(count >= last);
+            assertEquals(0, count % 100);
+            assertEquals(count, rs.getInt(2));
+            last = count;
+        }
+        task.get();
+        loader.close();
+        ResultSet rs = stat.executeQuery("SELECT COUNT(*) FROM T");
+        rs.next();
+        assertEquals(14000, rs.getInt(1));
+        conn.close();
+        deleteDb("snapshotScan");
+    }
+
+    private void testParallelAggregate() throws SQLException {
+        deleteDb("parallelAggregate");
+        Connection conn = getConnection("parallelAggregate;MV_STORE=FALSE");
+        Statement stat = conn.createStatement();
+        String rows = "SELECT CAST(X AS INT) ID, CAST(MOD(X, 100) AS INT) A, " +
+                "CAST(CASEWHEN(MOD(X, 13) = 0, NULL, X * 1.5) AS DOUBLE) D, " +
+                "'k' || MOD(X, 5) S FROM SYSTEM_RANGE(1, 20000)";
+        stat.execute("CREATE TABLE T(ID INT, A INT, D DOUBLE, S VARCHAR) " +
+                "ENGINE \"" + ColumnarTableEngine.class.getName() + "\"");
+        stat.execute("INSERT INTO T " + rows);
+        stat.execute("DELETE FROM T WHERE MOD(ID, 1001) = 0");
+        String expected = "(SELECT * FROM (" + rows + ") WHERE MOD(ID, 1001) <> 0)";
+        String[] queries = {
+                "SELECT COUNT(*), SUM(ID), MIN(D), MAX(S), AVG(A), COUNT(D) FROM %s",
+                "SELECT COUNT(*), SUM(D) FROM %s WHERE A = 7",
+                "SELECT COUNT(*), MAX(ID) FROM %s WHERE ID > 5000 AND ID <= 9000",
+                "SELECT COUNT(*), MIN(ID) FROM %s WHERE 5000 < ID AND A < 10",
+                "SELECT COUNT(*), AVG(D) FROM %s WHERE S = 'k3' AND D >= 100",
+                "SELECT SUM(A) FROM %s WHERE ID > 30000",
+                "SELECT A, COUNT(*) FROM %s GROUP BY A ORDER BY A LIMIT 3",
+                // not converted to column filters
+                "SELECT COUNT(*), SUM(ID) FROM %s WHERE A = 7 OR A = 8",
+                "SELECT COUNT(DISTINCT A), SUM(ID) FROM %s",
+        };
+        for (String q : queries) {
+            assertEquals(getResult(stat, String.format(q, expected)),
+                    getResult(stat, String.format(q, "T")));
+        }
+        PreparedStatement prep = conn.prepareStatement(
+                "SELECT COUNT(*), SUM(ID) FROM T WHERE ID >= ? AND ID < ?");
+        prep.setInt(1, 1000);
+        prep.setInt(2, 2000);
+        ResultSet rs = prep.executeQuery();
+        rs.next();
+        assertEquals(999, rs.getInt(1));
+        assertEquals(1498499L, rs.getLong(2));
+        conn.close();
+        deleteDb("parallelAggregate");
+    }
+
+    private void testAggregateKernels() throws SQLException {
+        deleteDb("aggregateKernels");
+        Connection conn = getConnection("aggregateKernels;MV_STORE=FALSE");
+        Statement stat = conn.createStatement();
+        String rows = "SELECT CAST(X AS INT) ID, CAST(MOD(X, 7) AS TINYINT) B, " +
+                "CASEWHEN(MOD(X, 11) = 0, NULL, " +
+                "CAST(X * 700000000000000 AS BIGINT)) L, " +
+                "CAST(X * 0.5 AS DOUBLE) D, CAST(X * 0.25 AS REAL) R, " +
+                "CAST(DATEADD('DAY', MOD(X, 400), DATE '2000-01-01') AS DATE) DT, " +
+                "CASEWHEN(MOD(X, 17) = 0, NULL, 'g' || MOD(X, 9)) S, " +
+                "CAST('G' || MOD(X, 3) AS VARCHAR_IGNORECASE) SI " +
+                "FROM SYSTEM_RANGE(1, 12000)";
+        stat.execute("CREATE TABLE T(ID INT, B TINYINT, L BIGINT, D DOUBLE, " +
+                "R REAL, DT DATE, S VARCHAR, SI VARCHAR_IGNORECASE) ENGINE \"" +
+                ColumnarTableEngine.class.getName() + "\"");
+        stat.execute("INSERT INTO T " + rows);
+        // the same values with a different case
+        stat.execute("UPDATE T SET SI = LOWER(SI) WHERE MOD(ID, 2) = 0");
+        String expected = "(SELECT ID, B, L, D, R, DT, S, " +
+                "CASEWHEN(MOD(ID, 2) = 0, LOWER(SI), SI) SI FROM (" + rows + "))";
+        String[] queries = {
+                "SELECT COUNT(*), COUNT(L), SUM(B), AVG(B), SUM(L), AVG(L), " +
+                        "SUM(D), AVG(D), SUM(R), MIN(B), MAX(B), MIN(L), " +
+                        "MAX(L), MIN(D), MAX(R), MIN(DT), MAX(DT) FROM %s",
+                "SELECT S, COUNT(*), COUNT(L), SUM(L), MAX(D), MIN(DT) " +
+                        "FROM %s GROUP BY S ORDER BY S",
+                "SELECT B, SUM(ID) X, MIN(S), MAX(L) FROM %s " +
+                        "WHERE ID > 100 AND D < 5000 GROUP BY B ORDER BY B",
+                "SELECT COUNT(*), SUM(B) FROM %s GROUP BY SI ORDER BY 1",
+                "SELECT S, COUNT(*) FROM %s WHERE ID < 0 GROUP BY S",
+                "SELECT COUNT(*), MAX(L) FROM %s WHERE ID < 0",
+        };
+        for (String q : queries) {
+            assertEquals(getResult(stat, String.format(q, expected)),
+                    getResult(stat, String.format(q, "T")));
+        }
+        conn.close();
+        deleteDb("aggregateKernels");
+    }
+
+    private void testEncodings() throws SQLException {
+        deleteDb("encodings");
+        String url = "encodings;MV_STORE=FALSE";
+        Connection conn = getConnection(url);
+        Statement stat = conn.createStatement();
+        // ID: ascending (delta), R: runs (run length), O: small range
+        // (frame of reference), L: no encoding
+        String rows = "SELECT CAST(X AS INT) ID, " +
+                "CAST(CASEWHEN(MOD(X, 97) = 0, NULL, X / 300) AS SMALLINT) R, " +
+                "CAST(-1000000000000 + MOD(X * 7, 1000) AS BIGINT) O, " +
+                "CAST(MOD(X * 2654435761, 4294967296) * X AS BIGINT) L, " +
+                "CAST(DATEADD('DAY', X / 500, DATE '2010-01-01') AS DATE) DT, " +
+                "CAST(DATEADD('SECOND', X, TIME '00:00:00') AS TIME) TM " +
+                "FROM SYSTEM_RANGE(1, 9000)";
+        stat.execute("CREATE TABLE T(ID INT, R SMALLINT, O BIGINT, L BIGINT, " +
+                "DT DATE, TM TIME) ENGINE \"" +
+                ColumnarTableEngine.class.getName() + "\"");
+        stat.execute("INSERT INTO T " + rows);
+        stat.execute("DELETE FROM T WHERE MOD(ID, 1000) = 1");
+        String expected = "(SELECT * FROM (" + rows + ") WHERE MOD(ID, 1000) <> 1)";
+        String[] queries = {
+                "SELECT * FROM %s WHERE ID BETWEEN 1020 AND 1030 ORDER BY ID",
+                "SELECT COUNT(*), SUM(ID), MIN(R), MAX(R), SUM(R), MIN(O), " +
+                        "MAX(O), SUM(L), MAX(L), MIN(DT), MAX(TM) FROM %s",
+                "SELECT COUNT(*), SUM(O) FROM %s WHERE R = 7",
+                "SELECT COUNT(*), MIN(ID) FROM %s WHERE R IS NULL",
+                "SELECT R, COUNT(*), SUM(ID) FROM %s WHERE R BETWEEN 3 AND 5 " +
+                        "GROUP BY R ORDER BY R",
+                "SELECT DT, COUNT(*) FROM %s WHERE DT > DATE '2010-01-15' " +
+                        "GROUP BY DT ORDER BY DT",
+                "SELECT ID, L FROM %s WHERE O = -1000000000000 ORDER BY ID",
+        };
+        String[] results = new String[queries.length];
+        for (int i = 0; i < queries.length; i++) {
+            results[i] = getResult(stat, String.format(queries[i], expected));
+            assertEquals(results[i],
+                    getResult(stat, String.format(queries[i], "T")));
+        }
+        conn.close();
+        if (!config.memory) {
+            // read the encoded segments from the store
+            conn = getConnection(url);
+            stat = conn.createStatement();
+            for (int i = 0; i < queries.length; i++) {
+                assertEquals(results[i],
+                        getResult(stat, String.format(queries[i], "T")));
+            }
+            conn.close();
+        }
+        deleteDb("encodings");
+    }
+
+    private void testHashIndex() throws SQLException {
+        deleteDb("hashIndex");
+        Connection conn = getConnection("hashIndex;MV_STORE=FALSE");
+        Statement stat = conn.createStatement();
+        String engine = " ENGINE \"" + ColumnarTableEngine.class.getName() + "\"";
+        // K has 50 rows per key, so most keys use several overflow blocks
+        String rows = "SELECT CAST(X AS INT) ID, CAST(MOD(X, 40) AS INT) K, " +
+                "CAST(CASEWHEN(MOD(X, 7) = 0, NULL, MOD(X, 3)) AS INT) A, " +
+                "CAST('s' || MOD(X, 5) AS VARCHAR) B FROM SYSTEM_RANGE(1, 2000)";
+        stat.execute("CREATE TABLE T(ID INT, K INT, A INT, B VARCHAR)" + engine);
+        stat.execute("CREATE TABLE E(ID INT, K INT, A INT, B VARCHAR)");
+        stat.execute("CREATE UNIQUE HASH INDEX T_ID ON T(ID)");
+        stat.execute("CREATE HASH INDEX T_K ON T(K)");
+        stat.execute("INSERT INTO T " + rows);
+        // created after the rows, so it is built from the table
+        stat.execute("CREATE HASH INDEX T_AB ON T(A, B)");
+        stat.execute("INSERT INTO E " + rows);
+        String[] queries = {
+                "SELECT * FROM %s WHERE ID = 1234",
+                "SELECT * FROM %s WHERE ID = 2001",
+                "SELECT * FROM %s WHERE K = 17 ORDER BY ID",
+                "SELECT * FROM %s WHERE K = 40 ORDER BY ID",
+                "SELECT * FROM %s WHERE A = 2 AND B = 's3' ORDER BY ID",
+                "SELECT * FROM %s WHERE A IS NULL AND B = 's0' ORDER BY ID",
+                "SELECT COUNT(*), SUM(X.ID) FROM %1$s X, %1$s Y " +
+                        "WHERE X.K = Y.ID AND X.ID > 1500",
+        };
+        for (int round = 0; round < 2; round++) {
+            for (String q : queries) {
+                assertEquals(getResult(stat, String.format(q, "E")),
+                        getResult(stat, String.format(q, "T")));
+            }
+            // remove rows from the middle and the end of the chains, and move
+            // some rows to other keys
+            for (String sql : new String[] {
+                    "DELETE FROM %s WHERE MOD(ID, 3) = 0 AND ID > 1000",
+                    "UPDATE %s SET K = K + 1, B = B || 'x' WHERE MOD(ID, 11) = 0",
+                    "DELETE FROM %s WHERE K = 20"}) {
+                stat.execute(String.format(sql, "T"));
+                stat.execute(String.format(sql, "E"));
+            }
+        }
+        assertContains(getResult(stat,
+                "EXPLAIN SELECT * FROM T WHERE A = 1 AND B = 's1'"), "T_AB");
+        assertContains(getResult(stat,
+                "EXPLAIN SELECT * FROM T WHERE K = 1"), "T_K");
+        assertThrows(ErrorCode.DUPLICATE_KEY_1, stat).
+                execute("INSERT INTO T VALUES(1, 0, 0, '')");
+        stat.execute("CREATE TABLE U(A INT, B VARCHAR)" + engine);
+        stat.execute("CREATE UNIQUE HASH INDEX U_AB ON U(A, B)");
+        // NULL is never equal to NULL
+        stat.execute("INSERT INTO U VALUES(NULL, 'x'), (NULL, 'x'), (1, 'x')");
+        assertThrows(ErrorCode.DUPLICATE_KEY_1, stat).
+                execute("INSERT INTO U VALUES(1, 'x')");
+        assertEquals("null x \nnull x \n", getResult(stat,
+                "SELECT * FROM U WHERE A IS NULL AND B = 'x'"));
+        stat.execute("TRUNCATE TABLE T");
+        assertEquals("", getResult(stat, "SELECT * FROM T WHERE K = 1"));
+        conn.close();
+        deleteDb("hashIndex");
+    }
+
+    private void testBulkLoad() throws SQLException {
+        deleteDb("bulkLoad");
+        // without MVCC, so that the rows are added in batches
+        String url = "bulkLoad;MV_STORE=FALSE;MVCC=FALSE";
+        Connection conn = getConnection(url);
+        Statement stat = conn.createStatement();
+        String engine = " ENGINE \"" + ColumnarTableEngine.class.getName() + "\"";
+        String rows = "SELECT CAST(X AS INT) ID, CAST(MOD(X, 17) AS INT) K, " +
+                "CASEWHEN(MOD(X, 13) = 0, NULL, 'v' || MOD(X, 100)) S " +
+                "FROM SYSTEM_RANGE(1, 10000)";
+        String expected = "(" + rows + ")";
+        stat.execute("CREATE TABLE T(ID INT, K INT, S VARCHAR)" + engine);
+        stat.execute("CREATE UNIQUE HASH INDEX T_ID ON T(ID)");
+        stat.execute("CREATE HASH INDEX T_K ON T(K)");
+        stat.execute("INSERT INTO T VALUES(0, 0, 'first')");
+        stat.execute("INSERT INTO T " + rows + " WHERE X > 0");
+        stat.execute("DELETE FROM T WHERE ID = 0");
+        String[] queries = {
+                "SELECT COUNT(*), SUM(ID), MIN(S), MAX(S) FROM %s",
+                "SELECT * FROM %s WHERE ID IN(1, 1023, 1024, 4097, 10000) ORDER BY ID",
+                "SELECT K, COUNT(*), SUM(ID) FROM %s WHERE K = 5 GROUP BY K",
+                "SELECT COUNT(*) FROM %s WHERE S IS NULL",
+        };
+        for (String q : queries) {
+            assertEquals(getResult(stat, String.format(q, expected)),
+                    getResult(stat, String.format(q, "T")));
+        }
+
+        // a duplicate key in the middle of a batch
+        assertThrows(ErrorCode.DUPLICATE_KEY_1, stat).
+                execute("INSERT INTO T SELECT CASEWHEN(X = 3000, 5, X + 10000), " +
+                "0, NULL FROM SYSTEM_RANGE(1, 5000)");
+        assertEquals("10000 \n", getResult(stat, "SELECT COUNT(*) FROM T"));
+        assertEquals("", getResult(stat, "SELECT * FROM T WHERE ID = 10001"));
+
+        // rollback, also after some of the rows were deleted again
+        conn.setAutoCommit(false);
+        stat.execute("INSERT INTO T SELECT X + 10000, 1, 'x' FROM SYSTEM_RANGE(1, 5000)");
+        stat.execute("DELETE FROM T WHERE ID BETWEEN 10100 AND 10200");
+        stat.execute("INSERT INTO T VALUES(20000, 2, 'y'), (20001, 2, 'y')");
+        assertEquals("14901 \n", getResult(stat, "SELECT COUNT(*) FROM T"));
+        conn.rollback();
+        conn.setAutoCommit(true);
+        for (String q : queries) {
+            assertEquals(getResult(stat, String.format(q, expected)),
+                    getResult(stat, String.format(q, "T")));
+        }
+        assertEquals("", getResult(stat, "SELECT * FROM T WHERE K = 1 AND ID > 10000"));
+
+        // CSVREAD and RUNSCRIPT
+        String csv = getBaseDir() + "/bulkLoad.csv";
+        String script = getBaseDir() + "/bulkLoad.sql";
+        stat.execute("CALL CSVWRITE('" + csv + "', 'SELECT * FROM T ORDER BY ID')");
+        stat.execute("CREATE TABLE C(ID INT, K INT, S VARCHAR)" + engine);
+        stat.execute("INSERT INTO C SELECT * FROM CSVREAD('" + csv + "')");
+        stat.execute("CREATE TABLE S(ID INT, K INT, S VARCHAR)" + engine);
+        stat.execute("INSERT INTO S SELECT * FROM T");
+        stat.execute("SCRIPT TO '" + script + "' TABLE S");
+        deleteDb("bulkLoadScript");
+        Connection conn2 = getConnection("bulkLoadScript;MV_STORE=FALSE;MVCC=FALSE");
+        Statement stat2 = conn2.createStatement();
+        stat2.execute("RUNSCRIPT FROM '" + script + "'");
+        for (String q : queries) {
+            String result = getResult(stat, String.format(q, expected));
+            assertEquals(result, getResult(stat, String.format(q, "C")));
+            assertEquals(result, getResult(stat2, String.format(q, "S")));
+        }
+        conn2.close();
+        deleteDb("bulkLoadScript");
+        conn.close();
+        if (!config.memory) {
+            conn = getConnection(url);
+            stat = conn.createStatement();
+            for (String q : queries) {
+                assertEquals(getResult(stat, String.format(q, expected)),
+                        getResult(stat, String.format(q, "T")));
+            }
+            conn.close();
+        }
+        FileUtils.delete(csv);
+        FileUtils.delete(script);
+        deleteDb("bulkLoad");
+    }
+
+    private void testColumnStatistics() throws SQLException {
+        deleteDb("columnStatistics");
+        Connection conn = getConnection("columnStatistics;MV_STORE=FALSE");
+        Statement stat = conn.createStatement();
+        String engine = " ENGINE \"" + ColumnarTableEngine.class.getName() + "\"";
+        stat.execute("CREATE TABLE S(ID INT, G INT, N INT, C VARCHAR)" + engine);
+        stat.execute("INSERT INTO S SELECT X, MOD(X, 10), " +
+                "CASEWHEN(MOD(X, 4) = 0, NULL, X), 'c' || MOD(X, 3) " +
+                "FROM SYSTEM_RANGE(1, 5000)");
+        String sql = "SELECT ROW_COUNT, NULL_FRACTION, DISTINCT_COUNT " +
+                "FROM INFORMATION_SCHEMA.COLUMN_STATISTICS " +
+                "WHERE TABLE_NAME = 'S' AND COLUMN_NAME = ?";
+        PreparedStatement prep = conn.prepareStatement(sql);
+        // the distinct counts are estimates
+        Object[][] expected = {
+                { "ID", 0.0, 5000 },
+                { "G", 0.0, 10 },
+                { "N", 0.25, 3750 },
+                { "C", 0.0, 3 },
+        };
+        for (Object[] e : expected) {
+            prep.setString(1, (String) e[0]);
+            ResultSet rs = prep.executeQuery();
+            assertTrue(rs.next());
+            assertEquals(5000, rs.getLong(1));
+            assertEquals(((Double) e[1]).doubleValue(), rs.getDouble(2));
+            long distinct = (Integer) e[2];
+            long d = rs.getLong(3);
+            assertTrue(e[0] + " " + d, d >= distinct * 7 / 10 &&
+                    d <= distinct * 13 / 10);
+            assertFalse(rs.next());
+        }
+        // the statistics are rebuilt once enough rows changed
+        stat.execute("DELETE FROM S WHERE ID > 1000");
+        stat.execute("INSERT INTO S SELECT X, 0, NULL, 'c' " +
+                "FROM SYSTEM_RANGE(10001, 13000)");
+        prep.setString(1, "N");
+        ResultSet rs = prep.executeQuery();
+        assertTrue(rs.next());
+        assertEquals(4000, rs.getLong(1));
+        // the deleted rows of a segment are assumed to be uniformly spread
+        double nullFraction = rs.getDouble(2);
+        assertTrue("" + nullFraction,
+                nullFraction > 0.75 && nullFraction < 0.85);
+        // a star schema: the dimension with the selective condition is
+        // joined first, and the fact table is then read using its index
+        stat.execute("CREATE TABLE F(ID INT, D1 INT, D2 INT, V INT)" + engine);
+        stat.execute("CREATE TABLE D1(ID INT, NAME VARCHAR)" + engine);
+        stat.execute("CREATE TABLE D2(ID INT, NAME VARCHAR)" + engine);
+        stat.execute("INSERT INTO D1 SELECT X, 'a' || X FROM SYSTEM_RANGE(1, 500)");
+        stat.execute("INSERT INTO D2 SELECT X, 'b' || MOD(X, 2) " +
+                "FROM SYSTEM_RANGE(1, 20)");
+        stat.execute("INSERT INTO F SELECT X, MOD(X, 500) + 1, MOD(X, 20) + 1, X " +
+                "FROM SYSTEM_RANGE(1, 20000)");
+        stat.execute("CREATE HASH INDEX F_D1 ON F(D1)");
+        stat.execute("CREATE HASH INDEX D2_ID ON D2(ID)");
+        String query = "SELECT COUNT(*), SUM(F.V) FROM F, D1, D2 " +
+                "WHERE F.D1 = D1.ID AND F.D2 = D2.ID " +
+                "AND D1.NAME = 'a7' AND D2.NAME = 'b1'";
+        String plan = getResult(stat, "EXPLAIN " + query);
+        assertTrue(plan, plan.indexOf("PUBLIC.D1") < plan.indexOf("PUBLIC.F"));
+        assertContains(plan, "F_D1");
+        assertEquals("40 390240 \n", getResult(stat, query));
+        conn.close();
+        deleteDb("columnStatistics");
+    }
+
+    private void testLateMaterialization() throws SQLException {
+        deleteDb("lateMaterialization");
+        Connection conn = getConnection("lateMaterialization;MV_STORE=FALSE");
+        Statement stat = conn.createStatement();
+        String engine = " ENGINE \"" + ColumnarTableEngine.class.getName() + "\"";
+        stat.execute("CREATE TABLE D(ID INT, NAME VARCHAR)" + engine);
+        stat.execute("INSERT INTO D SELECT X, 'n' || MOD(X, 10) " +
+                "FROM SYSTEM_RANGE(1, 100)");
+        stat.execute("CREATE TABLE F(ID INT, D INT, V INT, S VARCHAR)" + engine);
+        stat.execute("CREATE TABLE E(ID INT, D INT, V INT, S VARCHAR)");
+        String rows = "SELECT X, MOD(X, 100) + 1, MOD(X, 97), 's' || X " +
+                "FROM SYSTEM_RANGE(1, 5000)";
+        stat.execute("INSERT INTO F " + rows);
+        stat.execute("INSERT INTO E " + rows);
+        stat.execute("CREATE HASH INDEX F_D ON F(D)");
+        stat.execute("CREATE HASH INDEX E_D ON E(D)");
+        // the values of a lookup are only read when they are used
+        Session session = (Session) ((JdbcConnection) conn).getSession();
+        Table table = session.getDatabase().getSchema("PUBLIC").
+                findTableOrView(session, "F");
+        SearchRow key = table.getTemplateSimpleRow(false);
+        key.setValue(1, ValueInt.get(3));
+        Cursor cursor = table.getIndex("F_D").find(session, key, key);
+        int count = 0;
+        while (cursor.next()) {
+            SearchRow r = cursor.getSearchRow();
+            assertFalse(r instanceof Row);
+            assertEquals(3, r.getValue(1).getInt());
+            Row row = cursor.get();
+            assertEquals(r.getKey(), row.getKey());
+            assertEquals(r.getValue(3).getString(), row.getValue(3).getString());
+            count++;
+        }
+        assertEquals(50, count);
+        String[] queries = {
+                "SELECT %1$s.ID, %1$s.S FROM D, %1$s " +
+                        "WHERE %1$s.D = D.ID AND D.NAME = 'n3' " +
+                        "AND %1$s.V > 50 ORDER BY %1$s.ID",
+                "SELECT D.NAME, COUNT(*), SUM(%1$s.V) FROM D " +
+                        "LEFT JOIN %1$s ON %1$s.D = D.ID AND %1$s.S LIKE 's1%%' " +
+                        "GROUP BY D.NAME ORDER BY D.NAME",
+        };
+        for (int round = 0; round < 2; round++) {
+            for (String q : queries) {
+                assertEquals(getResult(stat, String.format(q, "E")),
+                        getResult(stat, String.format(q, "F")));
+            }
+            // updates and deletes read the full rows through the lookup
+            for (String sql : new String[] {
+                    "UPDATE %s SET S = S || 'x', V = V + 1 WHERE D = 4",
+                    "DELETE FROM %s WHERE D = 14 AND V < 50"}) {
+                stat.execute(String.format(sql, "F"));
+                stat.execute(String.format(sql, "E"));
+            }
+        }
+        conn.close();
+        deleteDb("lateMaterialization");
+    }
+
+    private static String getResult(Statement stat, String sql) throws SQLException {
+        ResultSet rs = stat.executeQuery(sql);
+        StringBuilder buff = new StringBuilder();
+        int columnCount = rs.getMetaData().getColumnCount();
+        while (rs.next()) {
+            for (int i = 1; i <= columnCount; i++) {
+                buff.append(rs.getString(i)).append(' ');
+            }
+            buff.append('\n');
+        }
+        return buff.toString();
+    }
+
     private void testQueryExpressionFlag() throws SQLException {
         deleteDb("testQueryExpressionFlag");
         Connection conn = getConnection("testQueryExpressionFlag;MV_STORE=FALSE");
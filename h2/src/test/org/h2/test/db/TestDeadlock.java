@@ -57,6 +57,8 @@ public class TestDeadlock extends TestBase {
         testThreePhilosophers();
         testNoDeadlock();
         testThreeSome();
+        testRowLockDeadlock(false);
+        testRowLockDeadlock(true);
         deleteDb("deadlock");
     }
 
@@ -137,9 +139,13 @@ public class TestDeadlock extends TestBase {
     }
 
     private void initTest() throws SQLException {
-        c1 = getConnection("deadlock");
-        c2 = getConnection("deadlock");
-        c3 = getConnection("deadlock");
+        initTest("deadlock");
+    }
+
+    private void initTest(String url) throws SQLException {
+        c1 = getConnection(url);
+        c2 = getConnection(url);
+        c3 = getConnection(url);
         c1.createStatement().execute("SET LOCK_TIMEOUT 1000");
         c2.createStatement().execute("SET LOCK_TIMEOUT 1000");
         c3.createStatement().execute("SET LOCK_TIMEOUT 1000");
@@ -389,6 +395,67 @@ public class TestDeadlock extends TestBase {
         end();
     }
 
+    private void testRowLockDeadlock(boolean multiThreaded) throws Exception {
+        if (!config.mvStore) {
+            return;
+        }
+        if (multiThreaded) {
+            // the sessions wait for row locks without the database lock
+            deleteDb("deadlock");
+            initTest("deadlock;MULTI_THREADED=TRUE");
+        } else {
+            initTest();
+        }
+        c1.createStatement().execute("SET LOCK_TIMEOUT 10000");
+        c2.createStatement().execute("SET LOCK_TIMEOUT 10000");
+        c1.createStatement().execute("CREATE TABLE TEST(ID INT PRIMARY KEY, V INT)");
+        c1.createStatement().execute("CREATE TABLE LOG(ID INT)");
+        c1.createStatement().execute("INSERT INTO TEST VALUES(1, 0), (2, 0)");
+        c1.commit();
+        c1.createStatement().execute("UPDATE TEST SET V = 1 WHERE ID = 1");
+        // the transaction of c2 is larger, so c1 is rolled back
+        c2.createStatement().execute(
+                "INSERT INTO LOG SELECT X FROM SYSTEM_RANGE(1, 10)");
+        c2.createStatement().execute("UPDATE TEST SET V = 2 WHERE ID = 2");
+        DoIt t1 = new DoIt() {
+            @Override
+            public void execute() throws SQLException {
+                c1.createStatement().execute("UPDATE TEST SET V = 1 WHERE ID = 2");
+            }
+        };
+        t1.start();
+        ResultSet rs = c1.createStatement().executeQuery("CALL SESSION_ID()");
+        rs.next();
+        int id1 = rs.getInt(1);
+        rs = c2.createStatement().executeQuery("CALL SESSION_ID()");
+        rs.next();
+        int id2 = rs.getInt(1);
+        while (true) {
+            rs = c3.createStatement().executeQuery(
+                    "SELECT * FROM INFORMATION_SCHEMA.LOCK_WAITS");
+            if (rs.next()) {
+                break;
+            }
+            Thread.sleep(10);
+        }
+        assertEquals(id1, rs.getInt("SESSION_ID"));
+        assertEquals(id2, rs.getInt("BLOCKING_SESSION_ID"));
+        assertEquals("ROW", rs.getString("LOCK_TYPE"));
+        assertFalse(rs.next());
+        c2.createStatement().execute("UPDATE TEST SET V = 2 WHERE ID = 1");
+        t1.join();
+        checkDeadlock();
+        c2.commit();
+        rs = c3.createStatement().executeQuery(
+                "SELECT V FROM TEST ORDER BY ID");
+        rs.next();
+        assertEquals(2, rs.getInt(1));
+        rs.next();
+        assertEquals(2, rs.getInt(1));
+        c1.createStatement().execute("DROP TABLE TEST, LOG");
+        end();
+    }
+
     private void checkDeadlock() throws SQLException {
         assertTrue(lastException != null);
         assertKnownException(lastException);
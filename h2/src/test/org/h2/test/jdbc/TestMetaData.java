@@ -1050,6 +1050,8 @@ public class TestMetaData extends TestBase {
         rs.next();
         assertEquals("COLUMN_PRIVILEGES", rs.getString("TABLE_NAME"));
         rs.next();
+        assertEquals("COLUMN_STATISTICS", rs.getString("TABLE_NAME"));
+        rs.next();
         assertEquals("CONSTANTS", rs.getString("TABLE_NAME"));
         rs.next();
         assertEquals("CONSTRAINTS", rs.getString("TABLE_NAME"));
@@ -1070,6 +1072,8 @@ public class TestMetaData extends TestBase {
         rs.next();
         assertEquals("LOCKS", rs.getString("TABLE_NAME"));
         rs.next();
+        assertEquals("LOCK_WAITS", rs.getString("TABLE_NAME"));
+        rs.next();
         assertEquals("QUERY_STATISTICS", rs.getString("TABLE_NAME"));
         rs.next();
         assertEquals("RIGHTS", rs.getString("TABLE_NAME"));
@@ -149,6 +149,11 @@ public class TestMvcc2 extends TestBase {
         conn2.createStatement().execute("select * from test where id = 4 for update");
         assertThrows(ErrorCode.LOCK_TIMEOUT_1, conn2.createStatement()).
                 execute("select * from test where id = 3 for update");
+        stat.execute("update test set name = 'Hi' where id = 3");
+        conn.rollback();
+        ResultSet rs = stat.executeQuery("select name from test where id = 3");
+        rs.next();
+        assertEquals("Hello", rs.getString(1));
         conn.close();
         conn2.close();
     }
@@ -10,6 +10,7 @@ import java.io.BufferedOutputStream;
 import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -18,9 +19,13 @@ import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.FileStore;
 import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVMapConcurrent;
 import org.h2.mvstore.MVStore;
 import org.h2.mvstore.WriteBuffer;
 import org.h2.mvstore.type.ObjectDataType;
@@ -59,9 +64,12 @@ public class TestConcurrent extends TestMVStore {
         testConcurrentStoreAndClose();
         testConcurrentOnlineBackup();
         testConcurrentMap();
+        testConcurrentWriters();
         testConcurrentIterate();
         testConcurrentWrite();
         testConcurrentRead();
+        testBackgroundChunkWrite();
+        testBackgroundChunkWriteShrink();
     }
 
     private void testInterruptReopen() throws Exception {
@@ -574,6 +582,73 @@ public class TestConcurrent extends TestMVStore {
         }
     }
 
+    /**
+     * Test concurrent writers on a map that uses compare-and-swap on the root
+     * page.
+     */
+    private void testConcurrentWriters() throws Exception {
+        String fileName = getBaseDir() + "/" + getTestName();
+        FileUtils.delete(fileName);
+        MVStore s = new MVStore.Builder().
+                fileName(fileName).
+                pageSplitSize(100).
+                autoCommitDisabled().
+                open();
+        final MVMapConcurrent<Integer, Integer> m = s.openMap("data",
+                new MVMapConcurrent.Builder<Integer, Integer>());
+        m.put(-1, 0);
+        final int threadCount = 4;
+        final int count = 2000;
+        Task[] tasks = new Task[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final int x = i;
+            tasks[i] = new Task() {
+                @Override
+                public void call() throws Exception {
+                    for (int j = 0; j < count; j++) {
+                        int key = j * threadCount + x;
+                        assertNull(m.putIfAbsent(key, key));
+                        if (j % 3 == 0) {
+                            assertEquals(key, m.remove(key).intValue());
+                        }
+                        // increment the shared counter
+                        while (true) {
+                            Integer old = m.get(-1);
+                            if (m.replace(-1, old, old + 1)) {
+                                break;
+                            }
+                        }
+                    }
+                }
+            };
+            tasks[i].execute();
+        }
+        for (int i = 0; i < 100; i++) {
+            s.commit();
+            Thread.sleep(1);
+        }
+        for (Task t : tasks) {
+            t.get();
+        }
+        s.commit();
+        s.close();
+        s = new MVStore.Builder().fileName(fileName).open();
+        MVMap<Integer, Integer> m2 = s.openMap("data");
+        assertEquals(threadCount * count, m2.get(-1).intValue());
+        int expected = 1;
+        for (int i = 0; i < threadCount * count; i++) {
+            if (i / threadCount % 3 != 0) {
+                assertEquals(i, m2.get(i).intValue());
+                expected++;
+            } else {
+                assertNull(m2.get(i));
+            }
+        }
+        assertEquals(expected, m2.size());
+        s.close();
+        FileUtils.delete(fileName);
+    }
+
     private void testConcurrentOnlineBackup() throws Exception {
         String fileName = getBaseDir() + "/" + getTestName();
         String fileNameRestore = getBaseDir() + "/" + getTestName() + "2";
@@ -682,6 +757,92 @@ public class TestConcurrent extends TestMVStore {
     }
 
 
+    private void testBackgroundChunkWrite() throws Exception {
+        String fileName = getBaseDir() + "/" + getTestName();
+        FileUtils.delete(fileName);
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger backgroundWrites = new AtomicInteger();
+        FileStore fileStore = new FileStore() {
+            @Override
+            public void writeFully(long pos, ByteBuffer src) {
+                if (Thread.currentThread().getName().startsWith(
+                        "MVStore chunk writer")) {
+                    backgroundWrites.incrementAndGet();
+                    writing.countDown();
+                    // a slow disk: block until the foreground is done
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        // ignore
+                    }
+                }
+                super.writeFully(pos, src);
+            }
+        };
+        fileStore.open(fileName, false, null);
+        MVStore s = new MVStore.Builder().
+                fileStore(fileStore).
+                open();
+        s.setAutoCommitDelay(10);
+        MVMap<Integer, String> map = s.openMap("data");
+        int i = 0;
+        while (writing.getCount() > 0 && i < 100000) {
+            map.put(i, "Hello " + i);
+            i++;
+        }
+        assertTrue(writing.await(10, TimeUnit.SECONDS));
+        // the store is not locked while the chunk is written
+        long start = System.currentTimeMillis();
+        int count = i + 1000;
+        for (; i < count; i++) {
+            map.put(i, "Hello " + i);
+            assertEquals("Hello " + i, map.get(i));
+        }
+        assertEquals("Hello 0", map.get(0));
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        release.countDown();
+        s.close();
+        fileStore.close();
+        assertTrue(backgroundWrites.get() > 0);
+        s = MVStore.open(fileName);
+        map = s.openMap("data");
+        assertEquals(count, map.size());
+        for (int j = 0; j < count; j++) {
+            assertEquals("Hello " + j, map.get(j));
+        }
+        s.close();
+        FileUtils.delete(fileName);
+    }
+
+    private void testBackgroundChunkWriteShrink() throws Exception {
+        String fileName = getBaseDir() + "/" + getTestName();
+        FileUtils.delete(fileName);
+        // no compaction, which would shrink the file as well
+        MVStore s = new MVStore.Builder().
+                fileName(fileName).
+                autoCompactFillRate(0).
+                open();
+        s.setRetentionTime(0);
+        MVMap<Integer, String> map = s.openMap("data");
+        for (int i = 0; i < 1000; i++) {
+            map.put(i, new String(new char[1000]));
+        }
+        s.commit();
+        long size = s.getFileStore().size();
+        // the removed rows are stored in the background only, so that the
+        // space at the end of the file is freed without a foreground store
+        s.setAutoCommitDelay(10);
+        map.clear();
+        for (int i = 0; i < 200 && s.getFileStore().size() >= size / 2; i++) {
+            map.put(-1, "Hello " + i);
+            Thread.sleep(10);
+        }
+        assertTrue(s.getFileStore().size() < size / 2);
+        s.close();
+        FileUtils.delete(fileName);
+    }
+
     /**
      * Test what happens on concurrent write. Concurrent write may corrupt the
      * map, so that keys and values may become null.
@@ -8,6 +8,7 @@ package org.h2.test.store;
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -22,7 +23,9 @@ import org.h2.mvstore.DataUtils;
 import org.h2.mvstore.FileStore;
 import org.h2.mvstore.MVMap;
 import org.h2.mvstore.MVStore;
+import org.h2.mvstore.MappedFileStore;
 import org.h2.mvstore.OffHeapStore;
+import org.h2.mvstore.cache.OffHeapCache;
 import org.h2.mvstore.type.DataType;
 import org.h2.mvstore.type.ObjectDataType;
 import org.h2.mvstore.type.StringDataType;
@@ -65,6 +68,9 @@ public class TestMVStore extends TestBase {
         testRemoveMap();
         testIsEmpty();
         testOffHeapStorage();
+        testBulkLoad();
+        testMappedRead();
+        testOffHeapCache();
         testNewerWriteVersion();
         testCompactFully();
         testBackgroundExceptionListener();
@@ -422,6 +428,208 @@ public class TestMVStore extends TestBase {
         s.close();
     }
 
+    private void testBulkLoad() {
+        String fileName = getBaseDir() + "/" + getTestName();
+        FileUtils.delete(fileName);
+        TreeMap<Integer, String> data = new TreeMap<>();
+        int count = 20000;
+        for (int i = 0; i < count; i++) {
+            data.put(i * 2, "Hello " + i);
+        }
+        // a small buffer, so that the tree is stored while it is built
+        MVStore s = new MVStore.Builder().
+                fileName(fileName).
+                autoCommitBufferSize(1).
+                open();
+        MVMap<Integer, String> map = s.openMap("data");
+        long version = s.getCurrentVersion();
+        assertEquals(count, map.bulkLoad(data.entrySet().iterator()));
+        assertTrue(s.getCurrentVersion() > version);
+        assertEquals(count, map.sizeAsLong());
+        assertEquals(0, map.firstKey().intValue());
+        assertEquals((count - 1) * 2, map.lastKey().intValue());
+        assertEquals(2 * 100, map.getKey(100).intValue());
+        assertEquals(100, map.getKeyIndex(200));
+        Iterator<Integer> it = map.keyIterator(null);
+        for (Integer k : data.keySet()) {
+            assertEquals(k, it.next());
+        }
+        assertFalse(it.hasNext());
+        try {
+            map.bulkLoad(data.entrySet().iterator());
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        // the map can be changed as usual
+        map.put(1, "Hi");
+        map.remove(0);
+        s.close();
+
+        s = new MVStore.Builder().
+                fileName(fileName).
+                open();
+        map = s.openMap("data");
+        assertEquals(count, map.sizeAsLong());
+        assertEquals("Hi", map.get(1));
+        assertNull(map.get(0));
+        for (int i = 1; i < count; i++) {
+            assertEquals("Hello " + i, map.get(i * 2));
+        }
+
+        // the entries are removed if the iterator fails
+        MVMap<Integer, String> map2 = s.openMap("data2");
+        final Iterator<Entry<Integer, String>> source =
+                data.entrySet().iterator();
+        try {
+            map2.bulkLoad(new Iterator<Entry<Integer, String>>() {
+
+                private int i;
+
+                @Override
+                public boolean hasNext() {
+                    return true;
+                }
+
+                @Override
+                public Entry<Integer, String> next() {
+                    if (i++ == 15000) {
+                        throw new IllegalArgumentException();
+                    }
+                    return source.next();
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+
+            });
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(0, map2.sizeAsLong());
+        s.close();
+
+        // in-memory
+        s = new MVStore.Builder().open();
+        map = s.openMap("data");
+        assertEquals(count, map.bulkLoad(data.entrySet().iterator()));
+        assertEquals(count, map.sizeAsLong());
+        for (int i = 0; i < count; i++) {
+            assertEquals("Hello " + i, map.get(i * 2));
+        }
+        s.close();
+    }
+
+    private void testMappedRead() throws Exception {
+        String fileName = getBaseDir() + "/" + getTestName();
+        FileUtils.delete(fileName);
+        MVStore s = new MVStore.Builder().
+                fileName(fileName).
+                mappedRead().
+                open();
+        assertTrue(s.getFileStore() instanceof MappedFileStore);
+        int count = 1000;
+        MVMap<Integer, String> map = s.openMap("data");
+        for (int i = 0; i < count; i++) {
+            map.put(i, "Hello " + i);
+            if (i % 100 == 0) {
+                s.commit();
+            }
+        }
+        s.close();
+
+        // without cache, each page is read from the file
+        s = new MVStore.Builder().
+                fileName(fileName).
+                mappedRead().
+                cacheSize(0).
+                open();
+        FileStore fs = s.getFileStore();
+        // pages are read from the mapped chunks
+        MVMap<String, String> meta = s.getMetaMap();
+        Chunk c = Chunk.fromString(meta.get(meta.ceilingKey("chunk.")));
+        // the block size is 4 KB
+        ByteBuffer buff = fs.readFully(c.block * 4096, 16);
+        assertTrue(buff.isDirect());
+        fs.release(buff);
+        map = s.openMap("data");
+        for (int i = 0; i < count; i++) {
+            assertEquals("Hello " + i, map.get(i));
+        }
+        assertTrue(fs.getReadCount() > 0);
+        // free and move chunks, and read again
+        s.setRetentionTime(0);
+        for (int i = 0; i < count; i += 2) {
+            map.put(i, "Hi " + i);
+        }
+        s.commit();
+        s.compactMoveChunks();
+        for (int i = 0; i < count; i++) {
+            assertEquals((i % 2 == 0 ? "Hi " : "Hello ") + i, map.get(i));
+        }
+        s.close();
+        FileUtils.delete(fileName);
+    }
+
+    private void testOffHeapCache() throws Exception {
+        // entries of a full segment are evicted
+        OffHeapCache cache = new OffHeapCache(1024 * 1024);
+        Random r = new Random(1);
+        int count = 10000;
+        for (int i = 1; i <= count; i++) {
+            byte[] data = new byte[1 + r.nextInt(1000)];
+            Arrays.fill(data, (byte) i);
+            cache.put(i, i / 10, ByteBuffer.wrap(data));
+        }
+        assertTrue(cache.size() < count);
+        for (int i = 1; i <= count; i++) {
+            ByteBuffer buff = cache.get(i, i / 10);
+            if (buff == null) {
+                assertTrue(i <= count - cache.size());
+            } else {
+                assertTrue(buff.remaining() > 0);
+                assertEquals((byte) i, buff.get(buff.remaining() - 1));
+            }
+        }
+        assertNull(cache.get(count, 0));
+        assertTrue(cache.get(count, count / 10) != null);
+
+        String fileName = getBaseDir() + "/" + getTestName();
+        FileUtils.delete(fileName);
+        MVStore s = new MVStore.Builder().
+                fileName(fileName).
+                open();
+        MVMap<Integer, String> map = s.openMap("data");
+        String prefix = String.format("%100s", "");
+        for (int i = 0; i < count; i++) {
+            map.put(i, prefix + i);
+        }
+        s.close();
+        s = new MVStore.Builder().
+                fileName(fileName).
+                cacheSize(1).
+                offHeapCacheSize(8).
+                open();
+        cache = s.getOffHeapCache();
+        map = s.openMap("data");
+        for (int i = 0; i < count; i++) {
+            assertEquals(prefix + i, map.get(i));
+        }
+        assertEquals(0, cache.getHits());
+        // the pages evicted from the page cache are not read from the file
+        long readCount = s.getFileStore().getReadCount();
+        for (int i = 0; i < count; i++) {
+            assertEquals(prefix + i, map.get(i));
+        }
+        assertEquals(readCount, s.getFileStore().getReadCount());
+        assertTrue(cache.getHits() > 0);
+        s.close();
+        FileUtils.delete(fileName);
+    }
+
     private void testNewerWriteVersion() throws Exception {
         String fileName = getBaseDir() + "/" + getTestName();
         FileUtils.delete(fileName);
@@ -59,6 +59,7 @@ public class TestMVTableEngine extends TestBase {
         testOldAndNew();
         testTemporaryTables();
         testUniqueIndex();
+        testIndexBulkLoad();
         testSecondaryIndex();
         testGarbageCollectionForLOB();
         testSpatial();
@@ -410,6 +411,43 @@ public class TestMVTableEngine extends TestBase {
         conn.close();
     }
 
+    private void testIndexBulkLoad() throws SQLException {
+        Connection conn;
+        Statement stat;
+        deleteDb(getTestName());
+        String url = getTestName() + ";MV_STORE=TRUE";
+        url = getURL(url, true);
+        conn = getConnection(url);
+        stat = conn.createStatement();
+        // use many sorted buffers
+        stat.execute("set max_memory_rows 100");
+        stat.execute("create table test(id int, name varchar)");
+        int size = 5000;
+        stat.execute("insert into test select mod(x * 111, " + size + "), " +
+                "'Hello ' || x from system_range(1, " + size + ")");
+        stat.execute("create unique index idx_id on test(id)");
+        stat.execute("create index idx_name on test(name desc, id)");
+        ResultSet rs = stat.executeQuery(
+                "select count(*) from test inner join " +
+                "system_range(0, " + (size - 1) + ") where id = x");
+        rs.next();
+        assertEquals(size, rs.getInt(1));
+        rs = stat.executeQuery("select id from test where name = 'Hello 9'");
+        rs.next();
+        assertEquals(999, rs.getInt(1));
+        stat.execute("insert into test values(null, 'Hello')");
+        stat.execute("insert into test values(null, 'Hello')");
+        stat.execute("create unique index idx_null on test(id, name)");
+        stat.execute("insert into test values(" + size + ", 'Hello')");
+        assertThrows(ErrorCode.DUPLICATE_KEY_1, stat).
+                execute("create unique index idx_dup on test(name)");
+        rs = stat.executeQuery("select count(*) from information_schema.indexes " +
+                "where index_name = 'IDX_DUP'");
+        rs.next();
+        assertEquals(0, rs.getInt(1));
+        conn.close();
+    }
+
     private void testSecondaryIndex() throws SQLException {
         Connection conn;
         Statement stat;
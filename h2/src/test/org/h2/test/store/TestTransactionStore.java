@@ -7,6 +7,7 @@ package org.h2.test.store;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -16,6 +17,7 @@ import java.util.List;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.FileStore;
 import org.h2.mvstore.MVMap;
 import org.h2.mvstore.MVStore;
 import org.h2.mvstore.db.TransactionStore;
@@ -51,6 +53,10 @@ public class TestTransactionStore extends TestBase {
         testRepeatedChange();
         testTransactionAge();
         testStopWhileCommitting();
+        testUndoLogPerTransaction();
+        testUndoLogInMemory();
+        testCommitLargeTransaction();
+        testRowLock();
         testGetModifiedMaps();
         testKeyIterator();
         testMultiStatement();
@@ -60,6 +66,119 @@ public class TestTransactionStore extends TestBase {
         testSingleConnection();
         testCompareWithPostgreSQL();
         testStoreMultiThreadedReads();
+        testGroupCommit();
+        testGroupCommitDatabase();
+    }
+
+    private void testGroupCommit() throws Exception {
+        String fileName = getBaseDir() + "/testGroupCommit.h3";
+        FileUtils.delete(fileName);
+        final AtomicInteger syncCount = new AtomicInteger();
+        FileStore fileStore = new FileStore() {
+            @Override
+            public void sync() {
+                syncCount.incrementAndGet();
+                // a slow disk
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+                super.sync();
+            }
+        };
+        fileStore.open(fileName, false, null);
+        MVStore s = new MVStore.Builder().
+                fileStore(fileStore).
+                autoCommitDisabled().
+                open();
+        final TransactionStore ts = new TransactionStore(s);
+        ts.init();
+        int threadCount = 8;
+        final int commitCount = 50;
+        Task[] tasks = new Task[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final int thread = i;
+            tasks[i] = new Task() {
+                @Override
+                public void call() throws Exception {
+                    for (int j = 0; j < commitCount; j++) {
+                        Transaction tx = ts.begin();
+                        TransactionMap<Integer, Integer> map =
+                                tx.openMap("data");
+                        map.put(thread * commitCount + j, j);
+                        tx.commit();
+                    }
+                }
+            };
+            tasks[i].execute();
+        }
+        for (Task t : tasks) {
+            t.get();
+        }
+        int total = threadCount * commitCount;
+        // each commit was synced, but many of them together
+        assertTrue("syncs: " + syncCount.get(),
+                syncCount.get() > 0 && syncCount.get() < total);
+        // the commits are durable without closing the store
+        s.closeImmediately();
+        fileStore.close();
+        s = MVStore.open(fileName);
+        TransactionStore ts2 = new TransactionStore(s);
+        ts2.init();
+        Transaction tx = ts2.begin();
+        TransactionMap<Integer, Integer> map = tx.openMap("data");
+        assertEquals(total, map.sizeAsLong());
+        assertEquals(commitCount - 1, map.get(total - 1).intValue());
+        tx.commit();
+        s.close();
+        FileUtils.delete(fileName);
+    }
+
+    private void testGroupCommitDatabase() throws Exception {
+        if (config.memory) {
+            return;
+        }
+        deleteDb("groupCommit");
+        final String url = "groupCommit;WRITE_DELAY=0";
+        Connection conn = getConnection(url);
+        Statement stat = conn.createStatement();
+        stat.execute("CREATE TABLE TEST(ID INT PRIMARY KEY, DATA INT)");
+        int threadCount = 4;
+        final int commitCount = 100;
+        Task[] tasks = new Task[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final int thread = i;
+            tasks[i] = new Task() {
+                @Override
+                public void call() throws Exception {
+                    Connection c = getConnection(url);
+                    PreparedStatement prep = c.prepareStatement(
+                            "INSERT INTO TEST VALUES(?, ?)");
+                    for (int j = 0; j < commitCount; j++) {
+                        prep.setInt(1, thread * commitCount + j);
+                        prep.setInt(2, j);
+                        prep.execute();
+                    }
+                    // a multi-statement transaction
+                    c.setAutoCommit(false);
+                    prep.setInt(1, -1 - thread);
+                    prep.setInt(2, 0);
+                    prep.execute();
+                    c.commit();
+                    c.close();
+                }
+            };
+            tasks[i].execute();
+        }
+        for (Task t : tasks) {
+            t.get();
+        }
+        ResultSet rs = stat.executeQuery("SELECT COUNT(*) FROM TEST");
+        rs.next();
+        assertEquals(threadCount * (commitCount + 1), rs.getInt(1));
+        conn.close();
+        deleteDb("groupCommit");
     }
 
     private static void testConcurrentAddRemove() throws InterruptedException {
@@ -348,11 +467,11 @@ public class TestTransactionStore extends TestBase {
             store.close();
             s = MVStore.open(fileName);
             // roll back a bit, until we have some undo log entries
-            assertTrue(s.hasMap("undoLog"));
+            assertTrue(s.hasMap("undoLog.1"));
             for (int back = 0; back < 100; back++) {
                 int minus = r.nextInt(10);
                 s.rollbackTo(Math.max(0, s.getCurrentVersion() - minus));
-                MVMap<?, ?> undo = s.openMap("undoLog");
+                MVMap<?, ?> undo = s.openMap("undoLog.1");
                 if (undo.size() > 0) {
                     break;
                 }
@@ -375,6 +494,208 @@ public class TestTransactionStore extends TestBase {
         }
     }
 
+    private void testUndoLogPerTransaction() {
+        String fileName = getBaseDir() + "/testUndoLogPerTransaction.h3";
+        FileUtils.delete(fileName);
+        MVStore s = MVStore.open(fileName);
+        TransactionStore ts = new TransactionStore(s);
+        ts.init();
+        Transaction tx1 = ts.begin();
+        Transaction tx2 = ts.begin();
+        TransactionMap<Integer, String> m1 = tx1.openMap("test");
+        TransactionMap<Integer, String> m2 = tx2.openMap("test");
+        m1.put(1, "Hello");
+        m2.put(2, "World");
+        String undo1 = "undoLog." + tx1.getId();
+        String undo2 = "undoLog." + tx2.getId();
+        assertFalse(s.hasMap(undo1));
+        assertFalse(s.hasMap(undo2));
+        tx1.commit();
+        // the undo log of the open transaction is stored with its changes
+        s.commit();
+        assertFalse(s.hasMap(undo1));
+        assertEquals(1, s.openMap(undo2).size());
+        s.close();
+
+        // the undo log of an older version was shared by all transactions
+        s = MVStore.open(fileName);
+        s.renameMap(s.openMap(undo2), "undoLog");
+        s.removeMap(s.openMap(undo1));
+        s.close();
+        s = MVStore.open(fileName);
+        ts = new TransactionStore(s);
+        ts.init();
+        assertFalse(s.hasMap("undoLog"));
+        List<Transaction> list = ts.getOpenTransactions();
+        assertEquals(1, list.size());
+        Transaction tx = list.get(0);
+        assertEquals(tx2.getId(), tx.getId());
+        assertEquals(Transaction.STATUS_OPEN, tx.getStatus());
+        tx.rollback();
+        tx = ts.begin();
+        TransactionMap<Integer, String> m = tx.openMap("test");
+        assertEquals("Hello", m.get(1));
+        assertNull(m.get(2));
+        tx.commit();
+        s.close();
+        FileUtils.delete(fileName);
+    }
+
+    private void testUndoLogInMemory() {
+        MVStore s = MVStore.open(null);
+        TransactionStore ts = new TransactionStore(s);
+        ts.init();
+        Transaction tx1 = ts.begin();
+        Transaction tx2 = ts.begin();
+        TransactionMap<Integer, String> m1 = tx1.openMap("test");
+        TransactionMap<Integer, String> m2 = tx2.openMap("test");
+        String undo1 = "undoLog." + tx1.getId();
+        String undo2 = "undoLog." + tx2.getId();
+        m1.put(0, "Hello");
+        assertFalse(s.hasMap(undo1));
+        // large undo logs are written to the map
+        for (int i = 1; i <= 20000; i++) {
+            m2.put(i, "World");
+        }
+        assertTrue(s.hasMap(undo2));
+        // the undo log of a prepared transaction is written as well
+        tx1.prepare();
+        assertTrue(s.hasMap(undo1));
+        Transaction tx = ts.begin();
+        TransactionMap<Integer, String> m = tx.openMap("test");
+        assertEquals(0, m.sizeAsLong());
+        assertNull(m.get(0));
+        assertNull(m.get(20000));
+        tx1.commit();
+        tx2.rollback();
+        assertEquals(1, m.sizeAsLong());
+        assertEquals("Hello", m.get(0));
+        assertNull(m.get(20000));
+        assertEquals(0, ts.getOpenTransactions().size());
+        tx.commit();
+        s.close();
+    }
+
+    private void testCommitLargeTransaction() {
+        MVStore s = MVStore.open(null);
+        TransactionStore ts = new TransactionStore(s);
+        ts.init();
+        Transaction tx = ts.begin();
+        TransactionMap<Integer, String> m = tx.openMap("test");
+        for (int i = 0; i < 5000; i++) {
+            m.put(i, "Hello");
+        }
+        tx.commit();
+        tx = ts.begin();
+        m = tx.openMap("test");
+        for (int i = 0; i < 5000; i++) {
+            m.remove(i);
+        }
+        tx.commit();
+        // the changes are not all cleaned up yet,
+        // so the transaction ids are still in use
+        List<Transaction> list = ts.getOpenTransactions();
+        assertEquals(2, list.size());
+        assertEquals(2, list.get(1).getId());
+        assertEquals(Transaction.STATUS_COMMITTING, list.get(1).getStatus());
+        tx = ts.begin();
+        assertEquals(3, tx.getId());
+        m = tx.openMap("test");
+        assertEquals(0, m.sizeAsLong());
+        assertNull(m.get(1));
+        m.put(1, "World");
+        m.put(2, "World");
+        assertEquals("World", m.get(1));
+        tx.rollback();
+        tx = ts.begin();
+        m = tx.openMap("test");
+        assertNull(m.get(1));
+        assertNull(m.get(2));
+        assertEquals(0, m.sizeAsLong());
+        tx.commit();
+        ts.close();
+        assertEquals(0, ts.getOpenTransactions().size());
+        assertEquals(0, s.openMap("test").size());
+        tx = ts.begin();
+        assertEquals(1, tx.getId());
+        s.close();
+    }
+
+    private void testRowLock() throws Exception {
+        MVStore s = MVStore.open(null);
+        final TransactionStore ts = new TransactionStore(s);
+        ts.init();
+        Transaction tx = ts.begin();
+        TransactionMap<Integer, String> m = tx.openMap("test");
+        m.put(1, "Hello");
+        m.put(2, "World");
+        tx.commit();
+
+        final Transaction tx1 = ts.begin();
+        TransactionMap<Integer, String> m1 = tx1.openMap("test");
+        assertEquals("Hello", m1.lock(1));
+        assertNull(m1.lock(3));
+        assertEquals("Hello", m1.get(1));
+
+        Transaction tx2 = ts.begin();
+        TransactionMap<Integer, String> m2 = tx2.openMap("test");
+        // other rows are not locked
+        assertEquals("World", m2.lock(2));
+        assertFalse(m2.trySet(1, "Hi", false));
+        assertTrue(tx1 == tx2.getBlockingTransaction());
+        try {
+            m2.lock(1);
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals(DataUtils.ERROR_TRANSACTION_LOCKED,
+                    DataUtils.getErrorCode(e.getMessage()));
+        }
+        assertFalse(tx1.waitForEnd(10));
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+                tx1.commit();
+            }
+        };
+        t.start();
+        assertTrue(tx1.waitForEnd(10000));
+        t.join();
+        assertTrue(m2.trySet(1, "Hi", false));
+        tx2.commit();
+
+        tx = ts.begin();
+        m = tx.openMap("test");
+        assertEquals("Hi", m.get(1));
+        assertEquals("World", m.get(2));
+        assertNull(m.get(3));
+        // a lock is not a change, and is released when rolling back
+        long savepoint = tx.setSavepoint();
+        assertEquals("Hi", m.lock(1));
+        assertEquals("Hi", m.lock(1));
+        assertEquals("World", m.lock(2));
+        m.put(2, "Hello");
+        Iterator<Change> it = tx.getChanges(savepoint);
+        assertTrue(it.hasNext());
+        Change c = it.next();
+        assertEquals(2, c.key);
+        assertEquals("World", c.value);
+        assertFalse(it.hasNext());
+        tx.rollbackToSavepoint(savepoint);
+        assertFalse(tx.getChanges(savepoint).hasNext());
+        tx2 = ts.begin();
+        m2 = tx2.openMap("test");
+        assertTrue(m2.trySet(1, "Hello", false));
+        assertEquals("World", m2.get(2));
+        tx2.commit();
+        tx.commit();
+        s.close();
+    }
+
     private void testGetModifiedMaps() {
         MVStore s = MVStore.open(null);
         TransactionStore ts = new TransactionStore(s);